@@ -213,7 +213,7 @@ class ARSimulinkModelRepresentation(m: Model) {
     
     block.blocktype match {
       case Some(Input) => block.block.getType match {
-        case "Constant" => Some(Equation(Variable(labelid_out, TimeVariable(0)), Constant(block.block.getParameter("Value").toDouble), false))
+        case "Constant" => Some(Equation(Variable(labelid_out, TimeVariable(0)), Constant(block.block.getDoubleParameter("Value")), false))
         case "Reference" => block.block.getParameter("SourceType") match {
           case "Ramp" => Some(Equation(Variable(labelid_out,TimeVariable(0)),TimeVariable(0) , false))
         }
@@ -234,7 +234,7 @@ class ARSimulinkModelRepresentation(m: Model) {
       }
       case Some(Discrete) => block.block.getType match {
         case "UnitDelay" => Some(Equation(Variable(labelid_out, TimeVariable(1)), Variable(labelid_args.head._1, TimeVariable(0)), false))
-        case "Delay" => Some(Equation(Variable(labelid_out, TimeVariable(block.block.getParameter("DelayLength").toInt)), Variable(labelid_args.head._1, TimeVariable(0)), false))
+        case "Delay" => Some(Equation(Variable(labelid_out, TimeVariable(block.block.getIntParameter("DelayLength"))), Variable(labelid_args.head._1, TimeVariable(0)), false))
       }
       
       case _ => None
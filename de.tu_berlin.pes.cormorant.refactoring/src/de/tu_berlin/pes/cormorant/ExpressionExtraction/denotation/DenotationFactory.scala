@@ -88,18 +88,16 @@ case class SimulinkBlock(val block: Block, val id: Int) {
   
   def parseDouble: () => Double =  {
     try {
-      val v = block.getParameter("Gain").toDouble
-      val fn = () => block.getParameter("Gain").toDouble
+      val v = block.getDoubleParameter("Gain")
+      val fn = () => block.getDoubleParameter("Gain")
       return fn
     } catch {
       case _: Exception => return () => Double.NaN
     }
   }
   
-  private def simulinkArray2ScalaArray(arr: String): Array[String] = arr.replaceAll("\\[", "").replaceAll("\\]", "").split(" ")
-  
   def block2Function(arguments: List[Term]): Function =  block.getType match {
-    case "Constant" => Constant(() => block.getParameter("Value").toDouble)
+    case "Constant" => Constant(() => block.getDoubleParameter("Value"))
     case "Sum" => Add(arguments)
     case "Product" => Mult(arguments)
     case "Sqrt" => Sqrt(arguments)
@@ -115,8 +113,8 @@ case class SimulinkBlock(val block: Block, val id: Int) {
         case "sin" => Sin(arguments)
     }
     case "TransferFcn" => {
-      val num = simulinkArray2ScalaArray(block.getParameter("Numerator")).map { x => x.toDouble }
-      val den = simulinkArray2ScalaArray(block.getParameter("Denominator")).map { x => x.toDouble }
+      val num = block.getDoubleArrayParameter("Numerator")
+      val den = block.getDoubleArrayParameter("Denominator")
       //println("foo", num, den)
       return TransferFcn(num,den,arguments)
     }
@@ -196,7 +194,7 @@ class SimulinkGraph(val vertices: Set[SimulinkBlock], val edges: Set[SimulinkEdg
       case Discrete => predecessor(b)(1) match {
         case Some(p) => b.block.getType match {
           case "UnitDelay" => StateEquation(StateVariable(b.id, TimeVariable(1)), obtainTerm(p),Difference)
-          case "Delay" => StateEquation(StateVariable(b.id,TimeVariable(b.block.getParameter("DelayLength").toInt)), obtainTerm(p), Difference)
+          case "Delay" => StateEquation(StateVariable(b.id,TimeVariable(b.block.getIntParameter("DelayLength"))), obtainTerm(p), Difference)
           case _ => UndefinedEquation()
         }
         case _ => UndefinedEquation()
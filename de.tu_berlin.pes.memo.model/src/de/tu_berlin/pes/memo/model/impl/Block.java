@@ -33,15 +33,18 @@ package de.tu_berlin.pes.memo.model.impl;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.conqat.lib.simulink.builder.MDLSection;
 
 import de.tu_berlin.pes.memo.MeMoPlugin;
+import de.tu_berlin.pes.memo.model.util.MatlabLiteralParser;
 import de.tu_berlin.pes.memo.model.util.SimulinkParameterNames;
 import de.tu_berlin.pes.memo.model.util.SimulinkSectionConstants;
 
@@ -84,19 +87,22 @@ public class Block extends SimulinkItem {
 	 */
 	private String type = "";
 
-	private HashMap<Integer, Port> inPortsMap = new HashMap<Integer, Port>();
-	private HashMap<Integer, Port> outPortsMap = new HashMap<Integer, Port>();
-	private HashMap<Integer, Port> lConnPortsMap = new HashMap<Integer, Port>();
-	private HashMap<Integer, Port> rConnPortsMap = new HashMap<Integer, Port>();
+	// The port maps and sets and the signal line sets are created on first
+	// request, most blocks have only few ports and no physical connections.
+	// See PortMap and CompactSet.
+	private Map<Integer, Port> inPortsMap = null;
+	private Map<Integer, Port> outPortsMap = null;
+	private Map<Integer, Port> lConnPortsMap = null;
+	private Map<Integer, Port> rConnPortsMap = null;
 
 	/**
 	 * @uml.property name="inPorts"
 	 */
-	private Set<Port> inPorts = new HashSet<Port>();
+	private Set<Port> inPorts = null;
 	/**
 	 * @uml.property name="outPorts"
 	 */
-	private Set<Port> outPorts = new HashSet<Port>();
+	private Set<Port> outPorts = null;
 	/**
 	 * @uml.property name="enablePort"
 	 * @uml.associationEnd
@@ -115,11 +121,11 @@ public class Block extends SimulinkItem {
 	/**
 	 * @uml.property name="lConnPorts"
 	 */
-	private Set<Port> lConnPorts = new HashSet<Port>();
+	private Set<Port> lConnPorts = null;
 	/**
 	 * @uml.property name="rConnPorts"
 	 */
-	private Set<Port> rConnPorts = new HashSet<Port>();
+	private Set<Port> rConnPorts = null;
 	/**
 	 * @uml.property name="ifactionPort"
 	 * @uml.associationEnd
@@ -129,11 +135,11 @@ public class Block extends SimulinkItem {
 	/**
 	 * @uml.property name="inSignals"
 	 */
-	private Set<SignalLine> inSignals = new HashSet<SignalLine>();
+	private Set<SignalLine> inSignals = null;
 	/**
 	 * @uml.property name="outSignals"
 	 */
-	private Set<SignalLine> outSignals = new HashSet<SignalLine>();
+	private Set<SignalLine> outSignals = null;
 
 	// to which node of the AST belongs this block
 	/**
@@ -155,6 +161,26 @@ public class Block extends SimulinkItem {
 	 */
 	private BlockDefault defaultParamters;
 
+	// cached results of getFullQualifiedName, getFullPath and getPathOfBlocks
+	private transient CachedPath<String> qualifiedName;
+	private transient CachedPath<String> modelQualifiedName;
+	private transient CachedPath<String> fullPath;
+	private transient CachedPath<List<Block>> pathOfBlocks;
+	// the models whose path index has this block or a block below it
+	private transient Model[] pathIndexes;
+
+	// inSignals by destination port and source block, outSignals by source
+	// port, built on the first lookup
+	private transient SignalIndex inSignalIndex;
+	private transient SignalIndex outSignalIndex;
+	// changes of the signal lines of this block the indexes can't see in the
+	// sets, see invalidateSignalIndexes()
+	private transient int signalModCount;
+
+	// parameter name -> the parsed value of a numeric parameter, created on
+	// the first typed parameter request
+	private transient Map<String, NumericParameter> numericParameters;
+
 	public Block() {
 		super(-1, null);
 	}
@@ -301,6 +327,9 @@ public class Block extends SimulinkItem {
 	 * @uml.property name="inSignals"
 	 */
 	public Set<SignalLine> getInSignals() {
+		if (inSignals == null) {
+			inSignals = new CompactSet<SignalLine>();
+		}
 		return inSignals;
 	}
 
@@ -312,11 +341,38 @@ public class Block extends SimulinkItem {
 		this.inSignals = signals;
 	}
 
+	/**
+	 * Adds an incoming signal line. Unlike adding it to
+	 * {@link #getInSignals()} directly, this keeps the signal indexes valid
+	 * for every kind of set.
+	 *
+	 * @param signal
+	 *           the line to add
+	 */
+	public void addInSignal(SignalLine signal) {
+		getInSignals().add(signal);
+		invalidateSignalIndexes();
+	}
+
+	/**
+	 * Removes an incoming signal line, see {@link #addInSignal(SignalLine)}.
+	 *
+	 * @param signal
+	 *           the line to remove
+	 */
+	public void removeInSignal(SignalLine signal) {
+		getInSignals().remove(signal);
+		invalidateSignalIndexes();
+	}
+
 	/**
 	 * @return
 	 * @uml.property name="outSignals"
 	 */
 	public Set<SignalLine> getOutSignals() {
+		if (outSignals == null) {
+			outSignals = new CompactSet<SignalLine>();
+		}
 		return outSignals;
 	}
 
@@ -328,6 +384,28 @@ public class Block extends SimulinkItem {
 		this.outSignals = signals;
 	}
 
+	/**
+	 * Adds an outgoing signal line, see {@link #addInSignal(SignalLine)}.
+	 *
+	 * @param signal
+	 *           the line to add
+	 */
+	public void addOutSignal(SignalLine signal) {
+		getOutSignals().add(signal);
+		invalidateSignalIndexes();
+	}
+
+	/**
+	 * Removes an outgoing signal line, see {@link #addInSignal(SignalLine)}.
+	 *
+	 * @param signal
+	 *           the line to remove
+	 */
+	public void removeOutSignal(SignalLine signal) {
+		getOutSignals().remove(signal);
+		invalidateSignalIndexes();
+	}
+
 	/**
 	 * @return
 	 * @uml.property name="blockSection"
@@ -367,6 +445,9 @@ public class Block extends SimulinkItem {
 	 * @uml.property name="parent"
 	 */
 	public void setParent(ModelItem parent) {
+		if (parent != this.parent) {
+			pathIndexes = Model.invalidatePathIndexes(pathIndexes);
+		}
 		this.parent = parent;
 	}
 
@@ -384,9 +465,20 @@ public class Block extends SimulinkItem {
 	 * @uml.property name="name"
 	 */
 	public void setName(String name) {
+		if ((name == null) ? this.name != null : !name.equals(this.name)) {
+			pathIndexes = Model.invalidatePathIndexes(pathIndexes);
+		}
 		this.name = name;
 	}
 
+	/**
+	 * Remembers a model whose path index has this block or a block below it,
+	 * see {@link Model#getBlockByPath(String, boolean)}.
+	 */
+	void addPathIndex(Model model) {
+		pathIndexes = Model.addPathIndex(pathIndexes, model);
+	}
+
 	/**
 	 * @return
 	 * @uml.property name="type"
@@ -407,12 +499,11 @@ public class Block extends SimulinkItem {
 	 * @return
 	 * @uml.property name="inPorts"
 	 */
-	public HashMap<Integer, Port> getInPortsMap() {
-		if (!inPortsMap.values().containsAll(inPorts)) {
-			for (Port port : inPorts) {
-				inPortsMap.put(port.getNumber(), port);
-			}
+	public Map<Integer, Port> getInPortsMap() {
+		if (inPortsMap == null) {
+			inPortsMap = new PortMap();
 		}
+		syncPortMap(inPortsMap, inPorts);
 		return inPortsMap;
 	}
 
@@ -420,22 +511,20 @@ public class Block extends SimulinkItem {
 	 * @param inPorts
 	 * @uml.property name="inPorts"
 	 */
-	public void setInPortsMap(HashMap<Integer, Port> inPorts) {
+	public void setInPortsMap(Map<Integer, Port> inPorts) {
 		this.inPortsMap = inPorts;
-		this.inPorts = new HashSet<Port>();
-		this.inPorts.addAll(inPorts.values());
+		this.inPorts = new CompactSet<Port>(inPorts.values());
 	}
 
 	/**
 	 * @return
 	 * @uml.property name="outPorts"
 	 */
-	public HashMap<Integer, Port> getOutPortsMap() {
-		if (!outPortsMap.values().containsAll(outPorts)) {
-			for (Port port : outPorts) {
-				outPortsMap.put(port.getNumber(), port);
-			}
+	public Map<Integer, Port> getOutPortsMap() {
+		if (outPortsMap == null) {
+			outPortsMap = new PortMap();
 		}
+		syncPortMap(outPortsMap, outPorts);
 		return outPortsMap;
 	}
 
@@ -443,10 +532,9 @@ public class Block extends SimulinkItem {
 	 * @param outportPorts
 	 * @uml.property name="outPorts"
 	 */
-	public void setOutPortsMap(HashMap<Integer, Port> outportPorts) {
+	public void setOutPortsMap(Map<Integer, Port> outportPorts) {
 		this.outPortsMap = outportPorts;
-		outPorts = new HashSet<Port>();
-		outPorts.addAll(outportPorts.values());
+		outPorts = new CompactSet<Port>(outportPorts.values());
 	}
 
 	/**
@@ -494,6 +582,11 @@ public class Block extends SimulinkItem {
 
 	@Deprecated
 	public String getFullPath() {
+		MDLSection section = this.getBlockSection();
+		CachedPath<String> cached = fullPath;
+		if ((cached != null) && cached.isValid(null, section, null, null)) {
+			return cached.value;
+		}
 		String path = "";
 		MDLSection s = this.getBlockSection();
 		while ((s != null) && (s.getParameter("Name") != null)) {
@@ -506,6 +599,7 @@ public class Block extends SimulinkItem {
 				path = "/" + path;
 			}
 		}
+		fullPath = new CachedPath<String>(null, section, null, null, path);
 		return path;
 	}
 
@@ -523,31 +617,44 @@ public class Block extends SimulinkItem {
 	 *         at the beginning.
 	 */
 	public String getFullQualifiedName(boolean withModelName) {
-
-		String result = this.name.replace("/", "//");
+		// the path of the parent block or the name of the (referenced) model
+		// the path starts with
+		String parentPath = null;
+		String modelName = null;
 		if (!(parent instanceof Model)) { // not at the highest layer?
-
-			String refParam = ((Block) parent).getParameter(SimulinkParameterNames.MODEL_NAME_DIALOG_PARAMETER) != null
-					? ((Block) parent).getParameter(SimulinkParameterNames.MODEL_NAME_DIALOG_PARAMETER)
-					: ((Block) parent).getParameter(SimulinkParameterNames.MODEL_NAME_REF_PARAMETER);
-			if (refParam != null) {
-				refParam = refParam.replaceAll(".slx", "");
+			if (withModelName) {
+				modelName = ((Block) parent).getParameter(SimulinkParameterNames.MODEL_NAME_DIALOG_PARAMETER) != null
+						? ((Block) parent).getParameter(SimulinkParameterNames.MODEL_NAME_DIALOG_PARAMETER)
+						: ((Block) parent).getParameter(SimulinkParameterNames.MODEL_NAME_REF_PARAMETER);
 			}
-			if ((refParam != null) && withModelName) { // ModelReference
-				result = refParam.replace("/", "//") + "/" + result; // get the
-				// ModelName
-				// of the
-				// referenced
-				// model
-			} else { // not a model reference
-				result = ((Block) parent).getFullQualifiedName(withModelName) + "/" + result;
+			if (modelName == null) { // not a model reference
+				parentPath = ((Block) parent).getFullQualifiedName(withModelName);
 			}
-		} else {
-			if (withModelName) {
-				result = ((Model) parent).getName().replace("/", "//") + "/" + result;
+		} else if (withModelName) {
+			modelName = ((Model) parent).getName();
+		}
+		CachedPath<String> cached = withModelName ? modelQualifiedName : qualifiedName;
+		if ((cached != null) && cached.isValid(parent, parentPath, name, modelName)) {
+			return cached.value;
+		}
+
+		String result = this.name.replace("/", "//");
+		if (parentPath != null) {
+			result = parentPath + "/" + result;
+		} else if (modelName != null) {
+			String prefix = modelName;
+			if (!(parent instanceof Model)) { // ModelReference
+				prefix = prefix.replaceAll(".slx", "");
 			}
+			result = prefix.replace("/", "//") + "/" + result;
 		}
 
+		cached = new CachedPath<String>(parent, parentPath, name, modelName, result);
+		if (withModelName) {
+			modelQualifiedName = cached;
+		} else {
+			qualifiedName = cached;
+		}
 		return result;
 	}
 
@@ -558,18 +665,67 @@ public class Block extends SimulinkItem {
 	 * @return The blocks representing the path.
 	 */
 	public List<Block> getPathOfBlocks() {
-		List<Block> result = new ArrayList<Block>();
+		return new ArrayList<Block>(getCachedPathOfBlocks());
+	}
 
-		ModelItem currentBlock = this;
+	/**
+	 * @return the cached, unmodifiable result of {@link #getPathOfBlocks()}
+	 */
+	private List<Block> getCachedPathOfBlocks() {
+		List<Block> parentPath = null;
+		if (parent instanceof Block) {
+			parentPath = ((Block) parent).getCachedPathOfBlocks();
+		}
+		CachedPath<List<Block>> cached = pathOfBlocks;
+		if ((cached != null) && cached.isValid(parent, parentPath, null, null)) {
+			return cached.value;
+		}
 
-		while (currentBlock instanceof Block) {
-			result.add(0, (Block) currentBlock);
-			currentBlock = ((Block) currentBlock).parent;
+		List<Block> result;
+		if (parentPath != null) {
+			result = new ArrayList<Block>(parentPath.size() + 1);
+			result.addAll(parentPath);
+		} else {
+			result = new ArrayList<Block>(1);
 		}
+		result.add(this);
+		result = Collections.unmodifiableList(result);
 
+		pathOfBlocks = new CachedPath<List<Block>>(parent, parentPath, null, null, result);
 		return result;
 	}
 
+	/**
+	 * A cached path and what it was computed from: the parent, the cached path
+	 * of the parent or the block section, the name of the block and the name
+	 * of the model. It is valid as long as they are the same, so renaming or
+	 * moving a block computes the paths of the block and of all blocks below
+	 * it again, but no others. Immutable, so it can be shared between threads.
+	 */
+	private static final class CachedPath<T> {
+		private final Object parent;
+		private final Object source;
+		private final String name;
+		private final String modelName;
+		private final T value;
+
+		CachedPath(Object parent, Object source, String name, String modelName, T value) {
+			this.parent = parent;
+			this.source = source;
+			this.name = name;
+			this.modelName = modelName;
+			this.value = value;
+		}
+
+		boolean isValid(Object parent, Object source, String name, String modelName) {
+			// the cached path of the parent is the same instance while valid
+			return (this.parent == parent) && (this.source == source)
+					&& ((name == null) ? this.name == null : name.equals(this.name))
+					&& ((modelName == null) ? this.modelName == null : modelName
+							.equals(this.modelName));
+		}
+	}
+
 	public String getModelName() {
 		return parentModel.getName().replace("/", "//");
 	}
@@ -584,14 +740,134 @@ public class Block extends SimulinkItem {
 	 *         not specified for this block even in the defaults
 	 */
 	public String getParameter(String str) {
-		String result = this.getParameter().get(str);
-		if ((result == null) || result.equals("null")) {
-			result = this.defaultParamters.getParameter().get(str);
+		return ParameterMap.lookup(str, this.getParameter(),
+				defaultParamters == null ? null : defaultParamters.getParameter());
+	}
+
+	/**
+	 * Returns the value of a scalar numeric parameter, e.g. the
+	 * <code>Gain</code> of a Gain block.
+	 *
+	 * @param name
+	 *            the parameter name
+	 * @return the value of the parameter
+	 * @throws NumberFormatException
+	 *             if the parameter is not set or not a scalar, see
+	 *             {@link MatlabLiteralParser}
+	 */
+	public double getDoubleParameter(String name) throws NumberFormatException {
+		NumericParameter p = getNumericParameter(name);
+		return MatlabLiteralParser.toScalar(p.getMatrix(), p.source);
+	}
+
+	/**
+	 * Returns the value of a scalar integer parameter, e.g. the
+	 * <code>DelayLength</code> of a Delay block.
+	 *
+	 * @param name
+	 *            the parameter name
+	 * @return the value of the parameter
+	 * @throws NumberFormatException
+	 *             if the parameter is not set, not a scalar or not an integer
+	 */
+	public int getIntParameter(String name) throws NumberFormatException {
+		NumericParameter p = getNumericParameter(name);
+		double value = MatlabLiteralParser.toScalar(p.getMatrix(), p.source);
+		if ((value != Math.rint(value)) || (value < Integer.MIN_VALUE)
+				|| (value > Integer.MAX_VALUE)) {
+			throw new NumberFormatException("Not an integer: " + p.source);
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Returns the elements of a vector parameter, e.g. the
+	 * <code>Numerator</code> of a TransferFcn block. Scalars, row and column
+	 * vectors are accepted.
+	 *
+	 * @param name
+	 *            the parameter name
+	 * @return a new array with the elements
+	 * @throws NumberFormatException
+	 *             if the parameter is not set or not a vector
+	 */
+	public double[] getDoubleArrayParameter(String name) throws NumberFormatException {
+		NumericParameter p = getNumericParameter(name);
+		return MatlabLiteralParser.toVector(p.getMatrix(), p.source);
+	}
+
+	/**
+	 * Returns the rows of a matrix parameter, e.g. <code>[1 2; 3 4]</code>.
+	 *
+	 * @param name
+	 *            the parameter name
+	 * @return new arrays with the rows
+	 * @throws NumberFormatException
+	 *             if the parameter is not set, not a numeric literal or its
+	 *             rows have different lengths
+	 */
+	public double[][] getMatrixParameter(String name) throws NumberFormatException {
+		double[][] matrix = getNumericParameter(name).getMatrix();
+		double[][] result = new double[matrix.length][];
+		for (int i = 0; i < matrix.length; i++) {
+			result[i] = matrix[i].clone();
 		}
+		return result;
+	}
 
+	/**
+	 * @return the parsed value of the parameter, parsed again if the
+	 *         parameter has changed since the last request
+	 */
+	private NumericParameter getNumericParameter(String name) {
+		String value = getParameter(name);
+		if (value == null) {
+			throw new NumberFormatException("Parameter " + name + " of block " + this.name
+					+ " is not set");
+		}
+		Map<String, NumericParameter> parsed = numericParameters;
+		if (parsed == null) {
+			parsed = new ConcurrentHashMap<String, NumericParameter>(4);
+			numericParameters = parsed;
+		}
+		NumericParameter result = parsed.get(name);
+		if ((result == null) || (result.source != value)) {
+			result = new NumericParameter(value);
+			parsed.put(name, result);
+		}
 		return result;
 	}
 
+	/**
+	 * A parameter value and its parsed matrix or the reason why it is not a
+	 * numeric literal.
+	 */
+	private static final class NumericParameter {
+		private final String source;
+		private final double[][] matrix;
+		private final String error;
+
+		public NumericParameter(String source) {
+			this.source = source;
+			double[][] parsed = null;
+			String message = null;
+			try {
+				parsed = MatlabLiteralParser.parseMatrix(source);
+			} catch (NumberFormatException e) {
+				message = e.getMessage();
+			}
+			this.matrix = parsed;
+			this.error = message;
+		}
+
+		public double[][] getMatrix() {
+			if (matrix == null) {
+				throw new NumberFormatException(error);
+			}
+			return matrix;
+		}
+	}
+
 	/**
 	 * @param enablePort
 	 *            the enablePort to set
@@ -650,7 +926,7 @@ public class Block extends SimulinkItem {
 	 */
 	public void setInPorts(Set<Port> inPorts) {
 		this.inPorts = inPorts;
-		inPortsMap = new HashMap<Integer, Port>();
+		inPortsMap = null;
 	}
 
 	/**
@@ -658,6 +934,9 @@ public class Block extends SimulinkItem {
 	 * @uml.property name="inPorts"
 	 */
 	public Set<Port> getInPorts() {
+		if (inPorts == null) {
+			inPorts = new CompactSet<Port>();
+		}
 		return inPorts;
 	}
 
@@ -668,7 +947,7 @@ public class Block extends SimulinkItem {
 	 */
 	public void setOutPorts(Set<Port> outPorts) {
 		this.outPorts = outPorts;
-		outPortsMap = new HashMap<Integer, Port>();
+		outPortsMap = null;
 	}
 
 	/**
@@ -676,6 +955,9 @@ public class Block extends SimulinkItem {
 	 * @uml.property name="outPorts"
 	 */
 	public Set<Port> getOutPorts() {
+		if (outPorts == null) {
+			outPorts = new CompactSet<Port>();
+		}
 		return outPorts;
 	}
 
@@ -686,7 +968,7 @@ public class Block extends SimulinkItem {
 	 */
 	public void setlConnPorts(Set<Port> lConnPorts) {
 		this.lConnPorts = lConnPorts;
-		lConnPortsMap = new HashMap<Integer, Port>();
+		lConnPortsMap = null;
 	}
 
 	/**
@@ -694,6 +976,9 @@ public class Block extends SimulinkItem {
 	 * @uml.property name="lConnPorts"
 	 */
 	public Set<Port> getlConnPorts() {
+		if (lConnPorts == null) {
+			lConnPorts = new CompactSet<Port>();
+		}
 		return lConnPorts;
 	}
 
@@ -704,7 +989,7 @@ public class Block extends SimulinkItem {
 	 */
 	public void setrConnPorts(Set<Port> rConnPorts) {
 		this.rConnPorts = rConnPorts;
-		rConnPortsMap = new HashMap<Integer, Port>();
+		rConnPortsMap = null;
 	}
 
 	/**
@@ -712,6 +997,9 @@ public class Block extends SimulinkItem {
 	 * @uml.property name="rConnPorts"
 	 */
 	public Set<Port> getrConnPorts() {
+		if (rConnPorts == null) {
+			rConnPorts = new CompactSet<Port>();
+		}
 		return rConnPorts;
 	}
 
@@ -720,22 +1008,20 @@ public class Block extends SimulinkItem {
 	 *            the lConnPortsMap to set
 	 * @uml.property name="lConnPorts"
 	 */
-	public void setlConnPortsMap(HashMap<Integer, Port> lConnPortsMap) {
+	public void setlConnPortsMap(Map<Integer, Port> lConnPortsMap) {
 		this.lConnPortsMap = lConnPortsMap;
-		lConnPorts = new HashSet<Port>();
-		lConnPorts.addAll(lConnPortsMap.values());
+		lConnPorts = new CompactSet<Port>(lConnPortsMap.values());
 	}
 
 	/**
 	 * @return the lConnPortsMap
 	 * @uml.property name="lConnPorts"
 	 */
-	public HashMap<Integer, Port> getlConnPortsMap() {
-		if (!lConnPortsMap.values().containsAll(lConnPorts)) {
-			for (Port port : lConnPorts) {
-				lConnPortsMap.put(port.getNumber(), port);
-			}
+	public Map<Integer, Port> getlConnPortsMap() {
+		if (lConnPortsMap == null) {
+			lConnPortsMap = new PortMap();
 		}
+		syncPortMap(lConnPortsMap, lConnPorts);
 		return lConnPortsMap;
 	}
 
@@ -744,25 +1030,111 @@ public class Block extends SimulinkItem {
 	 *            the rConnPortsMap to set
 	 * @uml.property name="rConnPorts"
 	 */
-	public void setrConnPortsMap(HashMap<Integer, Port> rConnPortsMap) {
+	public void setrConnPortsMap(Map<Integer, Port> rConnPortsMap) {
 		this.rConnPortsMap = rConnPortsMap;
-		rConnPorts = new HashSet<Port>();
-		rConnPorts.addAll(rConnPortsMap.values());
+		rConnPorts = new CompactSet<Port>(rConnPortsMap.values());
 	}
 
 	/**
 	 * @return the rConnPortsMap
 	 * @uml.property name="rConnPorts"
 	 */
-	public HashMap<Integer, Port> getrConnPortsMap() {
-		if (!rConnPortsMap.values().containsAll(rConnPorts)) {
-			for (Port port : rConnPorts) {
-				rConnPortsMap.put(port.getNumber(), port);
-			}
+	public Map<Integer, Port> getrConnPortsMap() {
+		if (rConnPortsMap == null) {
+			rConnPortsMap = new PortMap();
 		}
+		syncPortMap(rConnPortsMap, rConnPorts);
 		return rConnPortsMap;
 	}
 
+	/**
+	 * Adds the ports of the port maps to the port sets. Maps and sets that
+	 * were never requested stay unallocated.
+	 */
+	public void updatePortSets() {
+		inPorts = addPorts(inPorts, inPortsMap);
+		outPorts = addPorts(outPorts, outPortsMap);
+		lConnPorts = addPorts(lConnPorts, lConnPortsMap);
+		rConnPorts = addPorts(rConnPorts, rConnPortsMap);
+	}
+
+	private static Set<Port> addPorts(Set<Port> ports, Map<Integer, Port> map) {
+		if ((map == null) || map.isEmpty()) {
+			return ports;
+		}
+		if (ports == null) {
+			return new CompactSet<Port>(map.values());
+		}
+		ports.addAll(map.values());
+		return ports;
+	}
+
+	/**
+	 * @return the ports of all kinds, port maps and sets that were never
+	 *         requested stay unallocated
+	 */
+	public List<Port> getAllPorts() {
+		Map<Port, Boolean> ports = new IdentityHashMap<Port, Boolean>();
+		for (Map<Integer, Port> map : Arrays.asList(inPortsMap, outPortsMap, lConnPortsMap,
+				rConnPortsMap)) {
+			if (map != null) {
+				for (Port port : map.values()) {
+					ports.put(port, Boolean.TRUE);
+				}
+			}
+		}
+		for (Set<Port> set : Arrays.asList(inPorts, outPorts, lConnPorts, rConnPorts)) {
+			if (set != null) {
+				for (Port port : set) {
+					ports.put(port, Boolean.TRUE);
+				}
+			}
+		}
+		for (Port port : Arrays.asList(enablePort, triggerPort, statePort, ifactionPort)) {
+			if (port != null) {
+				ports.put(port, Boolean.TRUE);
+			}
+		}
+		return new ArrayList<Port>(ports.keySet());
+	}
+
+	/**
+	 * Adds the elements of the port and signal line sets again. Their ids are
+	 * their hash codes, so this is necessary after their ids changed.
+	 */
+	public void rehashSets() {
+		rehash(inPorts);
+		rehash(outPorts);
+		rehash(lConnPorts);
+		rehash(rConnPorts);
+		rehash(inSignals);
+		rehash(outSignals);
+		invalidateSignalIndexes();
+	}
+
+	private static <T> void rehash(Set<T> set) {
+		if ((set == null) || set.isEmpty()) {
+			return;
+		}
+		List<T> elements = new ArrayList<T>(set);
+		set.clear();
+		set.addAll(elements);
+	}
+
+	/**
+	 * Puts the ports of the set that are missing in the map by their number.
+	 */
+	private static void syncPortMap(Map<Integer, Port> map, Set<Port> ports) {
+		if (ports == null) {
+			return;
+		}
+		for (Port port : ports) {
+			if (map.get(port.getNumber()) != port) {
+				map.put(port.getNumber(), port);
+			}
+		}
+	}
+
 	/**
 	 * @param defaultParamters
 	 *            the defaultParamters to set
@@ -806,12 +1178,11 @@ public class Block extends SimulinkItem {
 	 * @return The incoming <code>SignalLine</code> on this port or null.
 	 */
 	public SignalLine getInSignalLineByInPort(Port port) {
-		for (SignalLine s : getInSignals()) {
-			if (s.getDstPort().equals(port)) {
-				return s;
-			}
+		if (port == null) {
+			return null;
 		}
-		return null;
+		List<SignalLine> signals = getInSignalIndex().byPort.get(port);
+		return signals == null ? null : signals.get(0);
 	}
 
 	/**
@@ -823,13 +1194,20 @@ public class Block extends SimulinkItem {
 	 * @return The incoming <code>SignalLine</code> on this port or null.
 	 */
 	public SignalLine getInSignalLineByInPort(int portNr) {
-		Port port = getInPortsMap().get(portNr);
-		for (SignalLine s : getInSignals()) {
-			if (s.getDstPort().equals(port)) {
-				return s;
-			}
-		}
-		return null;
+		return getInSignalLineByInPort(getInPortsMap().get(portNr));
+	}
+
+	/**
+	 * Returns the incoming <code>SignalLines</code> coming from a block.
+	 *
+	 * @param srcBlock
+	 *            The source block of the <code>SignalLines</code>.
+	 * @return The incoming <code>SignalLines</code> from the block, in the
+	 *         order of {@link #getInSignals()}.
+	 */
+	public List<SignalLine> getInSignalLinesBySrcBlock(Block srcBlock) {
+		List<SignalLine> signals = getInSignalIndex().bySrcBlock.get(srcBlock);
+		return signals == null ? new ArrayList<SignalLine>() : new ArrayList<SignalLine>(signals);
 	}
 
 	/**
@@ -841,13 +1219,8 @@ public class Block extends SimulinkItem {
 	 * @return The outgoing <code>SignalLines</code> on this port or null.
 	 */
 	public List<SignalLine> getOutSignalLinesByOutPort(Port port) {
-		ArrayList<SignalLine> result = new ArrayList<SignalLine>();
-		for (SignalLine s : getOutSignals()) {
-			if (s.getSrcPort().equals(port)) {
-				result.add(s);
-			}
-		}
-		return result;
+		List<SignalLine> signals = port == null ? null : getOutSignalIndex().byPort.get(port);
+		return signals == null ? new ArrayList<SignalLine>() : new ArrayList<SignalLine>(signals);
 	}
 
 	/**
@@ -859,23 +1232,97 @@ public class Block extends SimulinkItem {
 	 * @return The outgoing <code>SignalLines</code> on this port or null.
 	 */
 	public List<SignalLine> getOutSignalLinesByOutPort(int portNr) {
-		Port port = getOutPortsMap().get(portNr);
-		ArrayList<SignalLine> result = new ArrayList<SignalLine>();
-		for (SignalLine s : getOutSignals()) {
-			if (s.getSrcPort().equals(port)) {
-				result.add(s);
-			}
-		}
-		return result;
+		return getOutSignalLinesByOutPort(getOutPortsMap().get(portNr));
 	}
 
 	public SignalLine getInSignalLineByEnablePort() {
-		for(SignalLine s : getInSignals()){
-			if(s.getDstPort().equals(enablePort)){
-				return s;
+		return getInSignalLineByInPort(enablePort);
+	}
+
+	/**
+	 * Discards the signal indexes of this block, see
+	 * {@link #getInSignalLineByInPort(Port)}. The indexes see lines added or
+	 * removed by {@link #addInSignal(SignalLine)} and the like, changes of a
+	 * {@link CompactSet} and of the set sizes, and {@link SignalLine} calls
+	 * this for its source and destination block when a port or block of the
+	 * line changes. It is only needed after other changes, e.g. a line
+	 * removed from and another one added to a set of the persistence layer.
+	 */
+	public void invalidateSignalIndexes() {
+		signalModCount++;
+	}
+
+	/**
+	 * @return the index of {@link #getInSignals()}, built again if the set was
+	 *         replaced or changed
+	 */
+	private SignalIndex getInSignalIndex() {
+		SignalIndex index = inSignalIndex;
+		if ((index == null) || !index.isValid(getInSignals(), signalModCount)) {
+			index = new SignalIndex(getInSignals(), signalModCount, true);
+			inSignalIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * @return the index of {@link #getOutSignals()}, see
+	 *         {@link #getInSignalIndex()}
+	 */
+	private SignalIndex getOutSignalIndex() {
+		SignalIndex index = outSignalIndex;
+		if ((index == null) || !index.isValid(getOutSignals(), signalModCount)) {
+			index = new SignalIndex(getOutSignals(), signalModCount, false);
+			outSignalIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * The signal lines of a set by their port on this block and, for incoming
+	 * lines, by their source block. The lists keep the order of the set. The
+	 * index is valid as long as the set, its size, the modification count of
+	 * a {@link CompactSet} and the signal modification count of the block
+	 * are the same, so checking it takes constant time.
+	 */
+	private static final class SignalIndex {
+		private final Set<SignalLine> signals;
+		private final int size;
+		private final int setModCount;
+		private final int blockModCount;
+		private final Map<Port, List<SignalLine>> byPort = new IdentityHashMap<Port, List<SignalLine>>();
+		private final Map<Block, List<SignalLine>> bySrcBlock = new IdentityHashMap<Block, List<SignalLine>>();
+
+		SignalIndex(Set<SignalLine> signals, int blockModCount, boolean incoming) {
+			this.signals = signals;
+			this.size = signals.size();
+			this.setModCount = setModCount(signals);
+			this.blockModCount = blockModCount;
+			for (SignalLine s : signals) {
+				add(byPort, incoming ? s.getDstPort() : s.getSrcPort(), s);
+				if (incoming) {
+					add(bySrcBlock, s.getSrcBlock(), s);
+				}
 			}
 		}
-		return null;
+
+		private static <K> void add(Map<K, List<SignalLine>> map, K key, SignalLine s) {
+			List<SignalLine> list = map.get(key);
+			if (list == null) {
+				list = new ArrayList<SignalLine>(1);
+				map.put(key, list);
+			}
+			list.add(s);
+		}
+
+		private static int setModCount(Set<SignalLine> signals) {
+			return signals instanceof CompactSet ? ((CompactSet<SignalLine>) signals).getModCount() : 0;
+		}
+
+		boolean isValid(Set<SignalLine> signals, int blockModCount) {
+			return (this.signals == signals) && (this.blockModCount == blockModCount)
+					&& (size == signals.size()) && (setModCount == setModCount(signals));
+		}
 	}
 
 	
@@ -0,0 +1,209 @@
+package de.tu_berlin.pes.memo.model.impl;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set for the ports and signal lines of a block. Most blocks have only one
+ * or two of them, so up to {@link #MAX_ARRAY_SIZE} elements are kept in an
+ * array of exactly that length and are compared with
+ * {@link Object#equals(Object)}. Above that the elements are moved into a
+ * {@link HashSet}. The iteration order is the insertion order as long as the
+ * elements are kept in the array.
+ */
+class CompactSet<E> extends AbstractSet<E> implements Serializable {
+
+	private static final long serialVersionUID = 3906527428147286315L;
+
+	/**
+	 * The maximum number of elements kept in the array.
+	 */
+	static final int MAX_ARRAY_SIZE = 8;
+
+	private static final Object[] EMPTY = new Object[0];
+
+	// the elements while there are at most MAX_ARRAY_SIZE, null afterwards
+	private Object[] elements = EMPTY;
+
+	// the elements above MAX_ARRAY_SIZE, null before
+	private HashSet<E> large;
+
+	// structural changes, for the iterator and the indexes of a block
+	private transient int modCount;
+
+	public CompactSet() {
+	}
+
+	public CompactSet(Collection<? extends E> c) {
+		addAll(c);
+	}
+
+	@Override
+	public int size() {
+		return large != null ? large.size() : elements.length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return large != null ? large.contains(o) : indexOf(o) >= 0;
+	}
+
+	@Override
+	public boolean add(E e) {
+		if (large != null) {
+			return changed(large.add(e));
+		}
+		if (indexOf(e) >= 0) {
+			return false;
+		}
+		int size = elements.length;
+		if (size == MAX_ARRAY_SIZE) {
+			large = new HashSet<E>(MAX_ARRAY_SIZE * 4);
+			for (Object element : elements) {
+				large.add(CompactSet.<E> element(element));
+			}
+			large.add(e);
+			elements = null;
+		} else {
+			elements = Arrays.copyOf(elements, size + 1);
+			elements[size] = e;
+		}
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (large != null) {
+			return changed(large.remove(o));
+		}
+		int index = indexOf(o);
+		if (index < 0) {
+			return false;
+		}
+		removeAt(index);
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		large = null;
+		elements = EMPTY;
+		modCount++;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		if (large != null) {
+			final Iterator<E> iterator = large.iterator();
+			return new Iterator<E>() {
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+
+				@Override
+				public E next() {
+					return iterator.next();
+				}
+
+				@Override
+				public void remove() {
+					iterator.remove();
+					modCount++;
+				}
+			};
+		}
+		return new Iterator<E>() {
+			private int next = 0;
+			private int last = -1;
+			private int expectedModCount = modCount;
+
+			@Override
+			public boolean hasNext() {
+				return (large != null) || (next < elements.length);
+			}
+
+			@Override
+			public E next() {
+				checkForComodification();
+				if (next >= elements.length) {
+					throw new NoSuchElementException();
+				}
+				last = next++;
+				return CompactSet.<E> element(elements[last]);
+			}
+
+			@Override
+			public void remove() {
+				if (last < 0) {
+					throw new IllegalStateException();
+				}
+				checkForComodification();
+				removeAt(last);
+				next = last;
+				last = -1;
+				expectedModCount = modCount;
+			}
+
+			private void checkForComodification() {
+				if ((large != null) || (modCount != expectedModCount)) {
+					throw new ConcurrentModificationException();
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return the number of changes of the set, e.g. to find out whether an
+	 *         index of the elements is still up to date
+	 */
+	int getModCount() {
+		return modCount;
+	}
+
+	private boolean changed(boolean changed) {
+		if (changed) {
+			modCount++;
+		}
+		return changed;
+	}
+
+	private int indexOf(Object o) {
+		for (int i = 0; i < elements.length; i++) {
+			if (o == null ? elements[i] == null : o.equals(elements[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void removeAt(int index) {
+		int size = elements.length;
+		if (size == 1) {
+			elements = EMPTY;
+		} else {
+			Object[] copy = new Object[size - 1];
+			System.arraycopy(elements, 0, copy, 0, index);
+			System.arraycopy(elements, index + 1, copy, index, size - index - 1);
+			elements = copy;
+		}
+		modCount++;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <E> E element(Object o) {
+		return (E) o;
+	}
+}
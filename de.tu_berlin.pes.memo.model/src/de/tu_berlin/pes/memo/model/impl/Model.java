@@ -32,8 +32,11 @@
 package de.tu_berlin.pes.memo.model.impl;
 
 import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Set;
 
 import org.conqat.lib.simulink.builder.MDLSection;
@@ -110,6 +113,17 @@ public class Model extends SimulinkItem {
 	 * @uml.property name="defaultSections"
 	 */
 	private HashMap<String, MDLSection> defaultSections = new HashMap<String, MDLSection>();
+	/**
+	 * The blocks by {@link Block#getFullQualifiedName(boolean)} without and
+	 * with the model name, built on the first lookup by path.
+	 */
+	private transient HashMap<String, Block> blocksByPath;
+	private transient HashMap<String, Block> blocksByModelPath;
+	/**
+	 * The models whose path index has a block directly below this model, see
+	 * {@link #addPathIndex(Model[], Model)}.
+	 */
+	private transient Model[] pathIndexes;
 
 	/**
 	 * All the variables from the MATLab workspace.
@@ -235,6 +249,10 @@ public class Model extends SimulinkItem {
 	 * @uml.property name="name"
 	 */
 	public void setName(String name) {
+		if ((name == null) ? this.name != null : !name.equals(this.name)) {
+			invalidateBlockPathIndex();
+			pathIndexes = invalidatePathIndexes(pathIndexes);
+		}
 		this.name = name;
 	}
 
@@ -257,6 +275,7 @@ public class Model extends SimulinkItem {
 	 */
 	public void setBlocks(Set<Block> blocks) {
 		this.blocks = blocks;
+		invalidateBlockPathIndex();
 	}
 
 	/**
@@ -388,12 +407,113 @@ public class Model extends SimulinkItem {
 	 *            The path string.
 	 * @param withModelName
 	 *            Is the first part of the path the model name?
-	 * @return the found Block or null.
+	 * @return the found Block or null. If several blocks have the path, the
+	 *         first one of the block map is returned.
 	 */
 	public Block getBlockByPath(String path, boolean withModelName) {
-		for (Block b : getBlockMap().values()) {
-			if (b.getFullQualifiedName(withModelName).equals(path)) {
-				return b;
+		HashMap<String, Block> index = withModelName ? blocksByModelPath : blocksByPath;
+		if (index == null) {
+			index = indexBlockPaths(withModelName);
+		}
+		Block b = index.get(path);
+		if ((b == null)
+				|| ((getBlockMap().get(b.getId()) == b) && b.getFullQualifiedName(withModelName)
+						.equals(path))) {
+			return b;
+		}
+		// changed without invalidating the index, e.g. by a model name
+		// parameter of a model reference, only the entry of the block is
+		// updated
+		index.remove(path);
+		if (getBlockMap().get(b.getId()) == b) {
+			String current = b.getFullQualifiedName(withModelName);
+			if (!index.containsKey(current)) {
+				index.put(current, b);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Indexes all blocks by their path. If several blocks have the same path,
+	 * the first one of the block map is taken. The blocks and models the
+	 * paths are made of remember the index, so renaming or moving one of them
+	 * discards it.
+	 *
+	 * @return the new index
+	 */
+	private HashMap<String, Block> indexBlockPaths(boolean withModelName) {
+		HashMap<Integer, Block> map = getBlockMap();
+		HashMap<String, Block> index = new HashMap<String, Block>(map.size() * 2);
+		Set<ModelItem> registered = Collections.newSetFromMap(new IdentityHashMap<ModelItem, Boolean>());
+		for (Block b : map.values()) {
+			String path = b.getFullQualifiedName(withModelName);
+			if (!index.containsKey(path)) {
+				index.put(path, b);
+			}
+			ModelItem item = b;
+			while ((item instanceof Block) && registered.add(item)) {
+				((Block) item).addPathIndex(this);
+				item = ((Block) item).getParent();
+			}
+			if ((item instanceof Model) && registered.add(item)) {
+				((Model) item).pathIndexes = addPathIndex(((Model) item).pathIndexes, this);
+			}
+		}
+		if (withModelName) {
+			blocksByModelPath = index;
+		} else {
+			blocksByPath = index;
+		}
+		return index;
+	}
+
+	/**
+	 * Discards the index of {@link #getBlockByPath(String, boolean)}. Renaming
+	 * or moving a block or renaming a model does this for every model whose
+	 * index has a path through them. It has to be called after other changes
+	 * of the paths, i.e. changes of the block map or of the model name
+	 * parameters of a model reference.
+	 */
+	public void invalidateBlockPathIndex() {
+		blocksByPath = null;
+		blocksByModelPath = null;
+	}
+
+	/**
+	 * Adds a model to the models whose path index has a path through a block
+	 * or a model.
+	 *
+	 * @param indexes
+	 *           the models so far or null
+	 * @return the models with the given one
+	 */
+	static Model[] addPathIndex(Model[] indexes, Model model) {
+		if (indexes == null) {
+			return new Model[] { model };
+		}
+		for (Model m : indexes) {
+			if (m == model) {
+				return indexes;
+			}
+		}
+		Model[] result = Arrays.copyOf(indexes, indexes.length + 1);
+		result[indexes.length] = model;
+		return result;
+	}
+
+	/**
+	 * Discards the path indexes of the models, they are built again on the
+	 * next lookup.
+	 *
+	 * @param indexes
+	 *           the models from {@link #addPathIndex(Model[], Model)} or null
+	 * @return null, for the field of the models
+	 */
+	static Model[] invalidatePathIndexes(Model[] indexes) {
+		if (indexes != null) {
+			for (Model m : indexes) {
+				m.invalidateBlockPathIndex();
 			}
 		}
 		return null;
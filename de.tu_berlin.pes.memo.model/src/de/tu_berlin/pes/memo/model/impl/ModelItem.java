@@ -32,13 +32,11 @@
 package de.tu_berlin.pes.memo.model.impl;
 
 import java.io.Serializable;
-import java.util.HashMap;
 import java.util.Map;
 
 import org.conqat.lib.simulink.builder.MDLSection;
 
 import de.tu_berlin.pes.memo.MeMoPlugin;
-import de.tu_berlin.pes.memo.model.util.SimulinkSectionConstants;
 
 /**
  * The super class of all model parts.
@@ -53,7 +51,7 @@ public class ModelItem implements Serializable {
 	 * 
 	 * @uml.property name="parameter"
 	 */
-	private Map<String, String> parameter = new HashMap<String, String>();
+	private Map<String, String> parameter = new ParameterMap();
 
 	/**
 	 * The unique id of an item. Used as hash code!
@@ -75,14 +73,8 @@ public class ModelItem implements Serializable {
 		this.setId(id);
 		
 		if (parameters != null) {
-			Map<String, String> paramap = parameters.getParameterMapRecursively();
-			for (String key : paramap.keySet()) {
-				if (key.startsWith(SimulinkSectionConstants.SYSTEM_SECTION_TYPE + ".")) {
-					continue; // Don't add Subsystem parameters
-				}
-				String value = paramap.get(key);
-				getParameter().put(key, value);
-			}
+			// shared with the other items of the section until changed
+			this.parameter = ParameterMap.of(parameters);
 		}
 	}
 
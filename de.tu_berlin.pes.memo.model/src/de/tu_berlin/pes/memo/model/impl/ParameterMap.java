@@ -0,0 +1,451 @@
+package de.tu_berlin.pes.memo.model.impl;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.conqat.lib.simulink.builder.MDLSection;
+
+import de.tu_berlin.pes.memo.model.util.SimulinkSectionConstants;
+
+/**
+ * The parameters of a model item.
+ * <ul>
+ * <li>Parameter names are interned, so each name exists only once for all
+ * items.</li>
+ * <li>Up to {@link #MAX_ARRAY_SIZE} parameters are kept in arrays in
+ * insertion order, next to the hash codes of the names. Above that they are
+ * moved into a {@link HashMap}.</li>
+ * <li>A copy shares the parameters with the original until one of them is
+ * changed. All items created from the same section, e.g. the blocks
+ * referencing the same library block, share one copy, see
+ * {@link #of(MDLSection)}.</li>
+ * </ul>
+ * Together with the defaults of the block type a block has two layers of
+ * parameters, see {@link #lookup(String, Map, Map)}.
+ */
+class ParameterMap extends AbstractMap<String, String> implements Serializable {
+
+	private static final long serialVersionUID = 5208561934126683240L;
+
+	/**
+	 * The value of a parameter that is not set and falls back to the next
+	 * layer. Values equal to this are replaced by this instance.
+	 */
+	static final String NULL_VALUE = "null";
+
+	/**
+	 * The maximum number of parameters kept in the arrays.
+	 */
+	static final int MAX_ARRAY_SIZE = 32;
+
+	private static final String[] NO_STRINGS = new String[0];
+	private static final int[] NO_HASHES = new int[0];
+
+	// section -> parameters of the items created from it, the maps are never
+	// changed, only copies of them are handed out. A map is built on the first
+	// call of of(MDLSection), sections do not change after construction
+	private static final Map<MDLSection, ParameterMap> sectionParameters = Collections
+			.synchronizedMap(new WeakHashMap<MDLSection, ParameterMap>());
+
+	// names, hash codes of the names and values while there are at most
+	// MAX_ARRAY_SIZE parameters, the arrays may be larger than size
+	private String[] names = NO_STRINGS;
+	private int[] hashes = NO_HASHES;
+	private String[] values = NO_STRINGS;
+	private int size;
+
+	// the parameters above MAX_ARRAY_SIZE, null before
+	private HashMap<String, String> large;
+
+	// true if the arrays or the large map may be shared with a copy
+	private boolean shared;
+
+	// structural changes, for the iterator
+	private transient int modCount;
+
+	public ParameterMap() {
+	}
+
+	/**
+	 * Creates a copy that shares the parameters with the given map until one
+	 * of them is changed.
+	 */
+	public ParameterMap(ParameterMap map) {
+		map.shared = true;
+		shared = true;
+		names = map.names;
+		hashes = map.hashes;
+		values = map.values;
+		size = map.size;
+		large = map.large;
+	}
+
+	/**
+	 * Returns the parameters of an item created from a section: the
+	 * parameters of the section and of its subsections without those of
+	 * systems, see {@link MDLSection#getParameterMapRecursively()}. The
+	 * result is a copy of the parameters of the first item created from the
+	 * section, i.e. of the section at that time. Sections are not changed
+	 * after they are created, so this is the same as reading the section
+	 * again.
+	 *
+	 * @param section
+	 *           the section of the item
+	 * @return a new map
+	 */
+	static ParameterMap of(MDLSection section) {
+		ParameterMap template = sectionParameters.get(section);
+		if (template == null) {
+			Map<String, String> paramap = section.getParameterMapRecursively();
+			template = new ParameterMap();
+			template.ensureCapacity(paramap.size());
+			for (Map.Entry<String, String> entry : paramap.entrySet()) {
+				if (entry.getKey().startsWith(SimulinkSectionConstants.SYSTEM_SECTION_TYPE + ".")) {
+					continue; // Don't add Subsystem parameters
+				}
+				template.put(entry.getKey(), entry.getValue());
+			}
+			template.trimToSize();
+			sectionParameters.put(section, template);
+		}
+		return new ParameterMap(template);
+	}
+
+	/**
+	 * Looks a parameter up in the layers of a block. A value of the block
+	 * other than null and {@link #NULL_VALUE} wins, otherwise the value of
+	 * the block type is returned as it is, {@link #NULL_VALUE} included.
+	 *
+	 * @param name
+	 *           the parameter name
+	 * @param overrides
+	 *           the parameters of the block
+	 * @param defaults
+	 *           the parameters of the block type, can be null
+	 * @return the value or null if neither layer has one
+	 */
+	static String lookup(String name, Map<String, String> overrides, Map<String, String> defaults) {
+		String result = getValue(name, overrides);
+		if ((result == null) && (defaults != null)) {
+			result = defaults.get(name);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the value of the layer, null for {@link #NULL_VALUE}
+	 */
+	private static String getValue(String name, Map<String, String> layer) {
+		String result;
+		if (layer instanceof ParameterMap) {
+			// values equal to NULL_VALUE are the same instance
+			result = ((ParameterMap) layer).get(name);
+			return result == NULL_VALUE ? null : result;
+		}
+		result = layer.get(name);
+		return NULL_VALUE.equals(result) ? null : result;
+	}
+
+	@Override
+	public String get(Object key) {
+		if (large != null) {
+			return large.get(key);
+		}
+		int index = indexOf(key);
+		return index >= 0 ? values[index] : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return large != null ? large.containsKey(key) : indexOf(key) >= 0;
+	}
+
+	@Override
+	public String put(String key, String value) {
+		if (NULL_VALUE.equals(value)) {
+			value = NULL_VALUE;
+		}
+		if (large != null) {
+			if (shared) {
+				unshare();
+			}
+			int before = large.size();
+			String old = large.put(key.intern(), value);
+			if (large.size() != before) {
+				modCount++;
+			}
+			return old;
+		}
+		int index = indexOf(key);
+		if (index >= 0) {
+			String old = values[index];
+			if (old != value) {
+				if (shared) {
+					unshare();
+				}
+				values[index] = value;
+			}
+			return old;
+		}
+		if (shared) {
+			unshare();
+		}
+		if (size == MAX_ARRAY_SIZE) {
+			large = new HashMap<String, String>(MAX_ARRAY_SIZE * 4);
+			for (int i = 0; i < size; i++) {
+				large.put(names[i], values[i]);
+			}
+			large.put(key.intern(), value);
+			names = NO_STRINGS;
+			hashes = NO_HASHES;
+			values = NO_STRINGS;
+			size = 0;
+		} else {
+			if (size == names.length) {
+				ensureCapacity(Math.max(4, size * 2));
+			}
+			names[size] = key.intern();
+			hashes[size] = key.hashCode();
+			values[size] = value;
+			size++;
+		}
+		modCount++;
+		return null;
+	}
+
+	@Override
+	public String remove(Object key) {
+		if (large != null) {
+			if (!large.containsKey(key)) {
+				return null;
+			}
+			if (shared) {
+				unshare();
+			}
+			modCount++;
+			return large.remove(key);
+		}
+		int index = indexOf(key);
+		if (index < 0) {
+			return null;
+		}
+		String old = values[index];
+		removeAt(index);
+		return old;
+	}
+
+	@Override
+	public int size() {
+		return large != null ? large.size() : size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public void clear() {
+		names = NO_STRINGS;
+		hashes = NO_HASHES;
+		values = NO_STRINGS;
+		size = 0;
+		large = null;
+		shared = false;
+		modCount++;
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+		return new AbstractSet<Map.Entry<String, String>>() {
+			@Override
+			public Iterator<Map.Entry<String, String>> iterator() {
+				return large != null ? new LargeIterator() : new ArrayIterator();
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				if (!(o instanceof Map.Entry)) {
+					return false;
+				}
+				Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+				Object value = get(entry.getKey());
+				return (value != null) ? value.equals(entry.getValue())
+						: (entry.getValue() == null) && containsKey(entry.getKey());
+			}
+
+			@Override
+			public int size() {
+				return ParameterMap.this.size();
+			}
+		};
+	}
+
+	private int indexOf(Object key) {
+		if (key == null) {
+			return -1;
+		}
+		int hash = key.hashCode();
+		for (int i = 0; i < size; i++) {
+			if ((hashes[i] == hash) && ((names[i] == key) || names[i].equals(key))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void removeAt(int index) {
+		if (shared) {
+			unshare();
+		}
+		int moved = size - index - 1;
+		System.arraycopy(names, index + 1, names, index, moved);
+		System.arraycopy(hashes, index + 1, hashes, index, moved);
+		System.arraycopy(values, index + 1, values, index, moved);
+		size--;
+		names[size] = null;
+		values[size] = null;
+		modCount++;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > names.length) {
+			capacity = Math.min(capacity, MAX_ARRAY_SIZE);
+			names = Arrays.copyOf(names, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+	}
+
+	private void trimToSize() {
+		if ((large == null) && (size < names.length)) {
+			names = size == 0 ? NO_STRINGS : Arrays.copyOf(names, size);
+			hashes = size == 0 ? NO_HASHES : Arrays.copyOf(hashes, size);
+			values = size == 0 ? NO_STRINGS : Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * Copies the shared parameters before they are changed.
+	 */
+	private void unshare() {
+		if (large != null) {
+			large = new HashMap<String, String>(large);
+		} else {
+			names = names.clone();
+			hashes = hashes.clone();
+			values = values.clone();
+		}
+		shared = false;
+	}
+
+	/**
+	 * Iterates over the arrays, removal through the iterator removes the
+	 * parameter from the map.
+	 */
+	private class ArrayIterator implements Iterator<Map.Entry<String, String>> {
+		private int next = 0;
+		private int last = -1;
+		private int expectedModCount = modCount;
+
+		@Override
+		public boolean hasNext() {
+			return (large != null) || (next < size);
+		}
+
+		@Override
+		public Map.Entry<String, String> next() {
+			checkForComodification();
+			if (next >= size) {
+				throw new NoSuchElementException();
+			}
+			last = next++;
+			return new Entry(names[last], values[last]);
+		}
+
+		@Override
+		public void remove() {
+			if (last < 0) {
+				throw new IllegalStateException();
+			}
+			checkForComodification();
+			removeAt(last);
+			next = last;
+			last = -1;
+			expectedModCount = modCount;
+		}
+
+		private void checkForComodification() {
+			if ((large != null) || (modCount != expectedModCount)) {
+				throw new ConcurrentModificationException();
+			}
+		}
+	}
+
+	/**
+	 * Iterates over the large map. If the map is copied because it was
+	 * shared, the iteration continues on the unchanged original.
+	 */
+	private class LargeIterator implements Iterator<Map.Entry<String, String>> {
+		private final HashMap<String, String> map = large;
+		private final Iterator<Map.Entry<String, String>> iterator = map.entrySet().iterator();
+		private String last;
+
+		@Override
+		public boolean hasNext() {
+			return iterator.hasNext();
+		}
+
+		@Override
+		public Map.Entry<String, String> next() {
+			Map.Entry<String, String> entry = iterator.next();
+			last = entry.getKey();
+			return new Entry(entry.getKey(), entry.getValue());
+		}
+
+		@Override
+		public void remove() {
+			if (last == null) {
+				throw new IllegalStateException();
+			}
+			if (shared) {
+				unshare();
+			}
+			if (large == map) {
+				iterator.remove();
+				modCount++;
+			} else {
+				ParameterMap.this.remove(last);
+			}
+			last = null;
+		}
+	}
+
+	/**
+	 * An entry that writes its value through to the map.
+	 */
+	private class Entry extends AbstractMap.SimpleEntry<String, String> {
+
+		private static final long serialVersionUID = 1L;
+
+		public Entry(String name, String value) {
+			super(name, value);
+		}
+
+		@Override
+		public String setValue(String value) {
+			put(getKey(), value);
+			return super.setValue(value);
+		}
+	}
+}
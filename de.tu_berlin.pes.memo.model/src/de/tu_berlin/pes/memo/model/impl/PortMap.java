@@ -0,0 +1,286 @@
+package de.tu_berlin.pes.memo.model.impl;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The ports of a block by their number. The numbers are kept as primitive
+ * ints in a sorted array of exactly the number of ports, next to an array of
+ * the ports, so a lookup is a binary search and nothing is boxed. The
+ * iteration order is the ascending port number. Lookups with keys that are
+ * not an {@link Integer} return null like for a {@link java.util.HashMap}.
+ * Null keys are not supported.
+ */
+class PortMap extends AbstractMap<Integer, Port> implements Serializable {
+
+	private static final long serialVersionUID = -2358412718461958117L;
+
+	private static final int[] NO_NUMBERS = new int[0];
+	private static final Port[] NO_PORTS = new Port[0];
+
+	// sorted port numbers and the ports at the same index
+	private int[] numbers = NO_NUMBERS;
+	private Port[] ports = NO_PORTS;
+
+	// structural changes, for the iterator
+	private transient int modCount;
+
+	public PortMap() {
+	}
+
+	public PortMap(Map<Integer, Port> map) {
+		putAll(map);
+	}
+
+	/**
+	 * @param number
+	 *           the number of the port
+	 * @return the port or null if there is no port with this number
+	 */
+	public Port get(int number) {
+		int index = Arrays.binarySearch(numbers, number);
+		return index >= 0 ? ports[index] : null;
+	}
+
+	/**
+	 * @param number
+	 *           the number of the port
+	 * @param port
+	 *           the port
+	 * @return the port that was mapped to the number before or null
+	 */
+	public Port put(int number, Port port) {
+		int index = Arrays.binarySearch(numbers, number);
+		if (index >= 0) {
+			Port old = ports[index];
+			ports[index] = port;
+			return old;
+		}
+		index = -index - 1;
+		int size = numbers.length;
+		int[] newNumbers = new int[size + 1];
+		Port[] newPorts = new Port[size + 1];
+		System.arraycopy(numbers, 0, newNumbers, 0, index);
+		System.arraycopy(ports, 0, newPorts, 0, index);
+		newNumbers[index] = number;
+		newPorts[index] = port;
+		System.arraycopy(numbers, index, newNumbers, index + 1, size - index);
+		System.arraycopy(ports, index, newPorts, index + 1, size - index);
+		numbers = newNumbers;
+		ports = newPorts;
+		modCount++;
+		return null;
+	}
+
+	@Override
+	public Port get(Object key) {
+		return key instanceof Integer ? get(((Integer) key).intValue()) : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return (key instanceof Integer)
+				&& (Arrays.binarySearch(numbers, ((Integer) key).intValue()) >= 0);
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		for (Port port : ports) {
+			if (value == null ? port == null : value.equals(port)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public Port put(Integer key, Port value) {
+		return put(key.intValue(), value);
+	}
+
+	@Override
+	public Port remove(Object key) {
+		if (!(key instanceof Integer)) {
+			return null;
+		}
+		int index = Arrays.binarySearch(numbers, ((Integer) key).intValue());
+		if (index < 0) {
+			return null;
+		}
+		Port old = ports[index];
+		removeAt(index);
+		return old;
+	}
+
+	@Override
+	public int size() {
+		return numbers.length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return numbers.length == 0;
+	}
+
+	@Override
+	public void clear() {
+		numbers = NO_NUMBERS;
+		ports = NO_PORTS;
+		modCount++;
+	}
+
+	@Override
+	public Collection<Port> values() {
+		return new AbstractCollection<Port>() {
+			@Override
+			public Iterator<Port> iterator() {
+				return new ArrayIterator<Port>() {
+					@Override
+					Port get(int index) {
+						return ports[index];
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return numbers.length;
+			}
+		};
+	}
+
+	@Override
+	public Set<Integer> keySet() {
+		return new AbstractSet<Integer>() {
+			@Override
+			public Iterator<Integer> iterator() {
+				return new ArrayIterator<Integer>() {
+					@Override
+					Integer get(int index) {
+						return numbers[index];
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return containsKey(o);
+			}
+
+			@Override
+			public int size() {
+				return numbers.length;
+			}
+		};
+	}
+
+	@Override
+	public Set<Map.Entry<Integer, Port>> entrySet() {
+		return new AbstractSet<Map.Entry<Integer, Port>>() {
+			@Override
+			public Iterator<Map.Entry<Integer, Port>> iterator() {
+				return new ArrayIterator<Map.Entry<Integer, Port>>() {
+					@Override
+					Map.Entry<Integer, Port> get(int index) {
+						return new Entry(numbers[index], ports[index]);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return numbers.length;
+			}
+		};
+	}
+
+	private void removeAt(int index) {
+		int size = numbers.length;
+		if (size == 1) {
+			numbers = NO_NUMBERS;
+			ports = NO_PORTS;
+		} else {
+			int[] newNumbers = new int[size - 1];
+			Port[] newPorts = new Port[size - 1];
+			System.arraycopy(numbers, 0, newNumbers, 0, index);
+			System.arraycopy(ports, 0, newPorts, 0, index);
+			System.arraycopy(numbers, index + 1, newNumbers, index, size - index - 1);
+			System.arraycopy(ports, index + 1, newPorts, index, size - index - 1);
+			numbers = newNumbers;
+			ports = newPorts;
+		}
+		modCount++;
+	}
+
+	/**
+	 * Iterates over the arrays, removal through the iterator removes the entry
+	 * from the map.
+	 */
+	private abstract class ArrayIterator<T> implements Iterator<T> {
+		private int next = 0;
+		private int last = -1;
+		private int expectedModCount = modCount;
+
+		abstract T get(int index);
+
+		@Override
+		public boolean hasNext() {
+			return next < numbers.length;
+		}
+
+		@Override
+		public T next() {
+			checkForComodification();
+			if (next >= numbers.length) {
+				throw new NoSuchElementException();
+			}
+			last = next++;
+			return get(last);
+		}
+
+		@Override
+		public void remove() {
+			if (last < 0) {
+				throw new IllegalStateException();
+			}
+			checkForComodification();
+			removeAt(last);
+			next = last;
+			last = -1;
+			expectedModCount = modCount;
+		}
+
+		private void checkForComodification() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+		}
+	}
+
+	/**
+	 * An entry that writes its value through to the map.
+	 */
+	private class Entry extends AbstractMap.SimpleEntry<Integer, Port> {
+
+		private static final long serialVersionUID = 1L;
+
+		public Entry(int number, Port port) {
+			super(number, port);
+		}
+
+		@Override
+		public Port setValue(Port value) {
+			put(getKey(), value);
+			return super.setValue(value);
+		}
+	}
+}
@@ -221,6 +221,9 @@ public class SignalLine extends SimulinkItem {
 	 * @uml.property name="srcPort"
 	 */
 	public void setSrcPort(Port srcPort) {
+		if (this.srcPort != srcPort) {
+			invalidateSignalIndexes(srcBlock);
+		}
 		this.srcPort = srcPort;
 	}
 
@@ -242,6 +245,9 @@ public class SignalLine extends SimulinkItem {
 	 * @uml.property name="dstPort"
 	 */
 	public void setDstPort(Port dstPort) {
+		if (this.dstPort != dstPort) {
+			invalidateSignalIndexes(dstBlock);
+		}
 		this.dstPort = dstPort;
 	}
 
@@ -313,6 +319,12 @@ public class SignalLine extends SimulinkItem {
 	 * @uml.property name="srcBlock"
 	 */
 	public void setSrcBlock(Block srcBlock) {
+		if (this.srcBlock != srcBlock) {
+			// the destination indexes the line by its source block
+			invalidateSignalIndexes(this.srcBlock);
+			invalidateSignalIndexes(srcBlock);
+			invalidateSignalIndexes(dstBlock);
+		}
 		this.srcBlock = srcBlock;
 	}
 
@@ -334,9 +346,23 @@ public class SignalLine extends SimulinkItem {
 	 * @uml.property name="dstBlock"
 	 */
 	public void setDstBlock(Block dstBlock) {
+		if (this.dstBlock != dstBlock) {
+			invalidateSignalIndexes(this.dstBlock);
+			invalidateSignalIndexes(dstBlock);
+		}
 		this.dstBlock = dstBlock;
 	}
 
+	/**
+	 * Discards the signal indexes of an end of this line, see
+	 * {@link Block#invalidateSignalIndexes()}.
+	 */
+	private static void invalidateSignalIndexes(Block block) {
+		if (block != null) {
+			block.invalidateSignalIndexes();
+		}
+	}
+
 	/**
 	 * @return the signalDestinations
 	 */
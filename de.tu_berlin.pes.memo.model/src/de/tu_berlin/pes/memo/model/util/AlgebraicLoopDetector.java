@@ -0,0 +1,340 @@
+package de.tu_berlin.pes.memo.model.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import de.tu_berlin.pes.memo.model.impl.Block;
+import de.tu_berlin.pes.memo.model.impl.Cycle;
+import de.tu_berlin.pes.memo.model.impl.Model;
+import de.tu_berlin.pes.memo.model.util.FeedThroughChecker.FeedthroughState;
+
+/**
+ * Finds the algebraic loops of a model without compiling it in MATLAB. An
+ * algebraic loop is a cycle of signal lines that all end at an input with
+ * direct feedthrough, see {@link FeedThroughChecker}. Lines into inputs
+ * without or with uncertain feedthrough break a loop.
+ * <p>
+ * The loops are the strongly connected components of the direct feedthrough
+ * edges of a {@link ModelGraph}, found by Tarjan's algorithm in time linear
+ * in the number of blocks and signal lines. Every component with more than
+ * one block and every block with a direct feedthrough line to itself is
+ * reported as a {@link Cycle}.
+ * <p>
+ * Signal lines only connect blocks of the same system, so the blocks below
+ * different top-level subsystems can be searched independently, see
+ * {@link #findLoops(ExecutorService)}.
+ */
+public final class AlgebraicLoopDetector {
+
+	private final ModelGraph graph;
+
+	/**
+	 * @param model
+	 *           the model to search
+	 */
+	public AlgebraicLoopDetector(Model model) {
+		this(new ModelGraph(model));
+	}
+
+	/**
+	 * @param graph
+	 *           the snapshot of the blocks to search
+	 */
+	public AlgebraicLoopDetector(ModelGraph graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * @return the snapshot that is searched
+	 */
+	public ModelGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Finds all algebraic loops in the calling thread.
+	 *
+	 * @return the loops, the blocks of a loop and the loops ordered by block
+	 *         id
+	 */
+	public List<Cycle> findLoops() {
+		return findLoops(null);
+	}
+
+	/**
+	 * Finds all algebraic loops, the blocks below each top-level subsystem
+	 * and the blocks of the top level are searched by separate tasks. The
+	 * tasks only touch their own blocks, so the feedthrough of the blocks is
+	 * checked concurrently as well.
+	 *
+	 * @param executor
+	 *           runs the tasks, null to search in the calling thread
+	 * @return the loops, the blocks of a loop and the loops ordered by block
+	 *         id
+	 */
+	public List<Cycle> findLoops(ExecutorService executor) {
+		int[][] partitions = partition();
+		Search search = new Search();
+		List<int[]> components = new ArrayList<int[]>();
+		if ((executor == null) || (partitions.length < 2)) {
+			for (int[] nodes : partitions) {
+				components.addAll(search.run(nodes));
+			}
+		} else {
+			List<Future<List<int[]>>> futures = new ArrayList<Future<List<int[]>>>(
+					partitions.length);
+			for (final int[] nodes : partitions) {
+				final Search task = search;
+				futures.add(executor.submit(new Callable<List<int[]>>() {
+					@Override
+					public List<int[]> call() {
+						return task.run(nodes);
+					}
+				}));
+			}
+			try {
+				for (Future<List<int[]>> future : futures) {
+					components.addAll(future.get());
+				}
+			} catch (InterruptedException e) {
+				for (Future<List<int[]>> future : futures) {
+					future.cancel(true);
+				}
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while searching algebraic loops", e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new IllegalStateException(cause);
+			}
+		}
+
+		// nodes are ordered by id, so the first node orders the components
+		Collections.sort(components, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] a, int[] b) {
+				return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+			}
+		});
+		List<Cycle> result = new ArrayList<Cycle>(components.size());
+		for (int[] component : components) {
+			List<Block> blocks = new ArrayList<Block>(component.length);
+			for (int node : component) {
+				blocks.add(graph.getBlock(node));
+			}
+			result.add(new Cycle(blocks));
+		}
+		return result;
+	}
+
+	/**
+	 * Splits the nodes into the top level and the subtrees of the top-level
+	 * subsystems. A top-level subsystem itself belongs to the top level.
+	 * Partitions that are connected by a signal line anyway, e.g. in a
+	 * snapshot of an incomplete model, are merged.
+	 *
+	 * @return the nodes of each partition in ascending order
+	 */
+	private int[][] partition() {
+		int size = graph.size();
+
+		// node -> top-level ancestor, the node itself on the top level
+		int[] top = new int[size];
+		int[] path = new int[8];
+		for (int n = 0; n < size; n++) {
+			top[n] = -1;
+		}
+		for (int n = 0; n < size; n++) {
+			int length = 0;
+			int x = n;
+			while ((top[x] < 0) && (graph.getParent(x) >= 0)) {
+				if (length == path.length) {
+					int[] larger = new int[length * 2];
+					System.arraycopy(path, 0, larger, 0, length);
+					path = larger;
+				}
+				path[length++] = x;
+				x = graph.getParent(x);
+			}
+			int ancestor = top[x] >= 0 ? top[x] : x;
+			top[x] = ancestor;
+			while (length > 0) {
+				top[path[--length]] = ancestor;
+			}
+		}
+
+		// node -> partition, the top-level nodes share the partition of the
+		// first of them, every top-level subsystem has one for its subtree
+		int[] partitionOf = new int[size];
+		int[] representative = new int[size];
+		for (int n = 0; n < size; n++) {
+			int parent = graph.getParent(n);
+			partitionOf[n] = parent < 0 ? -1 : top[parent];
+			representative[n] = n;
+		}
+		int rootPartition = -1;
+		for (int n = 0; n < size; n++) {
+			if (partitionOf[n] < 0) {
+				if (rootPartition < 0) {
+					rootPartition = n;
+				}
+				partitionOf[n] = rootPartition;
+			}
+		}
+		for (int e = 0; e < graph.getEdgeCount(); e++) {
+			int a = find(representative, partitionOf[graph.getSource(e)]);
+			int b = find(representative, partitionOf[graph.getTarget(e)]);
+			if (a != b) {
+				representative[Math.max(a, b)] = Math.min(a, b);
+			}
+		}
+
+		// counting sort of the nodes by partition
+		int[] counts = new int[size];
+		for (int n = 0; n < size; n++) {
+			partitionOf[n] = find(representative, partitionOf[n]);
+			counts[partitionOf[n]]++;
+		}
+		int partitions = 0;
+		int[] index = new int[size];
+		for (int p = 0; p < size; p++) {
+			if (counts[p] > 0) {
+				index[p] = partitions++;
+			}
+		}
+		int[][] result = new int[partitions][];
+		for (int p = 0; p < size; p++) {
+			if (counts[p] > 0) {
+				result[index[p]] = new int[counts[p]];
+				counts[p] = 0;
+			}
+		}
+		for (int n = 0; n < size; n++) {
+			int p = partitionOf[n];
+			result[index[p]][counts[p]++] = n;
+		}
+		return result;
+	}
+
+	private static int find(int[] representative, int p) {
+		while (representative[p] != p) {
+			representative[p] = representative[representative[p]];
+			p = representative[p];
+		}
+		return p;
+	}
+
+	/**
+	 * Tarjan's algorithm without recursion, deep models would overflow the
+	 * stack otherwise. The state is indexed by node, the partitions are
+	 * disjoint, so the tasks of one search never write the same element.
+	 */
+	private class Search {
+		// node -> visiting order or -1, lowest reachable order
+		private final int[] order = new int[graph.size()];
+		private final int[] low = new int[graph.size()];
+		// node -> next outgoing edge to visit
+		private final int[] nextEdge = new int[graph.size()];
+		private final boolean[] onStack = new boolean[graph.size()];
+		// edge -> feedthrough of the destination port
+		private final FeedthroughState[] states = new FeedthroughState[graph.getEdgeCount()];
+
+		private Search() {
+			for (int n = 0; n < order.length; n++) {
+				order[n] = -1;
+			}
+		}
+
+		/**
+		 * @param nodes
+		 *           the nodes of a partition, no edge leaves it
+		 * @return the nodes of the loops, each in ascending order
+		 */
+		private List<int[]> run(int[] nodes) {
+			List<int[]> loops = new ArrayList<int[]>();
+			for (int v : nodes) {
+				FeedThroughChecker.checkInEdges(graph, v, states);
+			}
+
+			int[] stack = new int[nodes.length];
+			int stackSize = 0;
+			int[] calls = new int[nodes.length];
+			int callsSize = 0;
+			int counter = 0;
+			for (int root : nodes) {
+				if (order[root] >= 0) {
+					continue;
+				}
+				order[root] = low[root] = counter++;
+				nextEdge[root] = graph.getOutEdgeStart(root);
+				stack[stackSize++] = root;
+				onStack[root] = true;
+				calls[callsSize++] = root;
+
+				while (callsSize > 0) {
+					int v = calls[callsSize - 1];
+					int e = nextEdge[v];
+					if (e < graph.getOutEdgeEnd(v)) {
+						nextEdge[v]++;
+						if (states[e] != FeedthroughState.DIRECT) {
+							continue;
+						}
+						int w = graph.getTarget(e);
+						if (order[w] < 0) {
+							order[w] = low[w] = counter++;
+							nextEdge[w] = graph.getOutEdgeStart(w);
+							stack[stackSize++] = w;
+							onStack[w] = true;
+							calls[callsSize++] = w;
+						} else if (onStack[w] && (order[w] < low[v])) {
+							low[v] = order[w];
+						}
+						continue;
+					}
+
+					callsSize--;
+					if (low[v] == order[v]) {
+						int start = stackSize;
+						do {
+							onStack[stack[--start]] = false;
+						} while (stack[start] != v);
+						int[] component = new int[stackSize - start];
+						System.arraycopy(stack, start, component, 0, component.length);
+						stackSize = start;
+						if ((component.length > 1) || hasDirectSelfLoop(v)) {
+							Arrays.sort(component);
+							loops.add(component);
+						}
+					}
+					if (callsSize > 0) {
+						int u = calls[callsSize - 1];
+						if (low[v] < low[u]) {
+							low[u] = low[v];
+						}
+					}
+				}
+			}
+			return loops;
+		}
+
+		private boolean hasDirectSelfLoop(int v) {
+			for (int e = graph.getOutEdgeStart(v); e < graph.getOutEdgeEnd(v); e++) {
+				if ((states[e] == FeedthroughState.DIRECT) && (graph.getTarget(e) == v)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -31,9 +31,12 @@
 
 package de.tu_berlin.pes.memo.model.util;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 import de.tu_berlin.pes.memo.model.impl.Block;
 import de.tu_berlin.pes.memo.model.impl.Port;
@@ -45,73 +48,241 @@ public class FeedThroughChecker {
 		DIRECT, NONDIRECT, UNCERTAIN
 	};
 
+	/**
+	 * Checks the feedthrough of an input of a block type that depends on the
+	 * parameters of the block or on the input.
+	 */
+	private interface Checker {
+		FeedthroughState check(Block b, Port p);
+	}
+
 	private static String[] nonfeedthrough = { "Assertion", "ForIterator", "TransportDelay",
 			"UnaryMinus", "UnitDelay", "WhileIterator" };
-	private static HashSet<String> nonfeedthroughset = null;
+	private static final HashSet<String> nonfeedthroughset = new HashSet<String>(
+			Arrays.asList(nonfeedthrough));
+
+	// block type without '-' -> checker, all other types have direct
+	// feedthrough
+	private static final Map<String, Checker> checkers = new HashMap<String, Checker>();
+
+	static {
+		checkers.put("DiscreteFilter", new Checker() {
+			@Override
+			public FeedthroughState check(Block b, Port p) {
+				return checkDiscreteFilter(b, p);
+			}
+		});
+		checkers.put("DiscreteStateSpace", new Checker() {
+			@Override
+			public FeedthroughState check(Block b, Port p) {
+				return checkDiscreteStateSpace(b, p);
+			}
+		});
+		checkers.put("DiscreteTransferFcn", new Checker() {
+			@Override
+			public FeedthroughState check(Block b, Port p) {
+				return checkDiscreteTransferFcn(b, p);
+			}
+		});
+		checkers.put("DiscreteZeroPole", new Checker() {
+			@Override
+			public FeedthroughState check(Block b, Port p) {
+				return checkDiscreteZeroPole(b, p);
+			}
+		});
+		checkers.put("DiscreteIntegrator", new Checker() {
+			@Override
+			public FeedthroughState check(Block b, Port p) {
+				return checkDiscreteIntegrator(b, p);
+			}
+		});
+		checkers.put("Integrator", new Checker() {
+			@Override
+			public FeedthroughState check(Block b, Port p) {
+				return checkIntegrator(b, p);
+			}
+		});
+		checkers.put("MSFunction", new Checker() {
+			@Override
+			public FeedthroughState check(Block b, Port p) {
+				return checkMSFunction(b, p);
+			}
+		});
+		checkers.put("Memory", new Checker() {
+			@Override
+			public FeedthroughState check(Block b, Port p) {
+				return checkMemory(b, p);
+			}
+		});
+		checkers.put("ModelReference", new Checker() {
+			@Override
+			public FeedthroughState check(Block b, Port p) {
+				return checkModelReference(b, p);
+			}
+		});
+		checkers.put("RateTransition", new Checker() {
+			@Override
+			public FeedthroughState check(Block b, Port p) {
+				return checkRateTransition(b, p);
+			}
+		});
+		checkers.put("SFunction", new Checker() {
+			@Override
+			public FeedthroughState check(Block b, Port p) {
+				return checkSFunction(b, p);
+			}
+		});
+		checkers.put("StateSpace", new Checker() {
+			@Override
+			public FeedthroughState check(Block b, Port p) {
+				return checkStateSpace(b, p);
+			}
+		});
+		checkers.put("TransferFcn", new Checker() {
+			@Override
+			public FeedthroughState check(Block b, Port p) {
+				return checkTransferFcn(b, p);
+			}
+		});
+		checkers.put("VariableTransportDelay", new Checker() {
+			@Override
+			public FeedthroughState check(Block b, Port p) {
+				return checkVariableTransportDelay(b, p);
+			}
+		});
+		checkers.put("SampleTimeMath", new Checker() {
+			@Override
+			public FeedthroughState check(Block b, Port p) {
+				return checkSampleTimeMath(b, p);
+			}
+		});
+		checkers.put("ZeroPole", new Checker() {
+			@Override
+			public FeedthroughState check(Block b, Port p) {
+				return checkZeroPole(b, p);
+			}
+		});
+		checkers.put("SubSystem", new Checker() {
+			@Override
+			public FeedthroughState check(Block b, Port p) {
+				return checkSubSystem(b, p);
+			}
+		});
+	}
 
 	public static FeedthroughState isFeedthrough(Block startBlock, Block targetBlock) {
 
-		if (nonfeedthroughset == null) {
-			nonfeedthroughset = new HashSet<String>();
-			for (String entry : nonfeedthrough) {
-				nonfeedthroughset.add(entry);
-			}
-		}
-
 		if (nonfeedthroughset.contains(targetBlock.getType())) {
 			return FeedthroughState.NONDIRECT;
 		}
-		Block b = targetBlock;
 		Port p = null;
 
-		for (SignalLine s : targetBlock.getInSignals()) {
-			if (s.getSrcBlock() == startBlock) {
-				p = s.getDstPort();
-			}
+		List<SignalLine> fromStart = targetBlock.getInSignalLinesBySrcBlock(startBlock);
+		if (!fromStart.isEmpty()) {
+			p = fromStart.get(fromStart.size() - 1).getDstPort();
 		}
 
+		return getFeedthroughState(targetBlock, p);
+	}
+
+	/**
+	 * @param b
+	 *           a block
+	 * @param p
+	 *           an input port of the block
+	 * @return whether the input port has direct feedthrough to the outputs of
+	 *         the block, {@link FeedthroughState#UNCERTAIN} if the port is null
+	 */
+	public static FeedthroughState getFeedthroughState(Block b, Port p) {
+		if (nonfeedthroughset.contains(b.getType())) {
+			return FeedthroughState.NONDIRECT;
+		}
 		if (p == null) {
 			return FeedthroughState.UNCERTAIN;
 		}
+		return check(getChecker(b.getType()), b, p);
+	}
 
-		try {
-			Class<FeedThroughChecker> cls = FeedThroughChecker.class;
+	/**
+	 * Checks the feedthrough of all edges of a snapshot in one pass. The
+	 * checker of a block type is looked up once per block and the state of a
+	 * port is checked once, even if several signal lines end at it.
+	 *
+	 * @param graph
+	 *           a snapshot of a model
+	 * @return edge -> feedthrough of the destination port of the edge, see
+	 *         {@link #getFeedthroughState(Block, Port)}
+	 */
+	public static FeedthroughState[] getFeedthroughStates(ModelGraph graph) {
+		FeedthroughState[] states = new FeedthroughState[graph.getEdgeCount()];
+		for (int node = 0; node < graph.size(); node++) {
+			checkInEdges(graph, node, states);
+		}
+		return states;
+	}
+
+	/**
+	 * Sets the states of the incoming edges of a node, see
+	 * {@link #getFeedthroughStates(ModelGraph)}. Only the block of the node is
+	 * read, so different nodes can be checked concurrently.
+	 */
+	static void checkInEdges(ModelGraph graph, int node, FeedthroughState[] states) {
+		int degree = graph.getInDegree(node);
+		if (degree == 0) {
+			return;
+		}
+		Block b = graph.getBlock(node);
+		boolean nondirect = nonfeedthroughset.contains(b.getType());
+		Checker checker = nondirect ? null : getChecker(b.getType());
+		Map<Port, FeedthroughState> checked = null;
+		for (int i = 0; i < degree; i++) {
+			int e = graph.getInEdge(node, i);
+			Port p = graph.getSignalLine(e).getDstPort();
+			if (nondirect) {
+				states[e] = FeedthroughState.NONDIRECT;
+			} else if (p == null) {
+				states[e] = FeedthroughState.UNCERTAIN;
+			} else if (checker == null) {
+				states[e] = FeedthroughState.DIRECT;
+			} else {
+				if (checked == null) {
+					checked = new IdentityHashMap<Port, FeedthroughState>(degree);
+				}
+				FeedthroughState state = checked.get(p);
+				if (state == null) {
+					state = check(checker, b, p);
+					checked.put(p, state);
+				}
+				states[e] = state;
+			}
+		}
+	}
 
-			Method meth = cls.getDeclaredMethod("check" + b.getType().replace("-", ""), Block.class,
-					Port.class);
-			FeedthroughState returnvalue = (FeedthroughState) meth.invoke(null, b, p);
-			return returnvalue;
+	private static Checker getChecker(String type) {
+		if (type == null) {
+			return null;
+		}
+		Checker checker = checkers.get(type);
+		if ((checker == null) && (type.indexOf('-') >= 0)) {
+			checker = checkers.get(type.replace("-", ""));
+		}
+		return checker;
+	}
 
-		} catch (NoSuchMethodException e) {
-			// The Method does not exist, the block has direct feedthrough
+	private static FeedthroughState check(Checker checker, Block b, Port p) {
+		if (checker == null) {
 			return FeedthroughState.DIRECT;
-		} catch (SecurityException e) {
-			// schouldn't happen. Only private methods of this class are called.
-			e.printStackTrace();
-			return FeedthroughState.UNCERTAIN;
-		} catch (IllegalArgumentException e) {
-			// schouldn't happen. Only private methods of this class are called
-			// with parameter Block and Port
-			e.printStackTrace();
-			return FeedthroughState.UNCERTAIN;
-		} catch (IllegalAccessException e) {
-			// schouldn't happen. Only private methods of this class are called.
+		}
+		try {
+			return checker.check(b, p);
+		} catch (RuntimeException e) {
+			// e.g. a parameter that is missing or not a number
 			e.printStackTrace();
 			return FeedthroughState.UNCERTAIN;
-		} catch (InvocationTargetException e) {
-			// Exception thrown in invoked method?
-			if (e.getCause() != null) {
-				e.getCause().printStackTrace();
-			} else { // shouldn't happen, InvocationTargetException is thrown IFF
-				// the underlying method throws an exception.
-				e.printStackTrace();
-			}
-			return FeedthroughState.UNCERTAIN;
 		}
 	}
 
 	// Only when the leading numerator coefficient is not equal to zero
-	@SuppressWarnings("unused")
 	private static FeedthroughState checkDiscreteFilter(Block b, Port p) {
 		String numerator = b.getParameter("Numerator");
 		numerator = numerator.substring(1, numerator.length() - 1); // remove []
@@ -120,7 +291,6 @@ public class FeedThroughChecker {
 	}
 
 	// Only if D != 0
-	@SuppressWarnings("unused")
 	private static FeedthroughState checkDiscreteStateSpace(Block b, Port p) {
 		return !paramEqualsNull(b.getParameter("D")) ? FeedthroughState.DIRECT
 				: FeedthroughState.NONDIRECT;
@@ -128,7 +298,6 @@ public class FeedThroughChecker {
 
 	// Only when the leading numerator coefficient is not equal to zero and the
 	// numerator order equals the denominator order
-	@SuppressWarnings("unused")
 	private static FeedthroughState checkDiscreteTransferFcn(Block b, Port p) {
 		String numerator = b.getParameter("Numerator");
 		String denominator = b.getParameter("Denominator");
@@ -148,7 +317,6 @@ public class FeedThroughChecker {
 	}
 
 	// Yes, if the number of zeros and poles are equal
-	@SuppressWarnings("unused")
 	private static FeedthroughState checkDiscreteZeroPole(Block b, Port p) {
 		String zero = b.getParameter("Zeros");
 		String pole = b.getParameter("Poles");
@@ -169,7 +337,6 @@ public class FeedThroughChecker {
 	// Yes, of the reset and external initial condition source ports.
 	// The input has direct feedthrough for every integration method except
 	// Forward Euler and accumulation Forward Euler.
-	@SuppressWarnings("unused")
 	private static FeedthroughState checkDiscreteIntegrator(Block b, Port p) {
 		if (p.getNumber() > 1) {
 			return FeedthroughState.DIRECT;
@@ -184,7 +351,6 @@ public class FeedThroughChecker {
 	}
 
 	// Yes, of the reset and external initial condition source ports
-	@SuppressWarnings("unused")
 	private static FeedthroughState checkIntegrator(Block b, Port p) {
 		if (p.getNumber() < 1) {
 			return FeedthroughState.DIRECT;
@@ -193,14 +359,12 @@ public class FeedThroughChecker {
 	}
 
 	// Depends on the MATLAB S-function
-	@SuppressWarnings("unused")
 	private static FeedthroughState checkMSFunction(Block b, Port p) {
 		return FeedthroughState.UNCERTAIN;
 	}
 
 	// No, except when you select Direct feedthrough of input during
 	// linearization
-	@SuppressWarnings("unused")
 	private static FeedthroughState checkMemory(Block b, Port p) {
 		return "on".equals(b.getParameter("LinearizeMemory")) ? FeedthroughState.DIRECT
 				: FeedthroughState.NONDIRECT;
@@ -212,7 +376,6 @@ public class FeedThroughChecker {
 	// If Single output/update function is disabled, a Model block
 	// may or may not be a direct feedthrough block, depending on the
 	// structure of the referenced model.
-	@SuppressWarnings("unused")
 	private static FeedthroughState checkModelReference(Block b, Port p) {
 		// TODO: Get the model reference block?!
 		return FeedthroughState.UNCERTAIN;
@@ -221,7 +384,6 @@ public class FeedThroughChecker {
 	// No, for slow-to-fast transitions for which you select the Ensure data
 	// integrity
 	// during data transfer check box. Yes, otherwise.
-	@SuppressWarnings("unused")
 	private static FeedthroughState checkRateTransition(Block b, Port p) {
 
 		if (!"on".equals(b.getParameter("Integrity"))) {
@@ -232,13 +394,11 @@ public class FeedThroughChecker {
 	}
 
 	// Depends on contents of S-function
-	@SuppressWarnings("unused")
 	private static FeedthroughState checkSFunction(Block b, Port p) {
 		return FeedthroughState.UNCERTAIN;
 	}
 
 	// Only if D != 0
-	@SuppressWarnings("unused")
 	private static FeedthroughState checkStateSpace(Block b, Port p) {
 		return !paramEqualsNull(b.getParameter("D")) ? FeedthroughState.DIRECT
 				: FeedthroughState.NONDIRECT;
@@ -246,7 +406,6 @@ public class FeedThroughChecker {
 
 	// Only if the lengths of the Numerator coefficients and Denominator
 	// coefficients parameters are equal
-	@SuppressWarnings("unused")
 	private static FeedthroughState checkTransferFcn(Block b, Port p) {
 		String numerator = b.getParameter("Numerator");
 		String denominator = b.getParameter("Denominator");
@@ -263,13 +422,11 @@ public class FeedThroughChecker {
 	}
 
 	// Yes, of the time delay (second) input
-	@SuppressWarnings("unused")
 	private static FeedthroughState checkVariableTransportDelay(Block b, Port p) {
 		return p.getNumber() > 1 ? FeedthroughState.DIRECT : FeedthroughState.NONDIRECT;
 	}
 
 	// For all math operations except Ts and 1/Ts
-	@SuppressWarnings("unused")
 	private static FeedthroughState checkSampleTimeMath(Block b, Port p) {
 		String operation = b.getParameter("TsampMathOp");
 		return operation.equals("Ts Only") || operation.equals("1/Ts Only") ? FeedthroughState.NONDIRECT
@@ -277,7 +434,6 @@ public class FeedThroughChecker {
 	}
 
 	// Yes, if the number of zeros and poles are equal
-	@SuppressWarnings("unused")
 	private static FeedthroughState checkZeroPole(Block b, Port p) {
 		String zero = b.getParameter("Zeros");
 		String pole = b.getParameter("Poles");
@@ -295,7 +451,6 @@ public class FeedThroughChecker {
 		return FeedthroughState.NONDIRECT;
 	}
 
-	@SuppressWarnings("unused")
 	private static FeedthroughState checkSubSystem(Block b, Port p) {
 
 		// TODO: Check\nDiscrete Gradient, Check \nDynamic Gap, Check \nDynamic
@@ -0,0 +1,242 @@
+package de.tu_berlin.pes.memo.model.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the numeric MATLAB literals of block parameters, i.e. scalars like
+ * <code>-2.5e3</code> or <code>Inf</code>, vectors like <code>[1 2 3]</code>
+ * or <code>[1, 2, 3]</code> and matrices like <code>[1 2; 3 4]</code>. The
+ * literal is scanned once by hand, only the single numbers are converted by
+ * {@link Double#parseDouble(String)}. Everything else, e.g. variables or
+ * expressions like <code>[1 - 2]</code>, is rejected with a
+ * {@link NumberFormatException}.
+ */
+public final class MatlabLiteralParser {
+
+	private final String literal;
+	private int pos;
+
+	private MatlabLiteralParser(String literal) {
+		this.literal = literal;
+	}
+
+	/**
+	 * Parses a numeric literal into a matrix. A scalar is a 1x1 matrix, a row
+	 * vector a 1xn matrix and the empty matrix <code>[]</code> has no rows.
+	 *
+	 * @param literal
+	 *           the parameter value
+	 * @return the rows of the matrix
+	 * @throws NumberFormatException
+	 *            if the value is not a numeric literal or the rows have
+	 *            different lengths
+	 */
+	public static double[][] parseMatrix(String literal) throws NumberFormatException {
+		if (literal == null) {
+			throw new NumberFormatException("null");
+		}
+		return new MatlabLiteralParser(literal).parse();
+	}
+
+	/**
+	 * @param matrix
+	 *           a matrix of {@link #parseMatrix(String)}
+	 * @param literal
+	 *           the parsed literal, for the error message
+	 * @return the value of a 1x1 matrix
+	 * @throws NumberFormatException
+	 *            if the matrix is not a scalar
+	 */
+	public static double toScalar(double[][] matrix, String literal) throws NumberFormatException {
+		if ((matrix.length != 1) || (matrix[0].length != 1)) {
+			throw new NumberFormatException("Not a scalar: " + literal);
+		}
+		return matrix[0][0];
+	}
+
+	/**
+	 * @param matrix
+	 *           a matrix of {@link #parseMatrix(String)}
+	 * @param literal
+	 *           the parsed literal, for the error message
+	 * @return the elements of a scalar, a row or a column vector or of the
+	 *         empty matrix
+	 * @throws NumberFormatException
+	 *            if the matrix has more than one row and column
+	 */
+	public static double[] toVector(double[][] matrix, String literal) throws NumberFormatException {
+		if (matrix.length == 0) {
+			return new double[0];
+		}
+		if (matrix.length == 1) {
+			return matrix[0].clone();
+		}
+		if (matrix[0].length != 1) {
+			throw new NumberFormatException("Not a vector: " + literal);
+		}
+		double[] result = new double[matrix.length];
+		for (int i = 0; i < matrix.length; i++) {
+			result[i] = matrix[i][0];
+		}
+		return result;
+	}
+
+	private double[][] parse() {
+		skipWhitespace();
+		double[][] result;
+		if ((pos < literal.length()) && (literal.charAt(pos) == '[')) {
+			pos++;
+			result = parseRows();
+			if ((pos >= literal.length()) || (literal.charAt(pos) != ']')) {
+				throw error();
+			}
+			pos++;
+		} else {
+			result = new double[][] { { parseNumber() } };
+		}
+		skipWhitespace();
+		if (pos < literal.length()) {
+			throw error();
+		}
+		return result;
+	}
+
+	/**
+	 * Parses the rows up to the closing bracket, rows are separated by
+	 * semicolons or line breaks and elements by commas or whitespace.
+	 */
+	private double[][] parseRows() {
+		List<double[]> rows = new ArrayList<double[]>();
+		double[] row = new double[4];
+		int length = 0;
+		boolean separated = true;
+		while (true) {
+			skipBlanks();
+			if (pos >= literal.length()) {
+				throw error();
+			}
+			char c = literal.charAt(pos);
+			if ((c == ']') || (c == ';') || (c == '\n') || (c == '\r')) {
+				if (length > 0) {
+					if (!rows.isEmpty() && (rows.get(0).length != length)) {
+						throw new NumberFormatException("Rows of different length: " + literal);
+					}
+					double[] complete = new double[length];
+					System.arraycopy(row, 0, complete, 0, length);
+					rows.add(complete);
+					length = 0;
+				}
+				if (c == ']') {
+					return rows.toArray(new double[rows.size()][]);
+				}
+				pos++;
+				separated = true;
+			} else if (c == ',') {
+				if (separated) {
+					throw error();
+				}
+				pos++;
+				separated = true;
+			} else {
+				// without a comma a blank separates elements, but not a
+				// binary operator: [1 -2] are two elements, [1 - 2] is one
+				if (!separated && (pos > 0) && !isBlank(literal.charAt(pos - 1))) {
+					throw error();
+				}
+				if (((c == '+') || (c == '-')) && (pos + 1 < literal.length())
+						&& isBlank(literal.charAt(pos + 1))) {
+					throw error();
+				}
+				if (length == row.length) {
+					double[] larger = new double[length * 2];
+					System.arraycopy(row, 0, larger, 0, length);
+					row = larger;
+				}
+				row[length++] = parseNumber();
+				separated = false;
+			}
+		}
+	}
+
+	/**
+	 * Parses a number with optional sign, fraction and exponent or one of
+	 * <code>Inf</code>, <code>inf</code>, <code>NaN</code> and
+	 * <code>nan</code>.
+	 */
+	private double parseNumber() {
+		int start = pos;
+		boolean negative = false;
+		if ((pos < literal.length()) && ((literal.charAt(pos) == '+') || (literal.charAt(pos) == '-'))) {
+			negative = literal.charAt(pos) == '-';
+			pos++;
+		}
+		if (literal.startsWith("Inf", pos) || literal.startsWith("inf", pos)) {
+			pos += 3;
+			checkEndOfNumber();
+			return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+		}
+		if (literal.startsWith("NaN", pos) || literal.startsWith("nan", pos)) {
+			pos += 3;
+			checkEndOfNumber();
+			return Double.NaN;
+		}
+		int digits = skipDigits();
+		if ((pos < literal.length()) && (literal.charAt(pos) == '.')) {
+			pos++;
+			digits += skipDigits();
+		}
+		if (digits == 0) {
+			throw error();
+		}
+		if ((pos < literal.length()) && ((literal.charAt(pos) == 'e') || (literal.charAt(pos) == 'E'))) {
+			pos++;
+			if ((pos < literal.length()) && ((literal.charAt(pos) == '+') || (literal.charAt(pos) == '-'))) {
+				pos++;
+			}
+			if (skipDigits() == 0) {
+				throw error();
+			}
+		}
+		checkEndOfNumber();
+		return Double.parseDouble(literal.substring(start, pos));
+	}
+
+	private void checkEndOfNumber() {
+		if (pos < literal.length()) {
+			char c = literal.charAt(pos);
+			if (!Character.isWhitespace(c) && (c != ',') && (c != ';') && (c != ']')) {
+				throw error();
+			}
+		}
+	}
+
+	private int skipDigits() {
+		int start = pos;
+		while ((pos < literal.length()) && (literal.charAt(pos) >= '0') && (literal.charAt(pos) <= '9')) {
+			pos++;
+		}
+		return pos - start;
+	}
+
+	private void skipWhitespace() {
+		while ((pos < literal.length()) && Character.isWhitespace(literal.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	// whitespace without line breaks, which separate rows
+	private void skipBlanks() {
+		while ((pos < literal.length()) && isBlank(literal.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private static boolean isBlank(char c) {
+		return (c == ' ') || (c == '\t');
+	}
+
+	private NumberFormatException error() {
+		return new NumberFormatException("Not a numeric literal: " + literal);
+	}
+}
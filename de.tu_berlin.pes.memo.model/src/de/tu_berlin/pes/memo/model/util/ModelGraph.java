@@ -0,0 +1,440 @@
+package de.tu_berlin.pes.memo.model.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.tu_berlin.pes.memo.model.impl.Block;
+import de.tu_berlin.pes.memo.model.impl.Model;
+import de.tu_berlin.pes.memo.model.impl.ModelItem;
+import de.tu_berlin.pes.memo.model.impl.Port;
+import de.tu_berlin.pes.memo.model.impl.SignalLine;
+
+/**
+ * An immutable snapshot of the block graph of a model in compressed sparse
+ * row form, for analyses that walk the graph many times.
+ * <ul>
+ * <li>The blocks are numbered densely from 0, ordered by id. These numbers
+ * are the nodes of the graph.</li>
+ * <li>Every signal line between two blocks of the snapshot is an edge. The
+ * edges are numbered from 0 and ordered by source node, source port number
+ * and signal line id, so the outgoing edges of a node are the range
+ * {@link #getOutEdgeStart(int)} to {@link #getOutEdgeEnd(int)}. The incoming
+ * edges of a node are listed separately, see {@link #getInEdge(int, int)}.
+ * </li>
+ * <li>The port of an edge end is given by its number and its kind, one of
+ * the <code>*_PORT_POSITION</code> constants of
+ * {@link SimulinkPortConstants}.</li>
+ * <li>Block types are coded as small ints, see {@link #getTypeCode(int)}.</li>
+ * </ul>
+ * The snapshot is built in one pass over the blocks and their outgoing
+ * signal lines and is not updated when the model changes. All state is kept
+ * in final arrays that are never changed or handed out, so a snapshot can be
+ * shared between threads.
+ */
+public final class ModelGraph {
+
+	// node -> block, ordered by id, and the ids for the lookup of a block
+	private final Block[] blocks;
+	private final int[] ids;
+
+	// node -> block type code, code -> type name
+	private final int[] types;
+	private final String[] typeNames;
+	private final Map<String, Integer> typeCodes;
+
+	// node -> node of the parent block, -1 if the parent is not a block of
+	// the snapshot
+	private final int[] parents;
+
+	// node -> first outgoing edge, outOffsets[size] is the number of edges
+	private final int[] outOffsets;
+
+	// edge -> source node, target node, port numbers and kinds, signal line
+	private final int[] sources;
+	private final int[] targets;
+	private final int[] srcPorts;
+	private final int[] dstPorts;
+	private final byte[] srcKinds;
+	private final byte[] dstKinds;
+	private final SignalLine[] lines;
+
+	// node -> first entry in inEdges, inEdges are the incoming edges ordered
+	// by target node and edge
+	private final int[] inOffsets;
+	private final int[] inEdges;
+
+	/**
+	 * Creates a snapshot of all blocks of a model.
+	 *
+	 * @param model
+	 *           the model
+	 */
+	public ModelGraph(Model model) {
+		this(model.getBlocks().isEmpty() ? model.getBlockMap().values() : model.getBlocks());
+	}
+
+	/**
+	 * Creates a snapshot of the given blocks and the signal lines between
+	 * them.
+	 *
+	 * @param blocks
+	 *           the blocks, e.g. of a subsystem
+	 */
+	public ModelGraph(Collection<Block> blocks) {
+		List<Block> sorted = new ArrayList<Block>(blocks);
+		Collections.sort(sorted, new Comparator<Block>() {
+			@Override
+			public int compare(Block a, Block b) {
+				return a.getId() < b.getId() ? -1 : (a.getId() == b.getId() ? 0 : 1);
+			}
+		});
+		int size = sorted.size();
+		this.blocks = sorted.toArray(new Block[size]);
+		this.ids = new int[size];
+		this.types = new int[size];
+		this.parents = new int[size];
+
+		Map<Block, Integer> nodes = new IdentityHashMap<Block, Integer>(size * 2);
+		Map<String, Integer> codes = new HashMap<String, Integer>();
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < size; i++) {
+			Block b = this.blocks[i];
+			ids[i] = b.getId();
+			nodes.put(b, i);
+			Integer code = codes.get(b.getType());
+			if (code == null) {
+				code = names.size();
+				codes.put(b.getType(), code);
+				names.add(b.getType());
+			}
+			types[i] = code;
+		}
+		this.typeNames = names.toArray(new String[names.size()]);
+		this.typeCodes = codes;
+
+		// outgoing signal lines per node, ordered by port and id
+		List<SignalLine> edges = new ArrayList<SignalLine>();
+		this.outOffsets = new int[size + 1];
+		List<SignalLine> out = new ArrayList<SignalLine>();
+		Comparator<SignalLine> bySrcPort = new Comparator<SignalLine>() {
+			@Override
+			public int compare(SignalLine a, SignalLine b) {
+				int pa = portNumber(a.getSrcPort());
+				int pb = portNumber(b.getSrcPort());
+				if (pa != pb) {
+					return pa < pb ? -1 : 1;
+				}
+				return a.getId() < b.getId() ? -1 : (a.getId() == b.getId() ? 0 : 1);
+			}
+		};
+		for (int i = 0; i < size; i++) {
+			Block b = this.blocks[i];
+			ModelItem parent = b.getParent();
+			Integer parentNode = parent instanceof Block ? nodes.get(parent) : null;
+			parents[i] = parentNode == null ? -1 : parentNode;
+
+			out.clear();
+			for (SignalLine l : b.getOutSignals()) {
+				if ((l.getSrcBlock() == b) && (l.getDstBlock() != null)
+						&& nodes.containsKey(l.getDstBlock())) {
+					out.add(l);
+				}
+			}
+			Collections.sort(out, bySrcPort);
+			edges.addAll(out);
+			outOffsets[i + 1] = edges.size();
+		}
+
+		int edgeCount = edges.size();
+		this.sources = new int[edgeCount];
+		this.targets = new int[edgeCount];
+		this.srcPorts = new int[edgeCount];
+		this.dstPorts = new int[edgeCount];
+		this.srcKinds = new byte[edgeCount];
+		this.dstKinds = new byte[edgeCount];
+		this.lines = edges.toArray(new SignalLine[edgeCount]);
+		this.inOffsets = new int[size + 1];
+		for (int i = 0; i < size; i++) {
+			for (int e = outOffsets[i]; e < outOffsets[i + 1]; e++) {
+				SignalLine l = lines[e];
+				sources[e] = i;
+				targets[e] = nodes.get(l.getDstBlock());
+				srcPorts[e] = portNumber(l.getSrcPort());
+				dstPorts[e] = portNumber(l.getDstPort());
+				srcKinds[e] = portKind(l.getSrcBlock(), l.getSrcPort(), false);
+				dstKinds[e] = portKind(l.getDstBlock(), l.getDstPort(), true);
+				inOffsets[targets[e] + 1]++;
+			}
+		}
+
+		// counting sort of the edges by target, stable, so ordered by edge
+		for (int i = 0; i < size; i++) {
+			inOffsets[i + 1] += inOffsets[i];
+		}
+		this.inEdges = new int[edgeCount];
+		int[] next = Arrays.copyOf(inOffsets, size);
+		for (int e = 0; e < edgeCount; e++) {
+			inEdges[next[targets[e]]++] = e;
+		}
+	}
+
+	private static int portNumber(Port port) {
+		return port == null ? -1 : port.getNumber();
+	}
+
+	/**
+	 * @return the kind of a port, one of the <code>*_PORT_POSITION</code>
+	 *         constants of {@link SimulinkPortConstants}
+	 */
+	private static byte portKind(Block block, Port port, boolean incoming) {
+		int kind;
+		if (port == null) {
+			kind = incoming ? SimulinkPortConstants.IN_PORT_POSITION
+					: SimulinkPortConstants.OUT_PORT_POSITION;
+		} else if (port == block.getEnablePort()) {
+			kind = SimulinkPortConstants.ENABLE_PORT_POSITION;
+		} else if (port == block.getTriggerPort()) {
+			kind = SimulinkPortConstants.TRIGGER_PORT_POSITION;
+		} else if (port == block.getStatePort()) {
+			kind = SimulinkPortConstants.STATE_PORT_POSITION;
+		} else if (port == block.getIfactionPort()) {
+			kind = SimulinkPortConstants.IFACTION_PORT_POSITION;
+		} else if ((port.getName() != null)
+				&& port.getName().startsWith(SimulinkPortConstants.L_CONN_PORT_PREFIX)) {
+			kind = SimulinkPortConstants.L_CONN_PORT_POSITION;
+		} else if ((port.getName() != null)
+				&& port.getName().startsWith(SimulinkPortConstants.R_CONN_PORT_PREFIX)) {
+			kind = SimulinkPortConstants.R_CONN_PORT_POSITION;
+		} else {
+			kind = incoming ? SimulinkPortConstants.IN_PORT_POSITION
+					: SimulinkPortConstants.OUT_PORT_POSITION;
+		}
+		return (byte) kind;
+	}
+
+	/**
+	 * @return the number of nodes, i.e. blocks
+	 */
+	public int size() {
+		return blocks.length;
+	}
+
+	/**
+	 * @return the number of edges, i.e. signal lines
+	 */
+	public int getEdgeCount() {
+		return lines.length;
+	}
+
+	/**
+	 * @param node
+	 *           a node of the snapshot
+	 * @return the block of the node
+	 */
+	public Block getBlock(int node) {
+		return blocks[node];
+	}
+
+	/**
+	 * @param block
+	 *           a block
+	 * @return the node of the block or -1 if the block is not part of the
+	 *         snapshot
+	 */
+	public int getNode(Block block) {
+		int index = Arrays.binarySearch(ids, block.getId());
+		if (index < 0) {
+			return -1;
+		}
+		// ids are not always unique, search all nodes with the id
+		int first = index;
+		while ((first > 0) && (ids[first - 1] == ids[index])) {
+			first--;
+		}
+		for (int i = first; (i < ids.length) && (ids[i] == ids[index]); i++) {
+			if (blocks[i] == block) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param node
+	 *           a node of the snapshot
+	 * @return the node of the parent block or -1 if the parent is not a block
+	 *         of the snapshot
+	 */
+	public int getParent(int node) {
+		return parents[node];
+	}
+
+	/**
+	 * @param node
+	 *           a node of the snapshot
+	 * @return the code of the block type of the node
+	 */
+	public int getTypeCode(int node) {
+		return types[node];
+	}
+
+	/**
+	 * @param type
+	 *           a block type, e.g. {@link SimulinkBlockConstants#GAIN_BLOCKTYPE}
+	 * @return the code of the type or -1 if no block of the snapshot has it
+	 */
+	public int getTypeCode(String type) {
+		Integer code = typeCodes.get(type);
+		return code == null ? -1 : code;
+	}
+
+	/**
+	 * @param code
+	 *           a type code
+	 * @return the name of the block type
+	 */
+	public String getTypeName(int code) {
+		return typeNames[code];
+	}
+
+	/**
+	 * @return the number of different block types
+	 */
+	public int getTypeCount() {
+		return typeNames.length;
+	}
+
+	/**
+	 * @param node
+	 *           a node of the snapshot
+	 * @return the first outgoing edge of the node
+	 */
+	public int getOutEdgeStart(int node) {
+		return outOffsets[node];
+	}
+
+	/**
+	 * @param node
+	 *           a node of the snapshot
+	 * @return the edge after the last outgoing edge of the node
+	 */
+	public int getOutEdgeEnd(int node) {
+		return outOffsets[node + 1];
+	}
+
+	/**
+	 * @param node
+	 *           a node of the snapshot
+	 * @return the number of outgoing edges
+	 */
+	public int getOutDegree(int node) {
+		return outOffsets[node + 1] - outOffsets[node];
+	}
+
+	/**
+	 * @param node
+	 *           a node of the snapshot
+	 * @return the number of incoming edges
+	 */
+	public int getInDegree(int node) {
+		return inOffsets[node + 1] - inOffsets[node];
+	}
+
+	/**
+	 * @param node
+	 *           a node of the snapshot
+	 * @param i
+	 *           the index of the incoming edge, from 0 to
+	 *           {@link #getInDegree(int)} - 1
+	 * @return the edge, the incoming edges are ordered by edge number
+	 */
+	public int getInEdge(int node, int i) {
+		return inEdges[inOffsets[node] + i];
+	}
+
+	/**
+	 * @param node
+	 *           a node of the snapshot
+	 * @return the targets of the outgoing edges in edge order, a target occurs
+	 *         once for each edge
+	 */
+	public int[] getSuccessors(int node) {
+		return Arrays.copyOfRange(targets, outOffsets[node], outOffsets[node + 1]);
+	}
+
+	/**
+	 * @param node
+	 *           a node of the snapshot
+	 * @return the sources of the incoming edges in edge order, a source occurs
+	 *         once for each edge
+	 */
+	public int[] getPredecessors(int node) {
+		int[] result = new int[getInDegree(node)];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = sources[inEdges[inOffsets[node] + i]];
+		}
+		return result;
+	}
+
+	/**
+	 * @return the source node of an edge
+	 */
+	public int getSource(int edge) {
+		return sources[edge];
+	}
+
+	/**
+	 * @return the target node of an edge
+	 */
+	public int getTarget(int edge) {
+		return targets[edge];
+	}
+
+	/**
+	 * @return the number of the source port of an edge, -1 if the signal line
+	 *         has no source port
+	 */
+	public int getSrcPortNumber(int edge) {
+		return srcPorts[edge];
+	}
+
+	/**
+	 * @return the number of the destination port of an edge, -1 if the signal
+	 *         line has no destination port
+	 */
+	public int getDstPortNumber(int edge) {
+		return dstPorts[edge];
+	}
+
+	/**
+	 * @return the kind of the source port of an edge, one of the
+	 *         <code>*_PORT_POSITION</code> constants of
+	 *         {@link SimulinkPortConstants}
+	 */
+	public int getSrcPortKind(int edge) {
+		return srcKinds[edge];
+	}
+
+	/**
+	 * @return the kind of the destination port of an edge, one of the
+	 *         <code>*_PORT_POSITION</code> constants of
+	 *         {@link SimulinkPortConstants}
+	 */
+	public int getDstPortKind(int edge) {
+		return dstKinds[edge];
+	}
+
+	/**
+	 * @return the signal line of an edge
+	 */
+	public SignalLine getSignalLine(int edge) {
+		return lines[edge];
+	}
+}
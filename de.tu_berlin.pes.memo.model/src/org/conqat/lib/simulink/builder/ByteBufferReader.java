@@ -0,0 +1,107 @@
+package org.conqat.lib.simulink.builder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A reader that decodes a byte buffer, e.g. a memory-mapped file, on demand.
+ * Only the characters requested by {@link #read(char[], int, int)} are
+ * decoded, so the decoded input never exists as a whole. The buffer is
+ * released at the end of the input or on {@link #close()}, so a mapped file
+ * can be unmapped (and, on Windows, deleted or replaced) as soon as it has
+ * been read.
+ */
+/* package */class ByteBufferReader extends Reader {
+
+	/** The remaining input, <code>null</code> once it has been read. */
+	private ByteBuffer input;
+
+	/** The decoder, malformed input is replaced like by the stream readers. */
+	private final CharsetDecoder decoder;
+
+	/** True once the decoder has been flushed. */
+	private boolean flushed = false;
+
+	/**
+	 * The low surrogate of a pair that did not fit into the last read, -1 if
+	 * none.
+	 */
+	private int pending = -1;
+
+	/**
+	 * Create reader.
+	 *
+	 * @param input
+	 *           the bytes to decode, the buffer is read from its position to
+	 *           its limit and not modified
+	 * @param charset
+	 *           the charset of the bytes
+	 */
+	public ByteBufferReader(ByteBuffer input, Charset charset) {
+		this.input = input.duplicate();
+		this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int read(char[] buffer, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		CharBuffer out = CharBuffer.wrap(buffer, offset, length);
+		if (pending >= 0) {
+			out.put((char) pending);
+			pending = -1;
+		}
+		if (input != null) {
+			decode(out);
+			if (input != null && out.position() == offset) {
+				// a surrogate pair does not fit into a single char
+				CharBuffer pair = CharBuffer.allocate(2);
+				decode(pair);
+				pair.flip();
+				if (pair.hasRemaining()) {
+					out.put(pair.get());
+				}
+				if (pair.hasRemaining()) {
+					pending = pair.get();
+				}
+			}
+		}
+		if (input == null && !flushed && out.hasRemaining()) {
+			// a full output buffer needs another call to flush
+			flushed = decoder.flush(out).isUnderflow();
+		}
+		int count = out.position() - offset;
+		if (count == 0 && input == null && flushed) {
+			return -1;
+		}
+		return count;
+	}
+
+	/** Decodes as much input as fits into the given buffer. */
+	private void decode(CharBuffer out) throws IOException {
+		CoderResult result = decoder.decode(input, out, true);
+		if (result.isError()) {
+			result.throwException();
+		}
+		if (result.isUnderflow()) {
+			input = null;
+		}
+	}
+
+	/** Releases the buffer. */
+	@Override
+	public void close() {
+		input = null;
+		flushed = true;
+		pending = -1;
+	}
+}
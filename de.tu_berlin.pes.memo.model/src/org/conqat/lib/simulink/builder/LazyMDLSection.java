@@ -0,0 +1,157 @@
+package org.conqat.lib.simulink.builder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.conqat.lib.commons.collections.UnmodifiableList;
+import org.conqat.lib.commons.collections.UnmodifiableSet;
+
+/**
+ * A section whose parameters and sub sections are parsed on first access.
+ * Name and line number are known right away, so the section can be placed in
+ * the tree and looked up by name without touching its content. The first
+ * call of any other accessor runs the loader once; afterwards all calls are
+ * forwarded to the loaded section. The sub sections of the loaded section
+ * report this section as their parent.
+ */
+public class LazyMDLSection extends MDLSection {
+
+	/** Parses the content of the section, <code>null</code> once loaded. */
+	private transient Callable<MDLSection> loader;
+
+	/** The loaded section, <code>null</code> until first access. */
+	private transient volatile MDLSection content;
+
+	/**
+	 * Create lazy MDL section.
+	 *
+	 * @param name
+	 *           section name.
+	 * @param lineNumber
+	 *           line number within the MDL file.
+	 * @param symbols
+	 *           symbol table the name is interned against, may be
+	 *           <code>null</code>
+	 * @param loader
+	 *           parses the section, must return a section with the same name
+	 */
+	public LazyMDLSection(String name, int lineNumber, MDLSymbolTable symbols,
+			Callable<MDLSection> loader) {
+		super(name, lineNumber, symbols);
+		this.loader = loader;
+	}
+
+	/** Returns true if the content of the section has been parsed. */
+	public boolean isLoaded() {
+		return content != null;
+	}
+
+	/** Returns the loaded section, parsing it on first access. */
+	private MDLSection content() {
+		MDLSection result = content;
+		if (result == null) {
+			synchronized (this) {
+				if (content == null) {
+					content = load();
+				}
+				result = content;
+			}
+		}
+		return result;
+	}
+
+	/** Runs the loader and attaches the loaded sub sections to this section. */
+	private MDLSection load() {
+		MDLSection section;
+		try {
+			section = loader.call();
+		} catch (Exception e) {
+			// the loader describes the section and its location in the file
+			throw new IllegalStateException("Could not parse " + loader + ": " + e.getMessage(), e);
+		}
+		for (MDLSection child : section.getSubSections()) {
+			child.setParentSection(this);
+		}
+		loader = null;
+		return section;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isCompact() {
+		return content().isCompact();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public MDLSection getFirstSubSection(String name) {
+		return content().getFirstSubSection(name);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<MDLSection> getLeafSections() {
+		return content().getLeafSections();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<MDLSection> getLeafSections(String name) {
+		return content().getLeafSections(name);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getParameter(String name) {
+		return content().getParameter(name);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getParameter(String name, String defaultValue) {
+		return content().getParameter(name, defaultValue);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, String> getParameterMapRecursively() {
+		return content().getParameterMapRecursively();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public UnmodifiableSet<String> getParameterNames() {
+		return content().getParameterNames();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public UnmodifiableList<MDLSection> getSubSections() {
+		return content().getSubSections();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public UnmodifiableList<MDLSection> getSubSections(String name) {
+		return content().getSubSections(name);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean hasParameter(String name) {
+		return content().hasParameter(name);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean hasSubSection(String name) {
+		return content().hasSubSection(name);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean hasSubSections() {
+		return content().hasSubSections();
+	}
+}
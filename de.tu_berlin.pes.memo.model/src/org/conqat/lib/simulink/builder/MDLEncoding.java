@@ -0,0 +1,109 @@
+package org.conqat.lib.simulink.builder;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Helps to find the structure of a MDL file in its raw bytes, see
+ * {@link MDLParallelParser} and {@link MDLLazyParser}. This is only possible
+ * if the charset encodes ASCII characters as single bytes that never occur
+ * within multi-byte sequences, see {@link #isAsciiCompatible()}.
+ */
+/* package */final class MDLEncoding {
+
+	/** Kind of a charset without further line terminators. */
+	private static final int OTHER = 0;
+
+	/** Kind of UTF-8, which encodes NEL, LS and PS as multi-byte sequences. */
+	private static final int UTF_8 = 1;
+
+	/** Kind of the ISO-8859 charsets, which encode NEL as a single byte. */
+	private static final int ISO_8859 = 2;
+
+	/** The charset. */
+	private final Charset charset;
+
+	/** Kind of the charset. */
+	private final int kind;
+
+	/** Constructor. */
+	public MDLEncoding(Charset charset) {
+		this.charset = charset;
+		String name = charset.name();
+		if (name.equals("UTF-8")) {
+			kind = UTF_8;
+		} else if (name.startsWith("ISO-8859-")) {
+			kind = ISO_8859;
+		} else {
+			kind = OTHER;
+		}
+	}
+
+	/** Returns the charset. */
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Returns true if the structural characters of MDL files can be found in
+	 * the raw bytes (US-ASCII, UTF-8, ISO-8859-x and windows-125x).
+	 */
+	public boolean isAsciiCompatible() {
+		String name = charset.name();
+		return name.equals("US-ASCII") || kind != OTHER || name.startsWith("windows-125");
+	}
+
+	/**
+	 * Decodes the bytes <code>[from, to)</code> of the content into an
+	 * array-backed buffer. Malformed input is replaced like by the stream
+	 * readers.
+	 */
+	public CharBuffer decode(ByteBuffer content, int from, int to)
+			throws CharacterCodingException {
+		ByteBuffer region = content.duplicate();
+		region.limit(to);
+		region.position(from);
+		return charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE).decode(region);
+	}
+
+	/**
+	 * Returns the number of bytes of the line terminator at the given index, 0
+	 * if there is none. These are the line terminators counted by the
+	 * {@link MDLScanner}: CR LF, CR, LF, VT, FF and NEL, LS and PS.
+	 *
+	 * @param limit
+	 *           index after the last byte that may be read
+	 */
+	public int getTerminatorLength(ByteBuffer content, int index, int limit) {
+		byte b = content.get(index);
+		switch (b) {
+			case '\r':
+				return index + 1 < limit && content.get(index + 1) == '\n' ? 2 : 1;
+			case '\n':
+			case 0x0B:
+			case 0x0C:
+				return 1;
+		}
+		if (b >= 0) {
+			return 0;
+		}
+		if (kind == ISO_8859) {
+			return b == (byte) 0x85 ? 1 : 0;
+		}
+		if (kind != UTF_8) {
+			return 0;
+		}
+		if (b == (byte) 0xC2 && index + 1 < limit && content.get(index + 1) == (byte) 0x85) {
+			return 2;
+		}
+		if (b == (byte) 0xE2 && index + 2 < limit && content.get(index + 1) == (byte) 0x80
+				&& (content.get(index + 2) == (byte) 0xA8 || content.get(index + 2) == (byte) 0xA9)) {
+			return 3;
+		}
+		return 0;
+	}
+}
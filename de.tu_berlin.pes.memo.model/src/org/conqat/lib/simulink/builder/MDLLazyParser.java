@@ -0,0 +1,360 @@
+package org.conqat.lib.simulink.builder;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Parses a MDL file but defers the sections with the given paths (e.g.
+ * <code>/Stateflow</code> or <code>System/Annotation</code>) until they are
+ * accessed. A path is the name of the enclosing section, a slash and the name
+ * of the section; sections on the top level of the file have an empty
+ * enclosing name. A skim over the raw bytes finds these sections (tracking
+ * only braces, strings and comments) and records their byte offsets. Their
+ * bodies are cut out of the text handed to the {@link MDLParser}, only the
+ * line terminators are kept so all other line numbers stay the same. Each
+ * deferred section becomes a {@link LazyMDLSection} that decodes and parses
+ * its bytes on first access.
+ * <p>
+ * The bytes are only skimmed if the charset encodes ASCII characters as
+ * single bytes that never occur within multi-byte sequences (US-ASCII,
+ * UTF-8, ISO-8859-x and windows-125x). Otherwise, or if the skim finds the
+ * input to be malformed, the whole input is parsed eagerly. Every lazy
+ * section keeps a copy of its own bytes, so the given buffer (e.g. a
+ * memory-mapped file) is not referenced once {@link #parse()} returns.
+ */
+public class MDLLazyParser {
+
+	/** Name of the parameter of the placeholders replacing lazy sections. */
+	/* package */static final String PLACEHOLDER_PARAMETER = "MeMoLazySection";
+
+	/** The raw input. */
+	private final ByteBuffer content;
+
+	/** Encoding of the input. */
+	private final MDLEncoding encoding;
+
+	/** Paths of the sections to parse lazily. */
+	private final Set<String> lazySectionPaths;
+
+	/** Name of the input used in error messages, e.g. the file path. */
+	private String sourceName = "<input>";
+
+	/** Number of threads used to parse the eager part. */
+	private int threads = 1;
+
+	/** Symbol table for compact sections or <code>null</code>. */
+	private MDLSymbolTable symbolTable;
+
+	/**
+	 * Create a lazy parser.
+	 *
+	 * @param content
+	 *           the raw input, e.g. a memory-mapped file. Only absolute reads
+	 *           are used, the position of the buffer is not changed.
+	 * @param charset
+	 *           the charset of the input
+	 * @param lazySectionPaths
+	 *           paths of the sections to parse lazily, e.g.
+	 *           <code>Model/GraphicalInterface</code>
+	 */
+	public MDLLazyParser(ByteBuffer content, Charset charset, Set<String> lazySectionPaths) {
+		this.content = content;
+		this.encoding = new MDLEncoding(charset);
+		this.lazySectionPaths = new HashSet<String>(lazySectionPaths);
+	}
+
+	/**
+	 * Sets the name of the input that is reported if a lazy section cannot be
+	 * parsed, e.g. the path of the file.
+	 */
+	public void setSourceName(String sourceName) {
+		this.sourceName = sourceName;
+	}
+
+	/**
+	 * Sets the symbol table used to create compact sections, see
+	 * {@link MDLSymbolTable#parse(MDLScanner)}.
+	 */
+	public void setSymbolTable(MDLSymbolTable symbolTable) {
+		this.symbolTable = symbolTable;
+	}
+
+	/**
+	 * Sets the number of threads used to parse the eager part. With more than
+	 * one thread a {@link MDLParallelParser} is used.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Parses the input.
+	 *
+	 * @return the AST of the file, as returned by {@link MDLParser#parse()}
+	 */
+	public MDLSection parse() throws Exception {
+		List<MDLSection> lazySections = new ArrayList<MDLSection>();
+		ByteBuffer eager = null;
+		if (encoding.isAsciiCompatible()) {
+			eager = skim(lazySections);
+		}
+		if (eager == null) {
+			lazySections = null;
+			eager = content.duplicate();
+		}
+
+		MDLParallelParser parser = new MDLParallelParser(eager, encoding.getCharset(), threads);
+		parser.setSymbolTable(symbolTable);
+		parser.setLazySections(lazySections);
+		return parser.parse();
+	}
+
+	/**
+	 * Copies the input without the bodies of lazy sections, which are
+	 * replaced by placeholders, and creates the lazy sections.
+	 *
+	 * @return the eager part of the input or <code>null</code> if the input is
+	 *         not well-formed.
+	 */
+	private ByteBuffer skim(List<MDLSection> lazySections) {
+		int length = content.limit();
+		ByteBuffer eager = ByteBuffer.allocate(Math.max(length / 4, 1024));
+		int copyFrom = 0;
+
+		int line = 0;
+		int tokenStart = -1;
+		int tokenLine = 0;
+		boolean tokenEnded = true;
+
+		// names of the enclosing sections outside of lazy sections
+		List<String> enclosing = new ArrayList<String>();
+
+		// state of the lazy section being skipped, depth is 0 outside of it
+		int depth = 0;
+		int lazyStart = 0;
+		int lazyLine = 0;
+		String lazyName = null;
+
+		for (int i = 0; i < length; i++) {
+			int terminator = encoding.getTerminatorLength(content, i, length);
+			if (terminator > 0) {
+				line++;
+				eager = appendTerminator(eager, depth);
+				i += terminator - 1;
+				tokenEnded = true;
+				continue;
+			}
+			switch (content.get(i)) {
+				case ' ':
+				case '\t':
+					tokenEnded = true;
+					break;
+				case '"':
+					i++;
+					while (i < length && content.get(i) != '"') {
+						if (content.get(i) == '\n' || content.get(i) == '\r') {
+							return null; // unterminated string
+						}
+						terminator = encoding.getTerminatorLength(content, i, length);
+						if (terminator > 0) {
+							line++;
+							eager = appendTerminator(eager, depth);
+							i += terminator;
+							continue;
+						}
+						if (content.get(i) == '\\') {
+							i++;
+						}
+						i++;
+					}
+					if (i >= length) {
+						return null;
+					}
+					tokenEnded = true;
+					break;
+				case '#':
+					while (i + 1 < length && content.get(i + 1) != '\n' && content.get(i + 1) != '\r') {
+						i++;
+						terminator = encoding.getTerminatorLength(content, i, length);
+						if (terminator > 0) {
+							line++;
+							eager = appendTerminator(eager, depth);
+							i += terminator - 1;
+						}
+					}
+					tokenEnded = true;
+					break;
+				case '{':
+					if (depth > 0) {
+						depth++;
+					} else if (tokenStart < 0) {
+						return null; // section without name
+					} else {
+						String name = ascii(tokenStart, i);
+						String parent = enclosing.isEmpty() ? "" : enclosing.get(enclosing.size() - 1);
+						if (lazySectionPaths.contains(parent + "/" + name)) {
+							eager = append(eager, copyFrom, i + 1);
+							lazyStart = tokenStart;
+							lazyLine = tokenLine;
+							lazyName = name;
+							depth = 1;
+						} else {
+							enclosing.add(name);
+						}
+					}
+					tokenStart = -1;
+					tokenEnded = true;
+					break;
+				case '}':
+					if (depth > 0) {
+						if (--depth == 0) {
+							byte[] placeholder = (" " + PLACEHOLDER_PARAMETER + " " + lazySections.size() + " ")
+									.getBytes();
+							eager = ensureCapacity(eager, placeholder.length);
+							eager.put(placeholder);
+							lazySections.add(new LazyMDLSection(lazyName, lazyLine + 1, symbolTable,
+									new SectionLoader(this, lazyName, copy(lazyStart, i + 1), lazyLine)));
+							copyFrom = i;
+						}
+					} else if (enclosing.isEmpty()) {
+						return null; // unbalanced brace
+					} else {
+						enclosing.remove(enclosing.size() - 1);
+					}
+					tokenStart = -1;
+					tokenEnded = true;
+					break;
+				case '[':
+				case ']':
+				case ',':
+				case ';':
+					tokenStart = -1;
+					tokenEnded = true;
+					break;
+				default:
+					if (tokenEnded) {
+						tokenStart = i;
+						tokenLine = line;
+						tokenEnded = false;
+					}
+			}
+		}
+
+		if (depth != 0) {
+			return null;
+		}
+		eager = append(eager, copyFrom, length);
+		eager.flip();
+		return eager;
+	}
+
+	/**
+	 * Keeps a line terminator within a lazy section. A LF is kept in place of
+	 * any terminator, as NEL, LS and PS are only valid within strings.
+	 */
+	private static ByteBuffer appendTerminator(ByteBuffer eager, int depth) {
+		if (depth == 0) {
+			return eager;
+		}
+		eager = ensureCapacity(eager, 1);
+		eager.put((byte) '\n');
+		return eager;
+	}
+
+	/** Copies the input bytes <code>[from, to)</code>. */
+	private ByteBuffer append(ByteBuffer eager, int from, int to) {
+		eager = ensureCapacity(eager, to - from);
+		ByteBuffer region = content.duplicate();
+		region.limit(to);
+		region.position(from);
+		eager.put(region);
+		return eager;
+	}
+
+	/** Returns a buffer with room for <code>count</code> more bytes. */
+	private static ByteBuffer ensureCapacity(ByteBuffer buffer, int count) {
+		if (buffer.remaining() >= count) {
+			return buffer;
+		}
+		int capacity = Math.max(buffer.capacity() * 2, buffer.position() + count);
+		ByteBuffer larger = ByteBuffer.allocate(capacity);
+		buffer.flip();
+		larger.put(buffer);
+		return larger;
+	}
+
+	/** Returns a copy of the input bytes <code>[from, to)</code>. */
+	private byte[] copy(int from, int to) {
+		byte[] bytes = new byte[to - from];
+		ByteBuffer region = content.duplicate();
+		region.position(from);
+		region.get(bytes);
+		return bytes;
+	}
+
+	/** Returns the trimmed ASCII text of the input bytes <code>[from, to)</code>. */
+	private String ascii(int from, int to) {
+		char[] chars = new char[to - from];
+		for (int i = from; i < to; i++) {
+			chars[i - from] = (char) (content.get(i) & 0xFF);
+		}
+		return new String(chars).trim();
+	}
+
+	/**
+	 * Parses a lazy section from a copy of its bytes. Parse errors report the
+	 * line within the whole input, as the scanner starts counting at the line
+	 * of the section. The loader does not reference the parser, so the input
+	 * buffer can be released.
+	 */
+	private static class SectionLoader implements Callable<MDLSection> {
+
+		/** Encoding of the bytes. */
+		private final MDLEncoding encoding;
+
+		/** Symbol table for compact sections or <code>null</code>. */
+		private final MDLSymbolTable symbolTable;
+
+		/** Name of the input used in error messages. */
+		private final String sourceName;
+
+		/** Name of the section. */
+		private final String name;
+
+		/** The bytes from the section name to the closing brace. */
+		private final byte[] bytes;
+
+		/** Line terminators preceding the section name. */
+		private final int line;
+
+		/** Constructor. */
+		public SectionLoader(MDLLazyParser parser, String name, byte[] bytes, int line) {
+			this.encoding = parser.encoding;
+			this.symbolTable = parser.symbolTable;
+			this.sourceName = parser.sourceName;
+			this.name = name;
+			this.bytes = bytes;
+			this.line = line;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public MDLSection call() throws Exception {
+			CharBuffer text = encoding.decode(ByteBuffer.wrap(bytes), 0, bytes.length);
+			return MDLSection.parse(new MDLScanner(text.array(), 0, text.limit(), line), symbolTable,
+					null).getSubSections().get(0);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public String toString() {
+			return "section " + name + " at " + sourceName + ":" + (line + 1);
+		}
+	}
+}
@@ -0,0 +1,513 @@
+package org.conqat.lib.simulink.builder;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.conqat.lib.commons.collections.PairList;
+
+/**
+ * Parses a MDL file on several threads. A quick pre-scan over the raw bytes
+ * finds the section boundaries (tracking only braces, strings and comments).
+ * Each parse job decodes only the bytes of its own sections, so the decoded
+ * file never exists as a whole. Sections larger than the split threshold, e.g. the
+ * <code>Model</code> section, its <code>System</code> and large subsystems,
+ * are split into their sub sections; everything else is parsed by the
+ * generated {@link MDLParser} in batches on an executor. The results are
+ * stitched back together in file order, so the resulting {@link MDLSection}
+ * tree equals the one of a sequential parse.
+ * <p>
+ * The bytes are only pre-scanned if the charset is ASCII-compatible, see
+ * {@link MDLEncoding#isAsciiCompatible()}. Otherwise, or with a single
+ * thread, the input is parsed sequentially, decoding it chunk by chunk.
+ * <p>
+ * The pre-scan is done completely before any parse job is submitted and the
+ * jobs never wait for each other, so a plain fixed thread pool is sufficient.
+ * If the pre-scan finds the input to be malformed the whole input is parsed
+ * sequentially to get the usual error reporting.
+ */
+public class MDLParallelParser {
+
+	/** The minimal size (in bytes) of a section that is split into parts. */
+	public static final int MIN_SPLIT_THRESHOLD = 64 * 1024;
+
+	/** The raw input, only absolute reads are used. */
+	private final ByteBuffer content;
+
+	/** Encoding of the input. */
+	private final MDLEncoding encoding;
+
+	/** Index of the first byte to parse. */
+	private final int start;
+
+	/** Index after the last byte to parse. */
+	private final int end;
+
+	/** Number of parser threads. */
+	private final int threads;
+
+	/** Sections larger than this (in bytes) are split into their children. */
+	private final int splitThreshold;
+
+	/** Symbol table for compact sections or <code>null</code>. */
+	private MDLSymbolTable symbolTable;
+
+	/** Sections referred to by lazy placeholders, <code>null</code> if none. */
+	private List<MDLSection> lazySections;
+
+	/** Names of the lazy sections, which are never split. */
+	private final Set<String> lazySectionNames = new HashSet<String>();
+
+	/**
+	 * Create a parallel parser for the bytes from the position to the limit of
+	 * the given buffer, e.g. a memory-mapped file, using one thread per
+	 * available processor. The buffer is not modified and only referenced
+	 * until {@link #parse()} returns.
+	 */
+	public MDLParallelParser(ByteBuffer content, Charset charset) {
+		this(content, charset, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a parallel parser for the bytes from the position to the limit of
+	 * the given buffer using the given number of threads.
+	 */
+	public MDLParallelParser(ByteBuffer content, Charset charset, int threads) {
+		this.content = content.duplicate();
+		this.encoding = new MDLEncoding(charset);
+		this.start = content.position();
+		this.end = content.limit();
+		this.threads = Math.max(1, threads);
+		// aim at several jobs per thread to even out differently sized sections
+		this.splitThreshold = Math.max(MIN_SPLIT_THRESHOLD, (end - start) / (this.threads * 8));
+	}
+
+	/**
+	 * Sets the symbol table used to create compact sections, see
+	 * {@link MDLSymbolTable#parse(MDLScanner)}.
+	 */
+	public void setSymbolTable(MDLSymbolTable symbolTable) {
+		this.symbolTable = symbolTable;
+	}
+
+	/**
+	 * Sets the lazy sections the placeholders in the buffer refer to, see
+	 * {@link MDLLazyParser}.
+	 */
+	/* package */void setLazySections(List<MDLSection> lazySections) {
+		this.lazySections = lazySections;
+		lazySectionNames.clear();
+		if (lazySections != null) {
+			for (MDLSection section : lazySections) {
+				lazySectionNames.add(section.getName());
+			}
+		}
+	}
+
+	/**
+	 * Parses the input on a thread pool that is created for this call.
+	 *
+	 * @return the AST of the file, as returned by {@link MDLParser#parse()}
+	 */
+	public MDLSection parse() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			return parse(executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Parses the input using the given executor.
+	 *
+	 * @return the AST of the file, as returned by {@link MDLParser#parse()}
+	 */
+	public MDLSection parse(ExecutorService executor) throws Exception {
+		if (threads < 2 || !encoding.isAsciiCompatible()) {
+			return parseSequentially();
+		}
+		SplitSection root = new SplitSection("", -1);
+		Gaps gaps = new Gaps(0);
+		if (!split(root, start, end, 0, gaps, executor) || gaps.text.toString().trim().length() > 0) {
+			// cancelling the submitted jobs is not worth it, they are short
+			return parseSequentially();
+		}
+		return root.build();
+	}
+
+	/**
+	 * Splits the region <code>[from, to)</code>, which is the body of the given
+	 * section, into its sub sections. Large sub sections are split
+	 * recursively, small ones are submitted in batches. The parameters of the
+	 * section are collected in <code>gaps</code>.
+	 *
+	 * @return <code>false</code> if the region is not well-formed.
+	 */
+	private boolean split(SplitSection section, int from, int to, int line, Gaps gaps,
+			ExecutorService executor) throws CharacterCodingException {
+		List<Span> spans = scanSubSections(from, to, line, gaps);
+		if (spans == null) {
+			return false;
+		}
+
+		List<Span> batch = new ArrayList<Span>();
+		int batchSize = 0;
+		for (Span span : spans) {
+			// placeholders of lazy sections may be large because of the kept
+			// line terminators, but they must be parsed as a whole
+			if (span.end - span.start > splitThreshold && !lazySectionNames.contains(span.name)) {
+				if (!batch.isEmpty()) {
+					section.parts.add(executor.submit(new BatchJob(batch)));
+					batch = new ArrayList<Span>();
+					batchSize = 0;
+				}
+
+				SplitSection child = new SplitSection(span.name, span.line + 1);
+				Gaps childGaps = new Gaps(span.bodyLine);
+				if (!split(child, span.bodyStart, span.end - 1, span.bodyLine, childGaps, executor)) {
+					return false;
+				}
+				child.shell = executor.submit(new ShellJob(span.name, span.bodyLine, childGaps.text
+						.toString()));
+				section.parts.add(child);
+			} else {
+				batch.add(span);
+				batchSize += span.end - span.start;
+				if (batchSize > splitThreshold) {
+					section.parts.add(executor.submit(new BatchJob(batch)));
+					batch = new ArrayList<Span>();
+					batchSize = 0;
+				}
+			}
+		}
+		if (!batch.isEmpty()) {
+			section.parts.add(executor.submit(new BatchJob(batch)));
+		}
+		return true;
+	}
+
+	/**
+	 * Scans the region <code>[from, to)</code> for the sections directly
+	 * contained in it. The text between these sections is appended to
+	 * <code>gaps</code>.
+	 *
+	 * @return the sections in file order or <code>null</code> if the region is
+	 *         not well-formed.
+	 */
+	private List<Span> scanSubSections(int from, int to, int line, Gaps gaps)
+			throws CharacterCodingException {
+		List<Span> spans = new ArrayList<Span>();
+		int depth = 0;
+		int tokenStart = -1;
+		int tokenLine = line;
+		int gapStart = from;
+		int gapLine = line;
+		Span current = null;
+		boolean tokenEnded = true;
+
+		for (int i = from; i < to; i++) {
+			int terminator = encoding.getTerminatorLength(content, i, to);
+			if (terminator > 0) {
+				line++;
+				i += terminator - 1;
+				tokenEnded = true;
+				continue;
+			}
+			switch (content.get(i)) {
+				case ' ':
+				case '\t':
+					tokenEnded = true;
+					break;
+				case '"':
+					i++;
+					while (i < to && content.get(i) != '"') {
+						if (content.get(i) == '\n' || content.get(i) == '\r') {
+							return null; // unterminated string
+						}
+						terminator = encoding.getTerminatorLength(content, i, to);
+						if (terminator > 0) {
+							line++;
+							i += terminator;
+							continue;
+						}
+						if (content.get(i) == '\\') {
+							i++;
+						}
+						i++;
+					}
+					if (i >= to) {
+						return null;
+					}
+					tokenEnded = true;
+					break;
+				case '#':
+					while (i + 1 < to && content.get(i + 1) != '\n' && content.get(i + 1) != '\r') {
+						i++;
+						terminator = encoding.getTerminatorLength(content, i, to);
+						if (terminator > 0) {
+							line++;
+							i += terminator - 1;
+						}
+					}
+					tokenEnded = true;
+					break;
+				case '{':
+					if (depth == 0) {
+						if (tokenStart < 0) {
+							return null; // section without name
+						}
+						current = new Span();
+						current.start = tokenStart;
+						current.line = tokenLine;
+						current.name = encoding.decode(content, tokenStart, i).toString().trim();
+						current.bodyStart = i + 1;
+						current.bodyLine = line;
+						gaps.append(gapStart, gapLine, tokenStart, tokenLine);
+					}
+					depth++;
+					tokenStart = -1;
+					tokenEnded = true;
+					break;
+				case '}':
+					depth--;
+					if (depth < 0) {
+						return null;
+					}
+					if (depth == 0) {
+						current.end = i + 1;
+						spans.add(current);
+						current = null;
+						gapStart = i + 1;
+						gapLine = line;
+					}
+					tokenStart = -1;
+					tokenEnded = true;
+					break;
+				case '[':
+				case ']':
+				case ',':
+				case ';':
+					tokenStart = -1;
+					tokenEnded = true;
+					break;
+				default:
+					if (tokenEnded) {
+						tokenStart = i;
+						tokenLine = line;
+						tokenEnded = false;
+					}
+			}
+		}
+
+		if (depth != 0) {
+			return null;
+		}
+		gaps.append(gapStart, gapLine, to, line);
+		return spans;
+	}
+
+	/** Parses the whole input sequentially. */
+	private MDLSection parseSequentially() throws Exception {
+		ByteBuffer region = content.duplicate();
+		region.limit(end);
+		region.position(start);
+		return parse(new MDLScanner(new ByteBufferReader(region, encoding.getCharset())));
+	}
+
+	/** Decodes a region of the input and parses it sequentially. */
+	private MDLSection parseRegion(int from, int to, int line) throws Exception {
+		CharBuffer text = encoding.decode(content, from, to);
+		return parse(new MDLScanner(text.array(), 0, text.limit(), line));
+	}
+
+	/** Parses the input of the given scanner sequentially. */
+	private MDLSection parse(MDLScanner scanner) throws Exception {
+		return MDLSection.parse(scanner, symbolTable, lazySections);
+	}
+
+	/** Returns the result of a parse job and unwraps its failure. */
+	private static <T> T get(Future<T> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * The parameters of a section, i.e. the text between its sub sections.
+	 * The text is padded with line terminators, so each part of it is on the
+	 * same line as in the file.
+	 */
+	private class Gaps {
+
+		/** The collected text. */
+		private final StringBuilder text = new StringBuilder();
+
+		/** Line terminators preceding the end of the text in the file. */
+		private int line;
+
+		/** Constructor. */
+		public Gaps(int line) {
+			this.line = line;
+		}
+
+		/**
+		 * Appends the bytes <code>[from, to)</code>, which are preceded by
+		 * <code>fromLine</code> and <code>toLine</code> line terminators.
+		 */
+		public void append(int from, int fromLine, int to, int toLine)
+				throws CharacterCodingException {
+			if (from >= to) {
+				return;
+			}
+			if (fromLine <= line) {
+				// keep tokens apart that were separated by a section
+				text.append(' ');
+			}
+			for (; line < fromLine; line++) {
+				text.append('\n');
+			}
+			text.append(encoding.decode(content, from, to));
+			line = toLine;
+		}
+	}
+
+	/** A section found by the pre-scan. */
+	private static class Span {
+		/** Byte index of the section name. */
+		int start;
+
+		/** Byte index after the closing brace. */
+		int end;
+
+		/** Line terminators preceding the section name. */
+		int line;
+
+		/** Byte index after the opening brace. */
+		int bodyStart;
+
+		/** Line terminators preceding the body. */
+		int bodyLine;
+
+		/** Section name. */
+		String name;
+	}
+
+	/** A section that has been split into parts parsed by different jobs. */
+	private class SplitSection {
+
+		/** Name of the section. */
+		private final String name;
+
+		/** Line number of the section. */
+		private final int lineNumber;
+
+		/**
+		 * The section parsed without its sub sections, <code>null</code> for
+		 * the file root.
+		 */
+		private Future<MDLSection> shell;
+
+		/**
+		 * The sub sections in file order, either {@link SplitSection}s or
+		 * futures of section lists.
+		 */
+		private final List<Object> parts = new ArrayList<Object>();
+
+		/** Constructor. */
+		public SplitSection(String name, int lineNumber) {
+			this.name = name;
+			this.lineNumber = lineNumber;
+		}
+
+		/** Waits for all parts and assembles the section. */
+		@SuppressWarnings("unchecked")
+		public MDLSection build() throws Exception {
+			List<MDLSection> sections = new ArrayList<MDLSection>();
+			for (Object part : parts) {
+				if (part instanceof SplitSection) {
+					sections.add(((SplitSection) part).build());
+				} else {
+					sections.addAll(get((Future<List<MDLSection>>) part));
+				}
+			}
+
+			PairList<String, String> parameters = new PairList<String, String>();
+			if (shell != null) {
+				MDLSection parsedShell = get(shell);
+				for (String parameter : parsedShell.getParameterNames()) {
+					parameters.add(parameter, parsedShell.getParameter(parameter));
+				}
+			}
+			return new MDLSection(name, sections, parameters, lineNumber, symbolTable);
+		}
+	}
+
+	/** Parses a list of small sections. */
+	private class BatchJob implements Callable<List<MDLSection>> {
+
+		/** The sections to parse. */
+		private final List<Span> spans;
+
+		/** Constructor. */
+		public BatchJob(List<Span> spans) {
+			this.spans = spans;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public List<MDLSection> call() throws Exception {
+			List<MDLSection> result = new ArrayList<MDLSection>(spans.size());
+			for (Span span : spans) {
+				result.add(parseRegion(span.start, span.end, span.line).getSubSections().get(0));
+			}
+			return result;
+		}
+	}
+
+	/** Parses the parameters of a split section. */
+	private class ShellJob implements Callable<MDLSection> {
+
+		/** Name of the section. */
+		private final String name;
+
+		/** Line terminators preceding the opening brace of the section. */
+		private final int line;
+
+		/**
+		 * The parameters of the section as MDL text, starting on the line of
+		 * the opening brace.
+		 */
+		private final String parameters;
+
+		/** Constructor. */
+		public ShellJob(String name, int line, String parameters) {
+			this.name = name;
+			this.line = line;
+			this.parameters = parameters;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public MDLSection call() throws Exception {
+			char[] text = (name + " {" + parameters + "\n}\n").toCharArray();
+			return parse(new MDLScanner(text, 0, text.length, line)).getSubSections().get(0);
+		}
+	}
+
+}
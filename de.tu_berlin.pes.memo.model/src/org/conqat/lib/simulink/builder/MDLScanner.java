@@ -333,6 +333,67 @@ public class MDLScanner implements java_cup.runtime.Scanner {
 		return new Symbol(type, yyline, yycolumn, value);
 	}
 
+	/**
+	 * Creates a new scanner for the region <code>[start, end)</code> of an
+	 * already decoded buffer, e.g. a part of a file decoded by a parse job of
+	 * the {@link MDLParallelParser}. The buffer is used, not copied, and is
+	 * owned by the scanner from now on: at the end of the region the scanner
+	 * moves the unfinished token to the front of the buffer, like it does for
+	 * any input, and then finds the end of the input.
+	 *
+	 * @param buffer
+	 *           the decoded input
+	 * @param start
+	 *           the index of the first character to scan
+	 * @param end
+	 *           the index after the last character to scan
+	 * @param line
+	 *           the number of line terminators preceding <code>start</code>
+	 */
+	public MDLScanner(char[] buffer, int start, int end, int line) {
+		this(new java.io.StringReader(""));
+		// an empty buffer could not grow on refill, keep the own one
+		if (buffer.length > 0) {
+			this.zzBuffer = buffer;
+			this.zzStartRead = this.zzMarkedPos = this.zzCurrentPos = this.zzPushbackPos = start;
+			this.zzEndRead = end;
+		}
+		this.yyline = line;
+	}
+
+	/**
+	 * Creates a new scanner that reads its input from a memory-mapped file
+	 * channel. The mapped bytes are decoded straight into the buffer of the
+	 * scanner while scanning, the mapping is released at the end of the input
+	 * or when the scanner is closed. The channel is not closed by the scanner.
+	 *
+	 * @param channel
+	 *           the file channel to map
+	 * @param charset
+	 *           the charset used to decode the file
+	 * @exception java.io.IOException
+	 *               if the channel cannot be mapped
+	 */
+	public MDLScanner(java.nio.channels.FileChannel channel, java.nio.charset.Charset charset)
+			throws java.io.IOException {
+		this(new ByteBufferReader(channel.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0,
+				channel.size()), charset));
+	}
+
+	/**
+	 * Creates a new scanner that reads its input from a memory-mapped file
+	 * channel using the platform default charset, like
+	 * {@link #MDLScanner(java.io.InputStream)} does.
+	 *
+	 * @param channel
+	 *           the file channel to map
+	 * @exception java.io.IOException
+	 *               if the channel cannot be mapped
+	 */
+	public MDLScanner(java.nio.channels.FileChannel channel) throws java.io.IOException {
+		this(channel, java.nio.charset.Charset.defaultCharset());
+	}
+
 	/**
 	 * Creates a new scanner There is also a java.io.InputStream version of this
 	 * constructor.
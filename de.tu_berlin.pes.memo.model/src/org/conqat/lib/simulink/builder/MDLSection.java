@@ -17,10 +17,13 @@
 package org.conqat.lib.simulink.builder;
 
 import java.io.Serializable;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.conqat.lib.commons.collections.CollectionUtils;
 import org.conqat.lib.commons.collections.ListMap;
@@ -51,8 +54,37 @@ public class MDLSection implements Serializable {
 	/** The parent section. */
 	private MDLSection parentSection;
 
-	/** Parameter map. */
-	private final HashMap<String, String> parameters = new HashMap<String, String>();
+	/**
+	 * Number of parameters up to which compact sections store their
+	 * parameters in arrays instead of a map.
+	 */
+	public static final int COMPACT_PARAMETER_LIMIT = 16;
+
+	/** Shared empty array for compact sections without parameters. */
+	private static final String[] NO_PARAMETERS = new String[0];
+
+	/**
+	 * The context of the parse running on the current thread, see
+	 * {@link #parse(MDLScanner, MDLSymbolTable, List)}. The generated
+	 * {@link MDLParser} creates sections by the plain constructors, which
+	 * take the symbol table and the lazy sections from here.
+	 */
+	private static final ThreadLocal<ParseContext> parseContext = new ThreadLocal<ParseContext>();
+
+	/**
+	 * Parameter map. <code>null</code> for compact sections with at most
+	 * {@link #COMPACT_PARAMETER_LIMIT} parameters.
+	 */
+	private final HashMap<String, String> parameters;
+
+	/**
+	 * Interned parameter names of compact sections, <code>null</code> if the
+	 * parameters are stored in {@link #parameters}.
+	 */
+	private final String[] parameterNames;
+
+	/** Parameter values of compact sections, parallel to parameterNames. */
+	private final String[] parameterValues;
 
 	/** Maps from section name to a list of sections. */
 	private transient final ListMap<String, MDLSection> subSections = new ListMap<String, MDLSection>();
@@ -62,12 +94,48 @@ public class MDLSection implements Serializable {
 	 * Create MDL section.
 	 */
 	/* package */MDLSection(String name, int lineNumber) {
-		this.name = name;
+		this(name, lineNumber, getContextSymbolTable(), 0);
+	}
+
+	/**
+	 * Create MDL section. If a symbol table is given, the section is compact:
+	 * names are interned and small parameter sets are stored in arrays.
+	 */
+	private MDLSection(String name, int lineNumber, MDLSymbolTable symbols, int parameterCount) {
 		this.lineNumber = lineNumber;
+		if (symbols == null) {
+			this.name = name;
+			this.parameters = new HashMap<String, String>();
+			this.parameterNames = null;
+			this.parameterValues = null;
+		} else {
+			this.name = symbols.internName(name);
+			if (parameterCount > COMPACT_PARAMETER_LIMIT) {
+				this.parameters = new HashMap<String, String>(parameterCount * 4 / 3 + 1);
+				this.parameterNames = null;
+				this.parameterValues = null;
+			} else if (parameterCount == 0) {
+				this.parameters = null;
+				this.parameterNames = NO_PARAMETERS;
+				this.parameterValues = NO_PARAMETERS;
+			} else {
+				this.parameters = null;
+				this.parameterNames = new String[parameterCount];
+				this.parameterValues = new String[parameterCount];
+			}
+		}
 	}
 
 	/**
-	 * Create MDL section.
+	 * Create empty MDL section, which is compact if a symbol table is given.
+	 */
+	/* package */MDLSection(String name, int lineNumber, MDLSymbolTable symbols) {
+		this(name, lineNumber, symbols, 0);
+	}
+
+	/**
+	 * Create MDL section. Within {@link #parse(MDLScanner, MDLSymbolTable, List)}
+	 * the section is compact if a symbol table is given there.
 	 *
 	 * @param name
 	 *           section name.
@@ -82,17 +150,149 @@ public class MDLSection implements Serializable {
 	 */
 	public MDLSection(String name, List<MDLSection> sections, PairList<String, String> parameters,
 			int lineNumber) {
-		this(name, lineNumber);
+		this(name, sections, parameters, lineNumber, getContextSymbolTable());
+	}
+
+	/**
+	 * Create MDL section.
+	 *
+	 * @param name
+	 *           section name.
+	 * @param lineNumber
+	 *           line number within the MDL file.
+	 *
+	 * @param sections
+	 *           list of sub sections
+	 * @param parameters
+	 *           parameters of this section
+	 * @param symbols
+	 *           symbol table to intern names and values against, or
+	 *           <code>null</code> to create a section with a plain parameter
+	 *           map
+	 *
+	 */
+	public MDLSection(String name, List<MDLSection> sections, PairList<String, String> parameters,
+			int lineNumber, MDLSymbolTable symbols) {
+		this(name, lineNumber, symbols, countDistinctNames(parameters, symbols));
 
+		ParseContext context = parseContext.get();
 		for (MDLSection section : sections) {
+			if (context != null && context.lazySections != null) {
+				section = context.resolvePlaceholder(section);
+			}
 			addSubSection(section);
 		}
 
+		if (symbols == null) {
+			for (int i = 0; i < parameters.size(); i++) {
+				this.parameters.put(parameters.getFirst(i), parameters.getSecond(i));
+			}
+			return;
+		}
+
+		int count = 0;
 		for (int i = 0; i < parameters.size(); i++) {
-			this.parameters.put(parameters.getFirst(i), parameters.getSecond(i));
+			String key = symbols.internName(parameters.getFirst(i));
+			String value = symbols.internValue(parameters.getSecond(i));
+			if (this.parameters != null) {
+				this.parameters.put(key, value);
+				continue;
+			}
+			int index = indexOfParameter(key, count);
+			if (index < 0) {
+				index = count++;
+				parameterNames[index] = key;
+			}
+			parameterValues[index] = value; // last value wins, like in the map
 		}
 	}
 
+	/**
+	 * Parses the input of a scanner with the generated {@link MDLParser}.
+	 *
+	 * @param symbols
+	 *           symbol table to create compact sections, or <code>null</code>
+	 *           to create sections with plain parameter maps
+	 * @param lazySections
+	 *           the lazy sections the placeholders of a {@link MDLLazyParser}
+	 *           refer to, or <code>null</code>
+	 * @return the AST of the input, as returned by {@link MDLParser#parse()}
+	 */
+	/* package */static MDLSection parse(MDLScanner scanner, MDLSymbolTable symbols,
+			List<MDLSection> lazySections) throws Exception {
+		ParseContext outer = parseContext.get();
+		parseContext.set(new ParseContext(symbols, lazySections));
+		try {
+			return (MDLSection) new MDLParser(scanner).parse().value;
+		} finally {
+			if (outer == null) {
+				parseContext.remove();
+			} else {
+				parseContext.set(outer);
+			}
+		}
+	}
+
+	/**
+	 * Returns the symbol table of the parse running on the current thread or
+	 * <code>null</code>.
+	 */
+	private static MDLSymbolTable getContextSymbolTable() {
+		ParseContext context = parseContext.get();
+		if (context == null) {
+			return null;
+		}
+		return context.symbols;
+	}
+
+	/**
+	 * Returns the number of distinct parameter names for compact sections
+	 * (0 if no symbol table is given). Sections with more parameters than
+	 * {@link #COMPACT_PARAMETER_LIMIT} use a map anyway, so their names are
+	 * not checked for duplicates.
+	 */
+	private static int countDistinctNames(PairList<String, String> parameters,
+			MDLSymbolTable symbols) {
+		if (symbols == null) {
+			return 0;
+		}
+		int size = parameters.size();
+		if (size <= 1 || size > COMPACT_PARAMETER_LIMIT) {
+			return size;
+		}
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			String name = parameters.getFirst(i);
+			int j = 0;
+			while (j < i && !name.equals(parameters.getFirst(j))) {
+				j++;
+			}
+			if (j == i) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the index of a parameter in the arrays of a compact section or
+	 * -1.
+	 */
+	private int indexOfParameter(String name, int count) {
+		for (int i = 0; i < count; i++) {
+			String key = parameterNames[i];
+			if (key == name || key.equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/** Returns true if the parameters are stored in arrays. */
+	public boolean isCompact() {
+		return parameters == null;
+	}
+
 	/** Add sub section. */
 	private void addSubSection(MDLSection section) {
 		section.parentSection = this;
@@ -104,6 +304,11 @@ public class MDLSection implements Serializable {
 		return parentSection;
 	}
 
+	/** Sets the parent section, used when a lazy section is loaded. */
+	/* package */void setParentSection(MDLSection parentSection) {
+		this.parentSection = parentSection;
+	}
+
 	/**
 	 * Get the first sub section with a specified name or <code>null</code> if no
 	 * section with the given name was found.
@@ -154,17 +359,24 @@ public class MDLSection implements Serializable {
 
 	/** Get parameter. */
 	public String getParameter(String name) {
-		return parameters.get(name);
+		if (parameters != null) {
+			return parameters.get(name);
+		}
+		int index = indexOfParameter(name, parameterNames.length);
+		if (index < 0) {
+			return null;
+		}
+		return parameterValues[index];
 	}
 
 	/**
 	 * Gets parameter if present, otherwise returns default values.
 	 */
 	public String getParameter(String name, String defaultValue) {
-		if (!parameters.containsKey(name)) {
+		if (!hasParameter(name)) {
 			return defaultValue;
 		}
-		return parameters.get(name);
+		return getParameter(name);
 	}
 
 	/**
@@ -180,7 +392,10 @@ public class MDLSection implements Serializable {
 
 	/** Get names of all parameters. */
 	public UnmodifiableSet<String> getParameterNames() {
-		return CollectionUtils.asUnmodifiable(parameters.keySet());
+		if (parameters != null) {
+			return CollectionUtils.asUnmodifiable(parameters.keySet());
+		}
+		return CollectionUtils.asUnmodifiable(new CompactParameterNames());
 	}
 
 	/**
@@ -204,7 +419,10 @@ public class MDLSection implements Serializable {
 
 	/** Checks if parameter with given names is present. */
 	public boolean hasParameter(String name) {
-		return parameters.containsKey(name);
+		if (parameters != null) {
+			return parameters.containsKey(name);
+		}
+		return indexOfParameter(name, parameterNames.length) >= 0;
 	}
 
 	/** Checks if this section has sub sections with specified name. */
@@ -232,8 +450,8 @@ public class MDLSection implements Serializable {
 			prefix = prefix + ".";
 		}
 
-		for (String name : parameters.keySet()) {
-			map.put(prefix + name, parameters.get(name));
+		for (String name : getParameterNames()) {
+			map.put(prefix + name, getParameter(name));
 		}
 
 		for (MDLSection subSection : getSubSections()) {
@@ -254,4 +472,79 @@ public class MDLSection implements Serializable {
 			collectLeafSections(child, result);
 		}
 	}
+
+	/** View of the parameter names of a compact section. */
+	private class CompactParameterNames extends AbstractSet<String> {
+
+		/** {@inheritDoc} */
+		@Override
+		public boolean contains(Object name) {
+			return name instanceof String && indexOfParameter((String) name, parameterNames.length) >= 0;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public Iterator<String> iterator() {
+			return new Iterator<String>() {
+				private int index = 0;
+
+				@Override
+				public boolean hasNext() {
+					return index < parameterNames.length;
+				}
+
+				@Override
+				public String next() {
+					if (index >= parameterNames.length) {
+						throw new NoSuchElementException();
+					}
+					return parameterNames[index++];
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public int size() {
+			return parameterNames.length;
+		}
+	}
+
+	/** The symbol table and lazy sections of a running parse. */
+	private static class ParseContext {
+
+		/** Symbol table for compact sections or <code>null</code>. */
+		private final MDLSymbolTable symbols;
+
+		/** Sections referred to by lazy placeholders, <code>null</code> if none. */
+		private final List<MDLSection> lazySections;
+
+		/** Constructor. */
+		public ParseContext(MDLSymbolTable symbols, List<MDLSection> lazySections) {
+			this.symbols = symbols;
+			this.lazySections = lazySections;
+		}
+
+		/**
+		 * Returns the lazy section a placeholder section stands for, or the
+		 * section itself if it is no placeholder. A placeholder has the single
+		 * parameter {@link MDLLazyParser#PLACEHOLDER_PARAMETER} holding the
+		 * index in the lazy sections.
+		 */
+		public MDLSection resolvePlaceholder(MDLSection section) {
+			if (section.hasSubSections() || section.getParameterNames().size() != 1) {
+				return section;
+			}
+			String index = section.getParameter(MDLLazyParser.PLACEHOLDER_PARAMETER);
+			if (index == null) {
+				return section;
+			}
+			return lazySections.get(Integer.parseInt(index));
+		}
+	}
 }
\ No newline at end of file
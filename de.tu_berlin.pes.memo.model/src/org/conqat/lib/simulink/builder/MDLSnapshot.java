@@ -0,0 +1,265 @@
+package org.conqat.lib.simulink.builder;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.conqat.lib.commons.collections.PairList;
+
+/**
+ * Binary snapshot format for {@link MDLSection} trees. A snapshot consists of
+ * a header (magic number, format version and a caller defined block of
+ * metadata), a table of all distinct strings of the tree and the sections in
+ * pre-order, referring to the string table by index:
+ *
+ * <pre>
+ * section := name:int line:int paramCount:int (key:int value:int)* childCount:int section*
+ * </pre>
+ *
+ * Snapshots are read in one sequential pass, which is much cheaper than
+ * scanning and parsing the original model again.
+ */
+public class MDLSnapshot {
+
+	/** Magic number at the beginning of each snapshot ("MDLS"). */
+	private static final int MAGIC = 0x4D444C53;
+
+	/** Version of the format, to be increased on every change. */
+	private static final int VERSION = 1;
+
+	/** Encoding of the string table. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Writes a snapshot of the given tree.
+	 *
+	 * @param root
+	 *           the root of the tree
+	 * @param metadata
+	 *           caller defined metadata stored in the header, may be empty
+	 * @param out
+	 *           the stream to write to, not closed by this method
+	 */
+	public static void write(MDLSection root, byte[] metadata, OutputStream out) throws IOException {
+		HashMap<String, Integer> index = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		collectStrings(root, index, strings);
+
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeInt(metadata.length);
+		data.write(metadata);
+
+		data.writeInt(strings.size());
+		for (String s : strings) {
+			byte[] bytes = s.getBytes(UTF8);
+			data.writeInt(bytes.length);
+			data.write(bytes);
+		}
+
+		writeSection(root, index, data);
+		data.flush();
+	}
+
+	/**
+	 * Writes a snapshot of the given tree to a file. The snapshot is written
+	 * to a temporary file first and renamed afterwards, so readers never see
+	 * a partially written snapshot.
+	 */
+	public static void write(MDLSection root, byte[] metadata, File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			write(root, metadata, out);
+		} finally {
+			out.close();
+		}
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Could not replace snapshot " + file);
+		}
+		if (!temp.renameTo(file)) {
+			throw new IOException("Could not rename snapshot " + temp + " to " + file);
+		}
+	}
+
+	/**
+	 * Reads the metadata of a snapshot without reading the tree.
+	 *
+	 * @return the metadata or <code>null</code> if the file is not a snapshot
+	 *         of the current format version
+	 */
+	public static byte[] readMetadata(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(12);
+			FileChannel channel = in.getChannel();
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+				// fill header
+			}
+			header.flip();
+			if (header.remaining() < 12 || header.getInt() != MAGIC || header.getInt() != VERSION) {
+				return null;
+			}
+			int length = header.getInt();
+			if (length < 0 || length > channel.size()) {
+				return null;
+			}
+			ByteBuffer metadata = ByteBuffer.allocate(length);
+			while (metadata.hasRemaining() && channel.read(metadata) >= 0) {
+				// fill metadata
+			}
+			return metadata.array();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads a snapshot from a file. The file is read into memory and closed
+	 * before the tree is built; it is not memory-mapped, because a mapping
+	 * would keep it locked (on Windows) until it is garbage collected, so the
+	 * snapshot could not be replaced.
+	 *
+	 * @param symbols
+	 *           symbol table for compact sections, may be <code>null</code>
+	 * @return the root of the tree or <code>null</code> if the file is not a
+	 *         snapshot of the current format version
+	 */
+	public static MDLSection read(File file, MDLSymbolTable symbols) throws IOException {
+		ByteBuffer buffer;
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				return null;
+			}
+			buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// fill buffer
+			}
+		} finally {
+			in.close();
+		}
+		buffer.flip();
+		return read(buffer, symbols);
+	}
+
+	/**
+	 * Reads a snapshot from a buffer.
+	 *
+	 * @param symbols
+	 *           symbol table for compact sections, may be <code>null</code>
+	 * @return the root of the tree or <code>null</code> if the buffer does not
+	 *         contain a snapshot of the current format version
+	 */
+	public static MDLSection read(ByteBuffer buffer, MDLSymbolTable symbols) {
+		if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			return null;
+		}
+		int metadataLength = buffer.getInt();
+		buffer.position(buffer.position() + metadataLength);
+
+		String[] strings = new String[buffer.getInt()];
+		byte[] bytes = new byte[256];
+		for (int i = 0; i < strings.length; i++) {
+			int length = buffer.getInt();
+			if (length > bytes.length) {
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			}
+			buffer.get(bytes, 0, length);
+			strings[i] = new String(bytes, 0, length, UTF8);
+		}
+
+		return readSection(buffer, strings, symbols);
+	}
+
+	/** Collects all distinct strings of a tree in pre-order. */
+	private static void collectStrings(MDLSection section, HashMap<String, Integer> index,
+			List<String> strings) {
+		addString(section.getName(), index, strings);
+		for (String name : section.getParameterNames()) {
+			addString(name, index, strings);
+			addString(section.getParameter(name), index, strings);
+		}
+		for (MDLSection child : section.getSubSections()) {
+			collectStrings(child, index, strings);
+		}
+	}
+
+	/** Adds a string to the string table if it is not contained yet. */
+	private static void addString(String s, HashMap<String, Integer> index, List<String> strings) {
+		if (s != null && !index.containsKey(s)) {
+			index.put(s, strings.size());
+			strings.add(s);
+		}
+	}
+
+	/** Returns the index of a string, -1 for <code>null</code>. */
+	private static int indexOf(String s, HashMap<String, Integer> index) {
+		if (s == null) {
+			return -1;
+		}
+		return index.get(s);
+	}
+
+	/** Writes a section and its sub sections. */
+	private static void writeSection(MDLSection section, HashMap<String, Integer> index,
+			DataOutputStream data) throws IOException {
+		data.writeInt(indexOf(section.getName(), index));
+		data.writeInt(section.getLineNumber());
+
+		data.writeInt(section.getParameterNames().size());
+		for (String name : section.getParameterNames()) {
+			data.writeInt(indexOf(name, index));
+			data.writeInt(indexOf(section.getParameter(name), index));
+		}
+
+		List<MDLSection> children = section.getSubSections();
+		data.writeInt(children.size());
+		for (MDLSection child : children) {
+			writeSection(child, index, data);
+		}
+	}
+
+	/** Reads a section and its sub sections. */
+	private static MDLSection readSection(ByteBuffer buffer, String[] strings,
+			MDLSymbolTable symbols) {
+		String name = stringAt(buffer.getInt(), strings);
+		int lineNumber = buffer.getInt();
+
+		int parameterCount = buffer.getInt();
+		PairList<String, String> parameters = new PairList<String, String>(parameterCount);
+		for (int i = 0; i < parameterCount; i++) {
+			String key = stringAt(buffer.getInt(), strings);
+			parameters.add(key, stringAt(buffer.getInt(), strings));
+		}
+
+		int childCount = buffer.getInt();
+		List<MDLSection> children = new ArrayList<MDLSection>(childCount);
+		for (int i = 0; i < childCount; i++) {
+			children.add(readSection(buffer, strings, symbols));
+		}
+
+		return new MDLSection(name, children, parameters, lineNumber, symbols);
+	}
+
+	/** Resolves a string table index. */
+	private static String stringAt(int index, String[] strings) {
+		if (index < 0) {
+			return null;
+		}
+		return strings[index];
+	}
+}
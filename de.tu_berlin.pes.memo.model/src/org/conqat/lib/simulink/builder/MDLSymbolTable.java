@@ -0,0 +1,84 @@
+package org.conqat.lib.simulink.builder;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Symbol table shared by compact {@link MDLSection}s. Parameter names are
+ * always interned, so each distinct name ("Name", "Position", "SID", ...)
+ * exists only once. Parameter values are deduplicated if they are short,
+ * which covers the frequently repeated ones ("on", "off", "auto", "[]",
+ * "Inherit: auto", ...) without keeping every unique value (e.g. positions)
+ * in the table. The table is thread-safe, so it can be used by parallel
+ * parsers.
+ */
+public class MDLSymbolTable implements Serializable {
+
+	/** Values up to this length are deduplicated. */
+	public static final int MAX_SHARED_VALUE_LENGTH = 24;
+
+	/** Maximal number of distinct values kept in the table. */
+	public static final int MAX_SHARED_VALUES = 1 << 16;
+
+	/** The interned parameter (and section) names. */
+	private final ConcurrentHashMap<String, String> names = new ConcurrentHashMap<String, String>();
+
+	/** The deduplicated parameter values. */
+	private final ConcurrentHashMap<String, String> values = new ConcurrentHashMap<String, String>();
+
+	/** Returns the canonical instance of a parameter or section name. */
+	public String internName(String name) {
+		return intern(names, name);
+	}
+
+	/**
+	 * Returns the canonical instance of a parameter value if it is short
+	 * enough to be shared, otherwise the value itself.
+	 */
+	public String internValue(String value) {
+		if (value == null || value.length() > MAX_SHARED_VALUE_LENGTH) {
+			return value;
+		}
+		String shared = values.get(value);
+		if (shared != null) {
+			return shared;
+		}
+		if (values.size() >= MAX_SHARED_VALUES) {
+			return value;
+		}
+		return intern(values, value);
+	}
+
+	/**
+	 * Parses the input of a scanner with the {@link MDLParser}, creating
+	 * compact sections whose names and values are interned against this
+	 * table.
+	 *
+	 * @return the AST of the input, as returned by {@link MDLParser#parse()}
+	 */
+	public MDLSection parse(MDLScanner scanner) throws Exception {
+		return MDLSection.parse(scanner, this, null);
+	}
+
+	/** Returns the number of interned names. */
+	public int getNameCount() {
+		return names.size();
+	}
+
+	/** Returns the number of shared values. */
+	public int getValueCount() {
+		return values.size();
+	}
+
+	/** Looks up or adds a string in the given pool. */
+	private static String intern(ConcurrentHashMap<String, String> pool, String s) {
+		if (s == null) {
+			return null;
+		}
+		String shared = pool.putIfAbsent(s, s);
+		if (shared == null) {
+			return s;
+		}
+		return shared;
+	}
+}
@@ -0,0 +1,97 @@
+package de.tu_berlin.pes.memo.model.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import de.tu_berlin.pes.memo.model.impl.Block;
+import de.tu_berlin.pes.memo.model.impl.Cycle;
+
+/**
+ * Checks the loops found by {@link AlgebraicLoopDetector} in a model with
+ * loops on the top level and in subsystems, with and without an executor.
+ * Run as a Java application, the exit code is the number of failed checks.
+ */
+public class AlgebraicLoopDetectorTest {
+
+	public static void main(String[] args) throws Exception {
+		TestModel m = new TestModel();
+		TestModel.Checker c = new TestModel.Checker();
+
+		// a loop of two gains
+		Block g1 = m.block("G1", "Gain", null);
+		Block g2 = m.block("G2", "Gain", null);
+		m.line(g1, 1, g2, 1);
+		m.line(g2, 1, g1, 1);
+
+		// a loop broken by a delay
+		Block g3 = m.block("G3", "Gain", null);
+		Block delay = m.block("Delay", "UnitDelay", null);
+		m.line(g3, 1, delay, 1);
+		m.line(delay, 1, g3, 1);
+
+		// a gain fed back to itself
+		Block g4 = m.block("G4", "Gain", null);
+		m.line(g4, 1, g4, 1);
+
+		// loops of three blocks in two subsystems, the first with a branch
+		// into a block outside the loop
+		Block sub1 = m.block("Sub1", "SubSystem", null);
+		Block s1 = m.block("S1", "Gain", sub1);
+		Block s2 = m.block("S2", "Gain", sub1);
+		Block s3 = m.block("S3", "Sum", sub1);
+		Block s4 = m.block("S4", "Gain", sub1);
+		m.line(s1, 1, s2, 1);
+		m.line(s2, 1, s3, 1);
+		m.line(s3, 1, s1, 1);
+		m.line(s3, 1, s4, 1);
+		Block sub2 = m.block("Sub2", "SubSystem", null);
+		Block t1 = m.block("T1", "Gain", sub2);
+		Block t2 = m.block("T2", "Gain", sub2);
+		Block t3 = m.block("T3", "Gain", sub2);
+		m.line(t3, 1, t1, 1);
+		m.line(t1, 1, t2, 1);
+		m.line(t2, 1, t3, 1);
+
+		// two subsystems connected on the top level, no loop
+		m.line(sub1, 1, sub2, 1);
+
+		List<List<Block>> expected = new ArrayList<List<Block>>();
+		expected.add(Arrays.asList(g1, g2));
+		expected.add(Arrays.asList(g4));
+		expected.add(Arrays.asList(s1, s2, s3));
+		expected.add(Arrays.asList(t1, t2, t3));
+
+		AlgebraicLoopDetector detector = new AlgebraicLoopDetector(m.model);
+		c.check(loops(detector.findLoops()).equals(expected), "loops "
+				+ loops(detector.findLoops()));
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			List<List<Block>> parallel = loops(detector.findLoops(executor));
+			c.check(parallel.equals(expected), "loops with an executor " + parallel);
+
+			// lines between the subsystems, e.g. of an incomplete model,
+			// close a loop across them, the partitions are merged
+			m.line(s3, 1, t1, 2);
+			m.line(t3, 1, s1, 2);
+			List<Block> across = Arrays.asList(s1, s2, s3, t1, t2, t3);
+			List<List<Block>> merged = loops(new AlgebraicLoopDetector(m.model).findLoops(executor));
+			c.check((merged.size() == 3) && merged.get(2).equals(across), "loop across subsystems "
+					+ merged);
+		} finally {
+			executor.shutdown();
+		}
+
+		c.exit();
+	}
+
+	private static List<List<Block>> loops(List<Cycle> cycles) {
+		List<List<Block>> result = new ArrayList<List<Block>>();
+		for (Cycle cycle : cycles) {
+			result.add(new ArrayList<Block>(cycle.getCycle()));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,105 @@
+package de.tu_berlin.pes.memo.model.util;
+
+import java.util.Arrays;
+
+/**
+ * Checks {@link MatlabLiteralParser} against literals with known values and
+ * literals that must be rejected. Run as a Java application, the exit code
+ * is the number of failed checks.
+ */
+public class MatlabLiteralParserTest {
+
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+		// scalars
+		expect("0", new double[][] { { 0 } });
+		expect("  -2.5e3 ", new double[][] { { -2500 } });
+		expect("+.5", new double[][] { { 0.5 } });
+		expect("3.", new double[][] { { 3 } });
+		expect("1E-2", new double[][] { { 0.01 } });
+		expect("Inf", new double[][] { { Double.POSITIVE_INFINITY } });
+		expect("-inf", new double[][] { { Double.NEGATIVE_INFINITY } });
+		expect("NaN", new double[][] { { Double.NaN } });
+
+		// vectors and matrices
+		expect("[]", new double[0][]);
+		expect("[ ]", new double[0][]);
+		expect("[1 2 3]", new double[][] { { 1, 2, 3 } });
+		expect("[1, 2,3]", new double[][] { { 1, 2, 3 } });
+		expect("[1 -2]", new double[][] { { 1, -2 } });
+		expect("[1 2; 3 4]", new double[][] { { 1, 2 }, { 3, 4 } });
+		expect("[1 2\n3 4]", new double[][] { { 1, 2 }, { 3, 4 } });
+		expect("[1;2;3]", new double[][] { { 1 }, { 2 }, { 3 } });
+		expect("[1 2 3 4 5 6 7 8 9]", new double[][] { { 1, 2, 3, 4, 5, 6, 7, 8, 9 } });
+		expect("[Inf NaN]", new double[][] { { Double.POSITIVE_INFINITY, Double.NaN } });
+
+		// everything else is not a literal
+		reject(null);
+		reject("");
+		reject("K");
+		reject("1+2");
+		reject("[1 - 2]");
+		reject("[1 2; 3]");
+		reject("[1,,2]");
+		reject("[1 2");
+		reject("1 2");
+		reject("1e");
+		reject("Info");
+		reject("[1 2]]");
+		reject(".");
+
+		// conversions
+		check(MatlabLiteralParser.toScalar(parse("[7]"), "[7]") == 7, "toScalar [7]");
+		check(Arrays.equals(MatlabLiteralParser.toVector(parse("[1;2]"), "[1;2]"), new double[] { 1, 2 }),
+				"toVector column");
+		check(Arrays.equals(MatlabLiteralParser.toVector(parse("[1 2]"), "[1 2]"), new double[] { 1, 2 }),
+				"toVector row");
+		check(MatlabLiteralParser.toVector(parse("[]"), "[]").length == 0, "toVector []");
+		try {
+			MatlabLiteralParser.toScalar(parse("[1 2]"), "[1 2]");
+			check(false, "toScalar [1 2] is rejected");
+		} catch (NumberFormatException e) {
+			// expected
+		}
+		try {
+			MatlabLiteralParser.toVector(parse("[1 2; 3 4]"), "[1 2; 3 4]");
+			check(false, "toVector [1 2; 3 4] is rejected");
+		} catch (NumberFormatException e) {
+			// expected
+		}
+
+		System.out.println(failures == 0 ? "OK" : failures + " checks failed");
+		System.exit(failures);
+	}
+
+	private static double[][] parse(String literal) {
+		return MatlabLiteralParser.parseMatrix(literal);
+	}
+
+	private static void expect(String literal, double[][] expected) {
+		try {
+			double[][] actual = parse(literal);
+			// compares NaN by its bits, unlike ==
+			check(Arrays.deepEquals(actual, expected), literal + " -> " + Arrays.deepToString(actual));
+		} catch (NumberFormatException e) {
+			check(false, literal + " -> " + e.getMessage());
+		}
+	}
+
+	private static void reject(String literal) {
+		try {
+			double[][] actual = parse(literal);
+			check(false, literal + " is accepted as " + Arrays.deepToString(actual));
+		} catch (NumberFormatException e) {
+			// expected
+		}
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			failures++;
+			System.out.println("FAILED: " + message);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package de.tu_berlin.pes.memo.model.util;
+
+import java.util.Arrays;
+
+import de.tu_berlin.pes.memo.model.impl.Block;
+import de.tu_berlin.pes.memo.model.impl.Port;
+import de.tu_berlin.pes.memo.model.impl.SignalLine;
+
+/**
+ * Checks the nodes and edges of a {@link ModelGraph} of a small model. Run as
+ * a Java application, the exit code is the number of failed checks.
+ */
+public class ModelGraphTest {
+
+	public static void main(String[] args) {
+		TestModel m = new TestModel();
+		TestModel.Checker c = new TestModel.Checker();
+
+		Block a = m.block("A", "Gain", null);
+		Block b = m.block("B", "Gain", null);
+		Block sub = m.block("Sub", "SubSystem", null);
+		Block inner = m.block("Inner", "Gain", sub);
+		Block delay = m.block("Delay", "UnitDelay", null);
+
+		// created out of port order, the edges of A are ordered by port
+		SignalLine aToDelay = m.line(a, 2, delay, 1);
+		SignalLine aToB = m.line(a, 1, b, 1);
+		SignalLine aToSub = m.line(a, 1, sub, 1);
+		SignalLine bToA = m.line(b, 1, a, 1);
+		Port enable = new Port(100, SimulinkPortConstants.ENABLE_PORT, 1);
+		delay.setEnablePort(enable);
+		SignalLine bToEnable = m.line(b, m.outPort(b, 1), delay, enable);
+
+		ModelGraph g = new ModelGraph(m.model);
+
+		// nodes are ordered by id
+		c.check(g.size() == 5, "size " + g.size());
+		Block[] byId = { a, b, sub, inner, delay };
+		for (int n = 0; n < byId.length; n++) {
+			c.check(g.getBlock(n) == byId[n], "block of node " + n);
+			c.check(g.getNode(byId[n]) == n, "node of " + byId[n].getName());
+		}
+		c.check(g.getNode(new TestModel().block("Other", "Gain", null)) == -1,
+				"node of a foreign block with the id of A");
+		Block foreign = new Block();
+		foreign.setId(1000);
+		c.check(g.getNode(foreign) == -1, "node of a foreign block");
+
+		// parents and types
+		c.check(g.getParent(g.getNode(inner)) == g.getNode(sub), "parent of Inner");
+		c.check(g.getParent(g.getNode(a)) == -1, "parent of A");
+		c.check(g.getTypeCount() == 3, "type count " + g.getTypeCount());
+		c.check(g.getTypeCode(g.getNode(a)) == g.getTypeCode("Gain"), "type code of A");
+		c.check(g.getTypeCode(g.getNode(inner)) == g.getTypeCode("Gain"), "type code of Inner");
+		c.check("UnitDelay".equals(g.getTypeName(g.getTypeCode(g.getNode(delay)))), "type name");
+		c.check(g.getTypeCode("Constant") == -1, "code of a missing type");
+
+		// edges, ordered by source node, source port and id
+		c.check(g.getEdgeCount() == 5, "edge count " + g.getEdgeCount());
+		int na = g.getNode(a);
+		c.check(g.getOutDegree(na) == 3, "out degree of A");
+		c.check(g.getSignalLine(g.getOutEdgeStart(na)) == aToB, "first edge of A");
+		c.check(g.getSignalLine(g.getOutEdgeStart(na) + 1) == aToSub, "second edge of A");
+		c.check(g.getSignalLine(g.getOutEdgeStart(na) + 2) == aToDelay, "third edge of A");
+		c.check(Arrays.equals(g.getSuccessors(na),
+				new int[] { g.getNode(b), g.getNode(sub), g.getNode(delay) }), "successors of A");
+		for (int e = 0; e < g.getEdgeCount(); e++) {
+			SignalLine l = g.getSignalLine(e);
+			c.check(g.getBlock(g.getSource(e)) == l.getSrcBlock(), "source of edge " + e);
+			c.check(g.getBlock(g.getTarget(e)) == l.getDstBlock(), "target of edge " + e);
+			c.check(g.getSrcPortNumber(e) == l.getSrcPort().getNumber(), "source port of edge " + e);
+			c.check(g.getDstPortNumber(e) == l.getDstPort().getNumber(), "target port of edge " + e);
+			c.check(g.getSrcPortKind(e) == SimulinkPortConstants.OUT_PORT_POSITION, "source kind of edge "
+					+ e);
+		}
+
+		// incoming edges, ordered by edge
+		int nd = g.getNode(delay);
+		c.check(g.getInDegree(nd) == 2, "in degree of Delay");
+		c.check(g.getSignalLine(g.getInEdge(nd, 0)) == aToDelay, "first in edge of Delay");
+		c.check(g.getSignalLine(g.getInEdge(nd, 1)) == bToEnable, "second in edge of Delay");
+		c.check(g.getDstPortKind(g.getInEdge(nd, 0)) == SimulinkPortConstants.IN_PORT_POSITION,
+				"in port kind");
+		c.check(g.getDstPortKind(g.getInEdge(nd, 1)) == SimulinkPortConstants.ENABLE_PORT_POSITION,
+				"enable port kind");
+		c.check(Arrays.equals(g.getPredecessors(g.getNode(a)), new int[] { g.getNode(b) }),
+				"predecessors of A");
+		c.check(g.getSignalLine(g.getInEdge(g.getNode(a), 0)) == bToA, "in edge of A");
+		c.check(g.getInDegree(g.getNode(inner)) == 0, "in degree of Inner");
+
+		// a snapshot of some blocks has only the lines between them
+		ModelGraph part = new ModelGraph(Arrays.asList(b, a));
+		c.check(part.size() == 2, "size of the part");
+		c.check(part.getBlock(0) == a, "first node of the part");
+		c.check(part.getEdgeCount() == 2, "edge count of the part " + part.getEdgeCount());
+		c.check(part.getNode(delay) == -1, "node of a block outside the part");
+
+		// the snapshot does not change with the model
+		m.line(inner, 1, inner, 1);
+		c.check(g.getEdgeCount() == 5, "edge count after a change of the model");
+
+		c.exit();
+	}
+}
@@ -0,0 +1,97 @@
+package de.tu_berlin.pes.memo.model.util;
+
+import de.tu_berlin.pes.memo.model.impl.Block;
+import de.tu_berlin.pes.memo.model.impl.Model;
+import de.tu_berlin.pes.memo.model.impl.ModelItem;
+import de.tu_berlin.pes.memo.model.impl.Port;
+import de.tu_berlin.pes.memo.model.impl.SignalLine;
+
+/**
+ * Builds small models by hand for the tests of this package. Ids are
+ * assigned in the order of creation, starting at 1.
+ */
+class TestModel {
+
+	final Model model = new Model();
+
+	private int nextId = 1;
+
+	/**
+	 * Adds a block to the model.
+	 *
+	 * @param parent
+	 *           the parent block or null for the top level
+	 */
+	Block block(String name, String type, Block parent) {
+		Block b = new Block();
+		b.setId(nextId++);
+		b.setName(name);
+		b.setType(type);
+		b.setParent(parent == null ? (ModelItem) model : parent);
+		b.setParentModel(model);
+		model.getBlocks().add(b);
+		model.getBlockMap().put(b.getId(), b);
+		return b;
+	}
+
+	/**
+	 * Connects an out port of a block with an in port of another one, the
+	 * ports are created on first use.
+	 */
+	SignalLine line(Block src, int srcPort, Block dst, int dstPort) {
+		return line(src, outPort(src, srcPort), dst, inPort(dst, dstPort));
+	}
+
+	/**
+	 * Connects two ports.
+	 */
+	SignalLine line(Block src, Port srcPort, Block dst, Port dstPort) {
+		SignalLine l = new SignalLine(nextId++, 1, src, dst, srcPort, dstPort, "");
+		src.getOutSignals().add(l);
+		dst.getInSignals().add(l);
+		model.getSignalLines().add(l);
+		model.getSignalMap().put(l.getId(), l);
+		return l;
+	}
+
+	Port inPort(Block b, int number) {
+		Port p = b.getInPortsMap().get(number);
+		if (p == null) {
+			p = new Port(nextId++, SimulinkPortConstants.IN_PORT_PREFIX + number, number);
+			b.getInPorts().add(p);
+		}
+		return p;
+	}
+
+	Port outPort(Block b, int number) {
+		Port p = b.getOutPortsMap().get(number);
+		if (p == null) {
+			p = new Port(nextId++, SimulinkPortConstants.OUT_PORT_PREFIX + number, number);
+			b.getOutPorts().add(p);
+		}
+		return p;
+	}
+
+	/**
+	 * Counts and reports failed checks of a test.
+	 */
+	static class Checker {
+
+		private int failures = 0;
+
+		void check(boolean condition, String message) {
+			if (!condition) {
+				failures++;
+				System.out.println("FAILED: " + message);
+			}
+		}
+
+		/**
+		 * Prints the result and exits with the number of failed checks.
+		 */
+		void exit() {
+			System.out.println(failures == 0 ? "OK" : failures + " checks failed");
+			System.exit(failures);
+		}
+	}
+}
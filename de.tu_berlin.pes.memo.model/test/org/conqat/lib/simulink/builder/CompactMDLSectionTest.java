@@ -0,0 +1,146 @@
+package org.conqat.lib.simulink.builder;
+
+import java.util.TreeMap;
+
+/**
+ * Parses a small model into compact sections, see {@link MDLSymbolTable}, and
+ * compares the sections, their parameters and line numbers with those of the
+ * plain {@link MDLParser}. Run as a Java application, the exit code is the
+ * number of failed checks.
+ */
+public class CompactMDLSectionTest {
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		String text = model();
+		String expected = dump(parse(text, null));
+
+		// names and short values are interned
+		MDLSymbolTable symbols = new MDLSymbolTable();
+		MDLSection compact = parse(text, symbols);
+		check(dump(compact).equals(expected), "compact sections differ:\n" + dump(compact));
+		MDLSection system = compact.getFirstSubSection("Model").getFirstSubSection("System");
+		MDLSection g1 = system.getSubSections("Block").get(0);
+		MDLSection g2 = system.getSubSections("Block").get(1);
+		check(g1.isCompact(), "small sections are compact");
+		check(!system.getSubSections("Block").get(2).isCompact(), "large sections use a map");
+		check(g1.getName() == g2.getName(), "section names are interned");
+		check(g1.getParameter("Gain") == g2.getParameter("Gain"), "short values are interned");
+		check(g1.getParameter("Position") == g2.getParameter("Position"), "vectors are interned");
+		check(g1.getParameter("Description").equals(g2.getParameter("Description"))
+				&& (g1.getParameter("Description") != g2.getParameter("Description")),
+				"long values are not interned");
+		check(g1.getParameter("Missing") == null, "missing parameter");
+		check(g1.getParentSection() == system, "parent of a compact section");
+
+		System.out.println(failures == 0 ? "OK" : failures + " checks failed");
+		System.exit(failures);
+	}
+
+	/**
+	 * @return a model with all kinds of values, an annotation of a subsystem
+	 *         and a Stateflow section
+	 */
+	static String model() {
+		StringBuilder b = new StringBuilder();
+		b.append("Model {\n");
+		b.append("  Name\t\t\t  \"m\"\n");
+		b.append("  Version\t\t  7.4\n");
+		b.append("  GraphicalInterface {\n");
+		b.append("    NumRootInports\t  0\n");
+		b.append("  }\n");
+		b.append("  System {\n");
+		b.append("    Name\t\t    \"m\"\n");
+		for (int i = 1; i <= 2; i++) {
+			b.append("    Block {\n");
+			b.append("      BlockType\t      Gain\n");
+			b.append("      Name\t      \"G" + i + "\"\n");
+			b.append("      Position\t      [100, 40, 130, 70]\n");
+			b.append("      Gain\t      \"2\"\n");
+			b.append("      Description\t      \"a description that is too long to be shared\"\n");
+			b.append("    }\n");
+		}
+		b.append("    Block {\n");
+		b.append("      BlockType\t      SubSystem\n");
+		b.append("      Name\t      \"Sub\"\n");
+		for (int i = 0; i < MDLSection.COMPACT_PARAMETER_LIMIT; i++) {
+			b.append("      P" + i + "\t      \"" + i + "\"\n");
+		}
+		b.append("      System {\n");
+		b.append("\tName\t\t\"Sub\"\n");
+		b.append("\tAnnotation {\n");
+		b.append("\t  Name\t\t  \"a {brace} and \\\"quotes\\\"\"\n");
+		b.append("\t  Position\t  [10, 20]\n");
+		b.append("\t}\n");
+		b.append("      }\n");
+		b.append("    }\n");
+		b.append("    Line {\n");
+		b.append("      SrcBlock\t      \"G1\"\n");
+		b.append("      SrcPort\t      1\n");
+		b.append("      DstBlock\t      \"G2\"\n");
+		b.append("      DstPort\t      1\n");
+		b.append("    }\n");
+		b.append("    Annotation {\n");
+		b.append("      Name\t      \"first line\\n\"\n");
+		b.append("      \"second line\"\n");
+		b.append("    }\n");
+		b.append("  }\n");
+		b.append("}\n");
+		b.append("# a comment with a { brace\n");
+		b.append("Stateflow {\n");
+		b.append("  machine {\n");
+		b.append("    id\t\t\t1\n");
+		b.append("    name\t\t\"m\"\n");
+		b.append("  }\n");
+		b.append("  chart {\n");
+		b.append("    id\t\t\t2\n");
+		b.append("    name\t\t\"c\"\n");
+		b.append("  }\n");
+		b.append("}\n");
+		return b.toString();
+	}
+
+	/**
+	 * @param symbols
+	 *           the table to create compact sections with, null for plain
+	 *           sections
+	 */
+	static MDLSection parse(String text, MDLSymbolTable symbols) throws Exception {
+		char[] chars = text.toCharArray();
+		MDLScanner scanner = new MDLScanner(chars, 0, chars.length, 0);
+		if (symbols != null) {
+			return symbols.parse(scanner);
+		}
+		return (MDLSection) new MDLParser(scanner).parse().value;
+	}
+
+	/**
+	 * @return the names, line numbers and parameters of the section and its
+	 *         sub sections, one per line
+	 */
+	static String dump(MDLSection section) {
+		StringBuilder b = new StringBuilder();
+		dump(section, b, "");
+		return b.toString();
+	}
+
+	private static void dump(MDLSection section, StringBuilder b, String indent) {
+		TreeMap<String, String> parameters = new TreeMap<String, String>();
+		for (String name : section.getParameterNames()) {
+			parameters.put(name, section.getParameter(name));
+		}
+		b.append(indent).append(section.getName()).append(" line ").append(section.getLineNumber())
+				.append(' ').append(parameters).append('\n');
+		for (MDLSection child : section.getSubSections()) {
+			dump(child, b, indent + "  ");
+		}
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			failures++;
+			System.out.println("FAILED: " + message);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package org.conqat.lib.simulink.builder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Parses the model of {@link CompactMDLSectionTest} with lazy sections, see
+ * {@link MDLLazyParser}, and compares the sections with those of the plain
+ * {@link MDLParser}. Run as a Java application, the exit code is the number
+ * of failed checks.
+ */
+public class LazyMDLSectionTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		String text = CompactMDLSectionTest.model();
+		String expected = CompactMDLSectionTest.dump(CompactMDLSectionTest.parse(text, null));
+
+		// with and without compact sections and threads
+		Set<String> paths = new HashSet<String>(Arrays.asList("/Stateflow", "System/Annotation"));
+		for (int threads : new int[] { 1, 2 }) {
+			for (MDLSymbolTable table : new MDLSymbolTable[] { null, new MDLSymbolTable() }) {
+				String variant = " (threads " + threads + ", compact " + (table != null) + ")";
+				MDLLazyParser parser = new MDLLazyParser(ByteBuffer.wrap(text.getBytes(UTF8)), UTF8,
+						paths);
+				parser.setThreads(threads);
+				parser.setSymbolTable(table);
+				MDLSection lazy = parser.parse();
+
+				MDLSection stateflow = lazy.getFirstSubSection("Stateflow");
+				check(stateflow instanceof LazyMDLSection, "Stateflow is lazy" + variant);
+				if (!(stateflow instanceof LazyMDLSection)) {
+					continue;
+				}
+				check(!((LazyMDLSection) stateflow).isLoaded(), "Stateflow is not parsed" + variant);
+				check(stateflow.getLineNumber() == lineOf(text, "Stateflow {"),
+						"line of Stateflow" + variant);
+				MDLSection chart = stateflow.getFirstSubSection("chart");
+				check(((LazyMDLSection) stateflow).isLoaded(), "Stateflow is parsed on access" + variant);
+				check((chart != null) && (chart.getParentSection() == stateflow),
+						"parent of a lazy sub section" + variant);
+				check((chart != null) && "c".equals(chart.getParameter("name")), "lazy parameter"
+						+ variant);
+				MDLSection annotation = lazy.getFirstSubSection("Model").getFirstSubSection("System")
+						.getFirstSubSection("Annotation");
+				check(annotation instanceof LazyMDLSection, "Annotation is lazy" + variant);
+
+				String actual = CompactMDLSectionTest.dump(lazy);
+				check(actual.equals(expected), "lazy sections differ" + variant + ":\n" + actual);
+			}
+		}
+
+		System.out.println(failures == 0 ? "OK" : failures + " checks failed");
+		System.exit(failures);
+	}
+
+	private static int lineOf(String text, String line) {
+		String before = text.substring(0, text.indexOf(line));
+		return before.split("\n", -1).length;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			failures++;
+			System.out.println("FAILED: " + message);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package de.tu_berlin.pes.memo.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.conqat.lib.simulink.builder.MDLSection;
+import org.conqat.lib.simulink.builder.MDLSnapshot;
+import org.conqat.lib.simulink.builder.MDLSymbolTable;
+
+import de.tu_berlin.pes.memo.MeMoPlugin;
+
+/**
+ * On-disk cache of parsed libraries and referenced models. Each source file
+ * gets one {@link MDLSnapshot} in the cache directory. The snapshot header
+ * records the parser options, the modification time, the length and the
+ * SHA-1 hash of the source content. A snapshot is used if it was written
+ * with the same options and modification time and length are unchanged, or
+ * if only the modification time changed but the content hash is still the
+ * same (e.g. after a checkout).
+ * <p>
+ * Only complete ASTs may be stored: storing an AST with unloaded
+ * {@link org.conqat.lib.simulink.builder.LazyMDLSection}s would parse them.
+ */
+public class ASTSnapshotCache {
+
+	/** File extension of snapshot files. */
+	private static final String SNAPSHOT_EXTENSION = ".mdlsnap";
+
+	/** Version of the metadata, to be increased on every change. */
+	private static final int METADATA_VERSION = 2;
+
+	/** The directory holding the snapshots. */
+	private final File directory;
+
+	/**
+	 * Creates a cache in the given directory. The directory is created if it
+	 * does not exist.
+	 */
+	public ASTSnapshotCache(File directory) {
+		this.directory = directory;
+		if (!directory.exists()) {
+			directory.mkdirs();
+		}
+	}
+
+	/**
+	 * Loads the snapshot of a source file.
+	 *
+	 * @param source
+	 *           the parsed *.mdl-File
+	 * @param options
+	 *           the parser version and options the AST has to be created
+	 *           with
+	 * @param symbols
+	 *           symbol table for compact sections, may be null
+	 * @return the AST of the file or null if there is no valid snapshot
+	 */
+	public MDLSection load(File source, String options, MDLSymbolTable symbols) {
+		File snapshot = getSnapshotFile(source);
+		if (!snapshot.isFile()) {
+			return null;
+		}
+		try {
+			byte[] metadata = MDLSnapshot.readMetadata(snapshot);
+			if (metadata == null || !isValid(source, options, metadata)) {
+				return null;
+			}
+			return MDLSnapshot.read(snapshot, symbols);
+		} catch (IOException e) {
+			MeMoPlugin.logException(e.toString(), e);
+		} catch (RuntimeException e) {
+			// a corrupt snapshot is treated like a missing one
+			MeMoPlugin.logException(e.toString(), e);
+		}
+		return null;
+	}
+
+	/**
+	 * Stores the AST of a source file.
+	 *
+	 * @param source
+	 *           the parsed *.mdl-File
+	 * @param options
+	 *           the parser version and options the AST was created with
+	 * @param ast
+	 *           the complete AST of the file
+	 */
+	public void store(File source, String options, MDLSection ast) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(METADATA_VERSION);
+			out.writeUTF(options);
+			out.writeUTF(source.getCanonicalPath());
+			out.writeLong(source.lastModified());
+			out.writeLong(source.length());
+			out.write(hash(source));
+			out.close();
+
+			MDLSnapshot.write(ast, bytes.toByteArray(), getSnapshotFile(source));
+		} catch (IOException e) {
+			MeMoPlugin.logException(e.toString(), e);
+		}
+	}
+
+	/** Removes the snapshot of a source file. */
+	public void invalidate(File source) {
+		File snapshot = getSnapshotFile(source);
+		if (snapshot.exists()) {
+			snapshot.delete();
+		}
+	}
+
+	/** Removes all snapshots. */
+	public void clear() {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.getName().endsWith(SNAPSHOT_EXTENSION)) {
+				file.delete();
+			}
+		}
+	}
+
+	/** Checks the snapshot metadata against the current source file. */
+	private boolean isValid(File source, String options, byte[] metadata) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(metadata));
+		if (in.readInt() != METADATA_VERSION || !in.readUTF().equals(options)) {
+			return false;
+		}
+		String path = in.readUTF();
+		long lastModified = in.readLong();
+		long length = in.readLong();
+		byte[] hash = new byte[20];
+		in.readFully(hash);
+
+		if (!path.equals(source.getCanonicalPath()) || length != source.length()) {
+			return false;
+		}
+		if (lastModified == source.lastModified()) {
+			return true;
+		}
+		return Arrays.equals(hash, hash(source));
+	}
+
+	/** Returns the snapshot file for a source file. */
+	private File getSnapshotFile(File source) {
+		String path;
+		try {
+			path = source.getCanonicalPath();
+		} catch (IOException e) {
+			path = source.getAbsolutePath();
+		}
+		return new File(directory, toHex(digest(path.getBytes())) + SNAPSHOT_EXTENSION);
+	}
+
+	/** Computes the SHA-1 hash of a file's content. */
+	private static byte[] hash(File file) throws IOException {
+		MessageDigest digest = newDigest();
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		} finally {
+			in.close();
+		}
+		return digest.digest();
+	}
+
+	/** Computes the SHA-1 hash of a byte array. */
+	private static byte[] digest(byte[] bytes) {
+		MessageDigest digest = newDigest();
+		digest.update(bytes);
+		return digest.digest();
+	}
+
+	/** Creates a SHA-1 message digest. */
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform has to support SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Converts bytes to a hexadecimal string. */
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+}
@@ -32,6 +32,8 @@
 package de.tu_berlin.pes.memo.parser;
 
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.conqat.lib.simulink.builder.MDLSection;
 
@@ -72,6 +74,12 @@ public class BlockFactory {
 
 	private HashMap<String, HashMap<String, BlockDefault>> modelname2defaults = new HashMap<String, HashMap<String, BlockDefault>>();
 
+	/**
+	 * The log of the current thread if it builds a part of a model in
+	 * parallel, see {@link #nextID(Model)}.
+	 */
+	private final ThreadLocal<IdLog> idLog = new ThreadLocal<IdLog>();
+
 	/**
 	 * Adds new default parameters for a block type to the block factory. If
 	 * default parameters already known, the parameter values will be updated to
@@ -84,7 +92,7 @@ public class BlockFactory {
 	 * @param model
 	 *           the related model, important to generate new id's
 	 */
-	public void addDefaults(String modelName, String type, MDLSection defaultSection, Model model) {
+	public synchronized void addDefaults(String modelName, String type, MDLSection defaultSection, Model model) {
 		HashMap<String, BlockDefault> defaults = modelname2defaults.get(modelName);
 		if (defaults == null) {
 			defaults = new HashMap<String, BlockDefault>();
@@ -116,17 +124,8 @@ public class BlockFactory {
 	 * @return The created Block
 	 */
 	public Block createBlock(int level, ModelItem parent, MDLSection blockSection, Model model) {
-		Block result = new Block(model.nextID(), level, parent, model, blockSection);
-		String blockModelName = result.getModelName();
-		HashMap<String, BlockDefault> defaults = modelname2defaults.get(blockModelName);
-		if (defaults == null) {
-			defaults = new HashMap<String, BlockDefault>();
-			modelname2defaults.put(blockModelName, defaults);
-		}
-		if (defaults.get(result.getType()) == null) {
-			defaults.put(result.getType(), new BlockDefault(model.nextID(), result.getType()));
-		}
-		result.setDefaultParamters(defaults.get(result.getType()));
+		Block result = new Block(nextID(model), level, parent, model, blockSection);
+		result.setDefaultParamters(getDefaults(result.getModelName(), result.getType(), model));
 
 		return result;
 	}
@@ -152,17 +151,8 @@ public class BlockFactory {
 	 */
 	public Block createBlock(int level, ModelItem parent, MDLSection blockSection, Model model,
 			String blockName) {
-		Block result = new Block(model.nextID(), level, parent, model, blockSection, blockName);
-		String blockModelName = result.getModelName();
-		HashMap<String, BlockDefault> defaults = modelname2defaults.get(blockModelName);
-		if (defaults == null) {
-			defaults = new HashMap<String, BlockDefault>();
-			modelname2defaults.put(blockModelName, defaults);
-		}
-		if (defaults.get(result.getType()) == null) {
-			defaults.put(result.getType(), new BlockDefault(model.nextID(), result.getType()));
-		}
-		result.setDefaultParamters(defaults.get(result.getType()));
+		Block result = new Block(nextID(model), level, parent, model, blockSection, blockName);
+		result.setDefaultParamters(getDefaults(result.getModelName(), result.getType(), model));
 
 		return result;
 	}
@@ -191,21 +181,86 @@ public class BlockFactory {
 	public ReferenceBlock createRefBlock(int level, ModelItem parent, MDLSection blockSection,
 			MDLSection libBlockSection, Model model, String blockName) {
 		Block original = createBlock(level, parent, blockSection, model, blockName);
-		ReferenceBlock refBlock = new ReferenceBlock(model.nextID(), level, parent, model,
+		ReferenceBlock refBlock = new ReferenceBlock(nextID(model), level, parent, model,
 				libBlockSection, blockName, original);
 
-		String blockModelName = refBlock.getModelName();
-		HashMap<String, BlockDefault> defaults = modelname2defaults.get(blockModelName);
+		refBlock.setDefaultParamters(getDefaults(refBlock.getModelName(), refBlock.getType(), model));
+
+		return refBlock;
+	}
+
+	/**
+	 * Returns the BlockDefault for a block type of a model, a new one is
+	 * created if there is none yet.
+	 *
+	 * @param modelName
+	 *           the name of the model the block belongs to
+	 * @param type
+	 *           the block type
+	 * @param model
+	 *           the related model, important to generate new id's
+	 * @return the BlockDefault of the type
+	 */
+	private synchronized BlockDefault getDefaults(String modelName, String type, Model model) {
+		HashMap<String, BlockDefault> defaults = modelname2defaults.get(modelName);
 		if (defaults == null) {
 			defaults = new HashMap<String, BlockDefault>();
-			modelname2defaults.put(blockModelName, defaults);
+			modelname2defaults.put(modelName, defaults);
 		}
-		if (defaults.get(refBlock.getType()) == null) {
-			defaults.put(refBlock.getType(), new BlockDefault(model.nextID(), refBlock.getType()));
+		BlockDefault result = defaults.get(type);
+		IdLog log = getIdLog(model);
+		if (result == null) {
+			result = new BlockDefault(log != null ? -1 : model.nextID(), type);
+			defaults.put(type, result);
 		}
-		refBlock.setDefaultParamters(defaults.get(refBlock.getType()));
+		if ((log != null) && (result.getId() == -1)) {
+			// the first block in the order of a sequential build assigns the id
+			log.entries.add(result);
+		}
+		return result;
+	}
 
-		return refBlock;
+	/**
+	 * Returns a new id of the model. If the current thread has a log for the
+	 * model, the id is a temporary id below -1 instead, which is added to the
+	 * log. BlockDefaults created meanwhile get the id -1 and are added to the
+	 * log of every thread that uses them.
+	 *
+	 * @param model
+	 *           the related model
+	 * @return the id
+	 * @see #setIdLog(IdLog)
+	 */
+	public int nextID(Model model) {
+		IdLog log = getIdLog(model);
+		if (log == null) {
+			return model.nextID();
+		}
+		int id = log.tempIds.getAndDecrement();
+		log.entries.add(Integer.valueOf(id));
+		return id;
+	}
+
+	private IdLog getIdLog(Model model) {
+		IdLog log = idLog.get();
+		return ((log != null) && (log.model == model)) ? log : null;
+	}
+
+	/**
+	 * Sets the log of the current thread.
+	 *
+	 * @param log
+	 *           the log or null
+	 * @return the previous log of the current thread or null
+	 */
+	IdLog setIdLog(IdLog log) {
+		IdLog previous = idLog.get();
+		if (log == null) {
+			idLog.remove();
+		} else {
+			idLog.set(log);
+		}
+		return previous;
 	}
 
 	/**
@@ -275,6 +330,7 @@ public class BlockFactory {
 		// replace old block
 		model.getBlockMap().remove(correspondingBlock.hashCode());
 		model.getBlockMap().put(cb.hashCode(), cb);
+		model.invalidateBlockPathIndex();
 
 		// replace parent references, there are a few, for example the s-function
 		// block
@@ -297,8 +353,28 @@ public class BlockFactory {
 	 * conflict with new generated id's and the stored default values may be not
 	 * correct. This deletes all stored defaults.
 	 */
-	public void clear() {
+	public synchronized void clear() {
 		modelname2defaults = new HashMap<String, HashMap<String, BlockDefault>>();
 	}
 
+	/**
+	 * The ids taken by a thread that builds a part of a model in parallel. The
+	 * entries are the temporary ids, the BlockDefaults waiting for an id and
+	 * further entries of the builder, in the order of their creation. Replaying
+	 * them in the order of a sequential build assigns the same ids as a
+	 * sequential build.
+	 */
+	static final class IdLog {
+		final Model model;
+		// shared by all threads, counts down from -2
+		final AtomicInteger tempIds;
+		final List<Object> entries;
+
+		IdLog(Model model, AtomicInteger tempIds, List<Object> entries) {
+			this.model = model;
+			this.tempIds = tempIds;
+			this.entries = entries;
+		}
+	}
+
 }
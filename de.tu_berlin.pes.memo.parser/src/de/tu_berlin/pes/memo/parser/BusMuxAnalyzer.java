@@ -2632,13 +2632,7 @@ public class BusMuxAnalyzer {
 	 *         null, if no signal line is found.
 	 */
 	private SignalLine getInSignalLineByInPortNumber(Block block, int inPortNumber) {
-		Port port = block.getInPortsMap().get(inPortNumber);
-		for (SignalLine s : block.getInSignals()) {
-			if (s.getDstPort().equals(port)) {
-				return s;
-			}
-		}
-		return null;
+		return block.getInSignalLineByInPort(inPortNumber);
 	}
 
 	/**
@@ -0,0 +1,254 @@
+package de.tu_berlin.pes.memo.parser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.tu_berlin.pes.memo.model.impl.Block;
+import de.tu_berlin.pes.memo.model.impl.ModelItem;
+import de.tu_berlin.pes.memo.model.util.SimulinkBlockConstants;
+import de.tu_berlin.pes.memo.model.util.SimulinkParameterNames;
+import de.tu_berlin.pes.memo.model.util.SimulinkParameterValues;
+
+/**
+ * Index of the Goto and From blocks of a model by their tag. It answers which
+ * From blocks a Goto block reaches according to its tag visibility, without
+ * querying the database:
+ * <ul>
+ * <li>local: the From blocks with the same tag in the same system</li>
+ * <li>global: all From blocks with the same tag, except those in a system
+ * with a local Goto block of the tag and those in the scope of a scoped Goto
+ * block of the tag</li>
+ * <li>scoped: the From blocks with the same tag in the same system and its
+ * subsystems, with the same exceptions as for global Goto blocks</li>
+ * </ul>
+ * The scope of a scoped Goto block is its system and all subsystems below.
+ * All blocks are kept ordered by id, so the result doesn't depend on the
+ * order of the given blocks.
+ */
+class GotoFromIndex {
+
+	// all Goto blocks
+	private final List<Block> gotos = new ArrayList<Block>();
+
+	// tag -> From blocks
+	private final Map<String, List<Block>> froms = new HashMap<String, List<Block>>();
+
+	// tag -> parent id -> From blocks
+	private final Map<String, Map<Integer, List<Block>>> fromsByParent = new HashMap<String, Map<Integer, List<Block>>>();
+
+	// tag -> ids of the systems with a local Goto block
+	private final Map<String, Set<Integer>> localGotoParents = new HashMap<String, Set<Integer>>();
+
+	// tags with a local Goto block on the first level
+	private final Set<String> localGotoTopLevel = new HashSet<String>();
+
+	// tag -> parent id -> scoped Goto blocks
+	private final Map<String, Map<Integer, List<Block>>> scopedGotosByParent = new HashMap<String, Map<Integer, List<Block>>>();
+
+	// tag -> From blocks reached by global Goto blocks
+	private final Map<String, List<Block>> globalFroms = new HashMap<String, List<Block>>();
+
+	/**
+	 * Creates the index.
+	 *
+	 * @param blocks
+	 *           all blocks of the model
+	 */
+	public GotoFromIndex(Collection<Block> blocks) {
+		List<Block> sorted = new ArrayList<Block>(blocks);
+		Collections.sort(sorted, new Comparator<Block>() {
+			@Override
+			public int compare(Block a, Block b) {
+				return a.getId() < b.getId() ? -1 : (a.getId() == b.getId() ? 0 : 1);
+			}
+		});
+
+		for (Block b : sorted) {
+			String tag = b.getParameter(SimulinkParameterNames.GOTO_TAG);
+			if (SimulinkBlockConstants.GOTO_BLOCKTYPE.equals(b.getType())) {
+				gotos.add(b);
+				if (tag == null) {
+					continue;
+				}
+				String visibility = b.getParameter(SimulinkParameterNames.TAG_VISIBILITY);
+				if (SimulinkParameterValues.GOTO_TAG_LOCAL.equals(visibility)) {
+					Set<Integer> parents = localGotoParents.get(tag);
+					if (parents == null) {
+						parents = new HashSet<Integer>();
+						localGotoParents.put(tag, parents);
+					}
+					parents.add(parentId(b));
+					if (b.getLevel() == 1) {
+						localGotoTopLevel.add(tag);
+					}
+				} else if (SimulinkParameterValues.GOTO_TAG_SCOPED.equals(visibility)) {
+					add(scopedGotosByParent, tag, b);
+				}
+			} else if (SimulinkBlockConstants.FROM_BLOCKTYPE.equals(b.getType()) && (tag != null)) {
+				List<Block> list = froms.get(tag);
+				if (list == null) {
+					list = new ArrayList<Block>();
+					froms.put(tag, list);
+				}
+				list.add(b);
+				add(fromsByParent, tag, b);
+			}
+		}
+	}
+
+	/**
+	 * @return all Goto blocks ordered by id
+	 */
+	public List<Block> getGotos() {
+		return Collections.unmodifiableList(gotos);
+	}
+
+	/**
+	 * Returns the From blocks reached by a Goto block.
+	 *
+	 * @param gotoBlock
+	 *           a Goto block of the indexed model
+	 * @return the From blocks ordered by id
+	 */
+	public List<Block> getFroms(Block gotoBlock) {
+		String tag = gotoBlock.getParameter(SimulinkParameterNames.GOTO_TAG);
+		String visibility = gotoBlock.getParameter(SimulinkParameterNames.TAG_VISIBILITY);
+		if ((tag == null) || !froms.containsKey(tag)) {
+			return Collections.emptyList();
+		}
+
+		if (SimulinkParameterValues.GOTO_TAG_LOCAL.equals(visibility)) {
+			List<Block> result = fromsByParent.get(tag).get(parentId(gotoBlock));
+			return result == null ? Collections.<Block> emptyList() : result;
+		} else if (SimulinkParameterValues.GOTO_TAG_GLOBAL.equals(visibility)) {
+			// the same for every global Goto block of a tag
+			List<Block> result = globalFroms.get(tag);
+			if (result == null) {
+				result = new ArrayList<Block>();
+				for (Block from : froms.get(tag)) {
+					if (!isHiddenByLocal(from, tag)
+							&& !isInScopeOfScoped(from, tag, null, Integer.MIN_VALUE)) {
+						result.add(from);
+					}
+				}
+				globalFroms.put(tag, result);
+			}
+			return result;
+		} else if (SimulinkParameterValues.GOTO_TAG_SCOPED.equals(visibility)) {
+			List<Block> result = new ArrayList<Block>();
+			for (Block from : froms.get(tag)) {
+				if ((from.getLevel() >= gotoBlock.getLevel())
+						&& isBelow(from, gotoBlock.getParent()) && !isHiddenByLocal(from, tag)
+						&& !isInScopeOfScoped(from, tag, gotoBlock, gotoBlock.getLevel())) {
+					result.add(from);
+				}
+			}
+			return result;
+		}
+		return Collections.emptyList();
+	}
+
+	/**
+	 * @return true if there is a local Goto block with the tag in the system
+	 *         of the From block
+	 */
+	private boolean isHiddenByLocal(Block from, String tag) {
+		if ((from.getLevel() == 1) && localGotoTopLevel.contains(tag)) {
+			return true;
+		}
+		Set<Integer> parents = localGotoParents.get(tag);
+		return (parents != null) && parents.contains(parentId(from));
+	}
+
+	/**
+	 * Checks if a From block is in the scope of a scoped Goto block with the
+	 * tag, i.e. in the system of the Goto block or in one of its subsystems.
+	 *
+	 * @param from
+	 *           the From block
+	 * @param tag
+	 *           the tag of the From block
+	 * @param ignore
+	 *           a Goto block that is not considered or null
+	 * @param minLevel
+	 *           only Goto blocks on this or a lower level are considered
+	 */
+	private boolean isInScopeOfScoped(Block from, String tag, Block ignore, int minLevel) {
+		Map<Integer, List<Block>> byParent = scopedGotosByParent.get(tag);
+		if (byParent == null) {
+			return false;
+		}
+		// a Goto block without parent scopes the whole model
+		if (hasScoped(byParent.get(null), ignore, minLevel)) {
+			return true;
+		}
+		ModelItem system = from.getParent();
+		while (system != null) {
+			if (hasScoped(byParent.get(system.getId()), ignore, minLevel)) {
+				return true;
+			}
+			if ((system instanceof Block)
+					&& SimulinkBlockConstants.SUBSYSTEM_BLOCKTYPE.equals(((Block) system).getType())) {
+				system = ((Block) system).getParent();
+			} else {
+				break;
+			}
+		}
+		return false;
+	}
+
+	private static boolean hasScoped(List<Block> scoped, Block ignore, int minLevel) {
+		if (scoped != null) {
+			for (Block b : scoped) {
+				if ((b != ignore) && (b.getLevel() >= minLevel)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the system is a parent or indirect parent of the block
+	 *         or if the system is not a block, i.e. the whole model
+	 */
+	private static boolean isBelow(Block block, ModelItem system) {
+		if (!(system instanceof Block)) {
+			return true;
+		}
+		ModelItem item = block;
+		while (item.getId() != system.getId()) {
+			ModelItem parent = ((Block) item).getParent();
+			if (!(parent instanceof Block)) {
+				return false;
+			}
+			item = parent;
+		}
+		return true;
+	}
+
+	private static Integer parentId(Block b) {
+		return b.getParent() == null ? null : b.getParent().getId();
+	}
+
+	private static void add(Map<String, Map<Integer, List<Block>>> map, String tag, Block b) {
+		Map<Integer, List<Block>> byParent = map.get(tag);
+		if (byParent == null) {
+			byParent = new HashMap<Integer, List<Block>>();
+			map.put(tag, byParent);
+		}
+		List<Block> list = byParent.get(parentId(b));
+		if (list == null) {
+			list = new ArrayList<Block>();
+			byParent.put(parentId(b), list);
+		}
+		list.add(b);
+	}
+}
@@ -0,0 +1,149 @@
+package de.tu_berlin.pes.memo.parser;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.conqat.lib.simulink.builder.MDLSection;
+
+import de.tu_berlin.pes.memo.model.util.SimulinkBlockConstants;
+import de.tu_berlin.pes.memo.model.util.SimulinkParameterNames;
+import de.tu_berlin.pes.memo.model.util.SimulinkSectionConstants;
+
+/**
+ * Index of the blocks of a parsed library by their path below the library,
+ * e.g. <code>[Sources, Constant]</code> for the reference path
+ * <code>lib/Sources/Constant</code>. The index is built once when the library
+ * is loaded and keeps the forwarding table of the library. It remembers the
+ * modification time and length of the library file, so it can be reused as
+ * long as the file is unchanged.
+ */
+class LibraryBlockIndex {
+
+	// the library file and its state when the index was built
+	private final File file;
+	private final long lastModified;
+	private final long length;
+
+	// the AST of the library
+	private final MDLSection library;
+
+	// old path -> new path
+	private final HashMap<String, String> forwardingTable;
+
+	// path below the library -> block section, the empty path is the system
+	// of the library
+	private final Map<List<String>, MDLSection> blocks = new HashMap<List<String>, MDLSection>();
+
+	/**
+	 * Creates the index.
+	 *
+	 * @param file
+	 *           The library file
+	 * @param library
+	 *           The AST of the library file
+	 * @param forwardingTable
+	 *           The forwarding table of the library, see
+	 *           {@link MeMoParserManager#getForwardingTable(MDLSection)}
+	 */
+	public LibraryBlockIndex(File file, MDLSection library, HashMap<String, String> forwardingTable) {
+		this.file = file;
+		this.lastModified = file.lastModified();
+		this.length = file.length();
+		this.library = library;
+		this.forwardingTable = forwardingTable == null ? new HashMap<String, String>()
+				: forwardingTable;
+
+		MDLSection librarySection = library
+				.getFirstSubSection(SimulinkSectionConstants.LIBRARY_SECTION_TYPE);
+		if (librarySection != null) {
+			List<MDLSection> systems = librarySection
+					.getSubSections(SimulinkSectionConstants.SYSTEM_SECTION_TYPE);
+			if (!systems.isEmpty()) {
+				List<String> root = Collections.emptyList();
+				blocks.put(root, systems.get(0));
+				index(systems.get(0), root);
+			}
+		}
+	}
+
+	/**
+	 * Adds the blocks of a system and of its subsystems. Like a search along
+	 * the path, only the first block with a name is taken.
+	 */
+	private void index(MDLSection system, List<String> path) {
+		for (MDLSection block : system.getSubSections(SimulinkSectionConstants.BLOCK_SECTION_TYPE)) {
+			String name = block.getParameter(SimulinkParameterNames.BLOCK_NAME_PARAMETER);
+			if (name == null) {
+				continue;
+			}
+			List<String> blockPath = new ArrayList<String>(path.size() + 1);
+			blockPath.addAll(path);
+			blockPath.add(name);
+			if (blocks.containsKey(blockPath)) {
+				continue;
+			}
+			blocks.put(blockPath, block);
+			if (SimulinkBlockConstants.SUBSYSTEM_BLOCKTYPE.equals(block
+					.getParameter(SimulinkParameterNames.BLOCK_TYPE_PARAMETER))) {
+				List<MDLSection> systems = block
+						.getSubSections(SimulinkSectionConstants.SYSTEM_SECTION_TYPE);
+				if (!systems.isEmpty()) {
+					index(systems.get(0), blockPath);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if the library file has not changed since the index was
+	 *         built
+	 */
+	public boolean isUpToDate() {
+		return (file.lastModified() == lastModified) && (file.length() == length);
+	}
+
+	/**
+	 * @return the library file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the AST of the library
+	 */
+	public MDLSection getLibrary() {
+		return library;
+	}
+
+	/**
+	 * @return the forwarding table of the library
+	 */
+	public HashMap<String, String> getForwardingTable() {
+		return forwardingTable;
+	}
+
+	/**
+	 * @param referencePath
+	 *           a reference path into the library
+	 * @return the new path of the reference path or null if it is not
+	 *         forwarded
+	 */
+	public String getForwarding(String referencePath) {
+		return forwardingTable.get(referencePath);
+	}
+
+	/**
+	 * @param path
+	 *           the path below the library, i.e. the reference path without
+	 *           the library name split into its parts
+	 * @return the block section or null if there is no such block
+	 */
+	public MDLSection getBlock(List<String> path) {
+		return blocks.get(path);
+	}
+}
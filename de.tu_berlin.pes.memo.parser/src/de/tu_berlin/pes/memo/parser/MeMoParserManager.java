@@ -34,18 +34,41 @@ package de.tu_berlin.pes.memo.parser;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipFile;
 
+import org.conqat.lib.simulink.builder.MDLLazyParser;
+import org.conqat.lib.simulink.builder.MDLParallelParser;
 import org.conqat.lib.simulink.builder.MDLParser;
 import org.conqat.lib.simulink.builder.MDLScanner;
 import org.conqat.lib.simulink.builder.MDLSection;
+import org.conqat.lib.simulink.builder.MDLSymbolTable;
 import org.conqat.lib.simulink.builder.SimulinkModelBuildingException;
 
 import de.tu_berlin.pes.memo.MeMoPlugin;
+import de.tu_berlin.pes.memo.model.util.SimulinkBlockConstants;
 import de.tu_berlin.pes.memo.model.util.SimulinkParameterNames;
 import de.tu_berlin.pes.memo.model.util.SimulinkSectionConstants;
 import de.tu_berlin.pes.memo.parser.slx.SLXParser;
@@ -78,9 +101,180 @@ public class MeMoParserManager {
 																						// files
 	private static HashMap<MDLSection, HashMap<String, String>> forwardingTables;
 
+	/**
+	 * Block indexes of the loaded libraries by library file. They are kept
+	 * across parse sessions as long as the file is given and unchanged.
+	 */
+	private static HashMap<File, LibraryBlockIndex> libraryIndexes = new HashMap<File, LibraryBlockIndex>();
+
 	private static HashMap<String, MDLSection> parsedModelReferencesMap = new HashMap<String, MDLSection>();
 	private static HashMap<String, File> modelReferenceFilesMap = new HashMap<String, File>();
 
+	/**
+	 * *.mdl-Files larger than this (in bytes) are scanned from a memory-mapped
+	 * file channel instead of a buffered stream.
+	 */
+	public static final long MAPPED_SCANNER_THRESHOLD = 64L * 1024 * 1024;
+
+	/**
+	 * If set, memory-mapped *.mdl-Files are parsed by a
+	 * {@link MDLParallelParser}.
+	 */
+	private static volatile boolean parallelParsing = true;
+
+	/**
+	 * If set, the subsystems of a model are built in parallel, see
+	 * {@link ModelBuilder#setParallel(boolean)}.
+	 */
+	private static volatile boolean parallelBuilding = false;
+
+	/**
+	 * If set, the libraries and referenced models of a model are loaded
+	 * concurrently before it is built, see
+	 * {@link #prefetchReferences(MDLSection)}.
+	 */
+	private static volatile boolean prefetching = true;
+
+	/**
+	 * Loads the references for {@link #prefetchReferences(MDLSection)},
+	 * created on first use. Its threads parse a file at a time each.
+	 */
+	private static ExecutorService prefetchExecutor;
+
+	/** Set for the threads of {@link #prefetchExecutor}. */
+	private static final ThreadLocal<Boolean> prefetchThread = new ThreadLocal<Boolean>();
+
+	/**
+	 * Libraries and referenced models that could not be loaded with the
+	 * reason, by file. They are reported once and not loaded again until
+	 * {@link #setLibFiles(List)} is called.
+	 */
+	private static HashMap<File, String> failedFiles = new HashMap<File, String>();
+
+	/**
+	 * Libraries and referenced models that are being loaded, by file. Threads
+	 * asking for a file that is being loaded wait for it instead of loading
+	 * it again, see {@link #startLoading(File, Callable)}.
+	 */
+	private static HashMap<File, FutureTask<MDLSection>> loadingFiles = new HashMap<File, FutureTask<MDLSection>>();
+
+	/**
+	 * Symbol table shared by all parsed files if compact sections are enabled,
+	 * <code>null</code> otherwise.
+	 */
+	private static volatile MDLSymbolTable symbolTable;
+
+	/**
+	 * If set, parsed libraries and model references are cached as binary
+	 * snapshots in the plug-in state location.
+	 */
+	private static volatile boolean snapshotCacheEnabled = true;
+
+	/**
+	 * Version of the ASTs created by the parsers, to be increased whenever a
+	 * change of the parsers changes the resulting ASTs, so that snapshots
+	 * written before are not used anymore.
+	 */
+	private static final int AST_VERSION = 1;
+
+	/** The snapshot cache, created on first use. */
+	private static ASTSnapshotCache snapshotCache;
+
+	/**
+	 * Sections that are parsed on first access if {@link #isLazySections()},
+	 * given as the name of the enclosing section, a slash and the section name
+	 * (see {@link MDLLazyParser}). Most analyses never look into them.
+	 */
+	public static final Set<String> LAZY_SECTION_PATHS = Collections.unmodifiableSet(new HashSet<String>(
+			Arrays.asList("/" + SimulinkSectionConstants.SF_SECTION_TYPE,
+					SimulinkSectionConstants.MODEL_SECTION_TYPE + "/"
+							+ SimulinkSectionConstants.GRAPHICAL_INTERFACE_SECTION_TYPE,
+					SimulinkSectionConstants.MODEL_SECTION_TYPE + "/"
+							+ SimulinkSectionConstants.BLOCK_PARAMETER_DEFAULTS_SECTION_TYPE,
+					SimulinkSectionConstants.LIBRARY_SECTION_TYPE + "/"
+							+ SimulinkSectionConstants.BLOCK_PARAMETER_DEFAULTS_SECTION_TYPE,
+					SimulinkSectionConstants.SYSTEM_SECTION_TYPE + "/"
+							+ SimulinkSectionConstants.ANNOTATION_SECTION_TYPE)));
+
+	/**
+	 * If set, the {@link #LAZY_SECTION_PATHS} of *.mdl-Files and the
+	 * Stateflow part of *.slx-Files are parsed on first access.
+	 */
+	private static volatile boolean lazySections = false;
+
+	/**
+	 * Parses a *.mdl-File with the CUP parser. Files larger than
+	 * {@link #MAPPED_SCANNER_THRESHOLD} are memory-mapped and decoded chunk by
+	 * chunk (and parsed on several threads if {@link #isParallelParsing()}),
+	 * smaller ones are read through a {@link FileInputStream}.
+	 *
+	 * @param file
+	 *           the *.mdl-File
+	 * @return the AST of the file
+	 * @throws Exception
+	 *            if the file cannot be read or parsed
+	 */
+	public static MDLSection parseMdlFile(File file) throws Exception {
+		if (lazySections) {
+			MappedByteBuffer content;
+			FileInputStream in = new FileInputStream(file);
+			try {
+				content = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			} finally {
+				in.close();
+			}
+			MDLLazyParser parser = new MDLLazyParser(content, Charset.defaultCharset(),
+					LAZY_SECTION_PATHS);
+			parser.setSourceName(file.getPath());
+			parser.setSymbolTable(symbolTable);
+			if (parallelParsing && file.length() > MAPPED_SCANNER_THRESHOLD && !isPrefetchThread()) {
+				parser.setThreads(Runtime.getRuntime().availableProcessors());
+			}
+			return parser.parse();
+		}
+		if (file.length() > MAPPED_SCANNER_THRESHOLD) {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				if (parallelParsing && !isPrefetchThread()) {
+					MDLParallelParser parser = new MDLParallelParser(in.getChannel().map(
+							FileChannel.MapMode.READ_ONLY, 0, file.length()), Charset.defaultCharset());
+					parser.setSymbolTable(symbolTable);
+					return parser.parse();
+				}
+				return parseMdl(new MDLScanner(in.getChannel(), Charset.defaultCharset()));
+			} finally {
+				in.close();
+			}
+		}
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return parseMdl(new MDLScanner(in));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Parses the input of a scanner with the CUP parser, creating compact
+	 * sections if {@link #isCompactSections()}.
+	 */
+	private static MDLSection parseMdl(MDLScanner scanner) throws Exception {
+		if (symbolTable != null) {
+			return symbolTable.parse(scanner);
+		}
+		return (MDLSection) new MDLParser(scanner).parse().value;
+	}
+
+	/**
+	 * Parses a *.slx- or *.xml-File, creating compact sections if
+	 * {@link #isCompactSections()}.
+	 */
+	private static MDLSection parseSlx(SLXParser parser) throws Exception {
+		parser.setSymbolTable(symbolTable);
+		parser.setLazyStateflow(lazySections);
+		return parser.parse();
+	}
+
 	/**
 	 * Parses a *.mdl-File and logs the process in "log.txt".
 	 *
@@ -89,30 +283,23 @@ public class MeMoParserManager {
 	 * @return the AST of the file
 	 */
 	public static MDLSection loadModelSectionFromFile(String file) {
-		try {
-			// selects if it's a *.slx, *.xml or *.mdl file
-			String extension = file.substring(file.lastIndexOf(".") + 1).toLowerCase();
-			if (extension.equals("mdl")) {
-				// create the AST of a *.mdl-file
-				MeMoPlugin.out.println("[INFO] Parsing *.mdl-File " + file);
-				MDLSection section = (MDLSection) new MDLParser(new MDLScanner(
-						new FileInputStream(file))).parse().value;
-				openedFile = new File(file).getAbsolutePath();
-				return section;
-			} else if (extension.equals("xml")) {
-				// create the AST of a *.xml-file
-				MeMoPlugin.out.println("[INFO] Parsing *.xml-File " + file);
-				MDLSection section = new SLXParser(new File(file)).parse();
-				openedFile = new File(file).getAbsolutePath();
-				return section;
-			} else if (extension.equals("slx")) {
-				// create the AST of a *.slx-file
-				MeMoPlugin.out.println("[INFO] Parsing *.slx-File " + file);
-				MDLSection section = new SLXParser(new ZipFile(file)).parse();
-				openedFile = new File(file).getAbsolutePath();
-				return section;
-			}
+		MDLSection section = parseModelFile(file);
+		if (section != null) {
+			openedFile = new File(file).getAbsolutePath();
+		}
+		return section;
+	}
 
+	/**
+	 * Parses a *.mdl-, *.xml- or *.slx-File without changing the opened file.
+	 *
+	 * @param file
+	 *           the model file
+	 * @return the AST of the file or null if it can't be parsed
+	 */
+	private static MDLSection parseModelFile(String file) {
+		try {
+			return readModelFile(file);
 		} catch (FileNotFoundException e) {
 			MeMoPlugin.logException(e.toString(), e);
 		} catch (SimulinkModelBuildingException e) {
@@ -123,6 +310,34 @@ public class MeMoParserManager {
 		return null;
 	}
 
+	/**
+	 * Parses a *.mdl-, *.xml- or *.slx-File without changing the opened file.
+	 *
+	 * @param file
+	 *           the model file
+	 * @return the AST of the file or null if the extension is unknown
+	 * @throws Exception
+	 *            if the file cannot be read or parsed
+	 */
+	private static MDLSection readModelFile(String file) throws Exception {
+		// selects if it's a *.slx, *.xml or *.mdl file
+		String extension = file.substring(file.lastIndexOf(".") + 1).toLowerCase();
+		if (extension.equals("mdl")) {
+			// create the AST of a *.mdl-file
+			MeMoPlugin.out.println("[INFO] Parsing *.mdl-File " + file);
+			return parseMdlFile(new File(file));
+		} else if (extension.equals("xml")) {
+			// create the AST of a *.xml-file
+			MeMoPlugin.out.println("[INFO] Parsing *.xml-File " + file);
+			return parseSlx(new SLXParser(new File(file)));
+		} else if (extension.equals("slx")) {
+			// create the AST of a *.slx-file
+			MeMoPlugin.out.println("[INFO] Parsing *.slx-File " + file);
+			return parseSlx(new SLXParser(new ZipFile(file)));
+		}
+		return null;
+	}
+
 	/**
 	 * Checks if a file has the given extension.
 	 *
@@ -143,74 +358,265 @@ public class MeMoParserManager {
 	 * Get the parsed (by CUP) Library from the library-files given by the user.
 	 * If the library is not found, it returns null, otherwise the AST of the
 	 * parsed library. If the library contaisn forwardings they will be
-	 * accessable by {@link #getForwardingTable(MDLSection)}.
+	 * accessable by {@link #getForwardingTable(MDLSection)}. The library is
+	 * loaded without holding the lock of this class, so other threads can
+	 * use the loaded libraries meanwhile.
 	 *
 	 * @param libName
 	 *           The name of the library.
 	 * @return null or the parsed library.
 	 */
 	public static MDLSection getLibraryAST(String libName) {
-		MDLSection ast = null;
-		if(MeMoParserManager.parsedLibFilesMap != null) {
-			ast = MeMoParserManager.parsedLibFilesMap.get(libName);
-		}
-		if (ast == null) {
-			File libFile = null;
-			if(MeMoParserManager.libFileMap != null) {
-				 libFile = MeMoParserManager.libFileMap.get(libName);	
+		final File libFile;
+		FutureTask<MDLSection> loading;
+		synchronized (MeMoParserManager.class) {
+			MDLSection ast = null;
+			if (MeMoParserManager.parsedLibFilesMap != null) {
+				ast = MeMoParserManager.parsedLibFilesMap.get(libName);
 			}
+			if (ast != null) {
+				return ast;
+			}
+			libFile = MeMoParserManager.libFileMap == null ? null : MeMoParserManager.libFileMap
+					.get(libName);
 			if (libFile == null) {
 				MeMoPlugin.out.println("[ERROR] Library " + libName + " not found");
-			} else {
-				String filePath = MeMoParserPlugin.getDefault().getStateLocation().toOSString();
-				// selects if it's a *.slx, *.xml or *.mdl file
-				String extension = libFile.toString().substring(libFile.toString().lastIndexOf(".") + 1).toLowerCase();
-				MeMoPlugin.out.println("[INFO] Parsing library " + libFile.getAbsolutePath());
-				if (extension.equals("mdl")) {
-					// create the AST of a *.mdl-file
-					MeMoPlugin.out.println("[INFO] Parsing *.mdl-File " + filePath);
-					try {
-						ast = (MDLSection) new MDLParser(new MDLScanner(new FileInputStream(libFile)))
-								.parse().value;
-					} catch (FileNotFoundException e) {
-						// File should be found, because files in libFileMap are checked
-						MeMoPlugin.logException(e.toString(), e);
-					} catch (SimulinkModelBuildingException e) {
-						MeMoPlugin.logException(e.toString(), e);
-					} catch (Exception e) {
-						MeMoPlugin.logException(e.toString(), e);
-					}
-				} else if (extension.equals("xml")) {
-				// create the AST of a *.xml-file
-					MeMoPlugin.out.println("[INFO] Parsing *.xml-File " + libFile.toString());
-					try {
-						ast = new SLXParser(libFile).parse();
-					} catch (Exception e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				} else if (extension.equals("slx")) {
-				// create the AST of a *.slx-file
-					MeMoPlugin.out.println("[INFO] Parsing *.slx-File " + libFile.toString());
-					try {
-						ast = new SLXParser(new ZipFile(libFile)).parse();
-					} catch (Exception e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
+				return null;
+			}
+			if (failedFiles.containsKey(libFile)) {
+				// reported when it failed
+				return null;
+			}
+			LibraryBlockIndex index = libraryIndexes.get(libFile);
+			if ((index != null) && index.isUpToDate()) {
+				// parsed in an earlier session
+				ast = index.getLibrary();
+				MeMoParserManager.parsedLibFilesMap.put(libName, ast);
+				forwardingTables.put(ast, index.getForwardingTable());
+				return ast;
+			}
+			loading = startLoading(libFile, new Callable<MDLSection>() {
+				@Override
+				public MDLSection call() {
+					return loadLibrary(libFile);
 				}
-				if (ast.getFirstSubSection(SimulinkSectionConstants.LIBRARY_SECTION_TYPE) != null) {
-					MeMoParserManager.parsedLibFilesMap.put(libName, ast);
-					fillForwardingTable(ast);
-					return ast;
-				} else {
-					MeMoPlugin.out.println("[ERROR] " + libFile + " is not the library " + libName);
+			});
+		}
+		return registerLibrary(libName, libFile, waitForLoading(libFile, loading));
+	}
+
+	/**
+	 * Returns the loading of a file, a new one if the file isn't being loaded
+	 * by another thread. Must be called with the lock of this class.
+	 *
+	 * @param file
+	 *           The library or model file.
+	 * @param loader
+	 *           Loads the file if it isn't being loaded yet.
+	 * @return The loading, to be run by the caller if it is not done or
+	 *         running already, see {@link #waitForLoading(File, FutureTask)}.
+	 */
+	private static FutureTask<MDLSection> startLoading(File file, Callable<MDLSection> loader) {
+		FutureTask<MDLSection> loading = loadingFiles.get(file);
+		if (loading == null) {
+			loading = new FutureTask<MDLSection>(loader);
+			loadingFiles.put(file, loading);
+		}
+		return loading;
+	}
+
+	/**
+	 * Runs the loading of a file on the current thread, unless another thread
+	 * runs it, and waits for its result. Must be called without the lock of
+	 * this class.
+	 *
+	 * @return The AST or null if the file could not be loaded or the thread
+	 *         was interrupted.
+	 */
+	private static MDLSection waitForLoading(File file, FutureTask<MDLSection> loading) {
+		// does nothing if the loading has been started already
+		loading.run();
+		try {
+			return getLoaded(loading, file);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			synchronized (MeMoParserManager.class) {
+				if (loadingFiles.get(file) == loading) {
+					loadingFiles.remove(file);
 				}
 			}
-		} else {
+		}
+	}
+
+	/**
+	 * Loads a library file from the snapshot cache or parses it. Doesn't
+	 * change the loaded libraries, so it can be called from any thread, see
+	 * {@link #registerLibrary(String, File, MDLSection)}.
+	 *
+	 * @param libFile
+	 *           The library file.
+	 * @return The AST of the file or null if it can't be parsed.
+	 */
+	private static MDLSection loadLibrary(File libFile) {
+		MDLSection ast = loadSnapshot(libFile);
+		if (ast != null) {
+			MeMoPlugin.out.println("[INFO] Loaded library " + libFile.getAbsolutePath()
+					+ " from snapshot");
 			return ast;
 		}
-		return null;
+		String filePath = MeMoParserPlugin.getDefault().getStateLocation().toOSString();
+		// selects if it's a *.slx, *.xml or *.mdl file
+		String extension = libFile.toString().substring(libFile.toString().lastIndexOf(".") + 1).toLowerCase();
+		MeMoPlugin.out.println("[INFO] Parsing library " + libFile.getAbsolutePath());
+		if (extension.equals("mdl")) {
+			// create the AST of a *.mdl-file
+			MeMoPlugin.out.println("[INFO] Parsing *.mdl-File " + filePath);
+			try {
+				ast = parseMdlFile(libFile);
+			} catch (Exception e) {
+				recordFailure(libFile, e.toString(), e);
+				return null;
+			}
+		} else if (extension.equals("xml")) {
+		// create the AST of a *.xml-file
+			MeMoPlugin.out.println("[INFO] Parsing *.xml-File " + libFile.toString());
+			try {
+				ast = parseSlx(new SLXParser(libFile));
+			} catch (Exception e) {
+				recordFailure(libFile, e.toString(), e);
+				return null;
+			}
+		} else if (extension.equals("slx")) {
+		// create the AST of a *.slx-file
+			MeMoPlugin.out.println("[INFO] Parsing *.slx-File " + libFile.toString());
+			try {
+				ast = parseSlx(new SLXParser(new ZipFile(libFile)));
+			} catch (Exception e) {
+				recordFailure(libFile, e.toString(), e);
+				return null;
+			}
+		}
+		if ((ast != null)
+				&& (ast.getFirstSubSection(SimulinkSectionConstants.LIBRARY_SECTION_TYPE) != null)) {
+			storeSnapshot(libFile, ast);
+		}
+		return ast;
+	}
+
+	/**
+	 * Adds a loaded library to the parsed libraries, fills its forwarding
+	 * table and indexes its blocks, unless another thread waiting for the same
+	 * file did so already.
+	 *
+	 * @param libName
+	 *           The name of the library.
+	 * @param libFile
+	 *           The library file.
+	 * @param ast
+	 *           The AST loaded by {@link #loadLibrary(File)} or null.
+	 * @return The registered AST or null if it is not a library.
+	 */
+	private static synchronized MDLSection registerLibrary(String libName, File libFile,
+			MDLSection ast) {
+		if (parsedLibFilesMap.containsKey(libName)) {
+			return parsedLibFilesMap.get(libName);
+		}
+		if (failedFiles.containsKey(libFile)) {
+			// reported when it failed
+			return null;
+		}
+		if (ast == null) {
+			recordFailure(libFile, "no library found", null);
+			return null;
+		}
+		if (ast.getFirstSubSection(SimulinkSectionConstants.LIBRARY_SECTION_TYPE) == null) {
+			recordFailure(libFile, "is not the library " + libName, null);
+			return null;
+		}
+		MeMoParserManager.parsedLibFilesMap.put(libName, ast);
+		fillForwardingTable(ast);
+		libraryIndexes.put(libFile, new LibraryBlockIndex(libFile, ast, forwardingTables.get(ast)));
+		return ast;
+	}
+
+	/**
+	 * Returns the block index of a library, see {@link #getLibraryAST(String)}.
+	 *
+	 * @param libName
+	 *           The name of the library.
+	 * @return null or the index of the parsed library.
+	 */
+	static LibraryBlockIndex getLibraryIndex(String libName) {
+		MDLSection ast = getLibraryAST(libName);
+		if (ast == null) {
+			return null;
+		}
+		synchronized (MeMoParserManager.class) {
+			LibraryBlockIndex index = libraryIndexes.get(libFileMap.get(libName));
+			return (index != null) && (index.getLibrary() == ast) ? index : null;
+		}
+	}
+
+	/**
+	 * Returns the snapshot cache or null if it is disabled or the plug-in
+	 * state location is not available.
+	 */
+	private static synchronized ASTSnapshotCache getSnapshotCache() {
+		if (!snapshotCacheEnabled) {
+			return null;
+		}
+		if (snapshotCache == null && MeMoParserPlugin.getDefault() != null) {
+			File directory = new File(MeMoParserPlugin.getDefault().getStateLocation().toFile(),
+					"ast-snapshots");
+			snapshotCache = new ASTSnapshotCache(directory);
+		}
+		return snapshotCache;
+	}
+
+	/**
+	 * Loads the AST of a library or referenced model from the snapshot cache.
+	 * Only *.mdl-Files are cached, the {@link SLXParser} registers the
+	 * Stateflow part of *.slx-Files as a side effect of parsing.
+	 *
+	 * @param file
+	 *           The library or model file.
+	 * @return The AST or null if the file has no valid snapshot.
+	 */
+	private static MDLSection loadSnapshot(File file) {
+		ASTSnapshotCache cache = getSnapshotCache();
+		if ((cache == null) || !checkFileExtension(file, "mdl")) {
+			return null;
+		}
+		return cache.load(file, getSnapshotOptions(), symbolTable);
+	}
+
+	/**
+	 * Stores the AST of a library or referenced model in the snapshot cache.
+	 * ASTs parsed with {@link #isLazySections()} are not stored, writing them
+	 * would parse all lazy sections.
+	 *
+	 * @param file
+	 *           The library or model file.
+	 * @param ast
+	 *           The parsed AST of the file.
+	 */
+	private static void storeSnapshot(File file, MDLSection ast) {
+		ASTSnapshotCache cache = getSnapshotCache();
+		if ((cache != null) && !lazySections && checkFileExtension(file, "mdl")) {
+			cache.store(file, getSnapshotOptions(), ast);
+		}
+	}
+
+	/**
+	 * @return the parser version and the options that change the ASTs, which
+	 *         a snapshot has to match. Snapshots are only written after
+	 *         complete parses, so they can be loaded with
+	 *         {@link #isLazySections()} as well.
+	 */
+	private static String getSnapshotOptions() {
+		return "ast=" + AST_VERSION + ",compact=" + isCompactSections();
 	}
 
 	/**
@@ -245,6 +651,107 @@ public class MeMoParserManager {
 
 	}
 
+	/**
+	 * @return true if large *.mdl-Files are parsed on several threads
+	 */
+	public static boolean isParallelParsing() {
+		return parallelParsing;
+	}
+
+	/**
+	 * @param parallelParsing
+	 *           whether large *.mdl-Files are parsed on several threads
+	 */
+	public static void setParallelParsing(boolean parallelParsing) {
+		MeMoParserManager.parallelParsing = parallelParsing;
+	}
+
+	/**
+	 * @return true if the subsystems of a model are built in parallel
+	 */
+	public static boolean isParallelBuilding() {
+		return parallelBuilding;
+	}
+
+	/**
+	 * @param parallelBuilding
+	 *           whether the subsystems of a model are built in parallel
+	 */
+	public static void setParallelBuilding(boolean parallelBuilding) {
+		MeMoParserManager.parallelBuilding = parallelBuilding;
+	}
+
+	/**
+	 * @return true if the libraries and referenced models of a model are
+	 *         loaded concurrently before it is built
+	 */
+	public static boolean isPrefetching() {
+		return prefetching;
+	}
+
+	/**
+	 * @param prefetching
+	 *           whether the libraries and referenced models of a model are
+	 *           loaded concurrently before it is built
+	 */
+	public static void setPrefetching(boolean prefetching) {
+		MeMoParserManager.prefetching = prefetching;
+	}
+
+	/**
+	 * @return true if parsed sections intern their parameters against a
+	 *         shared symbol table
+	 */
+	public static boolean isCompactSections() {
+		return symbolTable != null;
+	}
+
+	/**
+	 * @param compactSections
+	 *           whether parsed sections should intern their parameters against
+	 *           a shared symbol table and store small parameter sets in arrays
+	 */
+	public static void setCompactSections(boolean compactSections) {
+		if (!compactSections) {
+			symbolTable = null;
+		} else if (symbolTable == null) {
+			symbolTable = new MDLSymbolTable();
+		}
+	}
+
+	/**
+	 * @return true if parsed libraries and model references are cached as
+	 *         binary snapshots
+	 */
+	public static boolean isSnapshotCacheEnabled() {
+		return snapshotCacheEnabled;
+	}
+
+	/**
+	 * @param snapshotCacheEnabled
+	 *           whether parsed libraries and model references are cached as
+	 *           binary snapshots
+	 */
+	public static void setSnapshotCacheEnabled(boolean snapshotCacheEnabled) {
+		MeMoParserManager.snapshotCacheEnabled = snapshotCacheEnabled;
+	}
+
+	/**
+	 * @return true if rarely used sections are parsed on first access
+	 */
+	public static boolean isLazySections() {
+		return lazySections;
+	}
+
+	/**
+	 * @param lazySections
+	 *           whether rarely used sections (see {@link #LAZY_SECTION_PATHS})
+	 *           should be parsed on first access
+	 */
+	public static void setLazySections(boolean lazySections) {
+		MeMoParserManager.lazySections = lazySections;
+	}
+
 	/**
 	 * @return the openedFile
 	 * @uml.property name="openedFile"
@@ -281,12 +788,13 @@ public class MeMoParserManager {
 	 * @param libFiles
 	 *           the library files and model references to set
 	 */
-	public static void setLibFiles(List<File> libFiles) {
+	public static synchronized void setLibFiles(List<File> libFiles) {
 		libFileMap = new HashMap<String, File>();
 		parsedLibFilesMap = new HashMap<String, MDLSection>();
 		forwardingTables = new HashMap<MDLSection, HashMap<String, String>>();
 		parsedModelReferencesMap = new HashMap<String, MDLSection>();
 		modelReferenceFilesMap = new HashMap<String, File>();
+		failedFiles = new HashMap<File, String>();
 		String name = "";
 		for (File file : libFiles) {
 			if (file.exists() && (checkFileExtension(file, "mdl") || checkFileExtension(file, "slx"))) {
@@ -299,6 +807,8 @@ public class MeMoParserManager {
 				addLibraryDirectory(file);
 			}
 		}
+		// keep the indexes of the libraries that are still given
+		libraryIndexes.keySet().retainAll(libFileMap.values());
 	}
 
 	/**
@@ -348,7 +858,7 @@ public class MeMoParserManager {
 	 *           The Ast of the library.
 	 * @return The forwarding map.
 	 */
-	public static HashMap<String, String> getForwardingTable(MDLSection library) {
+	public static synchronized HashMap<String, String> getForwardingTable(MDLSection library) {
 		return forwardingTables.get(library);
 	}
 
@@ -363,34 +873,363 @@ public class MeMoParserManager {
 	 * @return
 	 */
 	public static MDLSection getRefModelAST(String parameter) {
-		MDLSection result = parsedModelReferencesMap.get(parameter);
-		if (result == null && libFileMap != null) {
-//			File newFile = libFileMap.get(parameter.substring(0, parameter.lastIndexOf('.')));
-			File newFile = libFileMap.get(parameter);
-			if (newFile == null) { // reference not found? try to guess
-				File mdl = new File((new File(openedFile)).getParent() + "\\" + parameter + ".mdl");
-				File slx = new File((new File(openedFile)).getParent() + "\\" + parameter + ".slx");
-				if(slx.exists()) {
-					newFile = slx;
+		final File newFile;
+		FutureTask<MDLSection> loading;
+		synchronized (MeMoParserManager.class) {
+			MDLSection result = parsedModelReferencesMap.get(parameter);
+			if (result != null || libFileMap == null) {
+				return result;
+			}
+			newFile = getRefModelFile(parameter);
+			if ((newFile == null) || !newFile.exists() || failedFiles.containsKey(newFile)) {
+				return null;
+			}
+			loading = startLoading(newFile, new Callable<MDLSection>() {
+				@Override
+				public MDLSection call() {
+					return loadRefModel(newFile);
+				}
+			});
+		}
+		return registerRefModel(parameter, newFile, waitForLoading(newFile, loading));
+	}
+
+	/**
+	 * Returns the file of a referenced model, see
+	 * {@link #getRefModelAST(String)}.
+	 *
+	 * @param parameter
+	 *           The name of the referenced model
+	 * @return the file, which may not exist, or null if there is no model to
+	 *         guess the directory from
+	 */
+	private static File getRefModelFile(String parameter) {
+//		File newFile = libFileMap.get(parameter.substring(0, parameter.lastIndexOf('.')));
+		File newFile = libFileMap.get(parameter);
+		if (newFile == null && openedFile != null) { // reference not found? try to guess
+			File directory = new File(openedFile).getParentFile();
+			File mdl = new File(directory, parameter + ".mdl");
+			File slx = new File(directory, parameter + ".slx");
+			if(slx.exists()) {
+				newFile = slx;
+			} else {
+				newFile = mdl;
+			}
+		}
+		return newFile;
+	}
+
+	/**
+	 * Loads a referenced model from the snapshot cache or parses it. Doesn't
+	 * change the loaded models, so it can be called from any thread.
+	 *
+	 * @param file
+	 *           The model file.
+	 * @return The AST or null if it can't be parsed.
+	 */
+	private static MDLSection loadRefModel(File file) {
+		MDLSection result = loadSnapshot(file);
+		if (result == null) {
+			try {
+				result = readModelFile(file.getCanonicalPath());
+			} catch (Exception e) {
+				recordFailure(file, e.toString(), e);
+				return null;
+			}
+			if (result != null) {
+				storeSnapshot(file, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Adds a loaded model to the parsed model references, unless another
+	 * thread waiting for the same file did so already.
+	 *
+	 * @return The registered AST or null.
+	 */
+	private static synchronized MDLSection registerRefModel(String parameter, File file,
+			MDLSection ast) {
+		if (parsedModelReferencesMap.containsKey(parameter)) {
+			return parsedModelReferencesMap.get(parameter);
+		}
+		if (failedFiles.containsKey(file)) {
+			// reported when it failed
+			return null;
+		}
+		if (ast == null) {
+			recordFailure(file, "no model found", null);
+			return null;
+		}
+		parsedModelReferencesMap.put(parameter, ast);
+		modelReferenceFilesMap.put(parameter, file);
+		return ast;
+	}
+
+	/**
+	 * Reports that a library or referenced model could not be loaded, unless
+	 * it has been reported already, and remembers it, so it is not loaded
+	 * again.
+	 *
+	 * @param file
+	 *           The file that could not be loaded.
+	 * @param reason
+	 *           The reason.
+	 * @param e
+	 *           The exception or null.
+	 */
+	private static synchronized void recordFailure(File file, String reason, Throwable e) {
+		if (failedFiles.containsKey(file)) {
+			return;
+		}
+		failedFiles.put(file, reason);
+		MeMoPlugin.out.println("[ERROR] Could not load " + file + ": " + reason);
+		if (e != null) {
+			MeMoPlugin.logException(reason, e);
+		}
+	}
+
+	/**
+	 * Loads the libraries and referenced models of a model, which are not
+	 * loaded yet, concurrently. The model builder then finds them by
+	 * {@link #getLibraryAST(String)} and {@link #getRefModelAST(String)}
+	 * without waiting for the parser. The loaded libraries and models are
+	 * searched for further references until nothing new is found. References
+	 * that can't be loaded are reported once and not loaded again by the
+	 * model builder. Enabled by default, see {@link #setPrefetching(boolean)}.
+	 *
+	 * @param root
+	 *           The AST of the model.
+	 */
+	public static void prefetchReferences(MDLSection root) {
+		if (!prefetching || (root == null)) {
+			return;
+		}
+		Set<String> libraries = new HashSet<String>();
+		Set<String> models = new HashSet<String>();
+		List<MDLSection> asts = Collections.singletonList(root);
+		while (!asts.isEmpty()) {
+			Set<String> newLibraries = new TreeSet<String>();
+			Set<String> newModels = new TreeSet<String>();
+			for (MDLSection ast : asts) {
+				for (MDLSection section : ast.getSubSections()) {
+					if (SimulinkSectionConstants.MODEL_SECTION_TYPE.equals(section.getName())
+							|| SimulinkSectionConstants.LIBRARY_SECTION_TYPE.equals(section.getName())) {
+						collectReferences(section, newLibraries, newModels);
+					}
+				}
+			}
+			// each reference is only tried once
+			newLibraries.removeAll(libraries);
+			newModels.removeAll(models);
+			libraries.addAll(newLibraries);
+			models.addAll(newModels);
+			asts = loadReferences(newLibraries, newModels);
+		}
+	}
+
+	/**
+	 * Collects the names of the libraries and referenced models used by the
+	 * blocks of a section and its systems.
+	 */
+	private static void collectReferences(MDLSection section, Set<String> libraries,
+			Set<String> models) {
+		for (MDLSection system : section.getSubSections(SimulinkSectionConstants.SYSTEM_SECTION_TYPE)) {
+			for (MDLSection block : system.getSubSections(SimulinkSectionConstants.BLOCK_SECTION_TYPE)) {
+				String type = block.getParameter(SimulinkParameterNames.BLOCK_TYPE_PARAMETER);
+				if (SimulinkBlockConstants.REFERENCE_BLOCKTYPE.equals(type)) {
+					String source = block.getParameter(SimulinkParameterNames.BLOCK_SOURCE_BLOCK);
+					if (source != null) {
+						libraries.add(getLibraryName(source));
+					}
+				} else if (SimulinkBlockConstants.MODEL_REFERENCE_BLOCKTYPE.equals(type)) {
+					String name = block.getParameter(SimulinkParameterNames.MODEL_NAME_DIALOG_PARAMETER) != null ? block
+							.getParameter(SimulinkParameterNames.MODEL_NAME_DIALOG_PARAMETER) : block
+							.getParameter(SimulinkParameterNames.MODEL_NAME_REF_PARAMETER);
+					if (name != null) {
+						models.add(name);
+					}
+				}
+				collectReferences(block, libraries, models);
+			}
+		}
+	}
+
+	/**
+	 * @return the first part of a library reference path, where "//" is an
+	 *         escaped slash
+	 */
+	private static String getLibraryName(String referencePath) {
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i < referencePath.length(); i++) {
+			char c = referencePath.charAt(i);
+			if (c != '/') {
+				name.append(c);
+			} else if ((i + 1 < referencePath.length()) && (referencePath.charAt(i + 1) == '/')) {
+				name.append('/');
+				i++;
+			} else {
+				break;
+			}
+		}
+		return name.toString();
+	}
+
+	/**
+	 * Loads the given libraries and referenced models that are not loaded yet
+	 * on a thread pool and registers them.
+	 *
+	 * @return the newly loaded ASTs
+	 */
+	private static List<MDLSection> loadReferences(Set<String> libraries, Set<String> models) {
+		List<MDLSection> result = new ArrayList<MDLSection>();
+		final Map<String, File> libraryFiles = new LinkedHashMap<String, File>();
+		final Map<String, File> modelFiles = new LinkedHashMap<String, File>();
+		synchronized (MeMoParserManager.class) {
+			if ((libFileMap == null) || (parsedLibFilesMap == null)) {
+				return result;
+			}
+			for (String name : libraries) {
+				File file = libFileMap.get(name);
+				if ((file == null) || parsedLibFilesMap.containsKey(name)
+						|| failedFiles.containsKey(file)) {
+					continue;
+				}
+				LibraryBlockIndex index = libraryIndexes.get(file);
+				if ((index != null) && index.isUpToDate()) {
+					// nothing to parse
+					result.add(getLibraryAST(name));
 				} else {
-					newFile = mdl;
+					libraryFiles.put(name, file);
 				}
 			}
-			if (newFile.exists()) {
-				try {
-					String oldOpenedFile = openedFile;
-					result = loadModelSectionFromFile(newFile.getCanonicalPath());
-					openedFile = oldOpenedFile;
-					parsedModelReferencesMap.put(parameter, result);
-					modelReferenceFilesMap.put(parameter, newFile);
-				} catch (IOException e) {
-					MeMoPlugin.logException(e.toString(), e);
+			for (String name : models) {
+				if (parsedModelReferencesMap.containsKey(name)) {
+					continue;
+				}
+				File file = getRefModelFile(name);
+				if ((file != null) && file.exists() && !failedFiles.containsKey(file)) {
+					modelFiles.put(name, file);
 				}
 			}
 		}
+		int tasks = libraryFiles.size() + modelFiles.size();
+		if (tasks == 0) {
+			return result;
+		}
+
+		// files loaded by the model builder already are waited for, not
+		// loaded again
+		Map<String, FutureTask<MDLSection>> loadedLibraries = new LinkedHashMap<String, FutureTask<MDLSection>>();
+		Map<String, FutureTask<MDLSection>> loadedModels = new LinkedHashMap<String, FutureTask<MDLSection>>();
+		synchronized (MeMoParserManager.class) {
+			for (Map.Entry<String, File> entry : libraryFiles.entrySet()) {
+				final File file = entry.getValue();
+				loadedLibraries.put(entry.getKey(), startLoading(file, new Callable<MDLSection>() {
+					@Override
+					public MDLSection call() {
+						return loadLibrary(file);
+					}
+				}));
+			}
+			for (Map.Entry<String, File> entry : modelFiles.entrySet()) {
+				final File file = entry.getValue();
+				loadedModels.put(entry.getKey(), startLoading(file, new Callable<MDLSection>() {
+					@Override
+					public MDLSection call() {
+						return loadRefModel(file);
+					}
+				}));
+			}
+		}
+		ExecutorService executor = getPrefetchExecutor();
+		for (FutureTask<MDLSection> loading : loadedLibraries.values()) {
+			executor.execute(loading);
+		}
+		for (FutureTask<MDLSection> loading : loadedModels.values()) {
+			executor.execute(loading);
+		}
+
+		for (Map.Entry<String, FutureTask<MDLSection>> entry : loadedLibraries.entrySet()) {
+			File file = libraryFiles.get(entry.getKey());
+			MDLSection ast = waitForLoading(file, entry.getValue());
+			if (Thread.currentThread().isInterrupted()) {
+				// the model builder loads the rest
+				return result;
+			}
+			ast = registerLibrary(entry.getKey(), file, ast);
+			if (ast != null) {
+				result.add(ast);
+			}
+		}
+		for (Map.Entry<String, FutureTask<MDLSection>> entry : loadedModels.entrySet()) {
+			File file = modelFiles.get(entry.getKey());
+			MDLSection ast = waitForLoading(file, entry.getValue());
+			if (Thread.currentThread().isInterrupted()) {
+				return result;
+			}
+			ast = registerRefModel(entry.getKey(), file, ast);
+			if (ast != null) {
+				result.add(ast);
+			}
+		}
 		return result;
 	}
 
+	/**
+	 * Waits for a library or model being loaded, see
+	 * {@link #waitForLoading(File, FutureTask)}.
+	 *
+	 * @return the AST or null if it could not be loaded
+	 */
+	private static MDLSection getLoaded(Future<MDLSection> future, File file)
+			throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			recordFailure(file, e.getCause().toString(), e.getCause());
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the pool of {@link #prefetchReferences(MDLSection)}. It has a
+	 * thread per processor at most, which end when idle. Files are parsed on
+	 * these threads without further threads, see {@link #isPrefetchThread()}.
+	 */
+	private static synchronized ExecutorService getPrefetchExecutor() {
+		if (prefetchExecutor == null) {
+			int threads = Runtime.getRuntime().availableProcessors();
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30,
+					TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(final Runnable r) {
+							Thread thread = new Thread(new Runnable() {
+								@Override
+								public void run() {
+									prefetchThread.set(Boolean.TRUE);
+									r.run();
+								}
+							}, "MeMo reference prefetch");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+			prefetchExecutor = executor;
+		}
+		return prefetchExecutor;
+	}
+
+	/**
+	 * @return true if the current thread loads references for
+	 *         {@link #prefetchReferences(MDLSection)}
+	 */
+	private static boolean isPrefetchThread() {
+		return prefetchThread.get() != null;
+	}
+
 	/**
 	 * get all parsed model references.
 	 *
@@ -32,20 +32,25 @@
 package de.tu_berlin.pes.memo.parser;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.conqat.lib.commons.collections.UnmodifiableList;
 import org.conqat.lib.simulink.builder.MDLSection;
 import org.eclipse.core.resources.IProject;
-import org.hibernate.criterion.Restrictions;
 
 import de.tu_berlin.pes.memo.MeMoPlugin;
 import de.tu_berlin.pes.memo.model.impl.Block;
+import de.tu_berlin.pes.memo.model.impl.BlockDefault;
 import de.tu_berlin.pes.memo.model.impl.Configuration;
 import de.tu_berlin.pes.memo.model.impl.Data;
 import de.tu_berlin.pes.memo.model.impl.Event;
@@ -54,13 +59,13 @@ import de.tu_berlin.pes.memo.model.impl.Model;
 import de.tu_berlin.pes.memo.model.impl.ModelItem;
 import de.tu_berlin.pes.memo.model.impl.Port;
 import de.tu_berlin.pes.memo.model.impl.ProbabilisticSignalLine;
+import de.tu_berlin.pes.memo.model.impl.ReferenceBlock;
 import de.tu_berlin.pes.memo.model.impl.SignalLine;
 import de.tu_berlin.pes.memo.model.impl.State;
 import de.tu_berlin.pes.memo.model.impl.StateMachine;
 import de.tu_berlin.pes.memo.model.impl.StateflowChart;
 import de.tu_berlin.pes.memo.model.impl.StateflowItem;
 import de.tu_berlin.pes.memo.model.impl.Transition;
-import de.tu_berlin.pes.memo.model.util.MemoFieldNames;
 import de.tu_berlin.pes.memo.model.util.SimulinkBlockConstants;
 import de.tu_berlin.pes.memo.model.util.SimulinkParameterNames;
 import de.tu_berlin.pes.memo.model.util.SimulinkParameterValues;
@@ -68,7 +73,6 @@ import de.tu_berlin.pes.memo.model.util.SimulinkPortConstants;
 import de.tu_berlin.pes.memo.model.util.SimulinkSectionConstants;
 import de.tu_berlin.pes.memo.model.util.StateflowParameterConstants;
 import de.tu_berlin.pes.memo.parser.matlab.MeMoMatlabManager;
-import de.tu_berlin.pes.memo.parser.persistence.MeMoPersistenceManager;
 
 /**
  * Encapsulate the functionality for creating a <code>Model</code> from a given
@@ -113,12 +117,37 @@ public class ModelBuilder {
 	 * Maps signalline names to their specific probability, which is defined in
 	 * their src block
 	 */
-	private HashMap<Block, HashMap<String, Float>> probabilityMapping = new HashMap<Block, HashMap<String, Float>>();
+	private Map<Block, HashMap<String, Float>> probabilityMapping = new ConcurrentHashMap<Block, HashMap<String, Float>>();
+
+	/**
+	 * If set, sibling subsystems are built in parallel.
+	 */
+	private boolean parallel = false;
 
 	public ModelBuilder() {
 		
 	};
 
+	/**
+	 * @return true if sibling subsystems are built in parallel
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * If set, sibling subsystems are built as fork/join tasks. The ids are
+	 * assigned afterwards in the order of a sequential build, so they are the
+	 * same as those of a sequential build. Referenced models are built
+	 * sequentially.
+	 *
+	 * @param parallel
+	 *           whether sibling subsystems shall be built in parallel
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
 	/**
 	 * Creates a <code>Model</code> from a given AST.
 	 *
@@ -138,6 +167,9 @@ public class ModelBuilder {
 		lib2machine.clear();
 		path2libraryCharts.clear();
 
+		// load the used libraries and referenced models before they are needed
+		MeMoParserManager.prefetchReferences(mdlSection);
+
 		return buildModel(mdlSection, 1, matlabEvaluation, 0, null);
 	}
 
@@ -207,7 +239,11 @@ public class ModelBuilder {
 				}
 			} else if (childSection.getName().equals(SimulinkSectionConstants.SYSTEM_SECTION_TYPE)) {
 				// create models system
-				createSystem(childSection, model, systemLevel, parent);
+				if (parallel) {
+					createSystemParallel(childSection, model, systemLevel, parent);
+				} else {
+					createSystem(childSection, model, systemLevel, parent);
+				}
 				// get all other defaults
 			} else if (childSection.getName().contains(
 					SimulinkSectionConstants.DEFAULT_SECTION_TYPE_POSTFIX)) {
@@ -258,10 +294,7 @@ public class ModelBuilder {
 		}
 
 		for (Block b : model.getBlocks()) {
-			b.getInPorts().addAll(b.getInPortsMap().values());
-			b.getOutPorts().addAll(b.getOutPortsMap().values());
-			b.getlConnPorts().addAll(b.getlConnPortsMap().values());
-			b.getrConnPorts().addAll(b.getrConnPortsMap().values());
+			b.updatePortSets();
 		}
 
 		MeMoPlugin.out.println("[INFO] Building model " + model.getName() + " finished.");
@@ -308,7 +341,7 @@ public class ModelBuilder {
 
 		if (portParameter == null) {
 			for (Integer i : outPortSections.keySet()) {
-				Port p = new Port(m.nextID(), SimulinkPortConstants.OUT_PORT_PREFIX + i, i);
+				Port p = new Port(blockFactory.nextID(m), SimulinkPortConstants.OUT_PORT_PREFIX + i, i);
 				p.addParameters(outPortSections.get(i));
 				b.getOutPortsMap().put(i, p);
 			}
@@ -335,13 +368,13 @@ public class ModelBuilder {
 			inPorts = Integer.parseInt(ports[SimulinkPortConstants.IN_PORT_POSITION]);
 			for (int i = 1; i <= inPorts; i++) {
 				b.getInPortsMap().put(i,
-						new Port(m.nextID(), SimulinkPortConstants.IN_PORT_PREFIX + i, i));
+						new Port(blockFactory.nextID(m), SimulinkPortConstants.IN_PORT_PREFIX + i, i));
 			}
 		}
 		if ((ports.length - 1) >= SimulinkPortConstants.OUT_PORT_POSITION) {
 			outPorts = Integer.parseInt(ports[SimulinkPortConstants.OUT_PORT_POSITION]);
 			for (int i = 1; i <= outPorts; i++) {
-				Port p = new Port(m.nextID(), SimulinkPortConstants.OUT_PORT_PREFIX + i, i);
+				Port p = new Port(blockFactory.nextID(m), SimulinkPortConstants.OUT_PORT_PREFIX + i, i);
 				p.addParameters(outPortSections.get(i));
 				b.getOutPortsMap().put(i, p);
 			}
@@ -350,36 +383,36 @@ public class ModelBuilder {
 		if ((ports.length - 1) >= SimulinkPortConstants.ENABLE_PORT_POSITION) {
 			enablePorts = Integer.parseInt(ports[SimulinkPortConstants.ENABLE_PORT_POSITION]);
 			if (enablePorts > 0) {
-				b.setEnablePort(new Port(m.nextID(), SimulinkPortConstants.ENABLE_PORT, 0));
+				b.setEnablePort(new Port(blockFactory.nextID(m), SimulinkPortConstants.ENABLE_PORT, 0));
 			}
 		}
 		if ((ports.length - 1) >= SimulinkPortConstants.TRIGGER_PORT_POSITION) {
 			triggerPorts = Integer.parseInt(ports[SimulinkPortConstants.TRIGGER_PORT_POSITION]);
 			if (triggerPorts > 0) {
-				b.setTriggerPort(new Port(m.nextID(), SimulinkPortConstants.TRIGGER_PORT, 0));
+				b.setTriggerPort(new Port(blockFactory.nextID(m), SimulinkPortConstants.TRIGGER_PORT, 0));
 			}
 		}
 		if ((ports.length - 1) >= SimulinkPortConstants.STATE_PORT_POSITION) {
 			statePorts = Integer.parseInt(ports[SimulinkPortConstants.STATE_PORT_POSITION]);
 			if (statePorts > 0) {
-				b.setStatePort(new Port(m.nextID(), SimulinkPortConstants.STATE_PORT, 0));
+				b.setStatePort(new Port(blockFactory.nextID(m), SimulinkPortConstants.STATE_PORT, 0));
 			}
 		}
 		if ((ports.length - 1) >= SimulinkPortConstants.L_CONN_PORT_POSITION) {
 			lConnPorts = Integer.parseInt(ports[SimulinkPortConstants.L_CONN_PORT_POSITION]);
 			for (int i = 1; i <= lConnPorts; i++) {
-				b.getlConnPortsMap().put(i, new Port(m.nextID(), "LConn" + i, i));
+				b.getlConnPortsMap().put(i, new Port(blockFactory.nextID(m), "LConn" + i, i));
 			}
 		}
 		if ((ports.length - 1) >= SimulinkPortConstants.R_CONN_PORT_POSITION) {
 			rConnPorts = Integer.parseInt(ports[SimulinkPortConstants.R_CONN_PORT_POSITION]);
 			for (int i = 1; i <= rConnPorts; i++) {
-				b.getrConnPortsMap().put(i, new Port(m.nextID(), "RConn" + i, i));
+				b.getrConnPortsMap().put(i, new Port(blockFactory.nextID(m), "RConn" + i, i));
 			}
 		}
 		if ((ports.length - 1) >= SimulinkPortConstants.IFACTION_PORT_POSITION) {
 			ifactionPorts = Integer.parseInt(ports[SimulinkPortConstants.IFACTION_PORT_POSITION]);
-			b.setIfactionPort(new Port(m.nextID(), SimulinkPortConstants.IFACTION_PORT, 0));
+			b.setIfactionPort(new Port(blockFactory.nextID(m), SimulinkPortConstants.IFACTION_PORT, 0));
 		}
 
 		if ((enablePorts > 1) || (triggerPorts > 1) || (ifactionPorts > 1)) {
@@ -408,7 +441,7 @@ public class ModelBuilder {
 			result = b.getInPortsMap().get(Integer.parseInt(portString));
 			if (result == null) {
 				int portNr = Integer.parseInt(portString);
-				result = new Port(model.nextID(), SimulinkPortConstants.IN_PORT_PREFIX + portString,
+				result = new Port(blockFactory.nextID(model), SimulinkPortConstants.IN_PORT_PREFIX + portString,
 						portNr);
 				b.getInPortsMap().put(portNr, result);
 			}
@@ -416,14 +449,14 @@ public class ModelBuilder {
 		} else if (portString.equals(SimulinkPortConstants.ENABLE_PORT)) {
 			result = b.getEnablePort();
 			if (result == null) {
-				result = new Port(model.nextID(), portString, 0);
+				result = new Port(blockFactory.nextID(model), portString, 0);
 				b.setEnablePort(result);
 			}
 			return result;
 		} else if (portString.equals(SimulinkPortConstants.TRIGGER_PORT)) {
 			result = b.getTriggerPort();
 			if (result == null) {
-				result = new Port(model.nextID(), portString, 0);
+				result = new Port(blockFactory.nextID(model), portString, 0);
 				b.setTriggerPort(result);
 			}
 			return result;
@@ -440,7 +473,7 @@ public class ModelBuilder {
 					SimulinkPortConstants.L_CONN_PORT_PREFIX, ""));
 			result = b.getlConnPortsMap().get(portNumber);
 			if (result == null) {
-				result = new Port(model.nextID(), portString, portNumber);
+				result = new Port(blockFactory.nextID(model), portString, portNumber);
 				b.getlConnPortsMap().put(portNumber, result);
 			}
 			return result;
@@ -449,14 +482,14 @@ public class ModelBuilder {
 					SimulinkPortConstants.R_CONN_PORT_PREFIX, ""));
 			result = b.getrConnPortsMap().get(portNumber);
 			if (result == null) {
-				result = new Port(model.nextID(), portString, portNumber);
+				result = new Port(blockFactory.nextID(model), portString, portNumber);
 				b.getrConnPortsMap().put(portNumber, result);
 			}
 			return result;
 		} else if (portString.equals(SimulinkPortConstants.IFACTION_PORT)) {
 			result = b.getIfactionPort();
 			if (result == null) {
-				result = new Port(model.nextID(), portString, 0);
+				result = new Port(blockFactory.nextID(model), portString, 0);
 				b.setIfactionPort(result);
 			}
 			return result;
@@ -484,7 +517,7 @@ public class ModelBuilder {
 			result = b.getOutPortsMap().get(Integer.parseInt(portString));
 			if (result == null) {
 				int portNr = Integer.parseInt(portString);
-				result = new Port(model.nextID(), SimulinkPortConstants.OUT_PORT_PREFIX + portString,
+				result = new Port(blockFactory.nextID(model), SimulinkPortConstants.OUT_PORT_PREFIX + portString,
 						portNr);
 				b.getOutPortsMap().put(portNr, result);
 			}
@@ -492,7 +525,7 @@ public class ModelBuilder {
 		} else if (portString.equals(SimulinkPortConstants.STATE_PORT)) {
 			result = b.getStatePort();
 			if (result == null) {
-				result = new Port(model.nextID(), portString, 0);
+				result = new Port(blockFactory.nextID(model), portString, 0);
 				b.setStatePort(result);
 			}
 			return result;
@@ -501,7 +534,7 @@ public class ModelBuilder {
 					SimulinkPortConstants.L_CONN_PORT_PREFIX, ""));
 			result = b.getlConnPortsMap().get(portNumber);
 			if (result == null) {
-				result = new Port(model.nextID(), portString, portNumber);
+				result = new Port(blockFactory.nextID(model), portString, portNumber);
 				b.getlConnPortsMap().put(portNumber, result);
 			}
 			return result;
@@ -510,7 +543,7 @@ public class ModelBuilder {
 					SimulinkPortConstants.R_CONN_PORT_PREFIX, ""));
 			result = b.getrConnPortsMap().get(portNumber);
 			if (result == null) {
-				result = new Port(model.nextID(), portString, portNumber);
+				result = new Port(blockFactory.nextID(model), portString, portNumber);
 				b.getrConnPortsMap().put(portNumber, result);
 			}
 			return result;
@@ -758,7 +791,47 @@ public class ModelBuilder {
 	private void createSystem(MDLSection systemSection, Model topModel, int systemLevel,
 			ModelItem blockparent) {
 
-		HashMap<Integer, Block> blockMap = topModel.getBlockMap();
+		// Perform subsystems, referenced models
+		for (Block block : createSystemLevel(systemSection, topModel, systemLevel, blockparent,
+				topModel.getBlockMap(), topModel.getSignalMap(), null)) {
+			if (SimulinkBlockConstants.SUBSYSTEM_BLOCKTYPE.equals(block.getType())) {
+				createSystem(
+						block.getBlockSection().getFirstSubSection(
+								SimulinkSectionConstants.SYSTEM_SECTION_TYPE), topModel, systemLevel + 1,
+						block);
+			} else {
+				createModelReference(block, topModel, systemLevel + 1);
+			}
+		}
+	}
+
+	/**
+	 * Builds the blocks and lines of one layer of the system part of the
+	 * Simulink model, but not its subsystems.
+	 *
+	 * @param systemSection
+	 *           the detected system part of the AST
+	 * @param topModel
+	 *           the model to which the systemSection belongs
+	 * @param systemLevel
+	 *           the current layer of subsystems
+	 * @param blockparent
+	 *           the hash of the overlaying subsystem block
+	 * @param blockMap
+	 *           the map the created blocks are added to
+	 * @param signalMap
+	 *           the map the created signal lines are added to
+	 * @param libraryReferences
+	 *           if not null, the created reference blocks are added to this
+	 *           list instead of checking them for library stateflows, see
+	 *           {@link #finishSystem(SystemTask, Model, int[])}
+	 * @return the subsystem and model reference blocks of the layer, in the
+	 *         order they shall be built
+	 */
+	private List<Block> createSystemLevel(MDLSection systemSection, Model topModel,
+			int systemLevel, ModelItem blockparent, Map<Integer, Block> blockMap,
+			Map<Integer, SignalLine> signalMap, List<Object> libraryReferences) {
+
 		// collect block sections
 		List<MDLSection> blockSections = systemSection
 				.getSubSections(SimulinkSectionConstants.BLOCK_SECTION_TYPE);
@@ -786,9 +859,14 @@ public class ModelBuilder {
 			if (SimulinkBlockConstants.REFERENCE_BLOCKTYPE.equals(blockSection
 					.getParameter(SimulinkParameterNames.BLOCK_TYPE_PARAMETER))) {
 				MDLSection libBlockSection = getLibBlockSection(blockSection);
-				b = blockFactory.createRefBlock(systemLevel + 1, blockparent, blockSection,
-						libBlockSection, topModel, blockName);
-				checkLibRefForStateflow(b, blockSection, topModel);
+				ReferenceBlock refBlock = blockFactory.createRefBlock(systemLevel + 1, blockparent,
+						blockSection, libBlockSection, topModel, blockName);
+				if (libraryReferences == null) {
+					checkLibRefForStateflow(refBlock, blockSection, topModel);
+				} else {
+					libraryReferences.add(refBlock);
+				}
+				b = refBlock;
 				b.setReference(true);
 			} else if (SimulinkBlockConstants.MODEL_REFERENCE_BLOCKTYPE.equals(blockSection
 					.getParameter(SimulinkParameterNames.BLOCK_TYPE_PARAMETER))) {
@@ -810,15 +888,15 @@ public class ModelBuilder {
 			if (SimulinkBlockConstants.INPORT_BLOCKTYPE.equals(blockSection
 					.getParameter(SimulinkParameterNames.BLOCK_TYPE_PARAMETER))) {
 				b.getOutPortsMap().put(1,
-						new Port(topModel.nextID(), SimulinkPortConstants.OUT_PORT_PREFIX + "1", 1));
+						new Port(blockFactory.nextID(topModel), SimulinkPortConstants.OUT_PORT_PREFIX + "1", 1));
 			} else if (SimulinkBlockConstants.OUTPORT_BLOCKTYPE.equals(blockSection
 					.getParameter(SimulinkParameterNames.BLOCK_TYPE_PARAMETER))) {
 				b.getInPortsMap().put(1,
-						new Port(topModel.nextID(), SimulinkPortConstants.IN_PORT_PREFIX + "1", 1));
+						new Port(blockFactory.nextID(topModel), SimulinkPortConstants.IN_PORT_PREFIX + "1", 1));
 			} else if (SimulinkBlockConstants.LR_CON_BLOCKTYPE.equals(blockSection
 					.getParameter(SimulinkParameterNames.BLOCK_TYPE_PARAMETER))) {
 				// Connections from and to PMIOPorts use RConn1
-				b.getrConnPortsMap().put(1, new Port(topModel.nextID(), "RConn1", 1));
+				b.getrConnPortsMap().put(1, new Port(blockFactory.nextID(topModel), "RConn1", 1));
 			}
 			try {
 				createPorts(b, topModel);
@@ -940,11 +1018,11 @@ public class ModelBuilder {
 
 				if (probabilityMapping.containsKey(src)
 						&& probabilityMapping.get(src).containsKey(signalLineName)) {
-					s = new ProbabilisticSignalLine(topModel.nextID(), systemLevel + 1, src, dst,
+					s = new ProbabilisticSignalLine(blockFactory.nextID(topModel), systemLevel + 1, src, dst,
 							srcPort, dstPort, signalLineName, probabilityMapping.get(src).get(
 									signalLineName));
 				} else {
-					s = new SignalLine(topModel.nextID(), systemLevel + 1, src, dst, srcPort, dstPort,
+					s = new SignalLine(blockFactory.nextID(topModel), systemLevel + 1, src, dst, srcPort, dstPort,
 							signalLineName);
 				}
 
@@ -952,24 +1030,180 @@ public class ModelBuilder {
 			}
 
 			for (SignalLine si : signals) {
-				topModel.getSignalMap().put(si.hashCode(), si);
-				si.getSrcBlock().getOutSignals().add(si);
-				si.getDstBlock().getInSignals().add(si);
+				signalMap.put(si.hashCode(), si);
+				si.getSrcBlock().addOutSignal(si);
+				si.getDstBlock().addInSignal(si);
 			}
 		}
 
-		// Perform subsystems, referenced models
+		// collect subsystems, referenced models
+		List<Block> children = new ArrayList<Block>();
 		for (Block block : localName2Block.values()) {
-			if (SimulinkBlockConstants.SUBSYSTEM_BLOCKTYPE.equals(block.getType())) {
-				createSystem(
-						block.getBlockSection().getFirstSubSection(
-								SimulinkSectionConstants.SYSTEM_SECTION_TYPE), topModel, systemLevel + 1,
-						block);
-			} else if (SimulinkBlockConstants.MODEL_REFERENCE_BLOCKTYPE.equals(block.getType())) {
-				createModelReference(block, topModel, systemLevel + 1);
+			if (SimulinkBlockConstants.SUBSYSTEM_BLOCKTYPE.equals(block.getType())
+					|| SimulinkBlockConstants.MODEL_REFERENCE_BLOCKTYPE.equals(block.getType())) {
+				children.add(block);
 			}
 		}
+		return children;
+	}
 
+	/**
+	 * Builds the system part of the Simulink model like
+	 * {@link #createSystem(MDLSection, Model, int, ModelItem)}, but sibling
+	 * subsystems are built in parallel. Meanwhile the blocks, ports and lines
+	 * get temporary ids, see {@link BlockFactory#nextID(Model)}. Afterwards
+	 * the ids are assigned in the order of a sequential build, so the ids are
+	 * the same as those of a sequential build. Library stateflows and model
+	 * references are handled at their place in this order, too.
+	 *
+	 * @param systemSection
+	 *           the detected system part of the AST
+	 * @param topModel
+	 *           the model to which the systemSection belongs
+	 * @param systemLevel
+	 *           the current layer of subsystems
+	 * @param blockparent
+	 *           the hash of the overlaying subsystem block
+	 */
+	private void createSystemParallel(MDLSection systemSection, Model topModel,
+			int systemLevel, ModelItem blockparent) {
+		AtomicInteger tempIds = new AtomicInteger(-2);
+		SystemTask root = new SystemTask(systemSection, topModel, systemLevel, blockparent,
+				tempIds);
+		ForkJoinPool.commonPool().invoke(root);
+
+		// temporary id -> id, -1 until assigned
+		int[] ids = new int[-2 - tempIds.get()];
+		Arrays.fill(ids, -1);
+		finishSystem(root, topModel, ids);
+
+		// the blocks are their hash codes
+		Map<Block, HashMap<String, Float>> probabilities = new HashMap<Block, HashMap<String, Float>>(
+				probabilityMapping);
+		probabilityMapping.clear();
+		probabilityMapping.putAll(probabilities);
+	}
+
+	/**
+	 * Assigns the ids of a task in the order of a sequential build, checks its
+	 * reference blocks for library stateflows and adds its blocks and lines
+	 * to the model. Then does the same for its subsystems and builds its
+	 * referenced models.
+	 *
+	 * @param ids
+	 *           the ids of the temporary ids
+	 */
+	private void finishSystem(SystemTask task, Model topModel, int[] ids) {
+		for (Object entry : task.log) {
+			if (entry instanceof Integer) {
+				ids[-2 - ((Integer) entry).intValue()] = topModel.nextID();
+			} else if (entry instanceof BlockDefault) {
+				BlockDefault defaultBlock = (BlockDefault) entry;
+				if (defaultBlock.getId() == -1) {
+					defaultBlock.setId(topModel.nextID());
+				}
+			} else {
+				ReferenceBlock refBlock = (ReferenceBlock) entry;
+				checkLibRefForStateflow(refBlock, refBlock.getReferencingBlock().getBlockSection(),
+						topModel);
+			}
+		}
+
+		for (Block block : task.blocks.values()) {
+			renumber(block, ids);
+			if (block instanceof ReferenceBlock) {
+				renumber(((ReferenceBlock) block).getReferencingBlock(), ids);
+			}
+			for (Port port : block.getAllPorts()) {
+				renumber(port, ids);
+			}
+			topModel.getBlockMap().put(block.getId(), block);
+		}
+		for (SignalLine signal : task.signals.values()) {
+			renumber(signal, ids);
+			renumber(signal.getSrcPort(), ids);
+			renumber(signal.getDstPort(), ids);
+			topModel.getSignalMap().put(signal.getId(), signal);
+		}
+
+		for (Object child : task.children) {
+			if (child instanceof SystemTask) {
+				finishSystem((SystemTask) child, topModel, ids);
+			} else {
+				createModelReference((Block) child, topModel, task.systemLevel + 1);
+			}
+		}
+
+		// the lines of a layer may end at the port blocks of its subsystems
+		for (Block block : task.blocks.values()) {
+			block.rehashSets();
+		}
+	}
+
+	/**
+	 * Replaces the temporary id of the given item by its id if that is
+	 * assigned already.
+	 */
+	private static void renumber(ModelItem item, int[] ids) {
+		if ((item != null) && (item.getId() < -1) && (ids[-2 - item.getId()] >= 0)) {
+			item.setId(ids[-2 - item.getId()]);
+		}
+	}
+
+	/**
+	 * Builds one layer of a system with temporary ids and afterwards its
+	 * subsystems as subtasks.
+	 */
+	private class SystemTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final MDLSection systemSection;
+		private final Model topModel;
+		private final int systemLevel;
+		private final ModelItem blockparent;
+		private final AtomicInteger tempIds;
+
+		// results of this layer
+		private final Map<Integer, Block> blocks = new HashMap<Integer, Block>();
+		private final Map<Integer, SignalLine> signals = new HashMap<Integer, SignalLine>();
+		// temporary ids, BlockDefaults and reference blocks, see IdLog
+		private final List<Object> log = new ArrayList<Object>();
+		// subtasks and model reference blocks in the order they are built
+		private final List<Object> children = new ArrayList<Object>();
+
+		public SystemTask(MDLSection systemSection, Model topModel, int systemLevel,
+				ModelItem blockparent, AtomicInteger tempIds) {
+			this.systemSection = systemSection;
+			this.topModel = topModel;
+			this.systemLevel = systemLevel;
+			this.blockparent = blockparent;
+			this.tempIds = tempIds;
+		}
+
+		@Override
+		protected void compute() {
+			List<SystemTask> subtasks = new ArrayList<SystemTask>();
+			BlockFactory.IdLog previous = blockFactory.setIdLog(new BlockFactory.IdLog(topModel,
+					tempIds, log));
+			try {
+				for (Block block : createSystemLevel(systemSection, topModel, systemLevel,
+						blockparent, blocks, signals, log)) {
+					if (SimulinkBlockConstants.SUBSYSTEM_BLOCKTYPE.equals(block.getType())) {
+						SystemTask subtask = new SystemTask(block.getBlockSection()
+								.getFirstSubSection(SimulinkSectionConstants.SYSTEM_SECTION_TYPE),
+								topModel, systemLevel + 1, block, tempIds);
+						subtasks.add(subtask);
+						children.add(subtask);
+					} else {
+						children.add(block);
+					}
+				}
+			} finally {
+				blockFactory.setIdLog(previous);
+			}
+			invokeAll(subtasks);
+		}
 	}
 
 	/**
@@ -1011,6 +1245,7 @@ public class ModelBuilder {
 			for (Block block : newModel.getBlockMap().values()) {
 						model.getBlockMap().put(block.getId(), block);
 					}
+			model.invalidateBlockPathIndex();
 
 			for (SignalLine sl : newModel.getSignalLines()) {
 						model.getSignalMap().put(sl.getId(), sl);
@@ -1060,13 +1295,8 @@ public class ModelBuilder {
 		referencePath = referencePath.replaceAll("\n","\\\\n");
 		List<String> path = parseModelPath(referencePath); // split the path in
 																			// its parts
-		MDLSection library = MeMoParserManager.getLibraryAST(path.get(0)); // Get
-																									// the
-																									// parsed
-																									// library
-																									// mdl
-																									// file
-		MDLSection librarySection; // the library section of the mdl file
+		// get the indexed library
+		LibraryBlockIndex library = MeMoParserManager.getLibraryIndex(path.get(0));
 		String forwarding; // A library can contain a forwarding table that maps
 									// old paths to new, sotre the new path
 
@@ -1077,15 +1307,8 @@ public class ModelBuilder {
 			return null;
 		}
 
-		forwarding = MeMoParserManager.getForwardingTable(library).get(referencePath); // get
-																													// the
-																													// new
-																													// path,
-																													// if
-																													// there
-																													// is
-																													// a
-																													// forwarding
+		// get the new path, if there is a forwarding
+		forwarding = library.getForwarding(referencePath);
 		if (forwarding != null) { // forwarding found?
 			MeMoPlugin.out.println("[INFO] Forwarding found: " + referencePath + " --> " + forwarding);
 			result = getLibBlockSection(forwarding, blockSection); // just in case
@@ -1104,64 +1327,13 @@ public class ModelBuilder {
 			}
 		}
 
-		librarySection = library.getFirstSubSection(SimulinkSectionConstants.LIBRARY_SECTION_TYPE); // get
-																																	// the
-																																	// library
-																																	// section
-
-		result = librarySection.getSubSections(SimulinkSectionConstants.SYSTEM_SECTION_TYPE).get(0); // get
-																																	// the
-																																	// system
-																																	// section
-																																	// where
-																																	// the
-																																	// blocks
-																																	// are
-																																	// actually
-		for (int i = 1; i < path.size(); i++) { // follow the path
-			MDLSection tmp = null;
-			for (MDLSection block : result.getSubSections(SimulinkSectionConstants.BLOCK_SECTION_TYPE)) { // find
-																																			// the
-																																			// right
-																																			// subsection
-				if (block.getParameter(SimulinkParameterNames.BLOCK_NAME_PARAMETER).equals(path.get(i))) { // is
-																																			// it
-																																			// the
-																																			// correct
-																																			// subsection?
-					if (block.getParameter(SimulinkParameterNames.BLOCK_TYPE_PARAMETER).equals(
-							SimulinkBlockConstants.SUBSYSTEM_BLOCKTYPE)
-							&& (i < (path.size() - 1))) {
-						tmp = block.getSubSections(SimulinkSectionConstants.SYSTEM_SECTION_TYPE).get(0); // in
-																																	// a
-																																	// subsystem
-																																	// we
-																																	// need
-																																	// the
-																																	// system
-																																	// section,
-																																	// if
-																																	// we
-																																	// want
-																																	// to
-																																	// go
-																																	// deeper
-					} else {
-						tmp = block;
-					}
-					break;
-				}
-			}
-			if (tmp == null) { // have found a match?
-				MeMoPlugin.out.println("[WARNING] Replacing of Reference Block "
-						+ blockSection.getParameter(SimulinkParameterNames.BLOCK_NAME_PARAMETER)
-						+ " failed, Block " + path.get(i) + " of path " + path + " in Library "
-						+ path.get(0) + " not found, skip replacing!");
-				return null;
-			} else {
-				result = tmp;
-			}
-
+		// look up the path below the library
+		result = library.getBlock(path.subList(1, path.size()));
+		if (result == null) { // have found a match?
+			MeMoPlugin.out.println("[WARNING] Replacing of Reference Block "
+					+ blockSection.getParameter(SimulinkParameterNames.BLOCK_NAME_PARAMETER)
+					+ " failed, Block " + path.get(path.size() - 1) + " of path " + path
+					+ " in Library " + path.get(0) + " not found, skip replacing!");
 		}
 
 		return result;
@@ -1312,23 +1484,23 @@ public class ModelBuilder {
 	 */
 	private List<String> parseModelPath(String path) {
 		ArrayList<String> result = new ArrayList<String>();
-		String pathpart = "";
+		StringBuilder pathpart = new StringBuilder();
 		char c;
 		for (int i = 0; i < path.length(); i++) {
 			c = path.charAt(i);
 			if (c != '/') {
-				pathpart += c;
+				pathpart.append(c);
 			} else {
 				if (path.charAt(i + 1) == '/') {
-					pathpart += "/";
+					pathpart.append('/');
 					i++;
 				} else {
-					result.add(pathpart);
-					pathpart = "";
+					result.add(pathpart.toString());
+					pathpart.setLength(0);
 				}
 			}
 		}
-		result.add(pathpart);
+		result.add(pathpart.toString());
 		return result;
 	}
 
@@ -1384,12 +1556,12 @@ public class ModelBuilder {
 				target = targets[SimulinkPortConstants.ENABLE_PORT_POSITION].get(1);
 				si.setDstBlock(target);
 				target.setEnablePort(si.getDstPort());
-				target.getInSignals().add(si);
+				target.addInSignal(si);
 			} else if (destPortString.equals(SimulinkPortConstants.TRIGGER_PORT)) {
 				target = targets[SimulinkPortConstants.TRIGGER_PORT_POSITION].get(1);
 				si.setDstBlock(target);
 				target.setTriggerPort(si.getDstPort());
-				target.getInSignals().add(si);
+				target.addInSignal(si);
 				// inports are numbered from 1 to n
 			} else if (destPortString.contains(SimulinkPortConstants.IN_PORT_PREFIX)) {
 				// inport block with port == null are related to port 1 by
@@ -1398,12 +1570,12 @@ public class ModelBuilder {
 						.parseInt(destPortString.replace(SimulinkPortConstants.IN_PORT_PREFIX, "")));
 				si.setDstBlock(target);
 				target.getInPortsMap().put(si.getDstPort().getNumber(), si.getDstPort());
-				target.getInSignals().add(si);
+				target.addInSignal(si);
 			} else if (destPortString.equals(SimulinkPortConstants.IFACTION_PORT)) {
 				target = targets[SimulinkPortConstants.IFACTION_PORT_POSITION].get(1);
 				si.setDstBlock(target);
 				target.setIfactionPort(si.getDstPort());
-				target.getInSignals().add(si);
+				target.addInSignal(si);
 				// LConn/RConn Ports can be src and dest
 			} else if (destPortString.contains(SimulinkPortConstants.R_CONN_PORT_PREFIX)) {
 				target = targets[SimulinkPortConstants.R_CONN_PORT_POSITION].get(Integer
@@ -1427,7 +1599,7 @@ public class ModelBuilder {
 				// if LConn1
 				// is used
 				// after all
-				target.getInSignals().add(si);
+				target.addInSignal(si);
 			} else if (destPortString.contains(SimulinkPortConstants.L_CONN_PORT_PREFIX)) {
 				target = targets[SimulinkPortConstants.L_CONN_PORT_POSITION].get(Integer
 						.parseInt(destPortString.replace(SimulinkPortConstants.L_CONN_PORT_PREFIX, "")));
@@ -1450,7 +1622,7 @@ public class ModelBuilder {
 				// if LConn1
 				// is used
 				// after all
-				target.getInSignals().add(si);
+				target.addInSignal(si);
 			}
 		}
 
@@ -1463,7 +1635,7 @@ public class ModelBuilder {
 						.parseInt(srcPortString.replace(SimulinkPortConstants.OUT_PORT_PREFIX, "")));
 				si.setSrcBlock(target);
 				target.getOutPortsMap().put(si.getSrcPort().getNumber(), si.getSrcPort());
-				target.getOutSignals().add(si);
+				target.addOutSignal(si);
 				// LConn/RConn Ports can be src and dest
 			} else if (srcPortString.contains(SimulinkPortConstants.R_CONN_PORT_PREFIX)) {
 				target = targets[SimulinkPortConstants.R_CONN_PORT_POSITION].get(Integer
@@ -1487,7 +1659,7 @@ public class ModelBuilder {
 				// if LConn1
 				// is used
 				// after all
-				target.getInSignals().add(si);
+				target.addInSignal(si);
 			} else if (srcPortString.contains(SimulinkPortConstants.L_CONN_PORT_PREFIX)) {
 				target = targets[SimulinkPortConstants.L_CONN_PORT_POSITION].get(Integer
 						.parseInt(srcPortString.replace(SimulinkPortConstants.L_CONN_PORT_PREFIX, "")));
@@ -1510,7 +1682,7 @@ public class ModelBuilder {
 				// if LConn1
 				// is used
 				// after all
-				target.getInSignals().add(si);
+				target.addInSignal(si);
 			} else if (srcPortString.contains(SimulinkPortConstants.STATE_PORT)) {
 				MeMoPlugin.out
 						.println("[WARNING] Subsystem with state port found! Never seen before! \n"
@@ -1593,7 +1765,7 @@ public class ModelBuilder {
 				Port srcPort = getSrcPortFromString(srcBlock, srcPortString, model);
 				Port dstPort = getDstPortFromString(dstBlock, dstPortString, model);
 
-				SignalLine s = new SignalLine(model.nextID(), lvl, srcBlock, dstBlock, srcPort,
+				SignalLine s = new SignalLine(blockFactory.nextID(model), lvl, srcBlock, dstBlock, srcPort,
 						dstPort, signalLineName);
 				s.setIsBranched(true);
 				signals.add(s);
@@ -1698,321 +1870,20 @@ public class ModelBuilder {
 	}
 
 	/**
-	 * Connects Goto blocks and their corresponding From blocks with a Line.
+	 * Connects Goto blocks and their corresponding From blocks with a Line. The
+	 * From blocks in reach of a Goto block are looked up in a
+	 * {@link GotoFromIndex} of the model.
 	 *
-	 * @param session
-	 *           the session to work on the Database
 	 * @param m
 	 *           the model needed to generate fresh id's
 	 */
-	@SuppressWarnings("unchecked")
-	public void reassignGotos(MeMoPersistenceManager persistence, Model m) {
-		List<Block> gotoResult = new ArrayList<Block>();
-		List<Block> fromResult = new ArrayList<Block>();
-
-		// collect all Goto blocks an handle them by their tagVisibility
-		gotoResult = persistence
-				.getItemsByCriteria(Block.class, Restrictions.eq(MemoFieldNames.BLOCK_TYPE_FIELD,
-						SimulinkBlockConstants.GOTO_BLOCKTYPE));
-
-		for (Block b : gotoResult) {
-			String tag = b.getParameter(SimulinkParameterNames.GOTO_TAG);
-			// locals overwrites scope and global on the same level in the same
-			// system part
-			if (b.getParameter(SimulinkParameterNames.TAG_VISIBILITY).equals(
-					SimulinkParameterValues.GOTO_TAG_LOCAL)) {
-				fromResult = persistence.getItemsByCriteria(Block.class, Restrictions.eq(
-						MemoFieldNames.BLOCK_TYPE_FIELD, SimulinkBlockConstants.FROM_BLOCKTYPE),
-						Restrictions.eq(MemoFieldNames.BLOCK_PARENT_FIELD, b.getParent()));
-				for (Block b2 : fromResult) {
-					if (tag.equals(b2.getParameter(SimulinkParameterNames.GOTO_TAG))) {
-						createGotoLine(b, b2, m);
-					}
-				}
-				// scoped overwrites everything in the same system part from
-				// the same level starting and the underlying levels
-			} else if (b.getParameter(SimulinkParameterNames.TAG_VISIBILITY).equals(
-					SimulinkParameterValues.GOTO_TAG_GLOBAL)) {
-				fromResult = getFromsInScopeGlobal(b, persistence);
-				for (Block b2 : fromResult) {
-					if (tag.equals(b2.getParameter(SimulinkParameterNames.GOTO_TAG))) {
-						createGotoLine(b, b2, m);
-					}
-				}
-				// global is in the whole system reachable where it is not
-				// overwritten
-			} else if (b.getParameter(SimulinkParameterNames.TAG_VISIBILITY).equals(
-					SimulinkParameterValues.GOTO_TAG_SCOPED)) {
-				fromResult = getFromsInScopeScoped(b, persistence);
-				for (Block b2 : fromResult) {
-					if (tag.equals(b2.getParameter(SimulinkParameterNames.GOTO_TAG))) {
-						createGotoLine(b, b2, m);
-					}
-				}
-			}
-		}
-	}
-
-	/**
-	 * @param b
-	 *           a From block with tagVisibility "global".
-	 * @param session
-	 *           The session to reach the Database
-	 * @return a List of From blocks, which are in scope of the given goto block
-	 */
-	@SuppressWarnings("unchecked")
-	// cast typesafe, because Criterions are typed
-	private List<Block> getFromsInScopeGlobal(Block b, MeMoPersistenceManager persistence) {
-		List<Block> result = persistence
-				.getItemsByCriteria(Block.class, Restrictions.eq(MemoFieldNames.BLOCK_TYPE_FIELD,
-						SimulinkBlockConstants.FROM_BLOCKTYPE)); // get all from
-		// Blocks
-		List<Block> killSet = new ArrayList<Block>(); // killSet will be over
-		// approximated
-		String tag = b.getParameter(SimulinkParameterNames.GOTO_TAG);
-
-		// delete wrong tags. Not filtered in the Database query so
-		// no HQL is needed
-		for (Block b2 : result) {
-			if (!tag.equals(b2.getParameter(SimulinkParameterNames.GOTO_TAG))) {
-				killSet.add(b2);
-			}
-		}
-
-		// delete overwritten by locals
-		for (Block b2 : result) {
-			List<Block> temp = persistence.getItemsByCriteria(Block.class, Restrictions.eq(
-					MemoFieldNames.BLOCK_TYPE_FIELD, SimulinkBlockConstants.GOTO_BLOCKTYPE),
-					Restrictions.eq(MemoFieldNames.BLOCK_LEVEL_FIELD, b2.getLevel()));
-			for (Block tempB : temp) {
-				if (tag.equals(tempB.getParameter(SimulinkParameterNames.GOTO_TAG))
-						&& ((tempB.getLevel() == 1) || (tempB.getParent().getId() == b2.getParent()
-								.getId())) // level = 1 => parent = null, b2 has the
-												// same level
-						&& tempB.getParameter(SimulinkParameterNames.TAG_VISIBILITY).equals(
-								SimulinkParameterValues.GOTO_TAG_LOCAL)) {
-					killSet.add(b2);
-				}
-			}
-		}
-
-		// delete overwritten by scope
-		List<Block> temp = persistence
-				.getItemsByCriteria(Block.class, Restrictions.eq(MemoFieldNames.BLOCK_TYPE_FIELD,
-						SimulinkBlockConstants.GOTO_BLOCKTYPE));
-		temp.remove(b); // don't remove Blocks in scope of the examined block!
-		for (Block block : temp) {
-			if (!block.getParameter(SimulinkParameterNames.GOTO_TAG).equals(tag)) {
-				continue; // goto blocks without the same tag have no effect
-			}
-			if (block.getParameter(SimulinkParameterNames.TAG_VISIBILITY).equals(
-					SimulinkParameterValues.GOTO_TAG_SCOPED)) { // we want only
-																				// scoped goto
-																				// blocks
-				List<Block> subsystems;
-				if (block.getParent() != null) { // block on top level?
-					subsystems = persistence.getItemsByCriteria(Block.class, Restrictions.eq(
-							MemoFieldNames.BLOCK_PARENT_FIELD, block.getParent()), Restrictions.eq(
-							MemoFieldNames.BLOCK_TYPE_FIELD, SimulinkBlockConstants.SUBSYSTEM_BLOCKTYPE)); // get
-																																		// all
-																																		// underlying
-																																		// subsystems
-					killSet.addAll(persistence.getItemsByCriteria(Block.class, Restrictions.eq(
-							MemoFieldNames.BLOCK_PARENT_FIELD, block.getParent()), Restrictions.eq(
-							MemoFieldNames.BLOCK_TYPE_FIELD, SimulinkBlockConstants.FROM_BLOCKTYPE))); // all
-																																// blocks
-																																// in
-																																// the
-																																// same
-																																// subsystem
-																																// as
-																																// the
-																																// scoped
-																																// block
-																																// are
-																																// in
-																																// scope,
-																																// overapproximates,
-																																// get's
-																																// blocks
-																																// with
-																																// wrong
-																																// tag
-				} else {
-					subsystems = Collections.EMPTY_LIST;
-					killSet.addAll(persistence.getItemsByCriteria(Block.class, Restrictions.eq(
-							MemoFieldNames.BLOCK_TYPE_FIELD, SimulinkBlockConstants.FROM_BLOCKTYPE))); // scope
-																																// on
-																																// top
-																																// level
-																																// overwrites
-																																// everything
-				}
-				while (!subsystems.isEmpty()) { // check all subsystems and the
-															// subsystems of the subsystems
-					Block currentSub = subsystems.remove(0);
-					subsystems.addAll(persistence.getItemsByCriteria(Block.class, Restrictions.eq(
-							MemoFieldNames.BLOCK_PARENT_FIELD, currentSub), Restrictions.eq(
-							MemoFieldNames.BLOCK_TYPE_FIELD, SimulinkBlockConstants.SUBSYSTEM_BLOCKTYPE))); // get
-																																		// subsystems
-																																		// of
-																																		// the
-																																		// subsystem
-					killSet.addAll(persistence.getItemsByCriteria(Block.class, Restrictions.eq(
-							MemoFieldNames.BLOCK_PARENT_FIELD, currentSub), Restrictions.eq(
-							MemoFieldNames.BLOCK_TYPE_FIELD, SimulinkBlockConstants.FROM_BLOCKTYPE)));
-				}
-			}
-		}
-
-		result.removeAll(killSet);
-
-		return result;
-	}
-
-	/**
-	 * @param b
-	 *           a From block with tagVisibility "scoped".
-	 * @param session
-	 *           The session to reach the Database
-	 * @return a List of From blocks, which are in scope of the given goto block
-	 */
-	@SuppressWarnings("unchecked")
-	private List<Block> getFromsInScopeScoped(Block b, MeMoPersistenceManager persistence) {
-		List<Block> result = persistence
-				.getItemsByCriteria(Block.class, Restrictions.eq(MemoFieldNames.BLOCK_TYPE_FIELD,
-						SimulinkBlockConstants.FROM_BLOCKTYPE), Restrictions.ge(
-						MemoFieldNames.BLOCK_LEVEL_FIELD, b.getLevel())); // possible
-		// scope
-		// of
-		// examined
-		// block
-		// b
-		// only
-		// downwards
-		List<Block> killSet = new ArrayList<Block>(); // killSet will be over
-		// approximated
-		String tag = b.getParameter(SimulinkParameterNames.GOTO_TAG);
-
-		// delete wrong tags
-		// delete blocks without indirect parent = parent of b
-		// Not filtered in the Database query so no HQL is needed
-		for (Block b2 : result) {
-			if (!tag.equals(b2.getParameter(SimulinkParameterNames.GOTO_TAG))) {
-				killSet.add(b2);
-			} else { // indirect child of parent of b?
-				if (!(b.getParent() instanceof Block)) {
-					break; // all in scope! Nothing to kill
-				}
-				if (!(b2.getParent() instanceof Block)) { // not in scope of b,
-																		// because b2 is on top
-																		// level, but b not
-					killSet.add(b2);
-					continue;
-				}
-				Block parent = b2;
-				// search path upwards to b
-				while (parent.getId() != b.getParent().getId()) {
-					if (!(parent.getParent() instanceof Block)) { // no path found =>
-																					// out of scope
-						killSet.add(b2);
-						break;
-					}
-					parent = (Block) parent.getParent();
-				}
+	public void reassignGotos(Model m) {
+		GotoFromIndex index = new GotoFromIndex(m.getBlocks());
+		for (Block gotoBlock : index.getGotos()) {
+			for (Block fromBlock : index.getFroms(gotoBlock)) {
+				createGotoLine(gotoBlock, fromBlock, m);
 			}
 		}
-
-		// delete overwritten by locals
-		for (Block b2 : result) {
-			List<Block> temp = persistence.getItemsByCriteria(Block.class, Restrictions.eq(
-					MemoFieldNames.BLOCK_TYPE_FIELD, SimulinkBlockConstants.GOTO_BLOCKTYPE),
-					Restrictions.eq(MemoFieldNames.BLOCK_LEVEL_FIELD, b2.getLevel())); // scope
-																												// only
-																												// downwards
-			for (Block tempB : temp) {
-				if (tag.equals(tempB.getParameter(SimulinkParameterNames.GOTO_TAG))
-						&& ((tempB.getLevel() == 1) || (tempB.getParent().getId() == b2.getParent()
-								.getId())) // level = 1 => parent = null, b2 has the
-												// same level
-						&& tempB.getParameter(SimulinkParameterNames.TAG_VISIBILITY).equals(
-								SimulinkParameterValues.GOTO_TAG_LOCAL)) {
-					killSet.add(b2);
-				}
-			}
-		}
-
-		// delete overwritten by scope
-		List<Block> temp = persistence
-				.getItemsByCriteria(Block.class, Restrictions.eq(MemoFieldNames.BLOCK_TYPE_FIELD,
-						SimulinkBlockConstants.GOTO_BLOCKTYPE), Restrictions.ge(
-						MemoFieldNames.BLOCK_LEVEL_FIELD, b.getLevel())); // scope
-		// only
-		// downwards
-		temp.remove(b); // don't remove Blocks in scope of the examined block!
-		for (Block block : temp) {
-			if (!block.getParameter(SimulinkParameterNames.GOTO_TAG).equals(tag)) {
-				continue; // goto blocks without the same tag have no effect
-			}
-			if (block.getParameter(SimulinkParameterNames.TAG_VISIBILITY).equals(
-					SimulinkParameterValues.GOTO_TAG_SCOPED)) { // we want only
-																				// scoped goto
-																				// blocks
-				List<Block> subsystems;
-				if (block.getParent() != null) {
-					subsystems = persistence.getItemsByCriteria(Block.class, Restrictions.eq(
-							MemoFieldNames.BLOCK_PARENT_FIELD, block.getParent()), Restrictions.eq(
-							MemoFieldNames.BLOCK_TYPE_FIELD, SimulinkBlockConstants.SUBSYSTEM_BLOCKTYPE)); // get
-																																		// all
-																																		// underlying
-																																		// subsystems
-					killSet.addAll(persistence.getItemsByCriteria(Block.class, Restrictions.eq(
-							MemoFieldNames.BLOCK_PARENT_FIELD, block.getParent()), Restrictions.eq(
-							MemoFieldNames.BLOCK_TYPE_FIELD, SimulinkBlockConstants.FROM_BLOCKTYPE))); // all
-																																// blocks
-																																// in
-																																// the
-																																// same
-																																// subsystem
-																																// as
-																																// the
-																																// scoped
-																																// block
-																																// are
-																																// in
-																																// scope,
-																																// overapproximates,
-																																// get's
-																																// blocks
-																																// with
-																																// wrong
-																																// tag
-				} else {
-					subsystems = Collections.EMPTY_LIST;
-					killSet.addAll(persistence.getItemsByCriteria(Block.class, Restrictions.eq(
-							MemoFieldNames.BLOCK_TYPE_FIELD, SimulinkBlockConstants.FROM_BLOCKTYPE))); // scope
-																																// on
-																																// top
-																																// level
-																																// overwrites
-																																// everything
-				}
-				while (!subsystems.isEmpty()) { // check all subsystems and the
-															// subsystems of the subsystems
-					Block currentSub = subsystems.remove(0);
-					subsystems.addAll(persistence.getItemsByCriteria(Block.class, Restrictions.eq(
-							MemoFieldNames.BLOCK_PARENT_FIELD, currentSub), Restrictions.eq(
-							MemoFieldNames.BLOCK_TYPE_FIELD, SimulinkBlockConstants.SUBSYSTEM_BLOCKTYPE)));
-					killSet.addAll(persistence.getItemsByCriteria(Block.class, Restrictions.eq(
-							MemoFieldNames.BLOCK_PARENT_FIELD, currentSub), Restrictions.eq(
-							MemoFieldNames.BLOCK_TYPE_FIELD, SimulinkBlockConstants.FROM_BLOCKTYPE)));
-				}
-			}
-		}
-
-		result.removeAll(killSet);
-
-		return result;
 	}
 
 	/**
@@ -2033,8 +1904,8 @@ public class ModelBuilder {
 		gotoB.getOutPorts().add(srcPort);
 		fromB.getInPorts().add(dstPort);
 
-		gotoB.getOutSignals().add(line);
-		fromB.getInSignals().add(line);
+		gotoB.addOutSignal(line);
+		fromB.addInSignal(line);
 
 		m.getSignalLines().add(line);
 	}
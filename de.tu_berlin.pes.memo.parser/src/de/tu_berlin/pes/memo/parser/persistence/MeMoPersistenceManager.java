@@ -73,6 +73,7 @@ import de.tu_berlin.pes.memo.model.impl.ModelItem;
 import de.tu_berlin.pes.memo.model.impl.SignalLine;
 import de.tu_berlin.pes.memo.model.util.SimulinkParameterNames;
 import de.tu_berlin.pes.memo.model.util.SimulinkSectionConstants;
+import de.tu_berlin.pes.memo.parser.MeMoParserManager;
 import de.tu_berlin.pes.memo.parser.MeMoParserPlugin;
 import de.tu_berlin.pes.memo.parser.ModelBuilder;
 import de.tu_berlin.pes.memo.parser.mapping.Mapping;
@@ -293,6 +294,7 @@ public class MeMoPersistenceManager {
 	public void saveModelToDB(MDLSection section, boolean matlabEvaluation,
 			boolean generateDatabases, boolean randomizeNames) {
 		ModelBuilder mdlBuilder = new ModelBuilder();
+		mdlBuilder.setParallel(MeMoParserManager.isParallelBuilding());
 		try {
 
 			if (generateDatabases) {
@@ -324,7 +326,7 @@ public class MeMoPersistenceManager {
 
 			MeMoPlugin.out.println("[INFO] Reassign Gotos...");
 
-			mdlBuilder.reassignGotos(this, model);
+			mdlBuilder.reassignGotos(model);
 
 			// storeModel();
 
@@ -0,0 +1,229 @@
+package de.tu_berlin.pes.memo.parser.slx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Index over the elements of a SLX (blockdiagram) DOM. The blocks are indexed
+ * by SID in one pass when the index is created, the child elements of an
+ * element are grouped by tag name on first request and kept afterwards, so
+ * repeated lookups do not walk the DOM again.
+ */
+public class SLXElementIndex {
+
+	// all Block elements with a SID, in document order
+	private final Map<String, Element> blocksBySID = new LinkedHashMap<String, Element>();
+
+	// parent -> tag name -> child elements
+	private final Map<Element, Map<String, List<Element>>> children = new IdentityHashMap<Element, Map<String, List<Element>>>();
+
+	// parent -> Name attribute -> first child element with that name
+	private final Map<Element, Map<String, Element>> named = new IdentityHashMap<Element, Map<String, Element>>();
+
+	// parent -> tag name -> Name attribute -> child elements
+	private final Map<Element, Map<String, Map<String, List<Element>>>> namedByTag = new IdentityHashMap<Element, Map<String, Map<String, List<Element>>>>();
+
+	// Block element -> path below the model
+	private final Map<Element, String> paths = new IdentityHashMap<Element, String>();
+
+	/**
+	 * Creates the index for the given element and its descendants
+	 *
+	 * @param root
+	 *           - e.g. the document element or the Model element
+	 */
+	public SLXElementIndex(Element root) {
+		indexBlocks(root);
+	}
+
+	private void indexBlocks(Element root) {
+		NodeList l = root.getChildNodes();
+		for (int i = 0; i < l.getLength(); i++) {
+			Node n = l.item(i);
+			if (n.getNodeType() == Node.ELEMENT_NODE) {
+				Element e = (Element) n;
+				if (e.getNodeName().equals("Block") && e.hasAttribute("SID")) {
+					// like the parsers, the last block with a SID wins
+					blocksBySID.put(e.getAttribute("SID"), e);
+				}
+				indexBlocks(e);
+			}
+		}
+	}
+
+	/**
+	 * @return all Block elements with a SID by SID, in document order
+	 */
+	public Map<String, Element> getBlocksBySID() {
+		return Collections.unmodifiableMap(blocksBySID);
+	}
+
+	/**
+	 * @param sid
+	 * @return the Block element with the given SID or null
+	 */
+	public Element getBlock(String sid) {
+		return blocksBySID.get(sid);
+	}
+
+	/**
+	 * @param sid
+	 * @return the Name attribute of the block with the given SID, an empty
+	 *         string if there is no such block
+	 */
+	public String getBlockName(String sid) {
+		Element block = blocksBySID.get(sid);
+		if (block == null) {
+			return "";
+		}
+		return block.getAttribute("Name");
+	}
+
+	/**
+	 * Returns the path of a block below the model, built like
+	 * {@link de.tu_berlin.pes.memo.model.impl.Block#getFullQualifiedName(boolean)}
+	 * without the model name: the names of the enclosing Block elements and of
+	 * the block joined by "/", a "/" within a name is doubled.
+	 *
+	 * @param block
+	 *           - a Block element
+	 * @return the path, e.g. "Subsystem/Gain"
+	 */
+	public String getBlockPath(Element block) {
+		String path = paths.get(block);
+		if (path == null) {
+			path = block.getAttribute("Name").replace("/", "//");
+			Node n = block.getParentNode();
+			while (n != null && n.getNodeType() == Node.ELEMENT_NODE) {
+				if (n.getNodeName().equals("Block")) {
+					path = getBlockPath((Element) n) + "/" + path;
+					break;
+				}
+				n = n.getParentNode();
+			}
+			paths.put(block, path);
+		}
+		return path;
+	}
+
+	/**
+	 * @param parent
+	 * @param tag
+	 * @return the child elements of parent with the given tag name, in
+	 *         document order
+	 */
+	public List<Element> getChildren(Element parent, String tag) {
+		List<Element> result = getChildren(parent).get(tag);
+		if (result == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * @param parent
+	 * @param tag
+	 * @param name
+	 * @return the child elements of parent with the given tag name and Name
+	 *         attribute, in document order
+	 */
+	public List<Element> getChildren(Element parent, String tag, String name) {
+		Map<String, Map<String, List<Element>>> byTag = namedByTag.get(parent);
+		if (byTag == null) {
+			byTag = new HashMap<String, Map<String, List<Element>>>();
+			namedByTag.put(parent, byTag);
+		}
+		Map<String, List<Element>> byName = byTag.get(tag);
+		if (byName == null) {
+			byName = new HashMap<String, List<Element>>();
+			for (Element e : getChildren(parent, tag)) {
+				List<Element> elements = byName.get(e.getAttribute("Name"));
+				if (elements == null) {
+					elements = new ArrayList<Element>();
+					byName.put(e.getAttribute("Name"), elements);
+				}
+				elements.add(e);
+			}
+			byTag.put(tag, byName);
+		}
+		List<Element> result = byName.get(name);
+		if (result == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * Returns the text of the first child element with the given Name
+	 * attribute, i.e. the value of a P element.
+	 *
+	 * @param parent
+	 * @param name
+	 * @return the text content or null if there is no such child
+	 */
+	public String getParameter(Element parent, String name) {
+		Element p = getParameterElement(parent, name);
+		if (p == null) {
+			return null;
+		}
+		return p.getTextContent();
+	}
+
+	/**
+	 * @param parent
+	 * @param name
+	 * @return the first child element with the given Name attribute or null
+	 */
+	public Element getParameterElement(Element parent, String name) {
+		Map<String, Element> byName = named.get(parent);
+		if (byName == null) {
+			byName = new HashMap<String, Element>();
+			NodeList l = parent.getChildNodes();
+			for (int i = 0; i < l.getLength(); i++) {
+				Node n = l.item(i);
+				if (n.getNodeType() == Node.ELEMENT_NODE && ((Element) n).hasAttribute("Name")) {
+					String key = ((Element) n).getAttribute("Name");
+					if (!byName.containsKey(key)) {
+						byName.put(key, (Element) n);
+					}
+				}
+			}
+			named.put(parent, byName);
+		}
+		return byName.get(name);
+	}
+
+	/**
+	 * @return the child elements of parent grouped by tag name, created on
+	 *         first request
+	 */
+	private Map<String, List<Element>> getChildren(Element parent) {
+		Map<String, List<Element>> byTag = children.get(parent);
+		if (byTag == null) {
+			byTag = new HashMap<String, List<Element>>();
+			NodeList l = parent.getChildNodes();
+			for (int i = 0; i < l.getLength(); i++) {
+				Node n = l.item(i);
+				if (n.getNodeType() == Node.ELEMENT_NODE) {
+					List<Element> elements = byTag.get(n.getNodeName());
+					if (elements == null) {
+						elements = new ArrayList<Element>();
+						byTag.put(n.getNodeName(), elements);
+					}
+					elements.add((Element) n);
+				}
+			}
+			children.put(parent, byTag);
+		}
+		return byTag;
+	}
+}
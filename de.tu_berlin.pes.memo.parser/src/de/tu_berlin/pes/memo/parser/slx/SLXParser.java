@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -11,15 +12,24 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
 import org.conqat.lib.commons.collections.PairList;
+import org.conqat.lib.simulink.builder.LazyMDLSection;
 import org.conqat.lib.simulink.builder.MDLSection;
+import org.conqat.lib.simulink.builder.MDLSymbolTable;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
@@ -46,6 +56,29 @@ public class SLXParser {
 	// a map of <ID, BlockName>
 	private Map<String, String> BlockToIDMap = new HashMap<String, String>();
 
+	// symbol table for compact sections, null for plain parameter maps
+	private MDLSymbolTable symbolTable;
+
+	// the compressed file and its stateflow part, null for xml files
+	private ZipFile zipFile;
+	private ZipEntry stateflowEntry;
+
+	// if set, the stateflow part is parsed on first access
+	private boolean lazyStateflow;
+
+	// the source of the blockdiagram, to open it again for streaming
+	private ZipEntry blockdiagramEntry;
+	private File blockdiagramFile;
+
+	// if set, the blockdiagram is read with a StAX reader instead of a DOM
+	private boolean streaming = true;
+
+	// maximal number of threads reading the other parts of a compressed file
+	private static final int PART_THREADS = 3;
+
+	// if set, the parts are read concurrently to the blockdiagram
+	private boolean concurrentParts = true;
+
 	/**
 	 * Creates new parser from compressed slx file
 	 *
@@ -66,6 +99,9 @@ public class SLXParser {
 			}
 		}
 		ZipEntry stateflow = zipFile.getEntry("simulink/stateflow.xml");
+		this.zipFile = zipFile;
+		this.blockdiagramEntry = blockdiagram;
+		this.stateflowEntry = stateflow;
 		if(stateflow != null) {
 			try {
 				stateflowFile = zipFile.getInputStream(stateflow);
@@ -99,6 +135,7 @@ public class SLXParser {
 	 * @param xmlfile
 	 */
 	public SLXParser(File xmlfile) {
+		this.blockdiagramFile = xmlfile;
 		try {
 			this.xmlfile = new FileInputStream(xmlfile);
 		} catch (FileNotFoundException e) {
@@ -106,6 +143,55 @@ public class SLXParser {
 		}
 	}
 
+	/**
+	 * Sets the symbol table used to create compact sections. If set to
+	 * <code>null</code> (the default) sections store their parameters in a
+	 * plain map.
+	 *
+	 * @param symbolTable
+	 *           - the shared symbol table or null
+	 */
+	public void setSymbolTable(MDLSymbolTable symbolTable) {
+		this.symbolTable = symbolTable;
+	}
+
+	/**
+	 * If set, the Stateflow section of a compressed file is returned as a
+	 * {@link LazyMDLSection} that parses simulink/stateflow.xml on first
+	 * access. The zip file must not be closed before that.
+	 *
+	 * @param lazyStateflow
+	 *           - true to parse the stateflow part lazily
+	 */
+	public void setLazyStateflow(boolean lazyStateflow) {
+		this.lazyStateflow = lazyStateflow;
+	}
+
+	/**
+	 * If set (the default), the blockdiagram is converted while it is read
+	 * with a StAX reader, otherwise it is loaded into a DOM first. Both give
+	 * the same sections.
+	 *
+	 * @param streaming
+	 *           - true to read the blockdiagram with a StAX reader
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * If set (the default), configSet0.xml, bddefaults.xml and stateflow.xml
+	 * are decompressed and parsed on a small thread pool while the
+	 * blockdiagram is converted. The parts are merged in a fixed order, so the
+	 * result does not depend on the timing.
+	 *
+	 * @param concurrentParts
+	 *           - true to read the parts concurrently
+	 */
+	public void setConcurrentParts(boolean concurrentParts) {
+		this.concurrentParts = concurrentParts;
+	}
+
 	public MDLSection parse() throws Exception {
 		
 //		System.out.println("test");
@@ -117,6 +203,22 @@ public class SLXParser {
 		return section;
 	}
 
+	/**
+	 * Creates a section, compact if a symbol table is set
+	 *
+	 * @param name
+	 *           - name of the section
+	 * @param sections
+	 *           - the subsections
+	 * @param parameters
+	 *           - the parameters
+	 * @return the created section
+	 */
+	MDLSection createSection(String name, List<MDLSection> sections,
+			PairList<String, String> parameters) {
+		return new MDLSection(name, sections, parameters, -1, symbolTable);
+	}
+
 	/**
 	 * return the name of a block by its ID
 	 *
@@ -125,15 +227,12 @@ public class SLXParser {
 	 *         exist, an empty string
 	 */
 	private String getBlockNameByID(String blockID) {
-		// iterate over all entries in the BlockID list
-		for (Entry<String, String> e : this.BlockToIDMap.entrySet()) {
-			// if the requested ID is found, return the corresponding block name
-			if (e.getKey().equals(blockID)) {
-				return e.getValue();
-			}
-		}
+		String name = this.BlockToIDMap.get(blockID);
 		// if the ID is not in the list, return an empty string
-		return "";
+		if (name == null) {
+			return "";
+		}
+		return name;
 	}
 
 	/**
@@ -181,27 +280,72 @@ public class SLXParser {
 			}
 		}
 
-		return new MDLSection(name, sections, parameter, -1);
+		return createSection(name, sections, parameter);
 	}
 
 	private void parseParameter(PairList<String, String> parameter, Element e) {
-		String attr = e.getAttribute("Ref");
+		addParameter(parameter, e.getAttribute("Name"), e.getAttribute("Ref"), e.getTextContent());
+	}
+
+	/**
+	 * Adds the parameter of a P-Node
+	 *
+	 * @param parameter
+	 *           - parameter list where the parameter will be added
+	 * @param name
+	 *           - the Name attribute
+	 * @param attr
+	 *           - the Ref attribute, null or empty if there is none
+	 * @param text
+	 *           - the text content
+	 */
+	void addParameter(PairList<String, String> parameter, String name, String attr, String text) {
 		if ((attr != null) && !attr.equals("")) {
-			parameter.add(e.getAttribute("Name"), attr.split(":")[1]);
+			parameter.add(name, attr.split(":")[1]);
 		} else {
-			if(e.getAttribute("Name").equals("ModelNameDialog")) {
-				parameter.add(e.getAttribute("Name"), e.getTextContent().replaceAll(".slx", ""));
-			} else if (e.getAttribute("Name").equals("labelString")) {
-				parameter.add(e.getAttribute("Name"), e.getTextContent().replaceAll("\n", "\\\\n"));
+			if(name.equals("ModelNameDialog")) {
+				parameter.add(name, text.replaceAll(".slx", ""));
+			} else if (name.equals("labelString")) {
+				parameter.add(name, text.replaceAll("\n", "\\\\n"));
 			} else {
 				parameter.add(
-						e.getAttribute("Name").replaceAll("SSID", "id")/*.replaceAll("subviewer", "chart")*/,
-						e.getTextContent());
+						name.replaceAll("SSID", "id")/*.replaceAll("subviewer", "chart")*/,
+						text);
 			}
 		}
 
 	}
 
+	/**
+	 * Saves the name of a block with an SID
+	 *
+	 * @param blockID
+	 * @param blockName
+	 */
+	void addBlockID(String blockID, String blockName) {
+		this.BlockToIDMap.put(blockID, blockName);
+	}
+
+	/**
+	 * @return the name of the model, null for uncompressed files
+	 */
+	String getModelName() {
+		return modelName;
+	}
+
+	/**
+	 * Opens the blockdiagram again, for the streaming parser
+	 *
+	 * @return a new stream of the blockdiagram
+	 * @throws IOException
+	 */
+	InputStream openBlockdiagram() throws IOException {
+		if (blockdiagramEntry != null) {
+			return zipFile.getInputStream(blockdiagramEntry);
+		}
+		return new FileInputStream(blockdiagramFile);
+	}
+
 	/**
 	 * Creates a Array section
 	 *
@@ -236,7 +380,7 @@ public class SLXParser {
 			}
 		}
 
-		return new MDLSection("Array", sections, parameter, -1);
+		return createSection("Array", sections, parameter);
 	}
 
 	/**
@@ -294,7 +438,7 @@ public class SLXParser {
 			}
 		}
 
-		return new MDLSection("Block", sections, parameter, -1);
+		return createSection("Block", sections, parameter);
 	}
 
 	/**
@@ -307,7 +451,7 @@ public class SLXParser {
 	 * @param src
 	 *           - true if it is a srcblock, false otherwise
 	 */
-	private void addConvertedSignalLine(String sourceString, PairList<String, String> parameter,
+	void addConvertedSignalLine(String sourceString, PairList<String, String> parameter,
 			boolean src) {
 		String Block = sourceString.split("#")[0]; // block of source block
 		// String LineDirection = sourceString.split("#")[1].split(":")[0]; //
@@ -355,7 +499,7 @@ public class SLXParser {
 				}
 			}
 		}
-		return new MDLSection("Branch", branchsection, params, -1);
+		return createSection("Branch", branchsection, params);
 	}
 
 	/**
@@ -409,7 +553,7 @@ public class SLXParser {
 				}
 			}
 		}
-		return new MDLSection("Line", sections, parameter, -1);
+		return createSection("Line", sections, parameter);
 	}
 
 	private MDLSection parseSingleNode(Element root) {
@@ -470,7 +614,7 @@ public class SLXParser {
 			}
 		}
 		
-		return new MDLSection(root.getNodeName(), sections, parameters, -1);
+		return createSection(root.getNodeName(), sections, parameters);
 	}
 
 	/**
@@ -479,18 +623,10 @@ public class SLXParser {
 	 * @param root
 	 */
 	private void fillBlockIdMap(Element root) {
-		NodeList l = root.getChildNodes();
-
-		for (int i = 0; i < l.getLength(); i++) {
-			Node n = l.item(i);
-			if (n.getNodeType() == Node.ELEMENT_NODE) {
-				Element e = (Element) n;
-				if (e.getNodeName().equals("Block")) {
-					getBlockSection(e);
-				} else {
-					fillBlockIdMap(e);
-				}
-			}
+		SLXElementIndex index = new SLXElementIndex(root);
+		for (Entry<String, Element> e : index.getBlocksBySID().entrySet()) {
+			// sanitize the name like getBlockSection does
+			addBlockID(e.getKey(), e.getValue().getAttribute("Name").replaceAll("\n", "\\\\n"));
 		}
 	}
 
@@ -521,13 +657,47 @@ public class SLXParser {
 			parameters.add("Name", modelName); // add modelName
 		}
 
-		section = new MDLSection(name, sections, parameters, -1);
+		section = createSection(name, sections, parameters);
 
 		return section;
 	}
 
 	private MDLSection parseXML() {
+		ExecutorService executor = null;
+		if (concurrentParts) {
+			executor = Executors.newFixedThreadPool(Math.min(PART_THREADS, Runtime.getRuntime()
+					.availableProcessors()));
+		}
 		try {
+			List<MDLSection> sections = new ArrayList<MDLSection>();
+
+			// the other parts are independent documents, read them while the
+			// blockdiagram is converted
+			Future<Document> configSet = submitDocument(executor, configSetFile);
+			Future<Document> defaults = submitDocument(executor, defaultsFile);
+			Future<MDLSection> stateflow = null;
+			if (stateflowFile != null && !lazyStateflow) {
+				stateflow = submit(executor, new Callable<MDLSection>() {
+					@Override
+					public MDLSection call() throws Exception {
+						Document doc = parseDocument(stateflowFile);
+						return getStateFlowSection("0", "0", null, doc.getDocumentElement());
+					}
+				});
+			} else if (stateflowFile != null) {
+				stateflowFile.close(); // the lazy section opens its own stream
+			}
+
+			if (streaming) {
+				SLXStreamParser stream = new SLXStreamParser(this);
+				MDLSection model = stream.parse(stateflowFile == null);
+				if (xmlfile != null) {
+					xmlfile.close(); // the stream parser opens its own streams
+				}
+				return completeModel(model, stream.getStateflow(), sections, configSet, defaults,
+						stateflow);
+			}
+
 			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
 			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
 			Document doc = dBuilder.parse(xmlfile);
@@ -538,8 +708,6 @@ public class SLXParser {
 
 			Element root = doc.getDocumentElement();
 
-			List<MDLSection> sections = new ArrayList<MDLSection>();
-
 			// MDLSection tmp = getMDLSection("", root, false);
 
 			// get name of the model
@@ -560,105 +728,223 @@ public class SLXParser {
 						(Element) root.getElementsByTagName("Library").item(0), true);
 			}
 
-			if (model != null) {
-				if(configSetFile != null) {
-					List<MDLSection> sec = new ArrayList<MDLSection>(model.getSubSections());
-					DocumentBuilderFactory dbFactory2 = DocumentBuilderFactory.newInstance();
-					DocumentBuilder dBuilder2 = dbFactory2.newDocumentBuilder();
-					Document doc2 = dBuilder2.parse(configSetFile);
-					doc2.getDocumentElement().normalize();
+			MDLSection embeddedStateflow = null;
+			if (stateflowFile == null) {
+				Element sf = (Element) root.getElementsByTagName("Stateflow").item(0);
+				if (sf != null) {
+					embeddedStateflow = getStateFlowSection("0", "0", null, sf);
+				}
+			}
+			return completeModel(model, embeddedStateflow, sections, configSet, defaults, stateflow);
+		} catch (ParserConfigurationException e) {
+			MeMoPlugin.logException(e.getMessage(), e);
+		} catch (SAXException e) {
+			MeMoPlugin.logException(e.getMessage(), e);
+		} catch (XMLStreamException e) {
+			MeMoPlugin.logException(e.getMessage(), e);
+		} catch (IOException e) {
+			MeMoPlugin.logException(e.getMessage(), e);
+		} finally {
+			if (executor != null) {
+				executor.shutdown();
+			}
+		}
+
+		return null;
+	}
 
-					Element root2 = doc2.getDocumentElement();
-					MDLSection ConfigObject = getSubsection((Element)root2.getElementsByTagName("Object").item(0));
-					
-					// create dummy array node
-					// like <Array PropName="ConfigurationSets" Type="Handle" Dimension="1*1">
-					PairList<String,String> arrParams = new PairList<String, String>();
-					arrParams.add("PropName", "ConfigurationSets");
-					arrParams.add("Type","Handle");
-					arrParams.add("Dimension","1*1");
-					
-					List<MDLSection> l = new ArrayList<MDLSection>(1);
-					l.add(ConfigObject);
-					MDLSection array = new MDLSection("Array", l, arrParams, -1);
-					
-					sec.add(array);
-					PairList<String, String> par = new PairList<String, String>();
-					for(String p : model.getParameterNames()) {
-						par.add(p, model.getParameter(p));
-					}
+	/**
+	 * Parses an XML part into a normalized DOM
+	 *
+	 * @param in
+	 *           - the part
+	 * @return the document
+	 */
+	private static Document parseDocument(InputStream in) throws ParserConfigurationException,
+			SAXException, IOException {
+		DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+		DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+		Document doc = dBuilder.parse(in);
+		doc.getDocumentElement().normalize();
+		return doc;
+	}
 
-					model = new MDLSection(model.getName(), sec, par, -1);
-				}
-				
-				if(defaultsFile != null) {
-					List<MDLSection> sec = new ArrayList<MDLSection>(model.getSubSections());
-					
-					DocumentBuilderFactory dbFactory2 = DocumentBuilderFactory.newInstance();
-					DocumentBuilder dBuilder2 = dbFactory2.newDocumentBuilder();
-					Document doc2 = dBuilder2.parse(defaultsFile);
-					doc2.getDocumentElement().normalize();
+	/**
+	 * Submits the parsing of an XML part
+	 *
+	 * @param executor
+	 *           - the executor or null to parse right away
+	 * @param in
+	 *           - the part, may be null
+	 * @return the future document or null if there is no such part
+	 */
+	private static Future<Document> submitDocument(ExecutorService executor, final InputStream in) {
+		if (in == null) {
+			return null;
+		}
+		return submit(executor, new Callable<Document>() {
+			@Override
+			public Document call() throws Exception {
+				return parseDocument(in);
+			}
+		});
+	}
 
-					Element root2 = doc2.getDocumentElement();
-					
-					NodeList l = root2.getChildNodes();
-					for(int i=0;i<l.getLength();i++) {
-						Node n = l.item(i);
-						if(n instanceof Element) {
-							Element e = (Element)n;
-							MDLSection d = getSubsection(e);
-							sec.add(d);
-						}
-						
-					}
-					
-					PairList<String, String> par = new PairList<String, String>();
-					for(String p : model.getParameterNames()) {
-						par.add(p, model.getParameter(p));
-					}
+	/**
+	 * Submits a task to the executor or runs it right away if there is no
+	 * executor
+	 */
+	private static <T> Future<T> submit(ExecutorService executor, Callable<T> task) {
+		if (executor != null) {
+			return executor.submit(task);
+		}
+		FutureTask<T> future = new FutureTask<T>(task);
+		future.run();
+		return future;
+	}
 
-					model = new MDLSection(model.getName(), sec, par, -1);
-				}
+	/**
+	 * Waits for a part and rethrows its failure
+	 */
+	private static <T> T get(Future<T> future) throws ParserConfigurationException, SAXException,
+			IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ParserConfigurationException) {
+				throw (ParserConfigurationException) cause;
+			} else if (cause instanceof SAXException) {
+				throw (SAXException) cause;
+			} else if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Adds the configuration set, the defaults and the stateflow section to the
+	 * converted model
+	 *
+	 * @param model
+	 *           - the Model or Library section, may be null
+	 * @param embeddedStateflow
+	 *           - the Stateflow section of the blockdiagram, if there is no
+	 *           stateflow part
+	 * @param sections
+	 *           - list for the top level sections
+	 * @param configSet
+	 *           - the configSet0 part or null
+	 * @param defaults
+	 *           - the bddefaults part or null
+	 * @param stateflow
+	 *           - the converted stateflow part or null
+	 * @return the root section or null if there is no model
+	 */
+	private MDLSection completeModel(MDLSection model, MDLSection embeddedStateflow,
+			List<MDLSection> sections, Future<Document> configSet, Future<Document> defaults,
+			Future<MDLSection> stateflow) throws ParserConfigurationException, SAXException,
+			IOException {
+		if (model != null) {
+			if(configSet != null) {
+				List<MDLSection> sec = new ArrayList<MDLSection>(model.getSubSections());
+				Document doc2 = get(configSet);
+
+				Element root2 = doc2.getDocumentElement();
+				MDLSection ConfigObject = getSubsection((Element)root2.getElementsByTagName("Object").item(0));
 				
-				sections.add(model);
+				// create dummy array node
+				// like <Array PropName="ConfigurationSets" Type="Handle" Dimension="1*1">
+				PairList<String,String> arrParams = new PairList<String, String>();
+				arrParams.add("PropName", "ConfigurationSets");
+				arrParams.add("Type","Handle");
+				arrParams.add("Dimension","1*1");
 				
+				List<MDLSection> l = new ArrayList<MDLSection>(1);
+				l.add(ConfigObject);
+				MDLSection array = createSection("Array", l, arrParams);
 				
-			} else {
-				return null;
+				sec.add(array);
+				PairList<String, String> par = new PairList<String, String>();
+				for(String p : model.getParameterNames()) {
+					par.add(p, model.getParameter(p));
+				}
+
+				model = createSection(model.getName(), sec, par);
 			}
 			
-			if(stateflowFile != null) {
-				DocumentBuilderFactory dbFactory2 = DocumentBuilderFactory.newInstance();
-				DocumentBuilder dBuilder2 = dbFactory2.newDocumentBuilder();
-				Document doc2 = dBuilder2.parse(stateflowFile);
-				doc2.getDocumentElement().normalize();
+			if(defaults != null) {
+				List<MDLSection> sec = new ArrayList<MDLSection>(model.getSubSections());
+				
+				Document doc2 = get(defaults);
 
 				Element root2 = doc2.getDocumentElement();
-				Element sf = (Element) root2;
-				if (sf != null) {
-					sections.add(getStateFlowSection("0", "0", null, sf));
+				
+				NodeList l = root2.getChildNodes();
+				for(int i=0;i<l.getLength();i++) {
+					Node n = l.item(i);
+					if(n instanceof Element) {
+						Element e = (Element)n;
+						MDLSection d = getSubsection(e);
+						sec.add(d);
+					}
+					
 				}
-			} else {
-				Element sf = (Element) root.getElementsByTagName("Stateflow").item(0);
-				if (sf != null) {
-					sections.add(getStateFlowSection("0", "0", null, sf));
+				
+				PairList<String, String> par = new PairList<String, String>();
+				for(String p : model.getParameterNames()) {
+					par.add(p, model.getParameter(p));
 				}
+
+				model = createSection(model.getName(), sec, par);
 			}
-			// System.out.println(this.BlockToIDMap);
+			
+			sections.add(model);
+			
+			
+		} else {
+			return null;
+		}
+		
+		if(stateflowFile != null && lazyStateflow) {
+			sections.add(new LazyMDLSection("Stateflow", -1, symbolTable, new StateflowLoader()));
+		} else if(stateflow != null) {
+			sections.add(get(stateflow));
+		} else if (embeddedStateflow != null) {
+			sections.add(embeddedStateflow);
+		}
+		// System.out.println(this.BlockToIDMap);
 
-			return new MDLSection("", sections, new PairList<String, String>(), -1);
-		} catch (ParserConfigurationException e) {
-			MeMoPlugin.logException(e.getMessage(), e);
-		} catch (SAXException e) {
-			MeMoPlugin.logException(e.getMessage(), e);
-		} catch (IOException e) {
-			MeMoPlugin.logException(e.getMessage(), e);
+		return createSection("", sections, new PairList<String, String>());
+	}
+
+	/**
+	 * Parses simulink/stateflow.xml for a lazy Stateflow section
+	 */
+	private class StateflowLoader implements Callable<MDLSection> {
+		@Override
+		public MDLSection call() throws Exception {
+			InputStream in = zipFile.getInputStream(stateflowEntry);
+			try {
+				return getStateFlowSection("0", "0", null, parseDocument(in).getDocumentElement());
+			} finally {
+				in.close();
+			}
 		}
 
-		return null;
+		@Override
+		public String toString() {
+			return "section Stateflow of " + zipFile.getName();
+		}
 	}
 
-	private MDLSection getStateFlowSection(String parent_tree_ID, String parent_linkNode_ID, List<MDLSection> parent, Element root) {
+	MDLSection getStateFlowSection(String parent_tree_ID, String parent_linkNode_ID, List<MDLSection> parent, Element root) {
 		List<MDLSection> sections = new ArrayList<MDLSection>();
 		PairList<String, String> parameters = new PairList<String, String>();
 
@@ -718,6 +1004,6 @@ public class SLXParser {
 			}
 		}
 
-		return new MDLSection(name, sections, parameters, -1);
+		return createSection(name, sections, parameters);
 	}
 }
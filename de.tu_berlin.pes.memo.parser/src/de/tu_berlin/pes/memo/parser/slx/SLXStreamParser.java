@@ -0,0 +1,500 @@
+package de.tu_berlin.pes.memo.parser.slx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.conqat.lib.commons.collections.PairList;
+import org.conqat.lib.simulink.builder.MDLSection;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Streaming variant of the DOM based conversion in {@link SLXParser}. The
+ * blockdiagram is read with a {@link XMLStreamReader} and each element is
+ * converted into a {@link MDLSection} as soon as its end tag is read, so the
+ * document is never held in memory as a whole.
+ * <p>
+ * Lines refer to their blocks by SID, which may be defined after the line.
+ * Like <code>fillBlockIdMap</code> in the DOM path, a first pass over the
+ * model fills the SID map (building no sections), a second pass does the
+ * conversion. Attributes are processed in the order of the DOM (sorted by
+ * name), so the resulting sections are the same.
+ */
+class SLXStreamParser {
+
+	private final SLXParser owner;
+
+	private final XMLInputFactory factory;
+
+	// false during the first pass, which only fills the SID map
+	private boolean building;
+
+	// the stateflow section embedded in the blockdiagram, if any
+	private MDLSection stateflow;
+
+	/**
+	 * Creates a stream parser for the blockdiagram of the given parser
+	 *
+	 * @param owner
+	 *           - the parser providing the input, the SID map and the section
+	 *           factory
+	 */
+	public SLXStreamParser(SLXParser owner) {
+		this.owner = owner;
+		this.factory = XMLInputFactory.newInstance();
+		// like the default DocumentBuilderFactory
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+	}
+
+	/**
+	 * Reads the blockdiagram twice and converts the first Model or Library
+	 * element
+	 *
+	 * @param readStateflow
+	 *           - true to convert a Stateflow element outside of the model
+	 * @return the model section or null if there is none
+	 */
+	public MDLSection parse(boolean readStateflow) throws IOException, XMLStreamException,
+			ParserConfigurationException {
+		building = false;
+		read(false);
+		building = true;
+		return read(readStateflow);
+	}
+
+	/**
+	 * @return the Stateflow section found outside of the model or null
+	 */
+	public MDLSection getStateflow() {
+		return stateflow;
+	}
+
+	private MDLSection read(boolean readStateflow) throws IOException, XMLStreamException,
+			ParserConfigurationException {
+		InputStream in = owner.openBlockdiagram();
+		try {
+			XMLStreamReader reader = factory.createXMLStreamReader(in);
+			try {
+				return readDocument(reader, readStateflow);
+			} finally {
+				reader.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private MDLSection readDocument(XMLStreamReader reader, boolean readStateflow)
+			throws XMLStreamException, ParserConfigurationException {
+		MDLSection model = null;
+		boolean modelFound = false;
+		while (reader.hasNext()) {
+			if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+				continue;
+			}
+			String name = name(reader);
+			if (!modelFound && (name.equals("Model") || name.equals("Library"))) {
+				modelFound = true;
+				if (!building) {
+					fillBlockIdMap(reader);
+					return null;
+				}
+				model = getMDLSection(name, reader);
+				if (!readStateflow || stateflow != null) {
+					return model;
+				}
+			} else if (building && readStateflow && stateflow == null && name.equals("Stateflow")) {
+				stateflow = owner.getStateFlowSection("0", "0", null, readElement(reader));
+				if (modelFound) {
+					return model;
+				}
+			}
+		}
+		return model;
+	}
+
+	/**
+	 * Converts the Model or Library element like getMDLSection of the DOM path
+	 */
+	private MDLSection getMDLSection(String name, XMLStreamReader reader)
+			throws XMLStreamException {
+		MDLSection section = getSubsection(reader);
+
+		List<MDLSection> sections = new ArrayList<MDLSection>(section.getSubSections());
+		PairList<String, String> parameters = new PairList<String, String>();
+
+		for (String s : section.getParameterNames()) {
+			parameters.add(s, section.getParameter(s));
+		}
+		parameters.add("Name", owner.getModelName()); // add modelName
+
+		return owner.createSection(name, sections, parameters);
+	}
+
+	/**
+	 * Visits all Block elements of the model to fill the SID map
+	 */
+	private void fillBlockIdMap(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				if (name(reader).equals("Block")) {
+					getBlockSection(reader);
+				} else {
+					depth++;
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	private MDLSection parseSingleNode(String name, XMLStreamReader reader)
+			throws XMLStreamException {
+		if (name.equals("Object")) {
+			return getObjectSection(reader);
+		} else if (name.equals("Array")) {
+			return getArraySection(reader);
+		} else if (name.equals("Block")) {
+			return getBlockSection(reader);
+		} else if (name.equals("Line")) {
+			return getLineSection(reader);
+		}
+		return null;
+	}
+
+	private MDLSection getSubsection(XMLStreamReader reader) throws XMLStreamException {
+		String name = name(reader);
+		if (name.equals("ConfigurationSet")) {
+			return getConfigurationSet(reader);
+		}
+		if (name.equals("Object") || name.equals("Array") || name.equals("Block")
+				|| name.equals("Line")) {
+			return parseSingleNode(name, reader);
+		}
+
+		List<MDLSection> sections = new ArrayList<MDLSection>();
+		PairList<String, String> parameters = new PairList<String, String>();
+		while (nextChild(reader)) {
+			if (name(reader).equals("P")) {
+				parseParameter(parameters, reader);
+			} else {
+				add(sections, getSubsection(reader));
+			}
+		}
+		return createSection(name, sections, parameters);
+	}
+
+	/**
+	 * A ConfigurationSet is replaced by its first (nested) Array
+	 */
+	private MDLSection getConfigurationSet(XMLStreamReader reader) throws XMLStreamException {
+		MDLSection array = null;
+		boolean found = false;
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				if (!found && name(reader).equals("Array")) {
+					found = true;
+					array = getArraySection(reader);
+				} else {
+					depth++;
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+		if (!found) {
+			return createSection("ConfigurationSet", new ArrayList<MDLSection>(),
+					new PairList<String, String>());
+		}
+		return array;
+	}
+
+	private MDLSection getObjectSection(XMLStreamReader reader) throws XMLStreamException {
+		List<MDLSection> sections = new ArrayList<MDLSection>();
+		PairList<String, String> parameter = new PairList<String, String>();
+
+		Map<String, String> attr = attributes(reader);
+		String name = attr.containsKey("ClassName") ? attr.get("ClassName") : "Object";
+		for (Map.Entry<String, String> a : attr.entrySet()) {
+			// translate each attribute into a normal parameter
+			parameter.add(a.getKey(), a.getValue());
+		}
+
+		while (nextChild(reader)) {
+			if (name(reader).equals("P")) {
+				parseParameter(parameter, reader);
+			} else {
+				add(sections, getSubsection(reader));
+			}
+		}
+		return createSection(name, sections, parameter);
+	}
+
+	private MDLSection getArraySection(XMLStreamReader reader) throws XMLStreamException {
+		List<MDLSection> sections = new ArrayList<MDLSection>();
+		PairList<String, String> parameter = new PairList<String, String>();
+
+		for (Map.Entry<String, String> a : attributes(reader).entrySet()) {
+			parameter.add(a.getKey(), a.getValue());
+		}
+
+		while (nextChild(reader)) {
+			String name = name(reader);
+			if (name.equals("P")) {
+				parseParameter(parameter, reader);
+			} else if (name.equals("Cell")) {
+				// add Cells as parameter
+				parameter.add("Cell", readText(reader));
+			} else {
+				add(sections, getSubsection(reader));
+			}
+		}
+		return createSection("Array", sections, parameter);
+	}
+
+	private MDLSection getBlockSection(XMLStreamReader reader) throws XMLStreamException {
+		List<MDLSection> sections = new ArrayList<MDLSection>();
+		PairList<String, String> parameter = new PairList<String, String>();
+
+		String currentBlockName = "";
+		for (Map.Entry<String, String> a : attributes(reader).entrySet()) {
+			if (a.getKey().equals("Name")) {
+				// replace line feed characters to avoid Matlab confusion
+				currentBlockName = a.getValue().replaceAll("\n", "\\\\n");
+				parameter.add("Name", currentBlockName);
+			} else if (a.getKey().equals("SID")) {
+				owner.addBlockID(a.getValue(), currentBlockName);
+				parameter.add(a.getKey(), a.getValue());
+			} else {
+				parameter.add(a.getKey(), a.getValue());
+			}
+		}
+
+		while (nextChild(reader)) {
+			if (name(reader).equals("P")) {
+				parseParameter(parameter, reader);
+			} else {
+				add(sections, getSubsection(reader));
+			}
+		}
+		return createSection("Block", sections, parameter);
+	}
+
+	private MDLSection getBranchSection(XMLStreamReader reader) throws XMLStreamException {
+		List<MDLSection> branchsection = new ArrayList<MDLSection>();
+		PairList<String, String> params = new PairList<String, String>();
+
+		while (nextChild(reader)) {
+			String name = name(reader);
+			if (name.equals("P")) {
+				String attr = reader.getAttributeValue(null, "Name");
+				String text = readText(reader);
+				if ("Dst".equals(attr) && building) {
+					owner.addConvertedSignalLine(text, params, false);
+				}
+			} else if (name.equals("Branch")) {
+				add(branchsection, getBranchSection(reader));
+			} else {
+				skipElement(reader);
+			}
+		}
+		return createSection("Branch", branchsection, params);
+	}
+
+	private MDLSection getLineSection(XMLStreamReader reader) throws XMLStreamException {
+		List<MDLSection> sections = new ArrayList<MDLSection>();
+		PairList<String, String> parameter = new PairList<String, String>();
+
+		while (nextChild(reader)) {
+			String name = name(reader);
+			if (name.equals("P")) {
+				// convert Src and Dst, keep the Name
+				String attr = reader.getAttributeValue(null, "Name");
+				String text = readText(reader);
+				if (!building) {
+					continue;
+				}
+				if ("Src".equals(attr)) {
+					owner.addConvertedSignalLine(text, parameter, true);
+				} else if ("Dst".equals(attr)) {
+					owner.addConvertedSignalLine(text, parameter, false);
+				} else if ("Name".equals(attr)) {
+					parameter.add("Name", text);
+				}
+			} else if (name.equals("Branch")) {
+				add(sections, getBranchSection(reader));
+			} else {
+				add(sections, getSubsection(reader));
+			}
+		}
+		return createSection("Line", sections, parameter);
+	}
+
+	private void parseParameter(PairList<String, String> parameter, XMLStreamReader reader)
+			throws XMLStreamException {
+		String name = reader.getAttributeValue(null, "Name");
+		String ref = reader.getAttributeValue(null, "Ref");
+		owner.addParameter(parameter, name == null ? "" : name, ref, readText(reader));
+	}
+
+	private MDLSection createSection(String name, List<MDLSection> sections,
+			PairList<String, String> parameters) {
+		if (!building) {
+			return null;
+		}
+		return owner.createSection(name, sections, parameters);
+	}
+
+	private static void add(List<MDLSection> sections, MDLSection section) {
+		if (section != null) {
+			sections.add(section);
+		}
+	}
+
+	/**
+	 * @return the attributes of the current element sorted by name, which is
+	 *         the order of the DOM
+	 */
+	private static Map<String, String> attributes(XMLStreamReader reader) {
+		Map<String, String> attributes = new TreeMap<String, String>();
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			attributes.put(qualify(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+					reader.getAttributeValue(i));
+		}
+		return attributes;
+	}
+
+	/**
+	 * @return the text content of the current element including all
+	 *         descendants, like getTextContent of the DOM
+	 */
+	private static String readText(XMLStreamReader reader) throws XMLStreamException {
+		StringBuilder text = new StringBuilder();
+		int depth = 1;
+		while (depth > 0) {
+			switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					depth++;
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					depth--;
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+				case XMLStreamConstants.ENTITY_REFERENCE:
+					text.append(reader.getTextCharacters(), reader.getTextStart(),
+							reader.getTextLength());
+					break;
+				default:
+					break;
+			}
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Moves to the next child element of the current element, skipping text
+	 * and comments
+	 *
+	 * @return true if a child element starts, false at the end of the current
+	 *         element
+	 */
+	private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				return true;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				return false;
+			}
+		}
+	}
+
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * Reads the current element into a DOM element, used for the embedded
+	 * Stateflow section, which is converted by the DOM code
+	 */
+	private static Element readElement(XMLStreamReader reader) throws XMLStreamException,
+			ParserConfigurationException {
+		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+		Element root = doc.createElement(name(reader));
+		doc.appendChild(root);
+		Node current = root;
+		copyAttributes(reader, root);
+		while (current != null) {
+			switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					Element e = doc.createElement(name(reader));
+					copyAttributes(reader, e);
+					current.appendChild(e);
+					current = e;
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					current = current == root ? null : current.getParentNode();
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+				case XMLStreamConstants.ENTITY_REFERENCE:
+					current.appendChild(doc.createTextNode(reader.getText()));
+					break;
+				default:
+					break;
+			}
+		}
+		root.normalize();
+		return root;
+	}
+
+	private static void copyAttributes(XMLStreamReader reader, Element element) {
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			element.setAttribute(
+					qualify(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+					reader.getAttributeValue(i));
+		}
+	}
+
+	/**
+	 * @return the qualified name of the current element
+	 */
+	private static String name(XMLStreamReader reader) {
+		return qualify(reader.getPrefix(), reader.getLocalName());
+	}
+
+	private static String qualify(String prefix, String localName) {
+		if (prefix == null || prefix.length() == 0) {
+			return localName;
+		}
+		return prefix + ":" + localName;
+	}
+}
@@ -5,11 +5,13 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -22,6 +24,9 @@ import java.util.zip.ZipOutputStream;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
@@ -39,6 +44,7 @@ import de.tu_berlin.pes.memo.model.impl.Block;
 import de.tu_berlin.pes.memo.model.impl.Model;
 import de.tu_berlin.pes.memo.model.impl.SignalLine;
 import de.tu_berlin.pes.memo.parser.slx.opc.OPCWriter;
+import de.tu_berlin.pes.memo.parser.slx.opc.PartWriter;
 
 /*
  * SLX files are simple zip files with some xml in it (see Open Packaging Conventions for more info)
@@ -66,11 +72,24 @@ public class SLXWriter {
 	private Map<Block,Long> blockMap = new HashMap<Block,Long>();
 	private Map<Block,List<Block>> subsystemMap = new HashMap<Block,List<Block>>();
 	
+	// write the blockdiagram with a XMLStreamWriter instead of building a DOM
+	private boolean streaming = true;
+	// nesting depth of the element being written, used for indentation
+	private int depth;
+	
 	public SLXWriter(Model model, File file) {
 		this.model = model;
 		this.file = file;
 	}
 	
+	/**
+	 * By default the blockdiagram is written straight into the zip entry. If
+	 * disabled, it is built as DOM and serialized to a string first.
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+	
 	public void writeModel() throws IOException, ParserConfigurationException, TransformerException {		
 		OPCWriter w = new OPCWriter(new FileOutputStream(file));
 		w.addDefaultType("image/png", "png");
@@ -84,18 +103,31 @@ public class SLXWriter {
 		w.addRelationship("blockDiagram","simulink/blockdiagram.xml","http://schemas.mathworks.com/simulink/2010/relationships/blockDiagram");
 		w.addRelationship("coreprops","metadata/coreProperties.xml","http://schemas.openxmlformats.org/package/2006/relationships/metadata/core-properties");
 		w.addRelationship("rId1","metadata/mwcoreProperties.xml","http://schemas.mathworks.com/package/2012/relationships/coreProperties");*/
-		final String blocks = createBlockdiagramXML();
-		w.addContent("simulink/blockdiagram.xml", new InputStream() {
-			int i=0;
-			
-			@Override
-			public int read() throws IOException {
-				if(i>=blocks.length()) {
-					return -1;
+		if(streaming) {
+			w.addContent("simulink/blockdiagram.xml", new PartWriter() {
+				@Override
+				public void write(OutputStream out) throws IOException {
+					try {
+						writeBlockdiagramXML(out);
+					} catch (XMLStreamException e) {
+						throw new IOException(e);
+					}
 				}
-				return blocks.charAt(i++);
-			}
-		});
+			});
+		} else {
+			final String blocks = createBlockdiagramXML();
+			w.addContent("simulink/blockdiagram.xml", new InputStream() {
+				int i=0;
+				
+				@Override
+				public int read() throws IOException {
+					if(i>=blocks.length()) {
+						return -1;
+					}
+					return blocks.charAt(i++);
+				}
+			});
+		}
 		w.flush();
 		w.close();
 	}
@@ -221,60 +253,27 @@ public class SLXWriter {
 	}
 	
 	public void addBlock(Document doc, Element parent, Block b) {
-		if(b.getParent() != null && b.getParent() instanceof Block) {
-			//handle subsystem
-			List<Block> subsystemBlocks = subsystemMap.get(b.getParent());
-			if(subsystemBlocks == null) {
-				subsystemBlocks = new ArrayList<Block>();
-				subsystemMap.put((Block) b.getParent(), subsystemBlocks);
-				subsystemBlocks.add(b);
-			} else {
-				subsystemBlocks.add(b);
-			}
+		if(collectSubSystemBlock(b)) {
 			return;
 		}
 		if(b.getType().equals("SubSystem")) {
 			return;
 		}
-		Element block = doc.createElement("Block");
-		block.setAttribute("BlockType", b.getType());
-		block.setAttribute("Name", b.getName().replaceAll("\\\\n", " "));
-		block.setAttribute("SID", Long.toString(blockMap.get(b)));
-		
-		for(String p : b.getParameter().keySet()) {
-			if(checkParam(b, p)) {
-				block.appendChild(createParameterElement(doc, p, fixArray(b.getParameter(p),p)));
-			}
-		}
+		parent.appendChild(createBlockElement(doc, b));
 		
-		parent.appendChild(block);
-		
-		for(Block subsystem : subsystemMap.keySet()) {
+		// the recursion adds subsystems, iterate over a copy of the keys
+		for(Block subsystem : new ArrayList<Block>(subsystemMap.keySet())) {
 			addBlock(doc, parent, subsystem);
 		}
 	}
 	
 	private void addSubSystem(Document doc, Element parent, Block b, List<Block> subblocks) {
-		Element block = doc.createElement("Block");
-		block.setAttribute("BlockType", b.getType());
-		block.setAttribute("Name", b.getName().replaceAll("\\\\n", " "));
-		block.setAttribute("SID", Long.toString(blockMap.get(b)));
-		
-		//map blocks to generated ids
-		//Map<Block, Long> subblockMap = new HashMap<Block, Long>();
-		
-		for(String p : b.getParameter().keySet()) {
-			if(checkParam(b, p)) {
-				block.appendChild(createParameterElement(doc, p, fixArray(b.getParameter(p),p)));
-			}
-		}
-		block.appendChild(createParameterElement(doc, "Ports", "["+b.getInPorts().size()+", "+b.getOutPorts().size()+"]"));
+		Element block = createBlockElement(doc, b);
+		block.appendChild(createParameterElement(doc, "Ports", getPorts(b)));
 		
 		Element SubSystem = doc.createElement("System");
-		for(String p : b.getParameter().keySet()) {
-			if(checkParam(b, p)) {
-				SubSystem.appendChild(createParameterElement(doc, p, fixArray(b.getParameter(p),p)));
-			}
+		for(Map.Entry<String,String> p : getParameters(b).entrySet()) {
+			SubSystem.appendChild(createParameterElement(doc, p.getKey(), p.getValue()));
 		}
 		block.appendChild(SubSystem);
 		
@@ -285,38 +284,126 @@ public class SLXWriter {
 				addSubSystem(doc, SubSystem, subblock, subsystemMap.get(subblock));
 				continue;
 			}
-			
-			Element SubBlock = doc.createElement("Block");
-			SubBlock.setAttribute("BlockType", subblock.getType());
-			SubBlock.setAttribute("Name", subblock.getName().replaceAll("\\\\n", " "));
-			SubBlock.setAttribute("SID", Long.toString(blockMap.get(subblock)));
-			
-			for(String p : subblock.getParameter().keySet()) {
-				if(checkParam(subblock, p)) {
-					SubBlock.appendChild(createParameterElement(doc, p, fixArray(subblock.getParameter(p),p)));
-				}
+			SubSystem.appendChild(createBlockElement(doc, subblock));
+		}
+		Map<Block,List<SignalLine>> branchedSignalLines = getBranchedSignalLines(b, subblocks);
+		for(Block src : branchedSignalLines.keySet()) {
+			SubSystem.appendChild(createLine(doc, branchedSignalLines.get(src),blockMap));
+		}
+	}
+	
+	private Element createBlockElement(Document doc, Block b) {
+		Element block = doc.createElement("Block");
+		block.setAttribute("BlockType", b.getType());
+		block.setAttribute("Name", getBlockName(b));
+		block.setAttribute("SID", Long.toString(blockMap.get(b)));
+		
+		for(Map.Entry<String,String> p : getParameters(b).entrySet()) {
+			block.appendChild(createParameterElement(doc, p.getKey(), p.getValue()));
+		}
+		return block;
+	}
+	
+	/*
+	 * The values below are shared by the DOM and the streaming writer, so both
+	 * write the same blockdiagram.
+	 */
+	
+	/**
+	 * Blocks of a subsystem are not written right away but collected for their
+	 * subsystem
+	 * 
+	 * @return true if the block belongs to a subsystem
+	 */
+	private boolean collectSubSystemBlock(Block b) {
+		if(b.getParent() != null && b.getParent() instanceof Block) {
+			List<Block> subsystemBlocks = subsystemMap.get(b.getParent());
+			if(subsystemBlocks == null) {
+				subsystemBlocks = new ArrayList<Block>();
+				subsystemMap.put((Block) b.getParent(), subsystemBlocks);
 			}
-			SubSystem.appendChild(SubBlock);
+			subsystemBlocks.add(b);
+			return true;
 		}
-		//maps lines with the same source block to a list of signal lines
+		return false;
+	}
+	
+	private String getBlockName(Block b) {
+		return b.getName().replaceAll("\\\\n", " ");
+	}
+	
+	/**
+	 * @return the parameters of the block that are written, with their values
+	 *         converted to the SLX format, in the order of the block
+	 */
+	private Map<String,String> getParameters(Block b) {
+		Map<String,String> parameters = new LinkedHashMap<String,String>();
+		for(String p : b.getParameter().keySet()) {
+			if(checkParam(b, p)) {
+				parameters.put(p, fixArray(b.getParameter(p),p));
+			}
+		}
+		return parameters;
+	}
+	
+	private String getPorts(Block b) {
+		return "["+b.getInPorts().size()+", "+b.getOutPorts().size()+"]";
+	}
+	
+	/**
+	 * maps lines with the same source block to a list of signal lines
+	 * 
+	 * @param parent
+	 *           - the subsystem whose lines are collected, null for the top
+	 *           level
+	 * @param subblocks
+	 *           - the blocks of the subsystem
+	 */
+	private Map<Block,List<SignalLine>> getBranchedSignalLines(Block parent, List<Block> subblocks) {
 		Map<Block,List<SignalLine>> branchedSignalLines = new HashMap<Block, List<SignalLine>>();
-		
 		for(SignalLine l : model.getSignalLines()) {
-			if(isSubBlock(l, b, subblocks)) {
-				if(blockMap.get(l.getSrcBlock()) != null && blockMap.get(l.getDstBlock()) != null) {
-					//we've got a previous source block again, add the extra signalline
-					if(branchedSignalLines.get(l.getSrcBlock()) != null) {
-						branchedSignalLines.get(l.getSrcBlock()).add(l);
-					} else {
-						branchedSignalLines.put(l.getSrcBlock(), new ArrayList<SignalLine>());
-						branchedSignalLines.get(l.getSrcBlock()).add(l);
-					}
+			if(parent != null && !isSubBlock(l, parent, subblocks)) {
+				continue;
+			}
+			if(blockMap.get(l.getSrcBlock()) != null && blockMap.get(l.getDstBlock()) != null) {
+				//we've got a previous source block again, add the extra signalline
+				if(branchedSignalLines.get(l.getSrcBlock()) == null) {
+					branchedSignalLines.put(l.getSrcBlock(), new ArrayList<SignalLine>());
 				}
+				branchedSignalLines.get(l.getSrcBlock()).add(l);
 			}
 		}
-		for(Block src : branchedSignalLines.keySet()) {
-			SubSystem.appendChild(createLine(doc, branchedSignalLines.get(src),blockMap));
+		return branchedSignalLines;
+	}
+	
+	private String getSrcString(SignalLine l, Map<Block,Long> blockMap) {
+		Block src = l.getSrcBlock();
+		if(src.getType().equals("Outport")) {
+			return blockMap.get(src.getParent())+"#out:"+src.getParameter("Port");
 		}
+		return blockMap.get(l.getSrcBlock())+"#out:"+l.getSrcPort().getNumber();
+	}
+	
+	private String getDstString(SignalLine l, Map<Block,Long> blockMap) {
+		Block dst = l.getDstBlock();
+		if(dst.getType().equals("Inport")) {
+			return blockMap.get(dst.getParent())+"#in:"+dst.getParameter("Port");
+		}
+		return blockMap.get(l.getDstBlock())+"#in:"+l.getDstPort().getNumber();
+	}
+	
+	/**
+	 * Points of a branched line, i.e. the offset of the branch point from the
+	 * source port. The positions of the source and the first destination
+	 * must be valid, the offset itself is fixed so far.
+	 */
+	private String getPoints(List<SignalLine> lines) {
+		SignalLine l = lines.get(0);
+		parseSimulinkArray(l.getSrcBlock().getParameter("Position"));
+		parseSimulinkArray(l.getDstBlock().getParameter("Position"));
+		int x = 10;
+		int y = 0;
+		return "["+x+" "+y+"]";
 	}
 	
 	/**
@@ -383,62 +470,22 @@ public class SLXWriter {
 		
 		Element Line = doc.createElement("Line");
 		//Line.appendChild(createParameterElement(doc, "ZOrder", "1"));
-		String srcStr = "";
 		SignalLine l = lines.get(0);
-		Block src = l.getSrcBlock();
-		
-		if(src.getType().equals("Outport")) {
-			srcStr = blockMap.get(src.getParent())+"#out:"+src.getParameter("Port");
-		} else {
-			srcStr = blockMap.get(l.getSrcBlock())+"#out:"+l.getSrcPort().getNumber();
-		}
-		Line.appendChild(createParameterElement(doc, "Src", srcStr));
+		Line.appendChild(createParameterElement(doc, "Src", getSrcString(l, blockMap)));
 		if(lines.size() == 1) {
 			if(l.getName() != null) {
 				Line.appendChild(createParameterElement(doc, "Name", l.getName()));
 			}
-			String dstStr = "";
-			Block dst = l.getDstBlock();
-			if(dst.getType().equals("Inport")) {
-				dstStr = blockMap.get(dst.getParent())+"#in:"+dst.getParameter("Port");
-			} else {
-				dstStr = blockMap.get(l.getDstBlock())+"#in:"+l.getDstPort().getNumber();
-			}
-			Line.appendChild(createParameterElement(doc, "Dst", dstStr));
+			Line.appendChild(createParameterElement(doc, "Dst", getDstString(l, blockMap)));
 		} else {
-			int x,y;
-			int left, top, right, bottom;
-			int left1, top1, right1, bottom1;
-			Integer[] coords = parseSimulinkArray(src.getParameter("Position"));
-			left = coords[0];
-			top = coords[1];
-			right = coords[2];
-			bottom = coords[3];
-			
-			Block dst1 = l.getDstBlock();
-			Integer[] coords1 = parseSimulinkArray(dst1.getParameter("Position"));
-			left1 = coords1[0];
-			top1 = coords1[1];
-			right1 = coords1[2];
-			bottom1 = coords1[3];
-			//TODO: change this hack & use the values from above
-			x = 10;//Math.abs(left-left1);
-			y = 0;
-			Line.appendChild(createParameterElement(doc, "Points", "["+x+" "+y+"]"));
+			Line.appendChild(createParameterElement(doc, "Points", getPoints(lines)));
 			for(SignalLine line : lines) {
 				Element Branch = doc.createElement("Branch");
 				if(line.getName() != null) {
 					Branch.appendChild(createParameterElement(doc, "Name", line.getName()));
 				}
 				//Branch.appendChild(createParameterElement(doc, "ZOrder", "1"));
-				String dstStr = "";
-				Block dst = line.getDstBlock();
-				if(dst.getType().equals("Inport")) {
-					dstStr = blockMap.get(dst.getParent())+"#in:"+dst.getParameter("Port");
-				} else {
-					dstStr = blockMap.get(line.getDstBlock())+"#in:"+line.getDstPort().getNumber();
-				}
-				Branch.appendChild(createParameterElement(doc, "Dst", dstStr));
+				Branch.appendChild(createParameterElement(doc, "Dst", getDstString(line, blockMap)));
 				Line.appendChild(Branch);
 			}
 		}
@@ -495,28 +542,7 @@ public class SLXWriter {
 			}
 		}
 		
-		//maps lines with the same source block to a list of signal lines
-		Map<Block,List<SignalLine>> branchedSignalLines = new HashMap<Block, List<SignalLine>>();
-		
-		for(SignalLine l : model.getSignalLines()) {
-			Block src = l.getSrcBlock();
-			Block dst = l.getDstBlock();
-//			if(src.getType().equals("Outport")) {
-// 				src = (Block) src.getParent();
-//			}
-//			if(dst.getType().equals("Inport")) {
-//				dst = (Block) dst.getParent();
-//			}
-			if(blockMap.get(src) != null && blockMap.get(dst) != null) {
-				//we've got a previous source block again, add the extra signalline
-				if(branchedSignalLines.get(l.getSrcBlock()) != null) {
-					branchedSignalLines.get(l.getSrcBlock()).add(l);
-				} else {
-					branchedSignalLines.put(l.getSrcBlock(), new ArrayList<SignalLine>());
-					branchedSignalLines.get(l.getSrcBlock()).add(l);
-				}
-			}
-		}
+		Map<Block,List<SignalLine>> branchedSignalLines = getBranchedSignalLines(null, null);
 		for(Block src : branchedSignalLines.keySet()) {
 			System.appendChild(createLine(doc, branchedSignalLines.get(src),blockMap));
 		}
@@ -535,4 +561,188 @@ public class SLXWriter {
 		
 		return w.toString();
 	}
+	
+	/**
+	 * Writes the blockdiagram like createBlockdiagramXML, but element by
+	 * element into the given stream, so no copy of the document is kept in
+	 * memory.
+	 * 
+	 * @param out
+	 *           - is not closed
+	 */
+	public void writeBlockdiagramXML(OutputStream out) throws XMLStreamException {
+		XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+		try {
+			writeBlockdiagramXML(xml);
+		} finally {
+			xml.close();
+		}
+	}
+	
+	private void writeBlockdiagramXML(XMLStreamWriter xml) throws XMLStreamException {
+		depth = 0;
+		xml.writeStartDocument("UTF-8", "1.0");
+		
+		writeStartElement(xml, "ModelInformation");
+		xml.writeAttribute("Version", "1.0");
+		writeStartElement(xml, "Model");
+		
+		//Encoding the xml without this doesn't work
+		writeParameter(xml, "SavedCharacterEncoding", "UTF-8");
+		
+		writeStartElement(xml, "System");
+		writeParameter(xml, "Location", "[1,1,1,1]");
+		writeParameter(xml, "Open", "on");
+		writeParameter(xml, "ModelBrowserWidth", "200");
+		writeParameter(xml, "TiledPaperMargins", "[1.270000, 1.270000, 1.270000, 1.270000]");
+		writeParameter(xml, "TiledPageScale", "1");
+		writeParameter(xml, "ZoomFactor", "100");
+		writeParameter(xml, "ReportName", "simulink-defaul.rpt");
+		
+		long bid = 1;
+		for(Block b : model.getBlocks()) {
+			blockMap.put(b, bid);
+			bid++;
+		}
+		writeParameter(xml, "SIDHighWatermark", Long.toString(bid));
+		
+		for(Block b : model.getBlocks()) {
+			writeBlock(xml, b);
+		}
+		
+		for(Block subsystem : subsystemMap.keySet()) {
+			if(subsystem.getParent() instanceof Model) {
+				writeSubSystem(xml, subsystem, subsystemMap.get(subsystem));
+			}
+		}
+		
+		Map<Block,List<SignalLine>> branchedSignalLines = getBranchedSignalLines(null, null);
+		for(Block src : branchedSignalLines.keySet()) {
+			writeLine(xml, branchedSignalLines.get(src), blockMap);
+		}
+		
+		writeEndElement(xml); // System
+		writeEndElement(xml); // Model
+		writeEndElement(xml); // ModelInformation
+		xml.writeEndDocument();
+	}
+	
+	/**
+	 * Streaming counterpart of addBlock
+	 */
+	private void writeBlock(XMLStreamWriter xml, Block b) throws XMLStreamException {
+		if(collectSubSystemBlock(b)) {
+			return;
+		}
+		if(b.getType().equals("SubSystem")) {
+			return;
+		}
+		writeBlockStart(xml, b);
+		writeEndElement(xml);
+		
+		// the recursion adds subsystems, iterate over a copy of the keys
+		for(Block subsystem : new ArrayList<Block>(subsystemMap.keySet())) {
+			writeBlock(xml, subsystem);
+		}
+	}
+	
+	/**
+	 * Streaming counterpart of addSubSystem
+	 */
+	private void writeSubSystem(XMLStreamWriter xml, Block b, List<Block> subblocks) throws XMLStreamException {
+		writeBlockStart(xml, b);
+		writeParameter(xml, "Ports", getPorts(b));
+		
+		writeStartElement(xml, "System");
+		for(Map.Entry<String,String> p : getParameters(b).entrySet()) {
+			writeParameter(xml, p.getKey(), p.getValue());
+		}
+		
+		for(Block subblock : subblocks) {
+			// we are in a subsystem and found another subsystem, add this
+			if(subsystemMap.get(subblock) != null) {
+				writeSubSystem(xml, subblock, subsystemMap.get(subblock));
+				continue;
+			}
+			writeBlockStart(xml, subblock);
+			writeEndElement(xml);
+		}
+		Map<Block,List<SignalLine>> branchedSignalLines = getBranchedSignalLines(b, subblocks);
+		for(Block src : branchedSignalLines.keySet()) {
+			writeLine(xml, branchedSignalLines.get(src), blockMap);
+		}
+		writeEndElement(xml); // System
+		writeEndElement(xml); // Block
+	}
+	
+	/**
+	 * Starts a Block element and writes its attributes and parameters
+	 */
+	private void writeBlockStart(XMLStreamWriter xml, Block b) throws XMLStreamException {
+		writeStartElement(xml, "Block");
+		xml.writeAttribute("BlockType", b.getType());
+		xml.writeAttribute("Name", getBlockName(b));
+		xml.writeAttribute("SID", Long.toString(blockMap.get(b)));
+		
+		for(Map.Entry<String,String> p : getParameters(b).entrySet()) {
+			writeParameter(xml, p.getKey(), p.getValue());
+		}
+	}
+	
+	/**
+	 * Streaming counterpart of createLine
+	 */
+	private void writeLine(XMLStreamWriter xml, List<SignalLine> lines, Map<Block,Long> blockMap) throws XMLStreamException {
+		if(lines.size() == 0) return;
+		
+		writeStartElement(xml, "Line");
+		SignalLine l = lines.get(0);
+		writeParameter(xml, "Src", getSrcString(l, blockMap));
+		if(lines.size() == 1) {
+			if(l.getName() != null) {
+				writeParameter(xml, "Name", l.getName());
+			}
+			writeParameter(xml, "Dst", getDstString(l, blockMap));
+		} else {
+			writeParameter(xml, "Points", getPoints(lines));
+			for(SignalLine line : lines) {
+				writeStartElement(xml, "Branch");
+				if(line.getName() != null) {
+					writeParameter(xml, "Name", line.getName());
+				}
+				writeParameter(xml, "Dst", getDstString(line, blockMap));
+				writeEndElement(xml);
+			}
+		}
+		writeEndElement(xml);
+	}
+	
+	private void writeParameter(XMLStreamWriter xml, String name, String value) throws XMLStreamException {
+		writeIndent(xml);
+		xml.writeStartElement("P");
+		xml.writeAttribute("Name", name);
+		if(value != null) {
+			xml.writeCharacters(value);
+		}
+		xml.writeEndElement();
+	}
+	
+	private void writeStartElement(XMLStreamWriter xml, String name) throws XMLStreamException {
+		writeIndent(xml);
+		xml.writeStartElement(name);
+		depth++;
+	}
+	
+	private void writeEndElement(XMLStreamWriter xml) throws XMLStreamException {
+		depth--;
+		writeIndent(xml);
+		xml.writeEndElement();
+	}
+	
+	private void writeIndent(XMLStreamWriter xml) throws XMLStreamException {
+		xml.writeCharacters("\n");
+		for(int i = 0; i < depth; i++) {
+			xml.writeCharacters("  ");
+		}
+	}
 }
@@ -51,8 +51,8 @@ class SlxLayoutTransformer(model: Model, infile: File, outfile: File) {
   val blocks = in.blocks
   val signals = in.signals
   val inxml = in.xml
+  val index = in.index
   
-  val nodeIdMap = generateNodeIdMap
   val signalBlockMap = generateSignalBlockMap
   
   def generateSignalBlockMap(): Map[(Block,Block),SignalLine] = {
@@ -90,19 +90,22 @@ class SlxLayoutTransformer(model: Model, infile: File, outfile: File) {
 		w.toString()
   }
   
-  def generateNodeIdMap(): Map[Int,Node] = {
-    var map: Map[Int,Node] = Map()
-    for(n <- blocks.getOrElse(List())) {
-      val id = n.getAttributes.getNamedItem("SID").getNodeValue.toInt
-      map = map + (id -> n)
-    }
-    map
+  /**
+   * resolves the block node of a signal end point like "2#out:1" by its SID
+   */
+  def endpoint2node(endpoint: String): Node = {
+    val sid = endpoint.split("#").head
+    Option(index.getBlock(sid)).get
   }
   
+  /**
+   * resolves a block node to the block of the model by its full path, the
+   * name alone is ambiguous in nested subsystems
+   */
   def node2block(n: Node): Block = {
-    val blockName = n.getAttributes().getNamedItem("Name").getNodeValue()
-    val block = model.getBlockByPath(blockName, false)
-    block
+    val sid = n.getAttributes.getNamedItem("SID").getNodeValue
+    val element = Option(index.getBlock(sid)).get
+    model.getBlockByPath(index.getBlockPath(element), false)
   }
   
   def generateSignalMappingFromSlx(): Map[Node,SignalLine] = {
@@ -128,35 +131,16 @@ class SlxLayoutTransformer(model: Model, infile: File, outfile: File) {
   }
   
   def getChildsByName(n: Node, name: String): Option[List[Node]] = {
-    val childs = n.getChildNodes
-    var ret: List[Node] = List()
-    for(i <- 0 to childs.getLength-1) {
-      val child = childs.item(i)
-      if(child != null && child.getNodeType == Node.ELEMENT_NODE) {
-        val elem = child.asInstanceOf[Element]
-        if(elem.getNodeName == name) {
-          ret = child :: ret
-        }
-      }
-    }
-    if(ret.length == 0) {
+    val childs = index.getChildren(n.asInstanceOf[Element], name)
+    if(childs.isEmpty) {
       return None
     }
-    return Some(ret)
+    // same order as before: last child first
+    return Some(childs.asScala.toList.reverse)
   }
   
   def getParam(n: Node, name: String): Option[String] = {
-    val childs = n.getChildNodes
-    for(i <- 0 to childs.getLength-1) {
-      val child = childs.item(i)
-      if(child.getNodeType == Node.ELEMENT_NODE) {
-        val elem = child.asInstanceOf[Element]
-        if(elem.getAttribute("Name") == name) {
-          return Some(elem.getTextContent)
-        }
-      }
-    }
-    return None
+    Option(index.getParameter(n.asInstanceOf[Element], name))
   }
   
   def branch2signal(branch: Node, src: String): List[SignalLine] = {
@@ -171,11 +155,8 @@ class SlxLayoutTransformer(model: Model, infile: File, outfile: File) {
     
     if (dstoption.isDefined) {
       val dst = dstoption.get
-      val srcNodeId = src.split("#").head.toInt
-      val dstNodeId = dst.split("#").head.toInt
-      
-      val srcNode = nodeIdMap.get(srcNodeId).get
-      val dstNode = nodeIdMap.get(dstNodeId).get
+      val srcNode = endpoint2node(src)
+      val dstNode = endpoint2node(dst)
       
       val srcBlock = node2block(srcNode)
       val dstBlock = node2block(dstNode)
@@ -207,11 +188,8 @@ class SlxLayoutTransformer(model: Model, infile: File, outfile: File) {
         signals = signals ++ branch2signal(b, src)
       }
     } else {
-      val srcNodeId = src.split("#").head.toInt
-      
-      val dstNodeId = dst.get.split("#").head.toInt
-      val srcNode = nodeIdMap.get(srcNodeId).get
-      val dstNode = nodeIdMap.get(dstNodeId).get
+      val srcNode = endpoint2node(src)
+      val dstNode = endpoint2node(dst.get)
       
       val srcBlock = node2block(srcNode)
       val dstBlock = node2block(dstNode)
@@ -244,33 +222,11 @@ class SlxLayoutTransformer(model: Model, infile: File, outfile: File) {
   }
   
   def changeBlockPosition(xml: Element, block: Block, pos: Coord): Unit = {
-    val nodelist = xml.getChildNodes.item(1).getChildNodes
-    for(i <- 0 to nodelist.getLength-1) {
-      val item = nodelist.item(i)
-      if(item.getNodeType == Node.ELEMENT_NODE) {
-        val elem = item.asInstanceOf[Element]
-        if(elem.getNodeName == "System") {
-          val nodelist = elem.getChildNodes
-          for(i <- 0 to nodelist.getLength-1) {
-            val item = nodelist.item(i)
-            if(item.getNodeType == Node.ELEMENT_NODE) {
-              val elem = item.asInstanceOf[Element]
-              if(elem.getNodeName == "Block" && elem.getAttribute("Name") == block.getName) {
-                val nodelist = elem.getChildNodes
-                for(i <- 0 to nodelist.getLength-1) {
-                  val item = nodelist.item(i)
-                  if(item.getNodeType == Node.ELEMENT_NODE) {
-                    val elem = item.asInstanceOf[Element]
-                    if(elem.getNodeName == "P") {
-                      if(elem.getAttribute("Name") == "Position") {
-                        elem.setTextContent("["+pos.toString()+"]")
-                      }
-                    }
-                  }
-                }
-              }
-            }
-          }
+    val model = xml.getChildNodes.item(1).asInstanceOf[Element]
+    for(system <- index.getChildren(model, "System").asScala) {
+      for(elem <- index.getChildren(system, "Block", block.getName).asScala) {
+        for(p <- index.getChildren(elem, "P", "Position").asScala) {
+          p.setTextContent("["+pos.toString()+"]")
         }
       }
     }
@@ -314,9 +270,10 @@ class SlxLayoutTransformer(model: Model, infile: File, outfile: File) {
   }
   
   private def write(): Unit = {
-    for((k,v) <- in.getContent.asScala) {
+    // the other parts are unchanged, copy them without recompressing
+    for(k <- in.getPartNames.asScala) {
         if(k != "simulink/blockdiagram.xml") {
-          out.addContent(k, v)
+          out.addRawContent(k, in)
         }
     }
     // TODO
@@ -9,6 +9,7 @@ import org.w3c.dom.NodeList
 import org.w3c.dom.Node
 import de.tu_berlin.pes.memo.parser.slx.opc.OPCWriter
 import java.io.OutputStream
+import scala.collection.JavaConverters._
 
 /*
  * Tries to parse the SLX format without sacrificing orginal file content
@@ -19,10 +20,18 @@ class SlxXmlReader(file: File) extends OPCReader(file) {
   val xml: Element = {
     val factory = DocumentBuilderFactory.newInstance();
 		val builder = factory.newDocumentBuilder();
-		val doc = builder.parse(this.getContent().get("simulink/blockdiagram.xml"));
-		doc.getDocumentElement()
+		// only the blockdiagram is read, the other parts are never opened
+		val in = this.openPart("simulink/blockdiagram.xml")
+		try {
+		  builder.parse(in).getDocumentElement()
+		} finally {
+		  in.close()
+		}
   }
   
+  /** index over the blockdiagram, built once for all lookups */
+  lazy val index = new SLXElementIndex(xml)
+  
   def nodeList2Scala(list: NodeList): List[Node] = {
     var scalaList: List[Node] = List()
     for( i <- 0 to list.getLength()) {
@@ -31,11 +40,11 @@ class SlxXmlReader(file: File) extends OPCReader(file) {
     scalaList.reverse
   }
   
-  def model = nodeList2Scala(xml.getChildNodes).find { x => x.isInstanceOf[Element] && x.getNodeName() == "Model" }
+  lazy val model: Option[Element] = index.getChildren(xml, "Model").asScala.headOption
   
-  def system = model.flatMap {x => nodeList2Scala(x.getChildNodes).find { x => x.isInstanceOf[Element] && x.getNodeName() == "System" } }
-  def blocks = system.flatMap {x => Some(nodeList2Scala(x.getChildNodes).filter { x => x.isInstanceOf[Element] && x.getNodeName() == "Block" }) }
-  def signals = system.flatMap {x => Some(nodeList2Scala(x.getChildNodes).filter { x => x.isInstanceOf[Element] && x.getNodeName() == "Line" }) }
+  lazy val system: Option[Element] = model.flatMap { x => index.getChildren(x, "System").asScala.headOption }
+  lazy val blocks: Option[List[Node]] = system.map { x => index.getChildren(x, "Block").asScala.toList }
+  lazy val signals: Option[List[Node]] = system.map { x => index.getChildren(x, "Line").asScala.toList }
 }
 
 class SlxXmlWriter(out: OutputStream) extends OPCWriter(out) {
@@ -1,18 +1,30 @@
 package de.tu_berlin.pes.memo.parser.slx.opc;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
@@ -55,14 +67,30 @@ public class OPCReader implements Closeable, AutoCloseable{
 	private Map<String, String> coreProperties;
 	
 	private ZipFile zip;
+	private File file;
+	
+	// names of all parts in archive order, filled by read()
+	private List<String> partNames;
+	
+	// location of the (compressed) data of all parts, read from the central
+	// directory on first use
+	private Map<String, RawPart> rawParts;
+	
+	// the archive file and its mapping, opened on first access of a STORED or
+	// raw part
+	private FileChannel channel;
+	private MappedByteBuffer archive;
+	private boolean closed;
 	
 	public OPCReader(File file) throws ZipException, IOException {
 		contentTypes = new ArrayList<ContentType>();
 		relationships = new ArrayList<Relationship>();
 		partRelationships = new HashMap<String, List<Relationship>>();
 		coreProperties = new HashMap<String, String>();
-		content = new HashMap<String, InputStream>();
+		partNames = new ArrayList<String>();
+		content = new PartMap();
 		zip = new ZipFile(file);
+		this.file = file;
 	}
 	
 	public List<ContentType> getContentTypes() {
@@ -77,10 +105,89 @@ public class OPCReader implements Closeable, AutoCloseable{
 		return partRelationships;
 	}
 
+	/**
+	 * Returns the parts by name. The parts are opened on demand: each
+	 * {@link Map#get(Object)} (and each value of an entry) opens a new stream
+	 * which has to be closed by the caller. If a part can't be opened, the
+	 * {@link IOException} of {@link #openPart(String)} is thrown as an
+	 * {@link UncheckedIOException}.
+	 */
 	public Map<String, InputStream> getContent() {
 		return content;
 	}
 
+	/**
+	 * @return the names of all parts in archive order
+	 */
+	public List<String> getPartNames() {
+		return Collections.unmodifiableList(partNames);
+	}
+
+	public boolean hasPart(String name) {
+		return zip.getEntry(name) != null;
+	}
+
+	/**
+	 * Opens a part for streaming, nothing is buffered. The stream has to be
+	 * closed by the caller.
+	 *
+	 * @return the stream or null if there is no such part
+	 */
+	public InputStream openPart(String name) throws IOException {
+		ZipEntry entry = zip.getEntry(name);
+		if(entry == null) {
+			return null;
+		}
+		return zip.getInputStream(entry);
+	}
+
+	/**
+	 * Streams the uncompressed content of a part into the given stream.
+	 *
+	 * @return the number of bytes written, -1 if there is no such part
+	 */
+	public long transferPart(String name, OutputStream out) throws IOException {
+		InputStream in = openPart(name);
+		if(in == null) {
+			return -1;
+		}
+		try {
+			byte[] buffer = new byte[8192];
+			long count = 0;
+			for(int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+				out.write(buffer, 0, n);
+				count += n;
+			}
+			return count;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the content of a part as a read-only buffer. STORED parts are
+	 * returned as slices of the memory-mapped archive without copying,
+	 * compressed parts are inflated into a heap buffer.
+	 *
+	 * @return the buffer or null if there is no such part
+	 */
+	public ByteBuffer getPartBuffer(String name) throws IOException {
+		ZipEntry entry = zip.getEntry(name);
+		if(entry == null) {
+			return null;
+		}
+		if(entry.getMethod() == ZipEntry.STORED) {
+			RawPart part = getRawPart(name);
+			if(part != null && part.method == ZipEntry.STORED) {
+				return getRawData(part);
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				entry.getSize() > 0 && entry.getSize() < Integer.MAX_VALUE ? (int) entry.getSize() : 8192);
+		transferPart(name, out);
+		return ByteBuffer.wrap(out.toByteArray()).asReadOnlyBuffer();
+	}
+
 	public Map<String, String> getCoreProperties() {
 		return coreProperties;
 	}
@@ -110,14 +217,10 @@ public class OPCReader implements Closeable, AutoCloseable{
 		relations.add(new Relationship(id, target, type));
 	}
 	
-	private void addContent(String name, InputStream in) {
-		content.put(name, in);
-	}
-	
 	private void readContentTypesXML(ZipEntry entry) throws ParserConfigurationException, SAXException, IOException {
 		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
 		DocumentBuilder builder = factory.newDocumentBuilder();
-		Document doc = builder.parse(zip.getInputStream(entry));
+		Document doc = parse(builder, entry);
 		Element types = doc.getDocumentElement();
 		
 		NodeList l = types.getChildNodes();
@@ -147,7 +250,7 @@ public class OPCReader implements Closeable, AutoCloseable{
 	private void readRelsXML(ZipEntry entry) throws ParserConfigurationException, SAXException, IOException {
 		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
 		DocumentBuilder builder = factory.newDocumentBuilder();
-		Document doc = builder.parse(zip.getInputStream(entry));
+		Document doc = parse(builder, entry);
 		Element rels = doc.getDocumentElement();
 		
 		NodeList l = rels.getChildNodes();
@@ -165,17 +268,172 @@ public class OPCReader implements Closeable, AutoCloseable{
 		}
 	}
 	
+	private Document parse(DocumentBuilder builder, ZipEntry entry) throws SAXException, IOException {
+		InputStream in = zip.getInputStream(entry);
+		try {
+			return builder.parse(in);
+		} finally {
+			in.close();
+		}
+	}
+	
 	private void readMetadata() throws ParserConfigurationException, SAXException, IOException {
 		readContentTypesXML(zip.getEntry("[Content_Types].xml"));
 		readRelsXML(zip.getEntry("_rels/.rels"));
 	}
 	
 	private void readContent() throws IOException {
+		// only the names, the parts are opened on demand
+		partNames.clear();
 		Enumeration<? extends ZipEntry> e = zip.entries();
 		while(e.hasMoreElements()) {
-			ZipEntry ze = e.nextElement();
-			addContent(ze.getName(), zip.getInputStream(ze));
+			partNames.add(e.nextElement().getName());
+		}
+	}
+	
+	/**
+	 * @return the memory-mapped archive or null if it is larger than a buffer
+	 *         can be (2 GB), its parts are then read from the {@link ZipFile}
+	 */
+	private MappedByteBuffer getArchive() throws IOException {
+		if(closed) {
+			throw new IOException("The package " + file + " is closed");
 		}
+		if(archive == null) {
+			if(channel == null) {
+				channel = new FileInputStream(file).getChannel();
+			}
+			if(channel.size() > Integer.MAX_VALUE) {
+				return null;
+			}
+			archive = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		return archive;
+	}
+	
+	/**
+	 * Returns the location of the data of a part as stored in the archive,
+	 * used to copy the part without inflating it.
+	 *
+	 * @return the part or null if there is no such part or the archive is not
+	 *         supported
+	 */
+	RawPart getRawPart(String name) throws IOException {
+		RawPart part = getRawParts().get(name);
+		if(part == null || part.offset + part.compressedSize > archive.capacity()) {
+			return null;
+		}
+		return part;
+	}
+	
+	/**
+	 * @return the data of the part as stored in the archive, as read-only
+	 *         slice of the memory-mapped archive
+	 */
+	ByteBuffer getRawData(RawPart part) throws IOException {
+		// a part from getRawPart lies within the mapped archive
+		ByteBuffer slice = getArchive().duplicate();
+		slice.position((int) part.offset);
+		slice.limit((int) (part.offset + part.compressedSize));
+		return slice.slice().asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Reads the data offsets of all parts from the central directory and the
+	 * local headers, including the ZIP64 records. Archives larger than 2 GB
+	 * are not mapped, they have no raw parts and all parts are inflated from
+	 * the {@link ZipFile}.
+	 */
+	private Map<String, RawPart> getRawParts() throws IOException {
+		if(rawParts != null) {
+			return rawParts;
+		}
+		MappedByteBuffer mapped = getArchive();
+		rawParts = new HashMap<String, RawPart>();
+		if(mapped == null) {
+			return rawParts;
+		}
+		ByteBuffer buffer = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		
+		// end of central directory record, followed by a comment of up to 64k
+		int end = -1;
+		for(int i = buffer.capacity() - 22; i >= Math.max(0, buffer.capacity() - 22 - 0xFFFF); i--) {
+			if(buffer.getInt(i) == 0x06054b50) {
+				end = i;
+				break;
+			}
+		}
+		if(end < 0) {
+			return rawParts;
+		}
+		long count = buffer.getShort(end + 10) & 0xFFFF;
+		long directory = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+		// the ZIP64 end of central directory locator precedes the record
+		if(end >= 20 && buffer.getInt(end - 20) == 0x07064b50) {
+			long record = buffer.getLong(end - 20 + 8);
+			if(record < 0 || record + 56 > end || buffer.getInt((int) record) != 0x06064b50) {
+				return rawParts;
+			}
+			count = buffer.getLong((int) record + 32);
+			directory = buffer.getLong((int) record + 48);
+		}
+		if(directory < 0 || directory >= buffer.capacity()) {
+			return rawParts;
+		}
+		
+		int pos = (int) directory;
+		for(int i = 0; i < count && buffer.getInt(pos) == 0x02014b50; i++) {
+			int flags = buffer.getShort(pos + 8) & 0xFFFF;
+			int method = buffer.getShort(pos + 10) & 0xFFFF;
+			long crc = buffer.getInt(pos + 16) & 0xFFFFFFFFL;
+			long compressedSize = buffer.getInt(pos + 20) & 0xFFFFFFFFL;
+			long size = buffer.getInt(pos + 24) & 0xFFFFFFFFL;
+			int nameLength = buffer.getShort(pos + 28) & 0xFFFF;
+			int extraLength = buffer.getShort(pos + 30) & 0xFFFF;
+			int commentLength = buffer.getShort(pos + 32) & 0xFFFF;
+			long header = buffer.getInt(pos + 42) & 0xFFFFFFFFL;
+			byte[] name = new byte[nameLength];
+			ByteBuffer nameBuffer = buffer.duplicate();
+			nameBuffer.position(pos + 46);
+			nameBuffer.get(name);
+			
+			// values that don't fit are in the ZIP64 extra field, in this order
+			int extra = pos + 46 + nameLength;
+			for(int e = extra; e + 4 <= extra + extraLength
+					&& (size == 0xFFFFFFFFL || compressedSize == 0xFFFFFFFFL || header == 0xFFFFFFFFL);) {
+				int id = buffer.getShort(e) & 0xFFFF;
+				int end64 = e + 4 + (buffer.getShort(e + 2) & 0xFFFF);
+				if(id == 0x0001) {
+					int value = e + 4;
+					if(size == 0xFFFFFFFFL && value + 8 <= end64) {
+						size = buffer.getLong(value);
+						value += 8;
+					}
+					if(compressedSize == 0xFFFFFFFFL && value + 8 <= end64) {
+						compressedSize = buffer.getLong(value);
+						value += 8;
+					}
+					if(header == 0xFFFFFFFFL && value + 8 <= end64) {
+						header = buffer.getLong(value);
+					}
+					break;
+				}
+				e = end64;
+			}
+			
+			// encrypted parts are left out
+			if((flags & 1) == 0 && compressedSize != 0xFFFFFFFFL && size != 0xFFFFFFFFL
+					&& header >= 0 && header + 30 <= buffer.capacity()
+					&& buffer.getInt((int) header) == 0x04034b50) {
+				int localNameLength = buffer.getShort((int) header + 26) & 0xFFFF;
+				int localExtraLength = buffer.getShort((int) header + 28) & 0xFFFF;
+				rawParts.put(new String(name, Charset.forName("UTF-8")),
+						new RawPart(header + 30 + localNameLength + localExtraLength, method, crc,
+								compressedSize, size));
+			}
+			pos += 46 + nameLength + extraLength + commentLength;
+		}
+		return rawParts;
 	}
 	
 	public void read() throws IOException, ParserConfigurationException, SAXException {
@@ -183,8 +441,110 @@ public class OPCReader implements Closeable, AutoCloseable{
 		readContent();
 	}
 	
+	/**
+	 * Closes the archive. Buffers returned by {@link #getPartBuffer(String)}
+	 * stay readable, the mapping is released when they are collected.
+	 */
 	@Override
 	public void close() throws IOException {
-		zip.close();
+		closed = true;
+		archive = null;
+		rawParts = null;
+		try {
+			if(channel != null) {
+				channel.close();
+				channel = null;
+			}
+		} finally {
+			zip.close();
+		}
+	}
+	
+	/**
+	 * Location and compression of the data of a part within the archive
+	 */
+	static class RawPart {
+		final long offset;
+		final int method;
+		final long crc;
+		final long compressedSize;
+		final long size;
+		
+		public RawPart(long offset, int method, long crc, long compressedSize, long size) {
+			this.offset = offset;
+			this.method = method;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+		}
+	}
+	
+	/**
+	 * Map view of the parts that opens a part when its value is requested
+	 */
+	private class PartMap extends AbstractMap<String, InputStream> {
+		@Override
+		public boolean containsKey(Object key) {
+			return key instanceof String && zip.getEntry((String) key) != null;
+		}
+		
+		@Override
+		public InputStream get(Object key) {
+			if(!(key instanceof String)) {
+				return null;
+			}
+			try {
+				return openPart((String) key);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		@Override
+		public Set<Entry<String, InputStream>> entrySet() {
+			return new AbstractSet<Entry<String, InputStream>>() {
+				@Override
+				public Iterator<Entry<String, InputStream>> iterator() {
+					final Iterator<String> names = partNames.iterator();
+					return new Iterator<Entry<String, InputStream>>() {
+						@Override
+						public boolean hasNext() {
+							return names.hasNext();
+						}
+						
+						@Override
+						public Entry<String, InputStream> next() {
+							final String name = names.next();
+							return new SimpleImmutableEntry<String, InputStream>(name, null) {
+								@Override
+								public InputStream getValue() {
+									return get(name);
+								}
+								
+								@Override
+								public String toString() {
+									return name;
+								}
+							};
+						}
+						
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+				
+				@Override
+				public int size() {
+					return partNames.size();
+				}
+			};
+		}
+		
+		@Override
+		public String toString() {
+			return partNames.toString();
+		}
 	}
 }
@@ -1,18 +1,28 @@
 package de.tu_berlin.pes.memo.parser.slx.opc;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
+import java.io.FileNotFoundException;
 import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -43,10 +53,16 @@ public class OPCWriter implements Closeable, Flushable, AutoCloseable{
 	private List<Relationship> relationships;
 	private Map<String, List<Relationship>> partRelationships;
 	
-	private Map<String,InputStream> content;
+	// parts in the order they were added, either an InputStream, a PartWriter
+	// or the OPCReader to copy the part from
+	private Map<String,Object> content;
 	private Map<String, String> coreProperties;
 	
-	private ZipOutputStream zip;
+	private OutputStream out;
+	private ZipArchiveWriter zip;
+	
+	// number of threads compressing the parts given as InputStream
+	private int threads = Runtime.getRuntime().availableProcessors();
 
 	
 	public OPCWriter(OutputStream out) {
@@ -54,8 +70,17 @@ public class OPCWriter implements Closeable, Flushable, AutoCloseable{
 		relationships = new ArrayList<Relationship>();
 		partRelationships = new HashMap<String, List<Relationship>>();
 		coreProperties = new HashMap<String, String>();
-		content = new HashMap<String, InputStream>();
-		zip = new ZipOutputStream(out);
+		content = new LinkedHashMap<String, Object>();
+		this.out = new BufferedOutputStream(out, 1 << 16);
+		zip = new ZipArchiveWriter(this.out);
+	}
+	
+	/**
+	 * Sets the number of threads compressing the parts given as InputStream.
+	 * The parts are written in the order they were added regardless.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
 	}
 	
 	public void addDefaultType(String contentType, String extension) {
@@ -87,6 +112,26 @@ public class OPCWriter implements Closeable, Flushable, AutoCloseable{
 		content.put(name, in);
 	}
 	
+	/**
+	 * Adds a part that is written by the given writer straight into its zip
+	 * entry when the package is written.
+	 */
+	public void addContent(String name, PartWriter writer) {
+		content.put(name, writer);
+	}
+	
+	/**
+	 * Adds a part that is copied unchanged from the given package. Its data
+	 * is copied as stored, without inflating and deflating it again.
+	 */
+	public void addRawContent(String name, OPCReader source) {
+		content.put(name, source);
+	}
+	
+	private boolean hasContent(String name) {
+		return content.containsKey(name);
+	}
+	
 	private String createContentTypesXML() throws ParserConfigurationException, TransformerException {
 		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
 		DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
@@ -169,38 +214,111 @@ public class OPCWriter implements Closeable, Flushable, AutoCloseable{
 		return w.toString();
 	}
 	
-	private void writeMetadata() throws IOException, ParserConfigurationException, TransformerException {
-		if(!this.content.containsKey("[Content_Types].xml")) {
-			zip.putNextEntry(new ZipEntry("[Content_Types].xml"));
-			zip.write(createContentTypesXML().getBytes("UTF-8"));
+	private void writeMetadata(Map<String, Object> parts) throws IOException, ParserConfigurationException, TransformerException {
+		if(!hasContent("[Content_Types].xml")) {
+			parts.put("[Content_Types].xml", new ByteArrayInputStream(createContentTypesXML().getBytes("UTF-8")));
 		}
-		if(relationships.size() > 0 && !this.content.containsKey("_rels/.rels")) {
-			zip.putNextEntry(new ZipEntry("_rels/.rels"));
-			zip.write(createRelsXML().getBytes("UTF-8"));
+		if(relationships.size() > 0 && !hasContent("_rels/.rels")) {
+			parts.put("_rels/.rels", new ByteArrayInputStream(createRelsXML().getBytes("UTF-8")));
 		}
 		//TODO
 	}
 	
+	/**
+	 * Writes all parts in order. The parts given as InputStream are deflated
+	 * in parallel ahead of the part being written, at most one per thread,
+	 * so only that many deflated parts are kept in memory. Raw parts are
+	 * copied as they are stored.
+	 */
+	private void writeContent(Map<String, Object> parts) throws IOException {
+		ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		try {
+			List<Map.Entry<String, Object>> ordered = new ArrayList<Map.Entry<String, Object>>(parts.entrySet());
+			// parts being deflated that are not written yet
+			Map<String, Future<ZipArchiveWriter.Deflated>> deflated = new HashMap<String, Future<ZipArchiveWriter.Deflated>>();
+			int next = 0;
+			for(Map.Entry<String, Object> part : ordered) {
+				while(next < ordered.size() && deflated.size() < Math.max(threads, 1)) {
+					Map.Entry<String, Object> ahead = ordered.get(next++);
+					if(ahead.getValue() instanceof InputStream) {
+						deflated.put(ahead.getKey(), deflate(executor, (InputStream) ahead.getValue()));
+					}
+				}
+				String name = part.getKey();
+				if(part.getValue() instanceof InputStream) {
+					zip.writeDeflated(name, get(deflated.remove(name)));
+				} else if(part.getValue() instanceof PartWriter) {
+					OutputStream entry = zip.openEntry(name);
+					try {
+						((PartWriter) part.getValue()).write(entry);
+					} finally {
+						entry.close();
+					}
+				} else {
+					writeRaw(name, (OPCReader) part.getValue());
+				}
+			}
+		} finally {
+			if(executor != null) {
+				executor.shutdownNow();
+			}
+		}
+	}
+	
+	private void writeRaw(String name, OPCReader source) throws IOException {
+		OPCReader.RawPart part = source.getRawPart(name);
+		if(part != null && (part.method == ZipEntry.STORED || part.method == ZipEntry.DEFLATED)) {
+			zip.writeRaw(name, part.method, part.crc, part.size, source.getRawData(part));
+			return;
+		}
+		// not located in the archive, copy the inflated content
+		InputStream in = source.openPart(name);
+		if(in == null) {
+			throw new FileNotFoundException(name);
+		}
+		zip.writeDeflated(name, ZipArchiveWriter.deflate(in));
+	}
 	
-	private void writeContent() throws IOException {
-		for(String name : content.keySet()) {
-			zip.putNextEntry(new ZipEntry(name));
-			InputStream in = content.get(name);
-			for(int i=in.read();i!=-1;i = in.read()) {
-				zip.write(i);
+	private static Future<ZipArchiveWriter.Deflated> deflate(ExecutorService executor, final InputStream in) {
+		Callable<ZipArchiveWriter.Deflated> task = new Callable<ZipArchiveWriter.Deflated>() {
+			@Override
+			public ZipArchiveWriter.Deflated call() throws Exception {
+				return ZipArchiveWriter.deflate(in);
+			}
+		};
+		if(executor != null) {
+			return executor.submit(task);
+		}
+		FutureTask<ZipArchiveWriter.Deflated> future = new FutureTask<ZipArchiveWriter.Deflated>(task);
+		future.run();
+		return future;
+	}
+	
+	private static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
 			}
-			zip.closeEntry();
+			throw new IOException(e.getCause());
 		}
 	}
 	
 	private void write() throws IOException, ParserConfigurationException, TransformerException {
-		writeMetadata();
-		writeContent();
+		Map<String, Object> parts = new LinkedHashMap<String, Object>();
+		writeMetadata(parts);
+		parts.putAll(content);
+		writeContent(parts);
+		zip.finish();
 	}
 	
 	@Override
 	public void flush() throws IOException {
-		zip.flush();
+		out.flush();
 	}
 	
 	@Override
@@ -213,7 +331,8 @@ public class OPCWriter implements Closeable, Flushable, AutoCloseable{
 		} catch (TransformerException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+		} finally {
+			out.close();
 		}
-		zip.close();
 	}
 }
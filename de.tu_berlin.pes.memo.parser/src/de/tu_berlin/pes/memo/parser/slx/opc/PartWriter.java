@@ -0,0 +1,19 @@
+package de.tu_berlin.pes.memo.parser.slx.opc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the content of a package part directly into its zip entry, so the
+ * content does not have to be kept in memory until the package is written.
+ */
+public interface PartWriter {
+
+	/**
+	 * Writes the part. The stream must not be closed.
+	 *
+	 * @param out
+	 *           - the zip entry of the part
+	 */
+	void write(OutputStream out) throws IOException;
+}
@@ -0,0 +1,342 @@
+package de.tu_berlin.pes.memo.parser.slx.opc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a zip archive entry by entry. Unlike {@link java.util.zip.ZipOutputStream}
+ * an entry can also be written from data that is already compressed, either
+ * deflated beforehand (see {@link #deflate(InputStream)}, e.g. in another
+ * thread) or copied unchanged from another archive. Entries and archives
+ * beyond the limits of the zip format (4 GB, 65535 entries) are written with
+ * the ZIP64 extensions.
+ */
+class ZipArchiveWriter {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// general purpose flags: sizes and crc follow the data, UTF-8 names
+	private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+	private static final int FLAG_UTF8 = 0x800;
+
+	// values from version 4.5 of the zip format on use the ZIP64 extensions
+	private static final int VERSION = 20;
+	private static final int VERSION_ZIP64 = 45;
+
+	// a size or offset at least this large is stored in the ZIP64 extra field
+	private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+	private static final int ZIP64_EXTRA_ID = 0x0001;
+
+	private final OutputStream out;
+
+	// bytes written so far, the offset of the next local header
+	private long offset;
+
+	// entries for the central directory
+	private final List<Entry> entries = new ArrayList<Entry>();
+
+	// modification time of all entries in MS-DOS format
+	private final long dosTime;
+
+	public ZipArchiveWriter(OutputStream out) {
+		this.out = out;
+		Calendar c = Calendar.getInstance();
+		dosTime = (c.get(Calendar.YEAR) - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21
+				| c.get(Calendar.DAY_OF_MONTH) << 16 | c.get(Calendar.HOUR_OF_DAY) << 11
+				| c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+	}
+
+	/**
+	 * Deflates the given stream into memory. Can be called from any thread.
+	 * The stream is closed.
+	 */
+	public static Deflated deflate(InputStream in) throws IOException {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		CRC32 crc = new CRC32();
+		long size = 0;
+		try {
+			DeflaterOutputStream deflated = new DeflaterOutputStream(data, deflater);
+			byte[] buffer = new byte[8192];
+			for(int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+				deflated.write(buffer, 0, n);
+				crc.update(buffer, 0, n);
+				size += n;
+			}
+			deflated.finish();
+		} finally {
+			deflater.end();
+			in.close();
+		}
+		return new Deflated(data.toByteArray(), crc.getValue(), size);
+	}
+
+	/**
+	 * Writes an entry from data deflated by {@link #deflate(InputStream)}
+	 */
+	public void writeDeflated(String name, Deflated part) throws IOException {
+		Entry entry = new Entry(name, ZipEntry.DEFLATED, 0, part.crc, part.data.length, part.size);
+		writeLocalHeader(entry);
+		write(part.data, 0, part.data.length);
+	}
+
+	/**
+	 * Writes an entry from data as stored in another archive, it is copied
+	 * without inflating.
+	 *
+	 * @param data
+	 *           - the compressed data
+	 */
+	public void writeRaw(String name, int method, long crc, long size, ByteBuffer data)
+			throws IOException {
+		Entry entry = new Entry(name, method, 0, crc, data.remaining(), size);
+		writeLocalHeader(entry);
+		byte[] buffer = new byte[8192];
+		ByteBuffer source = data.duplicate();
+		while(source.hasRemaining()) {
+			int n = Math.min(buffer.length, source.remaining());
+			source.get(buffer, 0, n);
+			write(buffer, 0, n);
+		}
+	}
+
+	/**
+	 * Starts a deflated entry whose content is written into the returned
+	 * stream. Size and crc are written behind the data when the stream is
+	 * closed, which also finishes the entry. The underlying stream stays open.
+	 */
+	public OutputStream openEntry(String name) throws IOException {
+		final Entry entry = new Entry(name, ZipEntry.DEFLATED, FLAG_DATA_DESCRIPTOR, 0, 0, 0);
+		writeLocalHeader(entry);
+		final long start = offset;
+		final CRC32 crc = new CRC32();
+		final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		OutputStream counting = new FilterOutputStream(out) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				ZipArchiveWriter.this.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				// keep the archive open
+			}
+		};
+		return new DeflaterOutputStream(counting, deflater) {
+			private long size;
+			private boolean closed;
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				super.write(b, off, len);
+				crc.update(b, off, len);
+				size += len;
+			}
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void close() throws IOException {
+				if(closed) {
+					return;
+				}
+				closed = true;
+				finish();
+				deflater.end();
+				entry.crc = crc.getValue();
+				entry.compressedSize = offset - start;
+				entry.size = size;
+				// like ZipOutputStream, large sizes are written with 8 bytes
+				boolean zip64 = entry.compressedSize >= ZIP64_LIMIT || entry.size >= ZIP64_LIMIT;
+				ByteBuffer descriptor = buffer(zip64 ? 24 : 16);
+				descriptor.putInt(0x08074b50);
+				descriptor.putInt((int) entry.crc);
+				if(zip64) {
+					descriptor.putLong(entry.compressedSize);
+					descriptor.putLong(entry.size);
+				} else {
+					descriptor.putInt((int) entry.compressedSize);
+					descriptor.putInt((int) entry.size);
+				}
+				ZipArchiveWriter.this.write(descriptor.array(), 0, descriptor.capacity());
+			}
+		};
+	}
+
+	/**
+	 * Writes the central directory. The underlying stream is not closed.
+	 */
+	public void finish() throws IOException {
+		long directory = offset;
+		for(Entry entry : entries) {
+			byte[] name = entry.name.getBytes(UTF8);
+			// the values that do not fit into their field, in this order
+			List<Long> large = new ArrayList<Long>(3);
+			for(long value : new long[] { entry.size, entry.compressedSize, entry.offset }) {
+				if(value >= ZIP64_LIMIT) {
+					large.add(value);
+				}
+			}
+			int version = large.isEmpty() ? VERSION : VERSION_ZIP64;
+			ByteBuffer header = buffer(46);
+			header.putInt(0x02014b50);
+			header.putShort((short) version); // version made by
+			header.putShort((short) version); // version needed to extract
+			header.putShort((short) (entry.flags | FLAG_UTF8));
+			header.putShort((short) entry.method);
+			header.putInt((int) dosTime);
+			header.putInt((int) entry.crc);
+			header.putInt((int) Math.min(entry.compressedSize, ZIP64_LIMIT));
+			header.putInt((int) Math.min(entry.size, ZIP64_LIMIT));
+			header.putShort((short) name.length);
+			header.putShort((short) (large.isEmpty() ? 0 : 4 + 8 * large.size())); // extra field length
+			header.putShort((short) 0); // comment length
+			header.putShort((short) 0); // disk number
+			header.putShort((short) 0); // internal attributes
+			header.putInt(0); // external attributes
+			header.putInt((int) Math.min(entry.offset, ZIP64_LIMIT));
+			write(header.array(), 0, 46);
+			write(name, 0, name.length);
+			if(!large.isEmpty()) {
+				writeZip64Extra(large);
+			}
+		}
+		long directorySize = offset - directory;
+		if(entries.size() >= 0xFFFF || directorySize >= ZIP64_LIMIT || directory >= ZIP64_LIMIT) {
+			long record = offset;
+			ByteBuffer end64 = buffer(56);
+			end64.putInt(0x06064b50);
+			end64.putLong(44); // size of the rest of the record
+			end64.putShort((short) VERSION_ZIP64); // version made by
+			end64.putShort((short) VERSION_ZIP64); // version needed to extract
+			end64.putInt(0); // disk number
+			end64.putInt(0); // disk with the central directory
+			end64.putLong(entries.size());
+			end64.putLong(entries.size());
+			end64.putLong(directorySize);
+			end64.putLong(directory);
+			write(end64.array(), 0, 56);
+
+			ByteBuffer locator = buffer(20);
+			locator.putInt(0x07064b50);
+			locator.putInt(0); // disk with the ZIP64 end record
+			locator.putLong(record);
+			locator.putInt(1); // number of disks
+			write(locator.array(), 0, 20);
+		}
+		ByteBuffer end = buffer(22);
+		end.putInt(0x06054b50);
+		end.putShort((short) 0); // disk number
+		end.putShort((short) 0); // disk with the central directory
+		end.putShort((short) Math.min(entries.size(), 0xFFFF));
+		end.putShort((short) Math.min(entries.size(), 0xFFFF));
+		end.putInt((int) Math.min(directorySize, ZIP64_LIMIT));
+		end.putInt((int) Math.min(directory, ZIP64_LIMIT));
+		end.putShort((short) 0); // comment length
+		write(end.array(), 0, 22);
+		out.flush();
+	}
+
+	/**
+	 * Writes the local header. If a size is too large, both sizes are
+	 * written to the ZIP64 extra field. Entries with a data descriptor get
+	 * their sizes behind the data.
+	 */
+	private void writeLocalHeader(Entry entry) throws IOException {
+		entry.offset = offset;
+		entries.add(entry);
+		byte[] name = entry.name.getBytes(UTF8);
+		boolean zip64 = entry.compressedSize >= ZIP64_LIMIT || entry.size >= ZIP64_LIMIT;
+		ByteBuffer header = buffer(30);
+		header.putInt(0x04034b50);
+		header.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION)); // version needed to extract
+		header.putShort((short) (entry.flags | FLAG_UTF8));
+		header.putShort((short) entry.method);
+		header.putInt((int) dosTime);
+		header.putInt((int) entry.crc);
+		header.putInt((int) (zip64 ? ZIP64_LIMIT : entry.compressedSize));
+		header.putInt((int) (zip64 ? ZIP64_LIMIT : entry.size));
+		header.putShort((short) name.length);
+		header.putShort((short) (zip64 ? 20 : 0)); // extra field length
+		write(header.array(), 0, 30);
+		write(name, 0, name.length);
+		if(zip64) {
+			List<Long> sizes = new ArrayList<Long>(2);
+			sizes.add(entry.size);
+			sizes.add(entry.compressedSize);
+			writeZip64Extra(sizes);
+		}
+	}
+
+	private void writeZip64Extra(List<Long> values) throws IOException {
+		ByteBuffer extra = buffer(4 + 8 * values.size());
+		extra.putShort((short) ZIP64_EXTRA_ID);
+		extra.putShort((short) (8 * values.size()));
+		for(long value : values) {
+			extra.putLong(value);
+		}
+		write(extra.array(), 0, extra.capacity());
+	}
+
+	private void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		offset += len;
+	}
+
+	private static ByteBuffer buffer(int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Data of an entry, deflated in memory
+	 */
+	public static class Deflated {
+		private final byte[] data;
+		private final long crc;
+		private final long size;
+
+		public Deflated(byte[] data, long crc, long size) {
+			this.data = data;
+			this.crc = crc;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * An entry of the central directory
+	 */
+	private static class Entry {
+		private final String name;
+		private final int method;
+		private final int flags;
+		private long crc;
+		private long compressedSize;
+		private long size;
+		private long offset;
+
+		public Entry(String name, int method, int flags, long crc, long compressedSize, long size) {
+			this.name = name;
+			this.method = method;
+			this.flags = flags;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package de.tu_berlin.pes.memo.parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import java_cup.runtime.Symbol;
+
+import org.conqat.lib.simulink.builder.MDLParallelParser;
+import org.conqat.lib.simulink.builder.MDLParser;
+import org.conqat.lib.simulink.builder.MDLScanner;
+import org.conqat.lib.simulink.builder.SymbolConstants;
+
+/**
+ * Compares the throughput of the stream based {@link MDLScanner} input with
+ * the memory-mapped input and the {@link MDLParallelParser} for a given
+ * *.mdl-File. Run with the path of a
+ * (large) model as first argument and optionally the number of rounds as
+ * second argument.
+ */
+public class MDLScannerBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		File file = new File(args[0]);
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		double mb = file.length() / (1024.0 * 1024.0);
+
+		System.out.println("File: " + file + " (" + String.format("%.1f", mb) + " MB)");
+
+		// warm up both paths once
+		scanStream(file);
+		scanMapped(file);
+
+		for (int i = 0; i < rounds; i++) {
+			System.gc();
+			long start = System.nanoTime();
+			int tokens = scanStream(file);
+			report("stream   scan ", start, tokens, mb);
+
+			System.gc();
+			start = System.nanoTime();
+			tokens = scanMapped(file);
+			report("mapped   scan ", start, tokens, mb);
+		}
+
+		for (int i = 0; i < rounds; i++) {
+			System.gc();
+			long start = System.nanoTime();
+			FileInputStream in = new FileInputStream(file);
+			try {
+				new MDLParser(new MDLScanner(in)).parse();
+			} finally {
+				in.close();
+			}
+			report("stream   parse", start, -1, mb);
+
+			System.gc();
+			start = System.nanoTime();
+			in = new FileInputStream(file);
+			try {
+				new MDLParser(new MDLScanner(in.getChannel())).parse();
+			} finally {
+				in.close();
+			}
+			report("mapped   parse", start, -1, mb);
+
+			System.gc();
+			start = System.nanoTime();
+			in = new FileInputStream(file);
+			try {
+				new MDLParallelParser(in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+						file.length()), Charset.defaultCharset()).parse();
+			} finally {
+				in.close();
+			}
+			report("parallel parse", start, -1, mb);
+		}
+	}
+
+	private static int scanStream(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return countTokens(new MDLScanner(in));
+		} finally {
+			in.close();
+		}
+	}
+
+	private static int scanMapped(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return countTokens(new MDLScanner(in.getChannel()));
+		} finally {
+			in.close();
+		}
+	}
+
+	private static int countTokens(MDLScanner scanner) throws IOException {
+		int count = 0;
+		Symbol symbol = scanner.next_token();
+		while (symbol.sym != SymbolConstants.EOF) {
+			count++;
+			symbol = scanner.next_token();
+		}
+		return count;
+	}
+
+	private static void report(String label, long start, int tokens, double mb) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(label + ": " + String.format("%.3f", seconds) + " s, "
+				+ String.format("%.1f", mb / seconds) + " MB/s"
+				+ (tokens >= 0 ? ", " + tokens + " tokens" : ""));
+	}
+}
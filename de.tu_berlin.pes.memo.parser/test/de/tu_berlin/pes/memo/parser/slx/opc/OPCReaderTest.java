@@ -0,0 +1,157 @@
+package de.tu_berlin.pes.memo.parser.slx.opc;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Reads archives written by the {@link ZipArchiveWriter} with the
+ * {@link OPCReader}: the raw data of STORED and deflated parts, their
+ * buffers and streams, an archive with the ZIP64 end of central directory
+ * and a closed reader. Run as a Java application, the exit code is the
+ * number of failed checks.
+ */
+public class OPCReaderTest {
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		File file = File.createTempFile("opcreader", ".zip");
+		try {
+			byte[] stored = content("stored", 100);
+			byte[] deflated = content("deflated", 1000);
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+			ZipArchiveWriter writer = new ZipArchiveWriter(out);
+			writer.writeRaw("stored.bin", ZipEntry.STORED, crc(stored), stored.length,
+					ByteBuffer.wrap(stored));
+			writer.writeDeflated("dir/deflated.xml",
+					ZipArchiveWriter.deflate(new ByteArrayInputStream(deflated)));
+			writer.finish();
+			out.close();
+
+			OPCReader reader = new OPCReader(file);
+			try {
+				checkPart(reader, "stored.bin", ZipEntry.STORED, stored);
+				checkPart(reader, "dir/deflated.xml", ZipEntry.DEFLATED, deflated);
+				check(reader.getRawPart("missing") == null, "raw part of a missing part");
+				check(reader.getPartBuffer("missing") == null, "buffer of a missing part");
+				check(reader.getContent().get("missing") == null, "stream of a missing part");
+			} finally {
+				reader.close();
+			}
+			try {
+				reader.getRawPart("stored.bin");
+				check(false, "raw part of a closed reader");
+			} catch (IOException e) {
+				// expected
+			}
+			reader.close();
+
+			// more than 65535 entries need the ZIP64 end of central directory
+			out = new BufferedOutputStream(new FileOutputStream(file));
+			writer = new ZipArchiveWriter(out);
+			for (int i = 0; i < 70000; i++) {
+				byte[] data = ("entry " + i).getBytes("UTF-8");
+				writer.writeDeflated("e" + i, ZipArchiveWriter.deflate(new ByteArrayInputStream(data)));
+			}
+			writer.writeRaw("last.bin", ZipEntry.STORED, crc(stored), stored.length,
+					ByteBuffer.wrap(stored));
+			writer.finish();
+			out.close();
+
+			reader = new OPCReader(file);
+			try {
+				checkPart(reader, "e0", ZipEntry.DEFLATED, "entry 0".getBytes("UTF-8"));
+				checkPart(reader, "e69999", ZipEntry.DEFLATED, "entry 69999".getBytes("UTF-8"));
+				checkPart(reader, "last.bin", ZipEntry.STORED, stored);
+			} finally {
+				reader.close();
+			}
+		} finally {
+			file.delete();
+		}
+
+		System.out.println(failures == 0 ? "OK" : failures + " checks failed");
+		System.exit(failures);
+	}
+
+	private static void checkPart(OPCReader reader, String name, int method, byte[] expected)
+			throws IOException, DataFormatException {
+		OPCReader.RawPart part = reader.getRawPart(name);
+		if (part == null) {
+			check(false, "raw part " + name);
+		} else {
+			check(part.method == method, "method of " + name);
+			check(part.size == expected.length, "size of " + name);
+			check(part.crc == crc(expected), "crc of " + name);
+			byte[] raw = bytes(reader.getRawData(part));
+			check(raw.length == part.compressedSize, "raw size of " + name);
+			check(Arrays.equals(method == ZipEntry.STORED ? raw : inflate(raw, expected.length),
+					expected), "raw data of " + name);
+		}
+		check(Arrays.equals(bytes(reader.getPartBuffer(name)), expected), "buffer of " + name);
+		InputStream in = reader.getContent().get(name);
+		try {
+			check(Arrays.equals(read(in), expected), "stream of " + name);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] content(String text, int repeat) throws IOException {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < repeat; i++) {
+			s.append(text).append(' ').append(i).append('\n');
+		}
+		return s.toString().getBytes("UTF-8");
+	}
+
+	private static long crc(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return crc.getValue();
+	}
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		byte[] result = new byte[buffer.remaining()];
+		buffer.duplicate().get(result);
+		return result;
+	}
+
+	// raw inflate as stored in a zip archive
+	private static byte[] inflate(byte[] data, int size) throws DataFormatException {
+		Inflater inflater = new Inflater(true);
+		inflater.setInput(data);
+		byte[] result = new byte[size];
+		int n = inflater.inflate(result);
+		inflater.end();
+		return n == size ? result : Arrays.copyOf(result, n);
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			failures++;
+			System.out.println("FAILED: " + message);
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package de.tu_berlin.pes.memo.parser.slx.opc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Writes archives with the {@link ZipArchiveWriter} and reads them back with
+ * {@link ZipFile}, which reads the central directory, and with
+ * {@link ZipInputStream}, which reads the local headers. Covers all kinds of
+ * entries and an archive with more entries than the zip format allows
+ * without the ZIP64 extensions. Run as a Java application, the exit code is
+ * the number of failed checks.
+ */
+public class ZipArchiveWriterTest {
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException {
+		Map<String, byte[]> expected = new HashMap<String, byte[]>();
+		File file = File.createTempFile("zipwriter", ".zip");
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+			ZipArchiveWriter writer = new ZipArchiveWriter(out);
+
+			byte[] text = content("deflated beforehand", 1000);
+			writer.writeDeflated("deflated.xml", ZipArchiveWriter.deflate(new ByteArrayInputStream(text)));
+			expected.put("deflated.xml", text);
+
+			byte[] empty = new byte[0];
+			writer.writeDeflated("empty.xml", ZipArchiveWriter.deflate(new ByteArrayInputStream(empty)));
+			expected.put("empty.xml", empty);
+
+			byte[] stored = content("stored", 100);
+			writer.writeRaw("stored.bin", ZipEntry.STORED, crc(stored), stored.length,
+					ByteBuffer.wrap(stored));
+			expected.put("stored.bin", stored);
+
+			byte[] copied = content("copied from another archive", 500);
+			writer.writeRaw("copied.xml", ZipEntry.DEFLATED, crc(copied), copied.length,
+					ByteBuffer.wrap(deflate(copied)));
+			expected.put("copied.xml", copied);
+
+			byte[] streamed = content("streamed", 20000);
+			OutputStream entry = writer.openEntry("dir/streamed.xml");
+			entry.write(streamed, 0, 10);
+			entry.write(streamed[10]);
+			entry.write(streamed, 11, streamed.length - 11);
+			entry.close();
+			entry.close();
+			expected.put("dir/streamed.xml", streamed);
+
+			byte[] umlaut = content("\u00e4", 3);
+			writer.writeDeflated("\u00fcber.xml", ZipArchiveWriter.deflate(new ByteArrayInputStream(umlaut)));
+			expected.put("\u00fcber.xml", umlaut);
+
+			writer.finish();
+			out.close();
+			checkArchive(file, expected);
+
+			// more than 65535 entries need the ZIP64 end of central directory
+			expected.clear();
+			out = new BufferedOutputStream(new FileOutputStream(file));
+			writer = new ZipArchiveWriter(out);
+			for (int i = 0; i < 70000; i++) {
+				byte[] data = ("entry " + i).getBytes("UTF-8");
+				writer.writeDeflated("e" + i, ZipArchiveWriter.deflate(new ByteArrayInputStream(data)));
+				expected.put("e" + i, data);
+			}
+			writer.finish();
+			out.close();
+			checkArchive(file, expected);
+		} finally {
+			file.delete();
+		}
+
+		System.out.println(failures == 0 ? "OK" : failures + " checks failed");
+		System.exit(failures);
+	}
+
+	private static void checkArchive(File file, Map<String, byte[]> expected) throws IOException {
+		ZipFile zip = new ZipFile(file);
+		try {
+			check(zip.size() == expected.size(), "number of entries " + zip.size());
+			for (Map.Entry<String, byte[]> e : expected.entrySet()) {
+				ZipEntry entry = zip.getEntry(e.getKey());
+				if (entry == null) {
+					check(false, "missing entry " + e.getKey());
+					continue;
+				}
+				check(entry.getSize() == e.getValue().length, "size of " + e.getKey());
+				check(entry.getCrc() == crc(e.getValue()), "crc of " + e.getKey());
+				check(Arrays.equals(read(zip.getInputStream(entry)), e.getValue()), "content of "
+						+ e.getKey());
+			}
+		} finally {
+			zip.close();
+		}
+
+		ZipInputStream in = new ZipInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			int count = 0;
+			for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+				count++;
+				byte[] content = expected.get(entry.getName());
+				check((content != null) && Arrays.equals(read(in), content), "streamed content of "
+						+ entry.getName());
+			}
+			check(count == expected.size(), "number of streamed entries " + count);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] content(String text, int repeat) throws IOException {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < repeat; i++) {
+			s.append(text).append(' ').append(i).append('\n');
+		}
+		return s.toString().getBytes("UTF-8");
+	}
+
+	private static long crc(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return crc.getValue();
+	}
+
+	// raw deflate as stored in a zip archive
+	private static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+		deflater.setInput(data);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		while (!deflater.finished()) {
+			out.write(buffer, 0, deflater.deflate(buffer));
+		}
+		deflater.end();
+		return out.toByteArray();
+	}
+
+	// reads the rest of the stream without closing it
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			failures++;
+			System.out.println("FAILED: " + message);
+		}
+	}
+}
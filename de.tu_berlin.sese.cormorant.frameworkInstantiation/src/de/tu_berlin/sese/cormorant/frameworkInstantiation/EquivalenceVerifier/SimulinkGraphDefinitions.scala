@@ -571,13 +571,13 @@ object SimulinkGraph {
 
   private def block2Vertex(b: Block, i: Int): SimulinkVertex = b.getType match {
     case "Inport" => new VariableInputVertex(i, Some(b))
-    case "Constant" => new InstantiatedInputVertex(i, CONST, List(b.getParameter("Value").toDouble), Some(b))
+    case "Constant" => new InstantiatedInputVertex(i, CONST, List(b.getDoubleParameter("Value")), Some(b))
     case "Sin" => new InstantiatedInputVertex(i, SIN, List(), Some(b))
     case "Reference" => b.getParameter("SourceType") match {
       case "Ramp" => new InstantiatedInputVertex(i, RAMP, List(), Some(b))
       case _ => new UndefinedSimulinkVertex(i, Some(b))
     }
-    case "Bias" => new ArithmeticVertex(i, ADD, List(b.getParameter("Bias").toDouble), "", Some(b))
+    case "Bias" => new ArithmeticVertex(i, ADD, List(b.getDoubleParameter("Bias")), "", Some(b))
     case "Sum" => new ArithmeticVertex(i, ADD, Nil, b.getParameter("Inputs"), Some(b))
     case "Math" => b.getParameter("Operator") match {
       case "exp" => new ArithmeticVertex(i, EXP, Nil, "", Some(b))
@@ -587,20 +587,20 @@ object SimulinkGraph {
     case "Product" if b.getParameter("Inputs").charAt(0) == "*" || b.getParameter("Inputs").charAt(0) == "/" => new ArithmeticVertex(i, MULT, Nil, b.getParameter("Inputs"), Some(b))
     case "Product" => new ArithmeticVertex(i, MULT, Nil, "**", Some(b))
     case "Sqrt" => new ArithmeticVertex(i, SQRT, Nil, "", Some(b))
-    case "Gain" => new ArithmeticVertex(i, MULT, List(b.getParameter("Gain").toDouble), "**", Some(b))
+    case "Gain" => new ArithmeticVertex(i, MULT, List(b.getDoubleParameter("Gain")), "**", Some(b))
     case "Trigonometry" => b.getParameter("Operator") match {
       case "sin" => new ArithmeticVertex(i, SIN, Nil, "", Some(b))
       case "cos" => new ArithmeticVertex(i, COS, Nil, "", Some(b))
     }
     case "Abs" => new ArithmeticVertex(i, ABS, Nil, "", Some(b))
-    case "UnitDelay" => new DelayVertex(i, b.getParameter("InitialCondition").toDouble, 1, b.getParameter("SampleTime").toDouble, Some(b))
-    case "Memory" => new DelayVertex(i, b.getParameter("InitialCondition").toDouble, 1, b.getParameter("SampleTime").toDouble, Some(b))
-    case "Delay" => new DelayVertex(i, b.getParameter("InitialCondition").toDouble, b.getParameter("DelayLength").toInt, b.getParameter("SampleTime").toDouble, Some(b))
-    case "Integrator" => new IntegratorVertex(i, b.getParameter("InitialCondition").toDouble, Some(b))
-    case "TransferFcn" => new TransferFunctionVertex(i, b.getParameter("Numerator").replaceAll("\\[", "").replaceAll("\\]", "").replaceAll(",", " ").split(" ").toList.filter(!_.isEmpty()).map { x => x.toDouble }, b.getParameter("Denominator").replaceAll("\\[", "").replaceAll("\\]", "").replaceAll(",", " ").split(" ").toList.filter(!_.isEmpty()).map { x => x.toDouble }, Some(b))
+    case "UnitDelay" => new DelayVertex(i, b.getDoubleParameter("InitialCondition"), 1, b.getDoubleParameter("SampleTime"), Some(b))
+    case "Memory" => new DelayVertex(i, b.getDoubleParameter("InitialCondition"), 1, b.getDoubleParameter("SampleTime"), Some(b))
+    case "Delay" => new DelayVertex(i, b.getDoubleParameter("InitialCondition"), b.getIntParameter("DelayLength"), b.getDoubleParameter("SampleTime"), Some(b))
+    case "Integrator" => new IntegratorVertex(i, b.getDoubleParameter("InitialCondition"), Some(b))
+    case "TransferFcn" => new TransferFunctionVertex(i, b.getDoubleArrayParameter("Numerator").toList, b.getDoubleArrayParameter("Denominator").toList, Some(b))
     case "Scope" => new RegularOutputVertex(i, Some(b))
     case "Outport" => new RegularOutputVertex(i, Some(b))
-    case "Switch" => new SwitchVertex(i, b.getParameter("Threshold").toDouble, Some(b))
+    case "Switch" => new SwitchVertex(i, b.getDoubleParameter("Threshold"), Some(b))
     case "SubSystem" => new SubSystemVertex(i, Some(b))
     case _ => new UndefinedSimulinkVertex(i, Some(b))
   }